@@ -0,0 +1,74 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.susx.tag.classificationframework.algorithms.patternmatching.ahocorasick.AhoCorasickMatcher;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AhoCorasickMatcher.parse(), per document, matching single words and two-word phrases of the label-indicative
+ * words of the synthetic corpus against tokenised documents.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AhoCorasickBenchmark {
+
+    private static final int DOCUMENTS = 1000;
+    private static final int PHRASES = 500;
+
+    private AhoCorasickMatcher<String> matcher;
+    private List<List<String>> documents;
+
+    @Setup
+    public void setUp() {
+        SyntheticTweetCorpus corpus = new SyntheticTweetCorpus(Corpus.SEED, Corpus.VOCABULARY_SIZE);
+        String[] vocabulary = corpus.vocabulary();
+        Random random = new Random(Corpus.SEED);
+
+        AhoCorasickMatcher.Builder<String> builder = AhoCorasickMatcher.builder();
+        for (int label = 0; label < SyntheticTweetCorpus.LABELS.length; label++) {
+            for (String word : corpus.labelWords(label)) {
+                builder.addPattern(ImmutableList.of(word));
+                builder.addPattern(ImmutableList.of(word, vocabulary[random.nextInt(100)]));
+            }
+        }
+        for (int i = 0; i < PHRASES; i++)
+            builder.addPattern(ImmutableList.of(vocabulary[random.nextInt(1000)], vocabulary[random.nextInt(1000)]));
+        matcher = builder.build();
+
+        TokeniserTwitterBasic tokeniser = new TokeniserTwitterBasic(true, true);
+        documents = new ArrayList<>();
+        for (Instance document : corpus.documents(DOCUMENTS)) {
+            List<String> tokens = new ArrayList<>();
+            tokeniser.tokenise(document).forEach(token -> tokens.add(token.get("form")));
+            documents.add(tokens);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void parse(Blackhole blackhole) {
+        for (List<String> document : documents) blackhole.consume(matcher.parse(document));
+    }
+}
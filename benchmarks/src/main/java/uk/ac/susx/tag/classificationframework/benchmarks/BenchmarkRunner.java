@@ -0,0 +1,42 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Runs the benchmarks with JMH's usual command line options, and with the GC profiler always on so that
+ * allocation rates (gc.alloc.rate.norm: bytes allocated per operation) are reported alongside the timings.
+ *
+ * Usage:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar                       (all benchmarks)
+ *   java -jar benchmarks/target/benchmarks.jar Prediction            (those matching a regex)
+ *   java -jar benchmarks/target/benchmarks.jar -rf json -rff out.json (results as JSON)
+ *   java -jar benchmarks/target/benchmarks.jar -h                    (all options)
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+                || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!hasGCProfiler(commandLine)) options.addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+    }
+
+    private static boolean hasGCProfiler(CommandLineOptions commandLine) {
+        for (ProfilerConfig profiler : commandLine.getProfilers())
+            if (profiler.getKlass().equals("gc") || profiler.getKlass().equals(GCProfiler.class.getName()))
+                return true;
+        return false;
+    }
+}
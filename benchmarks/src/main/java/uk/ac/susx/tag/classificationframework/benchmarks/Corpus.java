@@ -0,0 +1,46 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import uk.ac.susx.tag.classificationframework.Util;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.util.List;
+
+/**
+ * The synthetic corpus put through the basic pipeline (see Util.buildBasicPipeline()), for the benchmarks
+ * which need features rather than text.
+ */
+class Corpus {
+
+    static final long SEED = 42;
+    static final int VOCABULARY_SIZE = 20000;
+
+    final FeatureExtractionPipeline pipeline;
+    final List<Instance> labelledDocuments;
+    final List<Instance> unlabelledDocuments;
+    final List<ProcessedInstance> labelled;
+    final List<ProcessedInstance> unlabelled;
+    final IntSet labels;
+
+    Corpus(int numLabelled, int numUnlabelled) {
+        SyntheticTweetCorpus corpus = new SyntheticTweetCorpus(SEED, VOCABULARY_SIZE);
+        pipeline = Util.buildBasicPipeline(true, true);
+        pipeline.getMetrics().setEnabled(false);
+        labelledDocuments = corpus.documents(numLabelled);
+        unlabelledDocuments = corpus.unlabelledDocuments(numUnlabelled);
+        labelled = pipeline.extractFeaturesFromBatch(labelledDocuments);
+        unlabelled = pipeline.extractFeaturesFromBatch(unlabelledDocuments);
+        labels = new IntOpenHashSet();
+        for (String label : SyntheticTweetCorpus.LABELS) labels.add(pipeline.labelIndex(label));
+    }
+
+    /**
+     * @return the index of *feature*, or -1 if it never occurred.
+     */
+    int featureIndex(String feature) {
+        return pipeline.getFeatureIndexer().getIndex(feature, false);
+    }
+}
@@ -0,0 +1,65 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.susx.tag.classificationframework.Util;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FeatureExtractionPipeline.extractFeaturesFromBatch() on the basic pipeline (see Util.buildBasicPipeline()),
+ * per document. The pipeline is built once, so after the first iteration the features are already indexed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    private static final int DOCUMENTS = 1000;
+
+    @Param({"false", "true"})
+    public boolean fusedBatchExecution;
+
+    @Param({"true"})
+    public boolean metrics;
+
+    private FeatureExtractionPipeline pipeline;
+    private List<Instance> documents;
+
+    @Setup
+    public void setUp() {
+        pipeline = Util.buildBasicPipeline(true, true);
+        pipeline.setFusedBatchExecution(fusedBatchExecution);
+        pipeline.getMetrics().setEnabled(metrics);
+        documents = new SyntheticTweetCorpus(Corpus.SEED, Corpus.VOCABULARY_SIZE).documents(DOCUMENTS);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pipeline.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public List<ProcessedInstance> extractFeaturesFromBatch() {
+        return pipeline.extractFeaturesFromBatch(documents);
+    }
+}
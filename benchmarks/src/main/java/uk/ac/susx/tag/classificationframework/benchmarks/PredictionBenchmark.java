@@ -0,0 +1,66 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.susx.tag.classificationframework.classifiers.Classifier;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifierPreComputed;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesOVRClassifier;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classifier.predict(), per document, for each kind of naive Bayes classifier trained on the same documents.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredictionBenchmark {
+
+    private static final int DOCUMENTS = 2000;
+
+    @Param({"nb", "precomputed", "ovr"})
+    public String classifierType;
+
+    private Classifier classifier;
+    private int[][] documents;
+
+    @Setup
+    public void setUp() {
+        Corpus corpus = new Corpus(DOCUMENTS, DOCUMENTS);
+        NaiveBayesClassifier nb = new NaiveBayesClassifier(corpus.labels);
+        nb.train(corpus.labelled);
+        switch (classifierType) {
+            case "nb": classifier = nb; break;
+            case "precomputed": classifier = new NaiveBayesClassifierPreComputed(nb); break;
+            case "ovr":
+                NaiveBayesOVRClassifier<NaiveBayesClassifier> ovr = new NaiveBayesOVRClassifier<>(corpus.labels, NaiveBayesClassifier.class);
+                ovr.train(corpus.labelled);
+                classifier = ovr;
+                break;
+            default: throw new IllegalArgumentException("Unknown classifier type: " + classifierType);
+        }
+        documents = new int[DOCUMENTS][];
+        for (int i = 0; i < DOCUMENTS; i++) documents[i] = corpus.unlabelled.get(i).features;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void predict(Blackhole blackhole) {
+        for (int[] document : documents) blackhole.consume(classifier.predict(document));
+    }
+}
@@ -0,0 +1,75 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.susx.tag.classificationframework.Querying;
+import uk.ac.susx.tag.classificationframework.Util;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Querying.queryFeatures() over documents labelled by a classifier (as they are when querying the user for
+ * features during active learning), given a few labelled features per label.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryingBenchmark {
+
+    private static final int LABELLED_DOCUMENTS = 500;
+    private static final int LABELLED_FEATURES_PER_LABEL = 5;
+
+    @Param({"10000"})
+    public int documents;
+
+    @Param({"20"})
+    public int k;
+
+    private List<ProcessedInstance> instances;
+    private Int2ObjectMap<Int2DoubleOpenHashMap> labelledFeatures;
+
+    @Setup
+    public void setUp() {
+        Corpus corpus = new Corpus(LABELLED_DOCUMENTS, documents);
+        NaiveBayesClassifier nb = new NaiveBayesClassifier(corpus.labels);
+        nb.train(corpus.labelled);
+        instances = corpus.unlabelled;
+        Util.classifyInstances(instances, nb);
+
+        labelledFeatures = new Int2ObjectOpenHashMap<>();
+        SyntheticTweetCorpus words = new SyntheticTweetCorpus(Corpus.SEED, Corpus.VOCABULARY_SIZE);
+        for (int label = 0; label < SyntheticTweetCorpus.LABELS.length; label++) {
+            Int2DoubleOpenHashMap features = new Int2DoubleOpenHashMap();
+            String[] labelWords = words.labelWords(label);
+            for (int i = 0; i < LABELLED_FEATURES_PER_LABEL; i++) {
+                int feature = corpus.featureIndex(labelWords[i]);
+                if (feature != -1) features.put(feature, 1.0);
+            }
+            labelledFeatures.put(corpus.pipeline.labelIndex(SyntheticTweetCorpus.LABELS[label]), features);
+        }
+    }
+
+    @Benchmark
+    public Int2ObjectMap<IntList> queryFeatures() {
+        return Querying.queryFeatures(instances, labelledFeatures, k);
+    }
+}
@@ -0,0 +1,62 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.susx.tag.classificationframework.datastructures.StringIndexer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StringIndexer.getIndex(), per call: looking up strings already indexed, and building an index from scratch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringIndexerBenchmark {
+
+    private static final int LOOKUPS = 10000;
+
+    private String[] vocabulary;
+    private String[] queries;
+    private StringIndexer indexer;
+
+    @Setup
+    public void setUp() {
+        vocabulary = new SyntheticTweetCorpus(Corpus.SEED, Corpus.VOCABULARY_SIZE).vocabulary();
+        indexer = new StringIndexer();
+        for (String word : vocabulary) indexer.getIndex(word);
+
+        // Fresh copies, so that lookups have to hash and compare the strings as they would for new text
+        Random random = new Random(Corpus.SEED);
+        queries = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) queries[i] = new String(vocabulary[random.nextInt(vocabulary.length)].toCharArray());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void lookup(Blackhole blackhole) {
+        for (String query : queries) blackhole.consume(indexer.getIndex(query));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.VOCABULARY_SIZE)
+    public StringIndexer build() {
+        StringIndexer indexer = new StringIndexer();
+        for (String word : vocabulary) indexer.getIndex(word);
+        return indexer;
+    }
+}
@@ -0,0 +1,155 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a reproducible corpus of tweet-like documents, so that benchmark results are comparable
+ * between runs and machines.
+ *
+ * Word frequencies follow a Zipf distribution over the vocabulary (the most frequent words being real
+ * stopwords), and each document is given one of LABELS, whose indicative words it then uses more often.
+ * Documents are sprinkled with the things the twitter tokeniser has to deal with: mentions, hashtags,
+ * URLs, emoticons, punctuation, repeated characters and retweet markers.
+ *
+ * The same seed, vocabulary size and number of documents always give the same corpus.
+ */
+public class SyntheticTweetCorpus {
+
+    public static final String[] LABELS = {"positive", "negative", "neutral"};
+
+    private static final String[] STOPWORDS = ("the to a i and of is in it you for on my that me at with " +
+            "this be so have just but are not was your all do we can if what like get up out no").split(" ");
+
+    private static final String[] EMOTICONS = {":)", ":(", ":-D", ";p", ":'(", "<3", "xD", ":/"};
+    private static final String[] PUNCTUATION = {"!", "?", "!!!", "??", "...", ",", ".", "?!"};
+    private static final String[] DOMAINS = {"t.co", "bit.ly", "www.example.com", "news.example.org"};
+
+    private static final int WORDS_PER_LABEL = 40;
+
+    private final Random random;
+    private final String[] vocabulary;
+    private final double[] cumulativeFrequencies;
+    private final String[][] labelWords;
+
+    public SyntheticTweetCorpus(long seed, int vocabularySize) {
+        random = new Random(seed);
+        vocabulary = new String[Math.max(vocabularySize, STOPWORDS.length)];
+        for (int i = 0; i < vocabulary.length; i++)
+            vocabulary[i] = i < STOPWORDS.length ? STOPWORDS[i] : word(i);
+
+        // Zipf distribution with exponent 1 over the ranks of the vocabulary
+        cumulativeFrequencies = new double[vocabulary.length];
+        double total = 0;
+        for (int i = 0; i < vocabulary.length; i++) cumulativeFrequencies[i] = total += 1.0 / (i + 1);
+        for (int i = 0; i < vocabulary.length; i++) cumulativeFrequencies[i] /= total;
+
+        labelWords = new String[LABELS.length][WORDS_PER_LABEL];
+        for (int label = 0; label < LABELS.length; label++)
+            for (int i = 0; i < WORDS_PER_LABEL; i++)
+                labelWords[label][i] = LABELS[label].substring(0, 3) + word(i);
+    }
+
+    /**
+     * @return *number* labelled documents, with between 5 and 30 tokens each.
+     */
+    public List<Instance> documents(int number) {
+        return documents(number, true);
+    }
+
+    /**
+     * @return *number* documents with an empty label.
+     */
+    public List<Instance> unlabelledDocuments(int number) {
+        return documents(number, false);
+    }
+
+    /**
+     * @return the words from which the label-indicative words of documents are drawn (e.g. for building
+     *         pattern matchers or labelled features).
+     */
+    public String[] labelWords(int label) {
+        return labelWords[label].clone();
+    }
+
+    public String[] vocabulary() {
+        return vocabulary.clone();
+    }
+
+    private List<Instance> documents(int number, boolean labelled) {
+        List<Instance> documents = new ArrayList<>(number);
+        for (int d = 0; d < number; d++) {
+            int label = random.nextInt(LABELS.length);
+            documents.add(new Instance(labelled ? LABELS[label] : "", text(label), Integer.toString(d)));
+        }
+        return documents;
+    }
+
+    private String text(int label) {
+        StringBuilder text = new StringBuilder();
+        if (random.nextInt(10) == 0) text.append("RT @").append(vocabularyWord()).append(": ");
+        int length = 5 + random.nextInt(26);
+        for (int t = 0; t < length; t++) {
+            if (t > 0) text.append(' ');
+            int kind = random.nextInt(100);
+            if (kind < 12) text.append(labelWords[label][random.nextInt(WORDS_PER_LABEL)]);
+            else if (kind < 15) text.append('@').append(vocabularyWord());
+            else if (kind < 19) text.append('#').append(vocabularyWord());
+            else if (kind < 21) text.append(url());
+            else if (kind < 25) text.append(EMOTICONS[random.nextInt(EMOTICONS.length)]);
+            else if (kind < 31) text.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]);
+            else if (kind < 33) text.append(stretched(vocabularyWord()));
+            else if (kind < 38) text.append(capitalised(vocabularyWord()));
+            else text.append(vocabularyWord());
+        }
+        return text.toString();
+    }
+
+    private String vocabularyWord() {
+        double r = random.nextDouble();
+        int low = 0, high = cumulativeFrequencies.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulativeFrequencies[mid] < r) low = mid + 1;
+            else high = mid;
+        }
+        return vocabulary[low];
+    }
+
+    private String url() {
+        StringBuilder url = new StringBuilder(random.nextBoolean() ? "http://" : "https://");
+        url.append(DOMAINS[random.nextInt(DOMAINS.length)]).append('/');
+        for (int i = 0; i < 6; i++) url.append((char) ('a' + random.nextInt(26)));
+        return url.toString();
+    }
+
+    private String stretched(String word) {
+        char last = word.charAt(word.length() - 1);
+        StringBuilder stretched = new StringBuilder(word);
+        for (int i = 0; i < 3 + random.nextInt(4); i++) stretched.append(last);
+        return stretched.toString();
+    }
+
+    private static String capitalised(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    /**
+     * @return a pronounceable word, different for each *i*.
+     */
+    private static String word(int i) {
+        final String consonants = "bcdfghjklmnprstvwz";
+        final String vowels = "aeiou";
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append(consonants.charAt(i % consonants.length()));
+            i /= consonants.length();
+            word.append(vowels.charAt(i % vowels.length()));
+            i /= vowels.length();
+        } while (i > 0);
+        return word.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilter;
+import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilterByRegex;
+import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilterKeywords;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TokenFilter.filter() over every token, per document, with a single filter shared by all threads as in
+ * the parallel filter stage of batch extraction. With "locked", the filter is called through a synchronized
+ * wrapper, which is how the keyword and regex filters behaved before they were made lock-free.
+ *
+ * Runs on every core by default; use -t to compare thread counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class TokenFilterBenchmark {
+
+    private static final int DOCUMENTS = 1000;
+
+    @Param({"keywords", "regex"})
+    public String filter;
+
+    @Param({"false", "true"})
+    public boolean locked;
+
+    private TokenFilter tokenFilter;
+    private List<Document> documents;
+
+    @Setup
+    public void setUp() {
+        TokenFilter lockFree = filter.equals("keywords") ?
+                new TokenFilterKeywords(new HashSet<>(Arrays.asList("the", "a", "and", "of", "to", "rt"))) :
+                new TokenFilterByRegex("(?:https?|ftp|file)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*");
+        tokenFilter = locked ? new SynchronizedFilter(lockFree) : lockFree;
+
+        TokeniserTwitterBasic tokeniser = new TokeniserTwitterBasic(false, false); // Keep URLs for the regex to match
+        documents = new ArrayList<>(DOCUMENTS);
+        for (Instance document : new SyntheticTweetCorpus(Corpus.SEED, Corpus.VOCABULARY_SIZE).documents(DOCUMENTS))
+            documents.add(tokeniser.tokenise(document));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public int filter() {
+        int filtered = 0;
+        for (Document document : documents)
+            for (int i = 0; i < document.size(); i++)
+                if (tokenFilter.filter(i, document)) filtered++;
+        return filtered;
+    }
+
+    private static class SynchronizedFilter extends TokenFilter {
+
+        private static final long serialVersionUID = 0L;
+
+        private final TokenFilter filter;
+
+        SynchronizedFilter(TokenFilter filter) { this.filter = filter; }
+
+        @Override
+        public synchronized boolean filter(int index, Document tokens) { return filter.filter(index, tokens); }
+
+        @Override
+        public boolean isThreadSafe() { return true; }
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TokeniserTwitterBasic.tokenise(), per document, against the regexes that its single-pass scanner
+ * replaces (see TokeniserTwitterBasic.tokeniseWithRegex()).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokeniserBenchmark {
+
+    private static final int DOCUMENTS = 1000;
+
+    @Param({"false", "true"})
+    public boolean lowerCase;
+
+    private TokeniserTwitterBasic tokeniser;
+    private List<Instance> documents;
+
+    @Setup
+    public void setUp() {
+        tokeniser = new TokeniserTwitterBasic(lowerCase, true);
+        documents = new SyntheticTweetCorpus(Corpus.SEED, Corpus.VOCABULARY_SIZE).documents(DOCUMENTS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void tokenise(Blackhole blackhole) {
+        for (Instance document : documents) blackhole.consume(tokeniser.tokenise(document));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void tokeniseWithRegex(Blackhole blackhole) {
+        for (Instance document : documents) blackhole.consume(tokeniser.tokeniseWithRegex(document));
+    }
+}
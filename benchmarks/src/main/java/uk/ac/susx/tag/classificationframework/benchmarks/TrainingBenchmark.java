@@ -0,0 +1,53 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NaiveBayesClassifier.train() on labelled documents, and emTrain() on unlabelled documents labelled by a
+ * classifier trained on the labelled ones. Each invocation trains a new classifier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrainingBenchmark {
+
+    private Corpus corpus;
+    private NaiveBayesClassifier preTrained;
+
+    @Setup
+    public void setUp() {
+        corpus = new Corpus(2000, 10000);
+        preTrained = new NaiveBayesClassifier(corpus.labels);
+        preTrained.train(corpus.labelled);
+    }
+
+    @Benchmark
+    public NaiveBayesClassifier train() {
+        NaiveBayesClassifier nb = new NaiveBayesClassifier(corpus.labels);
+        nb.train(corpus.labelled);
+        return nb;
+    }
+
+    @Benchmark
+    public NaiveBayesClassifier emTrain() {
+        NaiveBayesClassifier nb = new NaiveBayesClassifier(corpus.labels);
+        nb.train(corpus.labelled);
+        nb.emTrain(corpus.unlabelled, preTrained);
+        return nb;
+    }
+}
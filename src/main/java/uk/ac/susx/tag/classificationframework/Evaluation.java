@@ -20,6 +20,7 @@ package uk.ac.susx.tag.classificationframework;
  * #L%
  */
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import uk.ac.susx.tag.classificationframework.classifiers.Classifier;
 import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
@@ -58,6 +59,9 @@ import java.util.Set;
  */
 public class Evaluation {
 
+    // Number of gold standard documents passed to the classifier's bestLabelBatch() at a time
+    private static final int CLASSIFICATION_BATCH_SIZE = 10000;
+
     // Label -> [Precision, Recall, FB1]. See precision(), recall(), fb1() convenience methods.
     public Map<String, double[]> measures = new HashMap<>();
 
@@ -97,18 +101,22 @@ public class Evaluation {
                 confusionMatrix.get(label).put(l, 0);
         }
 
-        // Obtain confusion counts and totals
-        for (ProcessedInstance doc : goldStandardDocs) {
-            String systemLabel = pipeline.labelString(classifier.bestLabel(doc.features));
-            String goldLabel = pipeline.labelString(doc.getLabel());
+        // Obtain confusion counts and totals (classifying a batch of documents at a time)
+        for (List<ProcessedInstance> batch : Iterables.partition(goldStandardDocs, CLASSIFICATION_BATCH_SIZE)) {
+            int[] bestLabels = classifier.bestLabelBatch(batch.stream().map(doc -> doc.features).toArray(int[][]::new));
+
+            for (int i = 0; i < batch.size(); i++) {
+                String systemLabel = pipeline.labelString(bestLabels[i]);
+                String goldLabel = pipeline.labelString(batch.get(i).getLabel());
 
-            if (!labels.contains(goldLabel)) throw new EvaluationException("The Gold standard contains labels that the classifier is unaware of.");
+                if (!labels.contains(goldLabel)) throw new EvaluationException("The Gold standard contains labels that the classifier is unaware of.");
 
-            incConfusionMatrixValue(goldLabel, systemLabel);
+                incConfusionMatrixValue(goldLabel, systemLabel);
 
-            if (systemLabel.equals(goldLabel))
-                totalCorrect++;
-            totalDocuments++;
+                if (systemLabel.equals(goldLabel))
+                    totalCorrect++;
+                totalDocuments++;
+            }
         }
 
         // Calculate precision, recall, fb1, and accuracy.
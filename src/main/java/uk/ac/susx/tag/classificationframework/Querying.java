@@ -20,6 +20,7 @@ package uk.ac.susx.tag.classificationframework;
  * #L%
  */
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import it.unimi.dsi.fastutil.ints.*;
@@ -28,6 +29,8 @@ import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionExcept
 import uk.ac.susx.tag.classificationframework.exceptions.QueryingException;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -36,6 +39,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 /**
  * This class provides ways of suggesting features for an annotator to label.
@@ -50,6 +54,8 @@ import java.util.Set;
  *     - commonFeatures()  : propose for each class label a (the same) list of the overall most common features
  *     - queryFeatures()   : propose for each class label a list of features which are correlated with that class and
  *                           have the highest information gain.
+ *     - FeatureCounts     : the counts behind queryFeatures(), which can be kept between queries and updated as the
+ *                           documents change.
  *     - getAlphaValue()   : Given the proportion of occurrence of a feature, propose an alpha value for it.
  *     - labelledFeatures2Strings() : Various solutions for converted indexed features to their string representations
  *
@@ -260,6 +266,11 @@ public class Querying {
      * Then for each label, for each of those identified features, keep only those which are
      * correlated with that label, where "correlation" means that the feature occurred in a
      * document with said label at least 75% as much as with the label with which it occurred most.
+     *
+     * The documents are counted in parallel in a single pass (see FeatureCounts), then each label's
+     * features are scored and selected in parallel. Features of equal information gain are ordered
+     * by index.
+     *
      * @param documents The documents from which to calculate stats
      * @param labelledFeatures The features already labelled by the user
      * @param K The top K high IG features will be chosen before filtering by correlation
@@ -273,41 +284,57 @@ public class Querying {
                                                        double correlationThreshold,
                                                        IntSet exceptions,
                                                        LabelledFeatureData labelledFeatureData){
+        FeatureCounts counts = new FeatureCounts(exceptions);
+        counts.addAll(documents, labelledFeatureData);
+        return queryFeatures(counts, labelledFeatures, K, correlationThreshold);
+    }
 
-        // Initialisation
-        Int2IntOpenHashMap featureCounts = new Int2IntOpenHashMap(); // Frequency of each feature
-        Int2IntOpenHashMap labelCounts = new Int2IntOpenHashMap();   // Frequency of each label
-        Int2ObjectMap<Int2IntOpenHashMap> jointCounts = new Int2ObjectOpenHashMap<>(); // Frequency of each feature per label
-        Int2ObjectMap<Int2DoubleOpenHashMap> perLabelInfoGain = new Int2ObjectOpenHashMap<>();
-        int numDocuments = documents.size();
-
-        // Obtain counts (non-probabilistic)
-        for (ProcessedInstance document : documents) {
+    /**
+     * queryFeatures() given counts which have been kept between queries (see FeatureCounts), rather than
+     * counting the documents again.
+     */
+    public static Int2ObjectMap<IntList> queryFeatures(FeatureCounts counts,
+                                                       Int2ObjectMap<Int2DoubleOpenHashMap> labelledFeatures,
+                                                       int K,
+                                                       double correlationThreshold){
+        if (K < 0) throw new IllegalArgumentException("K must be non-negative: " + K);
 
-            IntSet features = new IntOpenHashSet(document.features); // Only count features once per document for IG calc.
-            int label = document.getLabel();
-            if (label == -1) throw new FeatureExtractionException("A ProcessedInstance is unlabelled: " + document);
+        // Handle edge-case in which a feature is labelled with a label that doesn't appear in the data.
+        IntSet labelSet = new IntOpenHashSet(counts.labelCounts.keySet());
+        if (labelledFeatures != null) labelSet.addAll(labelledFeatures.keySet());
+        int[] labels = labelSet.toIntArray();
+
+        int[] features = counts.featureCounts.keySet().toIntArray();
+        int[] featureCounts = new int[features.length];
+        for (int i = 0; i < features.length; i++) featureCounts[i] = counts.featureCounts.get(features[i]);
+
+        IntList[] correlatedFeatures = IntStream.range(0, labels.length).parallel()
+                .mapToObj(i -> {
+                    int label = labels[i];
+                    Int2DoubleOpenHashMap labelled = labelledFeatures == null ? null : labelledFeatures.get(label);
+                    IntList correlated = new IntArrayList();
+                    for (int feature : topKInfoGain(counts, label, features, featureCounts, K)) {
+                        if (labelled == null || !labelled.containsKey(feature)) { //If isn't already listed as a labelled feature
+                            if (counts.isCorrelated(feature, label, correlationThreshold))
+                                correlated.add(feature);
+                        }
+                    }
+                    return correlated;
+                })
+                .toArray(IntList[]::new);
 
-            for (int feature : features) {
-                if (exceptions != null && exceptions.contains(feature)) continue; // Don't collect information on features that we want to ignore
-                featureCounts.addTo(feature, 1);
-                try {
-                    jointCounts.get(label).addTo(feature, 1);
-                } catch (NullPointerException e){ // If label wasn't in joint counts (will only happen once on the first time a label is seen)
-                    jointCounts.put(label, new Int2IntOpenHashMap());
-                    jointCounts.get(label).addTo(feature, 1);
-                }
-            }
-            labelCounts.addTo(label, 1);
-        }
+        Int2ObjectMap<IntList> correlatedFeaturesPerLabel = new Int2ObjectOpenHashMap<>();
+        for (int i = 0; i < labels.length; i++) correlatedFeaturesPerLabel.put(labels[i], correlatedFeatures[i]);
+        return correlatedFeaturesPerLabel;
+    }
 
-        // Handle edge-case in which a feature is labelled with a label that doesn't appear in the data.
-        for(int label : labelledFeatures.keySet()) {
-            if(!jointCounts.containsKey(label)) {
-                jointCounts.put(label, new Int2IntOpenHashMap());
-                labelCounts.addTo(label, 0);
-            }
-        }
+    /**
+     * @return the K features with the highest information gain for *label*, from highest to lowest.
+     */
+    private static int[] topKInfoGain(FeatureCounts counts, int label, int[] features, int[] featureCounts, int K){
+        int numDocuments = counts.numDocuments;
+        int labelCount = counts.labelCounts.get(label);
+        Int2IntOpenHashMap jointCounts = counts.jointCounts.get(label);
 
         /*
         Per-label entropy.
@@ -329,129 +356,348 @@ public class Querying {
 
         Using this we will be able to calculate a per-label information gain also.
         */
-        Int2DoubleMap labelEntropies = new Int2DoubleOpenHashMap();
-        for (Int2IntMap.Entry entry : labelCounts.int2IntEntrySet()){
-            double pLabel = (double)entry.getValue()/numDocuments;   // P(label)
-            double pNotLabel = ((double)numDocuments-entry.getIntValue())/numDocuments; // 1 - P(label)
-            labelEntropies.put(entry.getIntKey(), entropy(pLabel, pNotLabel)); // Per-label entropy
-        }
+        double pLabel = (double)labelCount/numDocuments;   // P(label)
+        double pNotLabel = ((double)numDocuments-labelCount)/numDocuments; // 1 - P(label)
+        double labelEntropy = entropy(pLabel, pNotLabel);
 
         // Per-label information gain
-        for (int label : labelCounts.keySet()) {perLabelInfoGain.put(label, new Int2DoubleOpenHashMap());}
-        for (int feature : featureCounts.keySet()) {
-            // Probability of feature independent of label.
-            double pFeature = (double)featureCounts.get(feature) / numDocuments;
-            double pNotFeature = ((double)numDocuments-featureCounts.get(feature))/numDocuments;
+        TopK topK = new TopK(K);
+        for (int i = 0; i < features.length; i++) {
+            int featureCount = featureCounts[i];
+            int jointCount = jointCounts == null ? 0 : jointCounts.get(features[i]);
 
-            for (int label : labelCounts.keySet()) {
-                // If the feature didn't occur at all, information gain is zero; skip.
-                if (featureCounts.get(feature)==0){
-                    perLabelInfoGain.get(label).put(feature, 0.0); continue;
-                }
-                double P, notP;
-
-                // Specific conditional entropy of L given F occurred = H(L|F=present)
-                P    = ((double)jointCounts.get(label).get(feature))/featureCounts.get(feature);
-                notP = ((double)featureCounts.get(feature)-jointCounts.get(label).get(feature))/featureCounts.get(feature);
-                double entropyLGivenF = entropy(P, notP);
-
-                // Specific conditional entropy of L given F did not occur = H(L|F=absent)
-                P    = ((double)labelCounts.get(label)-jointCounts.get(label).get(feature))/(numDocuments-featureCounts.get(feature));
-                notP = ((double)(numDocuments-featureCounts.get(feature))-(labelCounts.get(label)-jointCounts.get(label).get(feature))) / (numDocuments-featureCounts.get(feature));
-                double entropyLGivenNotF = entropy(P, notP);
-
-                /*
-                Conditional entropy of L given F = H(L|F)
-                This is simply a weighted average of the specific conditional entropies:
-                    SUM(f in F)[ P(f) * H(L|F=f) ]
-                */
-                double conditionalEntropyLGivenF = pFeature*entropyLGivenF + pNotFeature*entropyLGivenNotF;
-
-                // IG(L|F) = H(L) - H(L|F)
-                perLabelInfoGain.get(label).put(feature, labelEntropies.get(label) - conditionalEntropyLGivenF);
-            }
+            // Probability of feature independent of label.
+            double pFeature = (double)featureCount / numDocuments;
+            double pNotFeature = ((double)numDocuments-featureCount)/numDocuments;
+
+            double P, notP;
+
+            // Specific conditional entropy of L given F occurred = H(L|F=present)
+            P    = ((double)jointCount)/featureCount;
+            notP = ((double)featureCount-jointCount)/featureCount;
+            double entropyLGivenF = entropy(P, notP);
+
+            // Specific conditional entropy of L given F did not occur = H(L|F=absent)
+            P    = ((double)labelCount-jointCount)/(numDocuments-featureCount);
+            notP = ((double)(numDocuments-featureCount)-(labelCount-jointCount)) / (numDocuments-featureCount);
+            double entropyLGivenNotF = entropy(P, notP);
+
+            /*
+            Conditional entropy of L given F = H(L|F)
+            This is simply a weighted average of the specific conditional entropies:
+                SUM(f in F)[ P(f) * H(L|F=f) ]
+            */
+            double conditionalEntropyLGivenF = pFeature*entropyLGivenF + pNotFeature*entropyLGivenNotF;
+
+            // IG(L|F) = H(L) - H(L|F)
+            topK.offer(features[i], labelEntropy - conditionalEntropyLGivenF);
         }
-        return selectTopKCorrelated(perLabelInfoGain, documents, labelledFeatures, K, correlationThreshold, labelledFeatureData);
+        return topK.features();
     }
 
-    private static Int2ObjectMap<IntList> selectTopKCorrelated(Int2ObjectMap<Int2DoubleOpenHashMap> perLabelInfoGain,
-                                                               Collection<ProcessedInstance> documents,
-                                                               Int2ObjectMap<Int2DoubleOpenHashMap> labelledFeatures,
-                                                               int K,
-                                                               double correlationThreshold,
-                                                               LabelledFeatureData labelledFeatureData){
-        // Initialise
-        Int2DoubleOpenHashMap labelCounts = new Int2DoubleOpenHashMap();
-        Int2ObjectMap<Int2DoubleOpenHashMap> jointCounts = new Int2ObjectOpenHashMap<>();
-        for (int label : perLabelInfoGain.keySet()) jointCounts.put(label, new Int2DoubleOpenHashMap());
+    /**
+     * The counts over a pool of documents from which queryFeatures() suggests features:
+     *
+     *  - the number of documents in which each feature occurs, overall and with each label
+     *    (features are counted once per document, and exceptions not at all),
+     *  - the number of documents with each label,
+     *  - the same, weighted by the probability of each label (see ProcessedInstance.getLabelProbabilities()),
+     *    with features counted each time they occur, used for correlation.
+     *
+     * The counts can be kept between queries, and updated as documents join or leave the pool. To change the
+     * labelling of a document, remove it, re-label it, then add it again; removing a document after changing
+     * its labelling leaves the counts wrong.
+     *
+     * Not thread safe (addAll() counts in parallel internally).
+     */
+    public static class FeatureCounts {
+
+        private static final int MIN_DOCUMENTS_PER_CHUNK = 1024;
+        private static final double EPSILON = 1e-9; // Probabilistic counts this close to 0 are what removed documents leave behind
+
+        private final IntSet exceptions;
+        private int numDocuments = 0;
+        private final Int2IntOpenHashMap featureCounts = new Int2IntOpenHashMap(); // Frequency of each feature
+        private final Int2IntOpenHashMap labelCounts = new Int2IntOpenHashMap();   // Frequency of each label
+        private final Int2ObjectOpenHashMap<Int2IntOpenHashMap> jointCounts = new Int2ObjectOpenHashMap<>(); // Frequency of each feature per label
+        private final Int2DoubleOpenHashMap probabilisticLabelCounts = new Int2DoubleOpenHashMap();
+        private final Int2ObjectOpenHashMap<Int2DoubleOpenHashMap> probabilisticJointCounts = new Int2ObjectOpenHashMap<>();
+        private int[] uniqueFeatures = new int[16];
+
+        public FeatureCounts() {
+            this(null);
+        }
 
-        if (labelledFeatureData != null) labelledFeatureData.resetData();
+        /**
+         * @param exceptions Set of indexed features to be ignored (e.g. stopwords, streaming keywords), which
+         *                   shouldn't change while the counts are kept
+         */
+        public FeatureCounts(IntSet exceptions) {
+            this.exceptions = exceptions;
+        }
 
-        // Acquire probabilistic counts
-        for (ProcessedInstance document : documents) {
+        public int numDocuments() { return numDocuments; }
+
+        public void add(ProcessedInstance document) {
+            count(document, 1);
+        }
+
+        /**
+         * Remove a document counted by add(), which must be labelled as it was when added.
+         */
+        public void remove(ProcessedInstance document) {
+            count(document, -1);
+        }
+
+        /**
+         * Add the documents, counting them in parallel.
+         */
+        public void addAll(Collection<ProcessedInstance> documents) {
+            addAll(documents, null);
+        }
+
+        /**
+         * Add the documents, counting them in parallel, and if *labelledFeatureData* is not null, reset it
+         * and fill it with the documents.
+         */
+        private void addAll(Collection<ProcessedInstance> documents, LabelledFeatureData labelledFeatureData) {
+            List<ProcessedInstance> documentList = documents instanceof List ? (List<ProcessedInstance>) documents : new ArrayList<>(documents);
+            int numChunks = Math.max(1, Math.min(4 * Runtime.getRuntime().availableProcessors(), documentList.size() / MIN_DOCUMENTS_PER_CHUNK));
+            List<List<ProcessedInstance>> chunks = Lists.partition(documentList, Math.max(1, (documentList.size() + numChunks - 1) / numChunks));
+
+            if (labelledFeatureData != null) labelledFeatureData.resetData();
+            IntSet labelledFeatures = labelledFeatureData == null ? null : labelledFeatureData.featureCounts.keySet();
+            Partial[] partials = IntStream.range(0, chunks.size()).parallel()
+                    .mapToObj(i -> {
+                        Partial partial = new Partial(exceptions, labelledFeatures);
+                        for (ProcessedInstance document : chunks.get(i)) partial.add(document);
+                        return partial;
+                    })
+                    .toArray(Partial[]::new);
+
+            for (Partial partial : partials) {
+                merge(partial.counts);
+                if (labelledFeatureData != null) partial.mergeInto(labelledFeatureData);
+            }
+        }
+
+        private void count(ProcessedInstance document, int sign) {
+            int label = document.getLabel();
+            if (label == -1) throw new FeatureExtractionException("A ProcessedInstance is unlabelled: " + document);
+
+            // Only count features once per document for IG calc.
+            Int2IntOpenHashMap labelJointCounts = jointCounts.get(label);
+            if (labelJointCounts == null) jointCounts.put(label, labelJointCounts = new Int2IntOpenHashMap());
+            int numUnique = sortUniqueFeatures(document.features);
+            for (int i = 0; i < numUnique; i++) {
+                int feature = uniqueFeatures[i];
+                if (exceptions != null && exceptions.contains(feature)) continue; // Don't collect information on features that we want to ignore
+                addTo(featureCounts, feature, sign);
+                addTo(labelJointCounts, feature, sign);
+            }
+            addTo(labelCounts, label, sign);
+            numDocuments += sign;
 
             // Counts for correlation purposes
             for (Int2DoubleMap.Entry entry : document.getLabelProbabilities().int2DoubleEntrySet()){
-                int label = entry.getIntKey();
-                double P = entry.getDoubleValue();
-                labelCounts.addTo(label, P);
-                for (int feature : document.features) jointCounts.get(label).addTo(feature, P);
+                int probableLabel = entry.getIntKey();
+                double P = sign * entry.getDoubleValue();
+                addTo(probabilisticLabelCounts, probableLabel, P);
+                Int2DoubleOpenHashMap counts = probabilisticJointCounts.get(probableLabel);
+                if (counts == null) probabilisticJointCounts.put(probableLabel, counts = new Int2DoubleOpenHashMap());
+                for (int feature : document.features) addTo(counts, feature, P);
+                if (counts.isEmpty()) probabilisticJointCounts.remove(probableLabel);
             }
+        }
 
-            // Counts for LabelledFeatureData purposes
-            if (labelledFeatureData != null) {
-                labelledFeatureData.totalFeatureCount += document.features.length;
-                for (int feature : document.features) {
-                    if (labelledFeatureData.featureCounts.containsKey(feature)){
-                        labelledFeatureData.featureCounts.addTo(feature, 1);
-                    }
-
+        /**
+         * Sort the distinct features of a document into the start of uniqueFeatures.
+         * @return the number of distinct features
+         */
+        private int sortUniqueFeatures(int[] features) {
+            if (uniqueFeatures.length < features.length) uniqueFeatures = new int[Math.max(features.length, 2 * uniqueFeatures.length)];
+            System.arraycopy(features, 0, uniqueFeatures, 0, features.length);
+            Arrays.sort(uniqueFeatures, 0, features.length);
+            int numUnique = 0;
+            for (int i = 0; i < features.length; i++) {
+                if (numUnique == 0 || uniqueFeatures[numUnique - 1] != uniqueFeatures[i])
+                    uniqueFeatures[numUnique++] = uniqueFeatures[i];
+            }
+            return numUnique;
+        }
 
-                    labelledFeatureData.addDocumentToIndex(document, feature);
-                }
+        private void merge(FeatureCounts other) {
+            numDocuments += other.numDocuments;
+            addAll(featureCounts, other.featureCounts);
+            addAll(labelCounts, other.labelCounts);
+            for (Int2ObjectMap.Entry<Int2IntOpenHashMap> entry : other.jointCounts.int2ObjectEntrySet()) {
+                Int2IntOpenHashMap counts = jointCounts.get(entry.getIntKey());
+                if (counts == null) jointCounts.put(entry.getIntKey(), entry.getValue());
+                else addAll(counts, entry.getValue());
+            }
+            for (Int2DoubleMap.Entry entry : other.probabilisticLabelCounts.int2DoubleEntrySet())
+                probabilisticLabelCounts.addTo(entry.getIntKey(), entry.getDoubleValue());
+            for (Int2ObjectMap.Entry<Int2DoubleOpenHashMap> entry : other.probabilisticJointCounts.int2ObjectEntrySet()) {
+                Int2DoubleOpenHashMap counts = probabilisticJointCounts.get(entry.getIntKey());
+                if (counts == null) probabilisticJointCounts.put(entry.getIntKey(), entry.getValue());
+                else for (Int2DoubleMap.Entry featureCount : entry.getValue().int2DoubleEntrySet())
+                    counts.addTo(featureCount.getIntKey(), featureCount.getDoubleValue());
             }
         }
 
-        // Normalise counts
-        for (Int2DoubleMap.Entry labelCount : labelCounts.int2DoubleEntrySet()){
-            Int2DoubleOpenHashMap featureCounts = jointCounts.get(labelCount.getIntKey());
-            for (Int2DoubleMap.Entry entry : featureCounts.int2DoubleEntrySet()){
-                entry.setValue(entry.getDoubleValue()/labelCount.getDoubleValue());
+        /**
+         * @return true if *feature* occurred with *label*, in proportion to the occurrences of the label,
+         *         more than *correlationThreshold* times as much as with the label with which it occurred most.
+         */
+        private boolean isCorrelated(int feature, int label, double correlationThreshold) {
+            double highestCount = 0;
+            for (int otherLabel : probabilisticJointCounts.keySet()) {
+                double count = normalisedJointCount(feature, otherLabel);
+                if (count > highestCount) highestCount = count;
             }
+            return normalisedJointCount(feature, label) > highestCount * correlationThreshold;
         }
 
-        // Get top K features for each label
-        Int2ObjectMap<List<Int2DoubleMap.Entry>> topKFeaturesPerLabel = new Int2ObjectOpenHashMap<>();
-        for (Int2ObjectMap.Entry<Int2DoubleOpenHashMap> entry : perLabelInfoGain.int2ObjectEntrySet()){
-            List<Int2DoubleMap.Entry> topEntries = new InformationGainOrdering().greatestOf(entry.getValue().int2DoubleEntrySet(), K);
-            topKFeaturesPerLabel.put(entry.getIntKey(), topEntries);
-        }
-
-        // From top K, keep only those highly correlated (in frequency) with each label
-        Int2ObjectMap<IntList> correlatedFeatures = new Int2ObjectOpenHashMap<>();
-        for (Int2ObjectMap.Entry<List<Int2DoubleMap.Entry>> topKFeaturesEntry : topKFeaturesPerLabel.int2ObjectEntrySet()){
-            int label = topKFeaturesEntry.getIntKey();
-            correlatedFeatures.put(label, new IntArrayList());
-            for (Int2DoubleMap.Entry featureEntry : topKFeaturesEntry.getValue()){
-                int feature = featureEntry.getIntKey();
-                if (labelledFeatures==null || !labelledFeatures.containsKey(label) || !labelledFeatures.get(label).containsKey(feature)){ //If isn't already listed as a labelled feature
-                    double highestCount = 0;
-                    for (Int2DoubleOpenHashMap countsPerLabel : jointCounts.values()){
-                        double count = countsPerLabel.get(feature);
-                        if (count > highestCount) highestCount = count;
-                    }
-                    if (jointCounts.get(label).get(feature) > highestCount * correlationThreshold)  //If feature correlates with label
-                        correlatedFeatures.get(label).add(feature);
+        private double normalisedJointCount(int feature, int label) {
+            Int2DoubleOpenHashMap counts = probabilisticJointCounts.get(label);
+            if (counts == null || !counts.containsKey(feature)) return 0;
+            return counts.get(feature) / probabilisticLabelCounts.get(label);
+        }
+
+        private static void addTo(Int2IntOpenHashMap counts, int key, int increment) {
+            if (counts.addTo(key, increment) + increment == 0) counts.remove(key);
+        }
+
+        private static void addAll(Int2IntOpenHashMap counts, Int2IntOpenHashMap other) {
+            for (Int2IntMap.Entry entry : other.int2IntEntrySet()) addTo(counts, entry.getIntKey(), entry.getIntValue());
+        }
+
+        /**
+         * Removing a document subtracts the same probabilities as were added, but not necessarily in the same
+         * order, so a count which should return to 0 may be left with a rounding error instead. Only removals
+         * are checked for this, so that adding small probabilities still counts them.
+         */
+        private static void addTo(Int2DoubleOpenHashMap counts, int key, double increment) {
+            double count = counts.addTo(key, increment) + increment;
+            if (increment < 0 && Math.abs(count) < EPSILON) counts.remove(key);
+        }
+    }
+
+    /**
+     * The counts of a chunk of the documents passed to queryFeatures(), and the information they
+     * add to a LabelledFeatureData.
+     */
+    private static class Partial {
+
+        final FeatureCounts counts;
+        final IntSet labelledFeatures; // null if there is no LabelledFeatureData to fill
+        final Int2IntOpenHashMap labelledFeatureCounts = new Int2IntOpenHashMap();
+        final Int2ObjectOpenHashMap<Set<ProcessedInstance>> featureDocumentIndex = new Int2ObjectOpenHashMap<>();
+        long totalFeatureCount = 0;
+
+        Partial(IntSet exceptions, IntSet labelledFeatures) {
+            counts = new FeatureCounts(exceptions);
+            this.labelledFeatures = labelledFeatures;
+        }
+
+        void add(ProcessedInstance document) {
+            counts.add(document);
+            if (labelledFeatures != null) {
+                totalFeatureCount += document.features.length;
+                for (int feature : document.features) {
+                    if (labelledFeatures.contains(feature)) labelledFeatureCounts.addTo(feature, 1);
+                    Set<ProcessedInstance> indexed = featureDocumentIndex.get(feature);
+                    if (indexed == null) featureDocumentIndex.put(feature, indexed = new HashSet<>());
+                    indexed.add(document);
                 }
             }
         }
-        return correlatedFeatures;
+
+        void mergeInto(LabelledFeatureData labelledFeatureData) {
+            labelledFeatureData.totalFeatureCount += totalFeatureCount;
+            for (Int2IntMap.Entry entry : labelledFeatureCounts.int2IntEntrySet())
+                labelledFeatureData.featureCounts.addTo(entry.getIntKey(), entry.getIntValue());
+            for (Int2ObjectMap.Entry<Set<ProcessedInstance>> entry : featureDocumentIndex.int2ObjectEntrySet()) {
+                Set<ProcessedInstance> indexed = labelledFeatureData.featureDocumentIndex.get(entry.getIntKey());
+                if (indexed == null) labelledFeatureData.featureDocumentIndex.put(entry.getIntKey(), entry.getValue());
+                else indexed.addAll(entry.getValue());
+            }
+        }
     }
 
-    private static class InformationGainOrdering extends Ordering<Int2DoubleMap.Entry> {
-        @Override
-        public int compare(Int2DoubleMap.Entry entry1, Int2DoubleMap.Entry entry2) {
-            return Double.compare(entry1.getDoubleValue(), entry2.getDoubleValue());
+    /**
+     * Keeps the K features with the highest scores offered to it, in a binary min-heap of primitives (the
+     * worst of the K at the root). Scores are compared with Double.compare(), and equal scores by feature,
+     * the lower feature being preferred.
+     */
+    private static class TopK {
+
+        private final int[] features;
+        private final double[] scores;
+        private int size = 0;
+
+        TopK(int K) {
+            features = new int[K];
+            scores = new double[K];
+        }
+
+        void offer(int feature, double score) {
+            if (size < features.length) {
+                features[size] = feature;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (size > 0 && isWorse(features[0], scores[0], feature, score)) {
+                features[0] = feature;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * @return the features kept, from highest to lowest score. Empties the heap.
+         */
+        int[] features() {
+            int[] best = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                best[i] = features[0];
+                size--;
+                features[0] = features[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+            return best;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!isWorse(features[i], scores[i], features[parent], scores[parent])) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int worst = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && isWorse(features[left], scores[left], features[worst], scores[worst])) worst = left;
+                if (right < size && isWorse(features[right], scores[right], features[worst], scores[worst])) worst = right;
+                if (worst == i) return;
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int feature = features[i]; features[i] = features[j]; features[j] = feature;
+            double score = scores[i]; scores[i] = scores[j]; scores[j] = score;
+        }
+
+        private static boolean isWorse(int feature1, double score1, int feature2, double score2) {
+            int comparison = Double.compare(score1, score2);
+            return comparison < 0 || (comparison == 0 && feature1 > feature2);
         }
     }
 
@@ -294,10 +294,15 @@ public class Util {
 
     /**
      * Use NB to set the labelling of a collection of ProcessedInstances.
+     * Predictions are made concurrently using the classifier's predictBatch().
      */
     public static void classifyInstances(Collection<ProcessedInstance> instances, Classifier classifier){
+        Int2DoubleOpenHashMap[] predictions = classifier.predictBatch(instances.stream()
+                .map(instance -> instance.features)
+                .toArray(int[][]::new));
+        int i = 0;
         for (ProcessedInstance instance : instances) {
-            instance.setLabeling(classifier.predict(instance.features));
+            instance.setLabeling(predictions[i++]);
         }
     }
 
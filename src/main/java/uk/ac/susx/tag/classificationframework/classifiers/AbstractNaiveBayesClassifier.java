@@ -30,6 +30,7 @@ import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
 
 /**
  * Class provides functionality for predicting labels of documents.
@@ -42,12 +43,20 @@ import java.util.NoSuchElementException;
  * All features and labels should be of type int (e.g. by externally indexing them).
  * The classifier is therefore  agnostic to type of features and labels.
  *
+ * Batch prediction (predictBatch() and bestLabelBatch()) divides the documents into blocks
+ * which are scored in parallel. Subclasses can implement "logpriorPlusLoglikelihoodBlock"
+ * (and return true from "supportsBlockScoring") in order to score a whole block label by
+ * label; otherwise each document in a block is passed to predict() or bestLabel() individually.
+ *
  * User: Andrew D. Robertson
  * Date: 25/07/2013
  * Time: 15:51
  */
 abstract public class AbstractNaiveBayesClassifier implements Classifier, InstanceBasedTrainableClassifier {
 
+    // Number of documents scored together in a single task during batch prediction
+    protected static final int BATCH_BLOCK_SIZE = 256;
+
     protected boolean empiricalLabelPriors = true;
 
     protected IntSet labels = new IntOpenHashSet();
@@ -94,6 +103,99 @@ abstract public class AbstractNaiveBayesClassifier implements Classifier, Instan
         return argMax(labelScores);
     }
 
+    /**
+     * Score blocks of documents in parallel. See class documentation.
+     */
+    @Override
+    public Int2DoubleOpenHashMap[] predictBatch(int[][] documents) {
+        prepareForConcurrentPrediction();
+        int[] labelOrder = batchLabelOrder();
+        boolean blockScoring = supportsBlockScoring();
+        Int2DoubleOpenHashMap[] predictions = new Int2DoubleOpenHashMap[documents.length];
+        blockStarts(documents.length).forEach(from -> {
+            int to = Math.min(from + BATCH_BLOCK_SIZE, documents.length);
+            if (blockScoring) {
+                double[] scores = logpriorPlusLoglikelihoodBlock(documents, from, to, labelOrder);
+                for (int d = from; d < to; d++)
+                    predictions[d] = posteriors(scores, (d - from) * labelOrder.length, labelOrder);
+            } else {
+                for (int d = from; d < to; d++)
+                    predictions[d] = predict(documents[d]);
+            }
+        });
+        return predictions;
+    }
+
+    /**
+     * Score blocks of documents in parallel. See class documentation.
+     */
+    @Override
+    public int[] bestLabelBatch(int[][] documents) {
+        prepareForConcurrentPrediction();
+        int[] labelOrder = batchLabelOrder();
+        boolean blockScoring = supportsBlockScoring();
+        int[] bestLabels = new int[documents.length];
+        blockStarts(documents.length).forEach(from -> {
+            int to = Math.min(from + BATCH_BLOCK_SIZE, documents.length);
+            if (blockScoring) {
+                double[] scores = logpriorPlusLoglikelihoodBlock(documents, from, to, labelOrder);
+                for (int d = from; d < to; d++)
+                    bestLabels[d] = argMax(scores, (d - from) * labelOrder.length, labelOrder);
+            } else {
+                for (int d = from; d < to; d++)
+                    bestLabels[d] = bestLabel(documents[d]);
+            }
+        });
+        return bestLabels;
+    }
+
+    /**
+     * For documents[from] up to (but excluding) documents[to], and each label in *labelOrder*:
+     *   Calculate: log(P(label)) + log(P(features|label))   (see logpriorPlusLoglikelihood())
+     * Place in the returned array at position: (documentIndex - from) * labelOrder.length + labelIndex
+     *
+     * By default, calls logpriorPlusLoglikelihood() for each document. Subclasses may override for
+     * efficient batch prediction, iterating over labels in the outer loop, so that the data for a
+     * single label is used for the whole block before moving on to the next.
+     *
+     * Only called by batch prediction if supportsBlockScoring() returns true.
+     *
+     * This may be called concurrently, after a single call to prepareForConcurrentPrediction().
+     */
+    protected double[] logpriorPlusLoglikelihoodBlock(int[][] documents, int from, int to, int[] labelOrder) {
+        double[] scores = new double[(to - from) * labelOrder.length];
+        for (int d = from; d < to; d++) {
+            Int2DoubleOpenHashMap labelScores = logpriorPlusLoglikelihood(documents[d]);
+            int offset = (d - from) * labelOrder.length;
+            for (int l = 0; l < labelOrder.length; l++)
+                scores[offset + l] = labelScores.get(labelOrder[l]);
+        }
+        return scores;
+    }
+
+    /**
+     * True if logpriorPlusLoglikelihoodBlock() is implemented, so batch prediction can score whole blocks.
+     * Subclasses which change the meaning of logpriorPlusLoglikelihood() or predict() should
+     * make sure not to inherit a true value which no longer applies.
+     */
+    protected boolean supportsBlockScoring() {
+        return false;
+    }
+
+    /**
+     * Called before batch prediction. Subclasses whose prediction methods lazily modify their
+     * data structures should ensure here that no such modification will be required, since
+     * prediction is about to be performed concurrently.
+     */
+    protected void prepareForConcurrentPrediction() { }
+
+    /**
+     * The order in which labels are passed to logpriorPlusLoglikelihoodBlock().
+     */
+    protected int[] batchLabelOrder() {
+        return labels.toIntArray();
+    }
+
     @Override
     public void train(Iterable<ProcessedInstance> labelledDocuments, Iterable<ProcessedInstance> unlabelledDocuments)
     { /* Alternatively, just train on the labelled docs */ }
@@ -135,6 +237,44 @@ abstract public class AbstractNaiveBayesClassifier implements Classifier, Instan
         return maxArg;
     }
 
+    /**
+     * Convert the log scores found at scores[offset] to scores[offset + labelOrder.length - 1]
+     * into a mapping from each class label to P(label|features). See predict().
+     */
+    private Int2DoubleOpenHashMap posteriors(double[] scores, int offset, int[] labelOrder) {
+        if (labelOrder.length == 0) throw new NoSuchElementException("Empty collection");
+        double maxLogProbability = scores[offset];
+        for (int l = 1; l < labelOrder.length; l++)
+            if (scores[offset + l] > maxLogProbability) maxLogProbability = scores[offset + l];
+        double normalisation = 0;
+        for (int l = 0; l < labelOrder.length; l++)
+            normalisation += Math.exp(scores[offset + l] - maxLogProbability);
+        Int2DoubleOpenHashMap posteriorProbabilities = new Int2DoubleOpenHashMap(labelOrder.length);
+        for (int l = 0; l < labelOrder.length; l++)
+            posteriorProbabilities.put(labelOrder[l], Math.exp(scores[offset + l] - maxLogProbability) / normalisation);
+        return posteriorProbabilities;
+    }
+
+    /**
+     * @return The label whose log score (found between scores[offset] and scores[offset + labelOrder.length - 1]) is greatest.
+     */
+    private int argMax(double[] scores, int offset, int[] labelOrder) {
+        if (labelOrder.length == 0) throw new NoSuchElementException("Empty collection");
+        int maxArg = 0;
+        for (int l = 1; l < labelOrder.length; l++)
+            if (scores[offset + l] > scores[offset + maxArg]) maxArg = l;
+        return labelOrder[maxArg];
+    }
+
+    /**
+     * @return A parallel stream over the first index of each block of BATCH_BLOCK_SIZE documents.
+     */
+    private static IntStream blockStarts(int numDocuments) {
+        return IntStream.range(0, (numDocuments + BATCH_BLOCK_SIZE - 1) / BATCH_BLOCK_SIZE)
+                .parallel()
+                .map(block -> block * BATCH_BLOCK_SIZE);
+    }
+
     public static Int2DoubleOpenHashMap normaliseScoresByDocLength(Int2DoubleOpenHashMap scores, int docLength){
         for (Int2DoubleMap.Entry entry : scores.int2DoubleEntrySet())
             entry.setValue(entry.getDoubleValue() / docLength);
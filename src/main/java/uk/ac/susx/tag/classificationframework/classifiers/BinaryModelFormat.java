@@ -0,0 +1,266 @@
+package uk.ac.susx.tag.classificationframework.classifiers;
+
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Shared parts of the binary model files written by NaiveBayesClassifier.writeBinary() and
+ * NaiveBayesClassifierPreComputedDense.writeBinary(). All values are big-endian. A file consists of:
+ *
+ *  1. Header: magic number, format version, model type, flags (bit 0 = empirical label priors).
+ *  2. Label table: number of labels, the index of each label at save time, then each label string.
+ *  3. Feature table: number of features, the index of each feature at save time, the hashCode() of each
+ *     feature string, the total byte length of the strings, then each feature string.
+ *  4. Model data, aligned to 8 bytes. Features are referred to by their position (row) in the feature table.
+ *
+ * Strings are written as their UTF-8 byte length followed by the bytes.
+ *
+ * Files are read by memory-mapping them (see map()). When reading the feature table, a feature keeps its saved
+ * index if the pipeline already maps that index to the saved string (e.g. a pipeline with a fixed vocabulary
+ * which was saved alongside the model), so that it needn't be looked up. Otherwise the string is indexed by
+ * the pipeline, as when reading JSON. The hashes rule out most mismatches without reading the strings, and a
+ * string with a matching hash is compared with the pipeline's in place, so that only mismatched strings are decoded.
+ */
+final class BinaryModelFormat {
+
+    static final int MAGIC = 0x4E424D46; // "NBMF"
+    static final int VERSION = 1;
+
+    static final byte TYPE_COUNTS = 1;              // NaiveBayesClassifier
+    static final byte TYPE_LOG_PROBABILITIES = 2;   // Pre-computed log priors and dense feature-major log likelihoods
+
+    private static final byte FLAG_EMPIRICAL_LABEL_PRIORS = 1;
+
+    private BinaryModelFormat() {}
+
+    static void writeHeader(Writer writer, byte type, boolean empiricalLabelPriors) throws IOException {
+        writer.putInt(MAGIC);
+        writer.putInt(VERSION);
+        writer.putByte(type);
+        writer.putByte(empiricalLabelPriors ? FLAG_EMPIRICAL_LABEL_PRIORS : 0);
+    }
+
+    /**
+     * @return the flags of the header, having checked that the file is of the expected type and a supported version.
+     */
+    static byte readHeader(ByteBuffer buffer, byte expectedType) throws IOException {
+        if (buffer.remaining() < 10 || buffer.getInt() != MAGIC)
+            throw new IOException("Not a binary model file.");
+        int version = buffer.getInt();
+        if (version > VERSION)
+            throw new IOException("Unsupported binary model version: " + version + " (latest supported is " + VERSION + ")");
+        byte type = buffer.get();
+        if (type != expectedType)
+            throw new IOException("Binary model file has type " + type + " but type " + expectedType + " was expected.");
+        return buffer.get();
+    }
+
+    static boolean empiricalLabelPriors(byte flags) {
+        return (flags & FLAG_EMPIRICAL_LABEL_PRIORS) != 0;
+    }
+
+    static void writeLabelTable(Writer writer, int[] labels, FeatureExtractionPipeline pipeline) throws IOException {
+        writer.putInt(labels.length);
+        for (int label : labels) writer.putInt(label);
+        for (int label : labels) writer.putString(pipeline.labelString(label));
+    }
+
+    /**
+     * @return the index according to *pipeline* of each label in the table.
+     */
+    static int[] readLabelTable(ByteBuffer buffer, FeatureExtractionPipeline pipeline) {
+        int numLabels = buffer.getInt();
+        buffer.position(buffer.position() + 4 * numLabels); // Labels are few, so always re-index them
+        int[] labels = new int[numLabels];
+        for (int l = 0; l < numLabels; l++)
+            labels[l] = pipeline.labelIndex(getString(buffer));
+        return labels;
+    }
+
+    static void writeFeatureTable(Writer writer, int[] features, FeatureExtractionPipeline pipeline) throws IOException {
+        byte[][] strings = new byte[features.length][];
+        int[] hashes = new int[features.length];
+        long totalLength = 0;
+        for (int r = 0; r < features.length; r++) {
+            String feature = pipeline.featureString(features[r]);
+            if (feature == null) throw new IOException("Pipeline has no string for feature index: " + features[r]);
+            strings[r] = feature.getBytes(StandardCharsets.UTF_8);
+            hashes[r] = feature.hashCode();
+            totalLength += 4 + strings[r].length;
+        }
+        writer.putInt(features.length);
+        for (int feature : features) writer.putInt(feature);
+        for (int hash : hashes) writer.putInt(hash);
+        writer.putLong(totalLength);
+        for (byte[] string : strings) {
+            writer.putInt(string.length);
+            writer.putBytes(string);
+        }
+    }
+
+    /**
+     * @return the index according to *pipeline* of the feature in each row of the table.
+     */
+    static int[] readFeatureTable(ByteBuffer buffer, FeatureExtractionPipeline pipeline) {
+        int numFeatures = buffer.getInt();
+        int[] features = new int[numFeatures];
+        for (int r = 0; r < numFeatures; r++)
+            features[r] = buffer.getInt();
+
+        int[] hashes = new int[numFeatures];
+        for (int r = 0; r < numFeatures; r++)
+            hashes[r] = buffer.getInt();
+
+        buffer.getLong(); // Total length of the strings
+        for (int r = 0; r < numFeatures; r++) {
+            int length = buffer.getInt();
+            String current = pipeline.featureString(features[r]);
+            if (current != null && current.hashCode() == hashes[r] && equalsUtf8(buffer, buffer.position(), length, current)) {
+                buffer.position(buffer.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                features[r] = pipeline.featureIndex(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+        return features;
+    }
+
+    /**
+     * @return true if the *length* bytes of *buffer* from *position* are the UTF-8 encoding of *string*, encoding
+     *         it as the bytes are compared rather than decoding them. The position of the buffer is unchanged.
+     *         A string with an unpaired surrogate never matches, since getBytes() would have replaced it.
+     */
+    static boolean equalsUtf8(ByteBuffer buffer, int position, int length, String string) {
+        int end = position + length;
+        int p = position;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                if (p >= end || buffer.get(p++) != (byte) c) return false;
+            } else if (c < 0x800) {
+                if (end - p < 2
+                        || buffer.get(p++) != (byte) (0xC0 | c >> 6)
+                        || buffer.get(p++) != (byte) (0x80 | c & 0x3F)) return false;
+            } else if (Character.isSurrogate(c)) {
+                if (!Character.isHighSurrogate(c) || i + 1 == string.length() || !Character.isLowSurrogate(string.charAt(i + 1)))
+                    return false;
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                if (end - p < 4
+                        || buffer.get(p++) != (byte) (0xF0 | codePoint >> 18)
+                        || buffer.get(p++) != (byte) (0x80 | codePoint >> 12 & 0x3F)
+                        || buffer.get(p++) != (byte) (0x80 | codePoint >> 6 & 0x3F)
+                        || buffer.get(p++) != (byte) (0x80 | codePoint & 0x3F)) return false;
+            } else {
+                if (end - p < 3
+                        || buffer.get(p++) != (byte) (0xE0 | c >> 12)
+                        || buffer.get(p++) != (byte) (0x80 | c >> 6 & 0x3F)
+                        || buffer.get(p++) != (byte) (0x80 | c & 0x3F)) return false;
+            }
+        }
+        return p == end;
+    }
+
+    /**
+     * @return true if the feature in each row has an index equal to the row, i.e. no mapping is required between them.
+     */
+    static boolean rowsAreIndices(int[] features) {
+        for (int r = 0; r < features.length; r++)
+            if (features[r] != r) return false;
+        return true;
+    }
+
+    static void skipToAlignment(ByteBuffer buffer) {
+        buffer.position((buffer.position() + 7) & ~7);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Map the whole of *file* read-only. The mapping remains valid after this method returns (and
+     * is shared with any other process mapping the same file) until the buffer is garbage collected.
+     */
+    static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Binary model file is too large to be mapped: " + file);
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Buffered writing of primitives to a file, keeping track of the position so that data can be aligned.
+     */
+    static class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        private long position = 0;
+
+        Writer(File file) throws IOException {
+            channel = new FileOutputStream(file).getChannel();
+        }
+
+        void putByte(byte value) throws IOException { ensure(1); buffer.put(value); position += 1; }
+        void putInt(int value) throws IOException { ensure(4); buffer.putInt(value); position += 4; }
+        void putLong(long value) throws IOException { ensure(8); buffer.putLong(value); position += 8; }
+        void putDouble(double value) throws IOException { ensure(8); buffer.putDouble(value); position += 8; }
+
+        void putBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+            position += bytes.length;
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        /**
+         * Pad with zeros until the position is a multiple of 8 bytes.
+         */
+        void align() throws IOException {
+            while ((position & 7) != 0) putByte((byte)0);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
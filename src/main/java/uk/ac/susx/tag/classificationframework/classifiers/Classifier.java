@@ -22,6 +22,11 @@ package uk.ac.susx.tag.classificationframework.classifiers;
 
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntSet;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * Interface defining the behaviour of a classifier.
@@ -63,4 +68,41 @@ public interface Classifier {
      * @return The most probable label.
      */
     public int bestLabel(int[] features);
+
+    /**
+     * Predict the label probabilities of many documents at once. The default implementation
+     * farms out the documents to the common fork-join pool, so implementations must be safe
+     * for concurrent calls to predict(). Override this if the classifier can do better
+     * with a whole batch at its disposal.
+     *
+     * @param documents Each element is a document as a collection of features.
+     * @return For each document (in the original order), see predict().
+     */
+    public default Int2DoubleOpenHashMap[] predictBatch(int[][] documents) {
+        Int2DoubleOpenHashMap[] predictions = new Int2DoubleOpenHashMap[documents.length];
+        IntStream.range(0, documents.length).parallel()
+                .forEach(i -> predictions[i] = predict(documents[i]));
+        return predictions;
+    }
+
+    /**
+     * Convenience method: predictBatch() on the features of each ProcessedInstance.
+     * The instances' labellings are not modified.
+     */
+    public default List<Int2DoubleOpenHashMap> predictBatch(List<ProcessedInstance> documents) {
+        return Arrays.asList(predictBatch(documents.stream().map(d -> d.features).toArray(int[][]::new)));
+    }
+
+    /**
+     * Find the most probable label of many documents at once. See predictBatch().
+     *
+     * @param documents Each element is a document as a collection of features.
+     * @return For each document (in the original order), the most probable label.
+     */
+    public default int[] bestLabelBatch(int[][] documents) {
+        int[] bestLabels = new int[documents.length];
+        IntStream.range(0, documents.length).parallel()
+                .forEach(i -> bestLabels[i] = bestLabel(documents[i]));
+        return bestLabels;
+    }
 }
@@ -20,10 +20,13 @@ package uk.ac.susx.tag.classificationframework.classifiers;
  * #L%
  */
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntIterable;
@@ -42,10 +45,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Naive bayes classifier which stores its data as counts.
@@ -72,17 +78,30 @@ import java.util.stream.Collectors;
  *      NB.train(labelledDocs)
  *      NB.emTrain(unlabelledDocs, NB)
  *
+ *    For large amounts of unlabelled data, use emTrainParallel() in place of emTrain().
+ *
  * See NaiveBayesClassifierPreComputed for a classifier which cannot be incrementally trained but
  * is more efficient for prediction:
  *
  *   efficientNB = new NaiveBayesClassifierPreComputed(NB)
  *
+ * Or see NaiveBayesClassifierPreComputedDense for an array-backed version which can classify
+ * without allocating per document:
+ *
+ *   denseNB = new NaiveBayesClassifierPreComputedDense(NB)
+ *
  * User: Andrew D. Robertson
  * Date: 25/07/2013
  * Time: 16:13
  */
 public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implements NaiveBayesPrecomputable, LowFrequencyFeatureTrimmable {
 
+    // Number of unlabelled documents handled by each task of the parallel E-step. See emTrainParallel().
+    protected static final int EM_CHUNK_SIZE = 2000;
+    // Number of chunks held in memory and counted concurrently by the parallel E-step. Fixed (rather than
+    // derived from the number of cores) so that the chunking and merge order are the same on every machine.
+    protected static final int EM_CHUNKS_PER_ROUND = 32;
+
     private double labelSmoothing = 5;       // Smoothing applied to class labels
     private double featureSmoothing = 1;     // Smoothing applied to features
 
@@ -98,6 +117,9 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
     protected Int2DoubleOpenHashMap featureAlphaTotals = new Int2DoubleOpenHashMap(); // Total feature pseudo counts per label
     protected Int2DoubleOpenHashMap labelAlphas = new Int2DoubleOpenHashMap();        // Label pseudo counts per label
 
+    // Per-label values derived from the above, which don't depend on the document being classified. See labelCache().
+    private volatile LabelCache labelCache = null;
+
 	private Map<String, Object> metadata = new HashMap<>();
 
 	public static final ClassifierName CLASSIFIER_NAME = ClassifierName.NB;
@@ -134,17 +156,24 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
 		return this.metadata;
 	}
 
-	public void setLabelSmoothing(double smoothingValue) {labelSmoothing = smoothingValue;}
+	public void setLabelSmoothing(double smoothingValue) {labelSmoothing = smoothingValue; invalidateLabelCache();}
 	public double getLabelSmoothing() {return labelSmoothing;}
-    public void setFeatureSmoothing(double smoothingValue) {featureSmoothing = smoothingValue;}
+    public void setFeatureSmoothing(double smoothingValue) {featureSmoothing = smoothingValue; invalidateLabelCache();}
 	public double getFeatureSmoothing() {return featureSmoothing;}
 
+    @Override
+    public void empiricalLabelPriors(boolean empiricalLabelPriors) {
+        super.empiricalLabelPriors(empiricalLabelPriors);
+        invalidateLabelCache();
+    }
+
     /**
      * Add pseudo-counts to a particular class label.
      */
     public void setLabelAlpha(int label, double alpha){
         labels.add(label);
         labelAlphas.addTo(label, alpha);
+        invalidateLabelCache();
     }
     public Int2DoubleOpenHashMap getLabelAlphas(){ return labelAlphas; }
 
@@ -156,6 +185,7 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
         vocab.add(feature);
         featureAlphaTotals.addTo(label, alpha - getFromMap(label, labelFeatureAlphas).get(feature));
         getFromMap(label, labelFeatureAlphas).put(feature, alpha);
+        invalidateLabelCache();
     }
     public Int2ObjectMap<Int2DoubleOpenHashMap> getLabelledFeatures(){ return labelFeatureAlphas; }
 
@@ -195,6 +225,7 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
             if (hasRealCounts(feature, label))
                 getFromMap(label, labelFeatureAlphas).remove(feature);
         } vocab.remove(feature);
+        invalidateLabelCache();
     }
 
     public boolean hasPseudoCounts(int feature, int label){
@@ -205,7 +236,7 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
         return getFromMap(label, jointCounts).get(feature) > 0;
     }
 
-    public void setLabelMultiplier(int label, double multiplier){  labelMultipliers.put(label, multiplier); }
+    public void setLabelMultiplier(int label, double multiplier){  labelMultipliers.put(label, multiplier); invalidateLabelCache(); }
     public Int2DoubleOpenHashMap getLabelMultipliers() { return labelMultipliers; }
 
 
@@ -261,6 +292,44 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
         emTrain(documents, 0.1, this);
     }
 
+    /**
+     * The same as emTrain(), except that the Expectation step is spread across all available cores.
+     *
+     * The documents are read in rounds of EM_CHUNKS_PER_ROUND chunks of EM_CHUNK_SIZE. Each chunk is
+     * classified and counted into its own partial NaiveBayesClassifier by a single thread, then the
+     * partials of a round are merged pairwise (see mergePartials()) before being added to this classifier.
+     * Only one round is held in memory at once, so *documents* can be a stream over a large collection.
+     *
+     * The resulting counts are the same as those of emTrain(), except that floating point sums are
+     * added up in a different order (so may differ in the last few bits). The rounds, chunks and merge
+     * order do not depend on the number of cores, so results are repeatable across machines.
+     *
+     * *classifier* must be safe to call predict() on concurrently once prepared (which all the
+     * classifiers in this package are). It is not modified until all the documents have been seen, so
+     * it can be "this" as with emTrain().
+     */
+    public void emTrainParallel(Iterable<ProcessedInstance> documents, double weight, Classifier classifier) {
+        mStep(eStepParallel(documents, weight, classifier));
+    }
+
+    public void emTrainParallel(Iterable<ProcessedInstance> documents, Classifier classifier){
+        emTrainParallel(documents, 0.1, classifier);
+    }
+
+    /**
+     * The same as emTrainParallel(), but with the label probabilities of the documents already assigned (e.g. by
+     * a trainer which also uses them to measure convergence), so that the documents aren't classified again.
+     * Documents are chunked and merged as by emTrainParallel(), so the counts are the same for the same posteriors.
+     *
+     * @param labelOrder The label of each posterior of a document.
+     * @param posteriors P(labelOrder[l]|documents.get(d)) at position d * labelOrder.length + l.
+     */
+    public void emTrainParallel(List<ProcessedInstance> documents, double weight, int[] labelOrder, double[] posteriors) {
+        if (posteriors.length != (long) documents.size() * labelOrder.length)
+            throw new IllegalArgumentException("Expected " + labelOrder.length + " posteriors for each of " + documents.size() + " documents, found " + posteriors.length);
+        mStep(eStepParallel(documents, (chunk, from) -> eStep(chunk, from, weight, labelOrder, posteriors)));
+    }
+
     /**
      * Train on a single document.
      * @param label Label of the document
@@ -278,6 +347,7 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
             labelCounts.addTo(label, labelProbability * weight);
             getFromMap(label,jointCounts).addTo(feature, labelProbability * weight);
         }
+        invalidateLabelCache();
     }
 
     public static void main(String[] args){
@@ -299,7 +369,26 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
      */
     public double likelihood(int feature, int label){
         return (featureDirichletPrior(feature, label) + getFromMap(label, jointCounts).get(feature)) /
-               (featureAlphaTotals.get(label) + featureSmoothing*vocab.size() + labelCounts.get(label));
+               likelihoodDenominator(labelCache(), label);
+    }
+
+    /**
+     * The denominator of likelihood() for *label*. Calculated directly for labels unknown to the cache.
+     */
+    private double likelihoodDenominator(LabelCache cache, int label){
+        double denominator = cache.denominators.get(label);
+        return Double.isNaN(denominator)? likelihoodDenominator(label) : denominator;
+    }
+
+    private double likelihoodDenominator(int label){
+        return featureAlphaTotals.get(label) + featureSmoothing*vocab.size() + labelCounts.get(label);
+    }
+
+    /**
+     * @return log(P(label)), see labelPriors().
+     */
+    protected double logLabelPrior(int label){
+        return labelCache().logPriors.get(label);
     }
 
     /**
@@ -327,19 +416,114 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
     @Override
     public Int2DoubleOpenHashMap logpriorPlusLoglikelihood(int[] features){
         Int2DoubleOpenHashMap labelScores = new Int2DoubleOpenHashMap();
-        Int2DoubleMap labelPriors = labelPriors();
+        LabelCache cache = labelCache();
         for (int label : labels) {
+            Int2DoubleOpenHashMap featureAlphas = getFromMap(label, labelFeatureAlphas);
+            Int2DoubleOpenHashMap labelJointCounts = getFromMap(label, jointCounts);
+            double denominator = likelihoodDenominator(cache, label);
             double loglikelihood = 0.0;
             for (int feature : features) {
                 if (vocab.contains(feature)){
-                    loglikelihood += Math.log(likelihood(feature, label));
+                    loglikelihood += Math.log((featureSmoothing + featureAlphas.get(feature) + labelJointCounts.get(feature)) / denominator);
                 }
             }
-            labelScores.put(label, Math.log(labelPriors.get(label)) + loglikelihood);
+            labelScores.put(label, cache.logPriors.get(label) + loglikelihood);
         }
         return labelScores;
     }
 
+    @Override
+    protected boolean supportsBlockScoring() {
+        return true;
+    }
+
+    /**
+     * Label-major version of logpriorPlusLoglikelihood(), so that the priors and likelihood
+     * denominators are calculated once per label per block, rather than for every document.
+     */
+    @Override
+    protected double[] logpriorPlusLoglikelihoodBlock(int[][] documents, int from, int to, int[] labelOrder) {
+        int numLabels = labelOrder.length;
+        double[] scores = new double[(to - from) * numLabels];
+        LabelCache cache = labelCache();
+        for (int l = 0; l < numLabels; l++) {
+            int label = labelOrder[l];
+            Int2DoubleOpenHashMap featureAlphas = getFromMap(label, labelFeatureAlphas);
+            Int2DoubleOpenHashMap labelJointCounts = getFromMap(label, jointCounts);
+            double denominator = likelihoodDenominator(cache, label);
+            double logPrior = cache.logPriors.get(label);
+            for (int d = from; d < to; d++) {
+                double loglikelihood = 0.0;
+                for (int feature : documents[d]) {
+                    if (vocab.contains(feature)) {
+                        loglikelihood += Math.log((featureSmoothing + featureAlphas.get(feature) + labelJointCounts.get(feature)) / denominator);
+                    }
+                }
+                scores[(d - from) * numLabels + l] = logPrior + loglikelihood;
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Ensure getFromMap() will not need to add any maps during prediction.
+     */
+    @Override
+    protected void prepareForConcurrentPrediction() {
+        for (int label : labels) {
+            getFromMap(label, jointCounts);
+            getFromMap(label, labelFeatureAlphas);
+        }
+        labelCache();
+    }
+
+    /**
+     * Any method which modifies the counts, pseudo-counts, smoothing, label multipliers, labels or vocab
+     * should call this, so that the cached per-label values are recalculated on next use. Call it yourself
+     * if you modify the maps returned by the getters directly.
+     */
+    public void invalidateLabelCache() {
+        if (labelCache != null) labelCache = null; // Avoids a volatile write per instance when training
+    }
+
+    /**
+     * Get the cached per-label values, re-calculating them if they've been invalidated (or if the labels
+     * or vocab have changed size, since the label set may be shared with other classifiers).
+     *
+     * The cache is never modified after creation, it is replaced wholesale, so it is safe for concurrent
+     * predictions to find it invalid and recalculate it at the same time.
+     */
+    private LabelCache labelCache() {
+        LabelCache cache = labelCache;
+        if (cache == null || cache.numLabels != labels.size() || cache.vocabSize != vocab.size()) {
+            cache = new LabelCache(this);
+            labelCache = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * For each label, the denominator of likelihood() and the log of the label prior.
+     */
+    private static class LabelCache {
+
+        final int numLabels;
+        final int vocabSize;
+        final Int2DoubleOpenHashMap denominators = new Int2DoubleOpenHashMap();
+        final Int2DoubleOpenHashMap logPriors = new Int2DoubleOpenHashMap();
+
+        LabelCache(NaiveBayesClassifier nb) {
+            numLabels = nb.labels.size();
+            vocabSize = nb.vocab.size();
+            denominators.defaultReturnValue(Double.NaN); // Signals an unknown label
+            Int2DoubleMap priors = nb.labelPriors();
+            for (int label : nb.labels) {
+                denominators.put(label, nb.likelihoodDenominator(label));
+                logPriors.put(label, Math.log(priors.get(label)));
+            }
+        }
+    }
+
     /**
      * Get the count of a feature across all labels (including pseudocounts).
      */
@@ -366,6 +550,69 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
         return nb;
     }
 
+    /**
+     * Perform the Expectation step of EM with posteriors already assigned. The posteriors of documents[0]
+     * are those of the *from*th document. See emTrainParallel().
+     */
+    private static NaiveBayesClassifier eStep(List<ProcessedInstance> documents, int from, double weight, int[] labelOrder, double[] posteriors){
+        NaiveBayesClassifier nb = new NaiveBayesClassifier();
+        for (int d = 0; d < documents.size(); d++){
+            int offset = (from + d) * labelOrder.length;
+            for (int l = 0; l < labelOrder.length; l++)
+                nb.trainOnInstance(labelOrder[l], documents.get(d).features, posteriors[offset + l], weight);
+        }
+        return nb;
+    }
+
+    /**
+     * Perform the Expectation step of EM in parallel. See emTrainParallel().
+     */
+    private NaiveBayesClassifier eStepParallel(Iterable<ProcessedInstance> documents, double weight, Classifier classifier){
+        if (classifier instanceof AbstractNaiveBayesClassifier)
+            ((AbstractNaiveBayesClassifier) classifier).prepareForConcurrentPrediction();
+        return eStepParallel(documents, (chunk, from) -> eStep(chunk, weight, classifier));
+    }
+
+    /**
+     * Counts a chunk of documents starting at the *from*th, for eStepParallel().
+     */
+    private interface ChunkEStep {
+        NaiveBayesClassifier count(List<ProcessedInstance> chunk, int from);
+    }
+
+    private static NaiveBayesClassifier eStepParallel(Iterable<ProcessedInstance> documents, ChunkEStep eStep){
+        NaiveBayesClassifier nb = new NaiveBayesClassifier();
+        int roundStart = 0;
+        for (List<ProcessedInstance> round : Iterables.partition(documents, EM_CHUNK_SIZE * EM_CHUNKS_PER_ROUND)) {
+            List<List<ProcessedInstance>> chunks = Lists.partition(round, EM_CHUNK_SIZE);
+            final int start = roundStart;
+            NaiveBayesClassifier[] partials = IntStream.range(0, chunks.size()).parallel()
+                    .mapToObj(i -> eStep.count(chunks.get(i), start + i * EM_CHUNK_SIZE))
+                    .toArray(NaiveBayesClassifier[]::new);
+            nb.mStep(mergePartials(partials));
+            roundStart += round.size();
+        }
+        return nb;
+    }
+
+    /**
+     * Merge the counts of partial classifiers as a binary tree: at each level, partial i absorbs partial
+     * i + step, and all merges at a level are performed in parallel. The merges are always between the
+     * same pairs, regardless of the number of threads available.
+     *
+     * @return the partial which all others have been merged into (partials[0]), or an empty classifier.
+     */
+    private static NaiveBayesClassifier mergePartials(NaiveBayesClassifier[] partials){
+        if (partials.length == 0) return new NaiveBayesClassifier();
+        for (int step = 1; step < partials.length; step *= 2) {
+            final int s = step;
+            IntStream.iterate(0, i -> i + 2 * s).limit((partials.length - 1) / (2 * s) + 1).parallel()
+                    .filter(i -> i + s < partials.length)
+                    .forEach(i -> partials[i].mStep(partials[i + s]));
+        }
+        return partials[0];
+    }
+
     /**
      * Perform the Maximisation step of EM. See emTrain().
      * Add to this NaiveBayesClassifier the counts of another
@@ -380,6 +627,7 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
         for (Int2ObjectMap.Entry<Int2DoubleOpenHashMap> entry : nb.jointCounts.int2ObjectEntrySet()){
             addTo(getFromMap(entry.getIntKey(), jointCounts), entry.getValue());
         }
+        invalidateLabelCache();
     }
 
     /**
@@ -537,6 +785,105 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
     }
 
 
+    /**
+     * Write classifier to file in the binary format described in BinaryModelFormat. Unlike the JSON representation,
+     * the feature strings are written only once, with all counts referring to features by their row in the feature
+     * table. Per-label values are written for every label in the table, with NaN meaning "absent".
+     */
+    public void writeBinary(File out, FeatureExtractionPipeline pipeline) throws IOException {
+        Int2DoubleOpenHashMap[] labelMaps = {docCounts, labelCounts, featureAlphaTotals, labelAlphas, labelMultipliers};
+
+        IntSet allLabels = new IntOpenHashSet(labels);
+        for (Int2DoubleOpenHashMap map : labelMaps) allLabels.addAll(map.keySet());
+        allLabels.addAll(jointCounts.keySet());
+        allLabels.addAll(labelFeatureAlphas.keySet());
+        int[] labelTable = allLabels.toIntArray();
+        Arrays.sort(labelTable);
+
+        IntSet allFeatures = new IntOpenHashSet(vocab);
+        for (Int2DoubleOpenHashMap map : jointCounts.values()) allFeatures.addAll(map.keySet());
+        for (Int2DoubleOpenHashMap map : labelFeatureAlphas.values()) allFeatures.addAll(map.keySet());
+        int[] featureTable = allFeatures.toIntArray();
+        Arrays.sort(featureTable);
+        Int2IntOpenHashMap featureRows = new Int2IntOpenHashMap(featureTable.length);
+        for (int r = 0; r < featureTable.length; r++) featureRows.put(featureTable[r], r);
+
+        try (BinaryModelFormat.Writer writer = new BinaryModelFormat.Writer(out)) {
+            BinaryModelFormat.writeHeader(writer, BinaryModelFormat.TYPE_COUNTS, empiricalLabelPriors);
+            BinaryModelFormat.writeLabelTable(writer, labelTable, pipeline);
+            BinaryModelFormat.writeFeatureTable(writer, featureTable, pipeline);
+            writer.align();
+
+            writer.putDouble(labelSmoothing);
+            writer.putDouble(featureSmoothing);
+            for (int label : labelTable) {
+                writer.putByte((byte)(labels.contains(label) ? 1 : 0));
+                for (Int2DoubleOpenHashMap map : labelMaps)
+                    writer.putDouble(map.containsKey(label) ? map.get(label) : Double.NaN);
+            }
+            for (int feature : featureTable)
+                writer.putByte((byte)(vocab.contains(feature) ? 1 : 0));
+            for (int label : labelTable) {
+                writeBinarySparse(writer, jointCounts.get(label), featureRows);
+                writeBinarySparse(writer, labelFeatureAlphas.get(label), featureRows);
+            }
+        }
+    }
+
+    private static void writeBinarySparse(BinaryModelFormat.Writer writer, Int2DoubleOpenHashMap map, Int2IntOpenHashMap featureRows) throws IOException {
+        if (map == null) { writer.putInt(-1); return; }
+        writer.putInt(map.size());
+        ObjectIterator<Int2DoubleMap.Entry> i = map.int2DoubleEntrySet().fastIterator();
+        while (i.hasNext()) {
+            Int2DoubleMap.Entry entry = i.next();
+            writer.putInt(featureRows.get(entry.getIntKey()));
+            writer.putDouble(entry.getDoubleValue());
+        }
+    }
+
+    /**
+     * Read classifier from a file written by writeBinary(). The file is memory-mapped rather than parsed,
+     * and feature strings are only re-indexed if the pipeline doesn't already agree with the saved indices.
+     */
+    public static NaiveBayesClassifier readBinary(File in, FeatureExtractionPipeline pipeline) throws IOException {
+        ByteBuffer buffer = BinaryModelFormat.map(in);
+        byte flags = BinaryModelFormat.readHeader(buffer, BinaryModelFormat.TYPE_COUNTS);
+        int[] labelTable = BinaryModelFormat.readLabelTable(buffer, pipeline);
+        int[] featureTable = BinaryModelFormat.readFeatureTable(buffer, pipeline);
+        BinaryModelFormat.skipToAlignment(buffer);
+
+        NaiveBayesClassifier nb = new NaiveBayesClassifier();
+        Int2DoubleOpenHashMap[] labelMaps = {nb.docCounts, nb.labelCounts, nb.featureAlphaTotals, nb.labelAlphas, nb.labelMultipliers};
+        nb.empiricalLabelPriors = BinaryModelFormat.empiricalLabelPriors(flags);
+        nb.labelSmoothing = buffer.getDouble();
+        nb.featureSmoothing = buffer.getDouble();
+        for (int label : labelTable) {
+            if (buffer.get() != 0) nb.labels.add(label);
+            for (Int2DoubleOpenHashMap map : labelMaps) {
+                double value = buffer.getDouble();
+                if (!Double.isNaN(value)) map.put(label, value);
+            }
+        }
+        for (int feature : featureTable)
+            if (buffer.get() != 0) nb.vocab.add(feature);
+        for (int label : labelTable) {
+            readBinarySparse(buffer, label, nb.jointCounts, featureTable);
+            readBinarySparse(buffer, label, nb.labelFeatureAlphas, featureTable);
+        }
+        return nb;
+    }
+
+    private static void readBinarySparse(ByteBuffer buffer, int label, Int2ObjectMap<Int2DoubleOpenHashMap> map, int[] featureTable) {
+        int size = buffer.getInt();
+        if (size < 0) return;
+        Int2DoubleOpenHashMap values = new Int2DoubleOpenHashMap(size);
+        for (int i = 0; i < size; i++) {
+            int feature = featureTable[buffer.getInt()];
+            values.put(feature, buffer.getDouble());
+        }
+        map.put(label, values);
+    }
+
     /**
      * calculates the pair wise Kullback-Leibler divergence of the language models pf each label
      *
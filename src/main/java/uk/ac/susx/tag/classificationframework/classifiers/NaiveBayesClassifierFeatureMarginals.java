@@ -253,7 +253,6 @@ public class NaiveBayesClassifierFeatureMarginals extends NaiveBayesClassifier i
     public Int2DoubleOpenHashMap logpriorPlusLoglikelihood(int[] features)
     {
         Int2DoubleOpenHashMap labelScores = new Int2DoubleOpenHashMap();
-        Int2DoubleMap labelPriors = labelPriors();
         Int2DoubleOpenHashMap fmMap = null;
         for (int label : this.labels) {
             double loglikelihood = 0.0;
@@ -266,11 +265,28 @@ public class NaiveBayesClassifierFeatureMarginals extends NaiveBayesClassifier i
                     }
                 }
             }
-            labelScores.put(label, Math.log(labelPriors.get(label)) + loglikelihood);
+            labelScores.put(label, logLabelPrior(label) + loglikelihood);
         }
         return labelScores;
     }
 
+	/**
+	 * The label-major scoring inherited from NaiveBayesClassifier doesn't account for the feature
+	 * marginals, so batch prediction falls back to scoring each document individually.
+	 */
+	@Override
+	protected boolean supportsBlockScoring() {
+		return false;
+	}
+
+	@Override
+	protected void prepareForConcurrentPrediction() {
+		super.prepareForConcurrentPrediction();
+		for (int label : this.labels) {
+			super.getFromMap(label, this.optClassCondFMProbs);
+		}
+	}
+
 	/**
 	 * Write classifier to file in JSON representation. Convert all features and labels to their string representation.
 	 */
@@ -52,4 +52,20 @@ public class NaiveBayesClassifierOVRPreComputed extends NaiveBayesClassifierPreC
 		return jll;
 	}
 
+	/*
+		Scores are pieced together from the ovrLearners rather than the inherited likelihoods,
+		so batch prediction must fall back to scoring each document individually.
+	 */
+	@Override
+	protected boolean supportsBlockScoring() {
+		return false;
+	}
+
+	@Override
+	protected void prepareForConcurrentPrediction() {
+		for (AbstractNaiveBayesClassifier learner : this.ovrLearners.values()) {
+			learner.prepareForConcurrentPrediction();
+		}
+	}
+
 }
@@ -98,6 +98,34 @@ public class NaiveBayesClassifierPreComputed extends AbstractNaiveBayesClassifie
         return labelScores;
     }
 
+    @Override
+    protected boolean supportsBlockScoring() {
+        return true;
+    }
+
+    /**
+     * Label-major version of logpriorPlusLoglikelihood(), so that each label's likelihoods
+     * are used for the whole block before moving on to the next label.
+     */
+    @Override
+    protected double[] logpriorPlusLoglikelihoodBlock(int[][] documents, int from, int to, int[] labelOrder) {
+        int numLabels = labelOrder.length;
+        double[] scores = new double[(to - from) * numLabels];
+        for (int l = 0; l < numLabels; l++) {
+            int label = labelOrder[l];
+            Int2DoubleMap likelihoods = featureLikelihoods.get(label);
+            double labelPrior = empiricalLabelPriors ? labelPriors.get(label) : 0;
+            for (int d = from; d < to; d++) {
+                double loglikelihood = 0;
+                for (int feature : documents[d]) {
+                    if (vocab.contains(feature)) loglikelihood += likelihoods.get(feature);
+                }
+                scores[(d - from) * numLabels + l] = labelPrior + loglikelihood;
+            }
+        }
+        return scores;
+    }
+
     /**
      * Pre-compute likelihoods and priors based on counts obtained from NaiveBayesClassifier instance.
      */
@@ -114,6 +142,14 @@ public class NaiveBayesClassifierPreComputed extends AbstractNaiveBayesClassifie
         }
     }
 
+    /**
+     * Write in the binary format of NaiveBayesClassifierPreComputedDense, to be memory-mapped by
+     * NaiveBayesClassifierPreComputedMapped.readBinary().
+     */
+    public void writeBinary(File out, FeatureExtractionPipeline pipeline) throws IOException {
+        new NaiveBayesClassifierPreComputedDense(this).writeBinary(out, pipeline);
+    }
+
     public static NaiveBayesClassifierPreComputed readJson(File jsonFile, FeatureExtractionPipeline pipeline) throws IOException {
         NaiveBayesClassifierPreComputed nb = new NaiveBayesClassifierPreComputed();
         try (JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(jsonFile), "UTF-8"))){
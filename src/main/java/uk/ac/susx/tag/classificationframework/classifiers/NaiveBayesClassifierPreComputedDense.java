@@ -0,0 +1,270 @@
+package uk.ac.susx.tag.classificationframework.classifiers;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Naive bayes which stores pre-computed log probabilities in flat primitive arrays
+ * rather than nested hash maps.
+ *
+ * Features are expected to be the dense indices produced by a StringIndexer (i.e. the
+ * indices handed out by FeatureExtractionPipeline.featureIndex()), so that they can be
+ * used directly as offsets into a single contiguous array of log likelihoods. The array
+ * is feature-major:
+ *
+ *   featureLikelihoods[feature * numLabels + labelIndex] = log(P(feature|label))
+ *
+ * So that scoring a document is a single linear pass over its features, each touching
+ * one short contiguous run of the array. Rows of features which are not in the vocabulary
+ * are zero, so they contribute nothing (the same as them being skipped).
+ *
+ * Labels are held in a fixed order, see getLabelOrder(). Use predictInto() and
+ * logpriorPlusLoglikelihoodInto() with a re-used buffer of length numLabels() in order
+ * to classify without allocating anything per document. The map-returning methods
+ * are still available for compatibility with the rest of the framework.
+ *
+ * Like NaiveBayesClassifierPreComputed, it cannot be further trained. It must be
+ * created from a NaiveBayesClassifier (or an existing precomputed classifier):
+ *
+ *   denseNB = new NaiveBayesClassifierPreComputedDense(NB)
+ *
+ * Use writeBinary() to save the tables in a form which can be memory-mapped by
+ * NaiveBayesClassifierPreComputedMapped.
+ */
+public class NaiveBayesClassifierPreComputedDense extends AbstractNaiveBayesClassifier {
+
+    private static final long MAX_TABLE_SIZE = Integer.MAX_VALUE - 8; // Largest array length the JVM reliably allows
+
+    private int[] labelOrder;                  // The label found at each label index
+    private Int2IntMap labelIndices;           // Mapping from label to its label index
+    private double[] labelPriors;              // Log prior for each label index
+    private double[] featureLikelihoods;       // Feature-major log likelihoods (see class doc)
+    private int numLabels;
+    private int numFeatures;                   // 1 + the largest feature index in the vocabulary
+
+    /**
+     * Pre-compute likelihoods and priors based on counts obtained from NaiveBayesClassifier instance.
+     */
+    public NaiveBayesClassifierPreComputedDense(NaiveBayesClassifier nb){
+        super();
+        empiricalLabelPriors = nb.empiricalLabelPriors();
+        init(nb.getLabels(), nb.getVocab());
+        Int2DoubleMap rawLabelPriors = nb.labelPriors();
+        for (int l = 0; l < numLabels; l++){
+            int label = labelOrder[l];
+            labelPriors[l] = Math.log(rawLabelPriors.get(label));
+            for (int feature : vocab)
+                featureLikelihoods[feature * numLabels + l] = Math.log(nb.likelihood(feature, label));
+        }
+    }
+
+    /**
+     * Convert the hash map representation of an existing pre-computed classifier into the dense representation.
+     * Note that since the NaiveBayesClassifierPreComputed stores the empirical label priors regardless of whether
+     * they are used, the "empiricalLabelPriors" setting is copied across.
+     */
+    public NaiveBayesClassifierPreComputedDense(NaiveBayesClassifierPreComputed nb){
+        super();
+        empiricalLabelPriors = nb.empiricalLabelPriors();
+        init(nb.getLabels(), nb.getVocab());
+        for (int l = 0; l < numLabels; l++){
+            int label = labelOrder[l];
+            labelPriors[l] = nb.getLabelPriors().get(label);
+            Int2DoubleMap likelihoods = nb.getFeatureLikelihoods().get(label);
+            if (likelihoods == null)
+                throw new IllegalArgumentException("Precomputed classifier has no feature likelihoods for label: " + label);
+            for (int feature : vocab)
+                featureLikelihoods[feature * numLabels + l] = likelihoods.get(feature);
+        }
+    }
+
+    /**
+     * @return true if the dense tables can be built for *nb*, i.e. its feature indices are all non-negative and
+     *         the table of likelihoods fits in a single array. Otherwise use NaiveBayesClassifierPreComputed.
+     */
+    public static boolean canPrecompute(AbstractNaiveBayesClassifier nb){
+        int maxFeature = -1;
+        for (int feature : nb.getVocab()) {
+            if (feature < 0) return false;
+            if (feature > maxFeature) maxFeature = feature;
+        }
+        return (long)(maxFeature + 1) * nb.getLabels().size() <= MAX_TABLE_SIZE;
+    }
+
+    /**
+     * Allocate the arrays and fix the label ordering.
+     */
+    private void init(IntSet labels, IntSet vocab){
+        this.labels.addAll(labels);
+        this.vocab.addAll(vocab);
+
+        labelOrder = this.labels.toIntArray();
+        Arrays.sort(labelOrder);
+        numLabels = labelOrder.length;
+        labelIndices = new Int2IntOpenHashMap(numLabels);
+        labelIndices.defaultReturnValue(-1);
+        for (int l = 0; l < numLabels; l++)
+            labelIndices.put(labelOrder[l], l);
+
+        int maxFeature = -1;
+        for (int feature : this.vocab) {
+            if (feature < 0) throw new IllegalArgumentException("Dense classifier requires non-negative feature indices, found: " + feature);
+            if (feature > maxFeature) maxFeature = feature;
+        }
+        numFeatures = maxFeature + 1;
+
+        long size = (long)numFeatures * numLabels;
+        if (size > MAX_TABLE_SIZE)
+            throw new IllegalArgumentException("Too many features ("+numFeatures+") and labels ("+numLabels+") for a dense likelihood table.");
+
+        labelPriors = new double[numLabels];
+        featureLikelihoods = new double[(int)size];
+    }
+
+    /**
+     * @return the number of labels, i.e. the minimum length of the buffers passed to the "Into" methods.
+     */
+    public int numLabels() { return numLabels; }
+
+    /**
+     * @return the label found at each position of the buffers filled by the "Into" methods. Do not modify.
+     */
+    public int[] getLabelOrder() { return labelOrder; }
+
+    /**
+     * @return the position of *label* in the buffers filled by the "Into" methods, or -1 if the label is unknown.
+     */
+    public int labelIndex(int label) { return labelIndices.get(label); }
+
+    /**
+     * @return the label at position *labelIndex* in the buffers filled by the "Into" methods.
+     */
+    public int labelAt(int labelIndex) { return labelOrder[labelIndex]; }
+
+    /**
+     * For each label index l, place log(P(label_l)) + log(P(features|label_l)) in out[l].
+     * No allocation is performed.
+     */
+    public void logpriorPlusLoglikelihoodInto(int[] features, double[] out){
+        if (out.length < numLabels)
+            throw new IllegalArgumentException("Output buffer has length " + out.length + " but there are " + numLabels + " labels.");
+        if (empiricalLabelPriors) System.arraycopy(labelPriors, 0, out, 0, numLabels);
+        else Arrays.fill(out, 0, numLabels, 0);
+
+        for (int feature : features) {
+            if (feature >= 0 && feature < numFeatures) {
+                int offset = feature * numLabels;
+                for (int l = 0; l < numLabels; l++)
+                    out[l] += featureLikelihoods[offset + l];
+            }
+        }
+    }
+
+    /**
+     * For each label index l, place P(label_l|features) in out[l].
+     * No allocation is performed, so re-use *out* across documents.
+     */
+    public void predictInto(int[] features, double[] out){
+        logpriorPlusLoglikelihoodInto(features, out);
+        double max = Double.NEGATIVE_INFINITY;
+        for (int l = 0; l < numLabels; l++)
+            if (out[l] > max) max = out[l];
+        double normalisation = 0;
+        for (int l = 0; l < numLabels; l++) {
+            out[l] = Math.exp(out[l] - max);
+            normalisation += out[l];
+        }
+        for (int l = 0; l < numLabels; l++)
+            out[l] /= normalisation;
+    }
+
+    @Override
+    public Int2DoubleOpenHashMap logpriorPlusLoglikelihood(int[] features){
+        double[] scores = new double[numLabels];
+        logpriorPlusLoglikelihoodInto(features, scores);
+        Int2DoubleOpenHashMap labelScores = new Int2DoubleOpenHashMap(numLabels);
+        for (int l = 0; l < numLabels; l++)
+            labelScores.put(labelOrder[l], scores[l]);
+        return labelScores;
+    }
+
+    @Override
+    protected boolean supportsBlockScoring() {
+        return true;
+    }
+
+    /**
+     * The dense table is feature-major, so a block is scored one document at a time,
+     * each document a single linear pass (see logpriorPlusLoglikelihoodInto()).
+     */
+    @Override
+    protected double[] logpriorPlusLoglikelihoodBlock(int[][] documents, int from, int to, int[] labelOrder) {
+        double[] scores = new double[(to - from) * numLabels];
+        double[] buffer = new double[numLabels];
+        for (int d = from; d < to; d++) {
+            logpriorPlusLoglikelihoodInto(documents[d], buffer);
+            System.arraycopy(buffer, 0, scores, (d - from) * numLabels, numLabels);
+        }
+        return scores;
+    }
+
+    @Override
+    protected int[] batchLabelOrder() {
+        return labelOrder;
+    }
+
+    /**
+     * Label-major pass over the features, which means that a buffer of label scores is
+     * not required, so no allocation is performed.
+     */
+    @Override
+    public int bestLabel(int[] features){
+        if (numLabels == 0) throw new NoSuchElementException("Empty collection");
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int l = 0; l < numLabels; l++){
+            double score = empiricalLabelPriors ? labelPriors[l] : 0;
+            for (int feature : features) {
+                if (feature >= 0 && feature < numFeatures)
+                    score += featureLikelihoods[feature * numLabels + l];
+            }
+            if (score > bestScore) {
+                best = l;
+                bestScore = score;
+            }
+        }
+        return labelOrder[best];
+    }
+
+    /**
+     * Write the log priors and likelihoods to file in the binary format described in BinaryModelFormat,
+     * to be read by NaiveBayesClassifierPreComputedMapped.readBinary(). Only the rows of features in the
+     * vocabulary are written, in order of feature index.
+     */
+    public void writeBinary(File out, FeatureExtractionPipeline pipeline) throws IOException {
+        int[] featureTable = vocab.toIntArray();
+        Arrays.sort(featureTable);
+        try (BinaryModelFormat.Writer writer = new BinaryModelFormat.Writer(out)) {
+            BinaryModelFormat.writeHeader(writer, BinaryModelFormat.TYPE_LOG_PROBABILITIES, empiricalLabelPriors);
+            BinaryModelFormat.writeLabelTable(writer, labelOrder, pipeline);
+            BinaryModelFormat.writeFeatureTable(writer, featureTable, pipeline);
+            writer.align();
+            for (int l = 0; l < numLabels; l++)
+                writer.putDouble(labelPriors[l]);
+            for (int feature : featureTable) {
+                int offset = feature * numLabels;
+                for (int l = 0; l < numLabels; l++)
+                    writer.putDouble(featureLikelihoods[offset + l]);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package uk.ac.susx.tag.classificationframework.classifiers;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Naive bayes whose pre-computed log likelihoods are read directly from a memory-mapped file
+ * written by NaiveBayesClassifierPreComputedDense.writeBinary() (see BinaryModelFormat).
+ *
+ * Loading does not copy the likelihood table onto the heap, so a classifier can be loaded
+ * quickly regardless of its size, and several processes serving the same model file share a
+ * single copy of it in the page cache:
+ *
+ *   mappedNB = NaiveBayesClassifierPreComputedMapped.readBinary(file, pipeline)
+ *
+ * The table is laid out like that of NaiveBayesClassifierPreComputedDense (feature-major),
+ * except that rows are only present for features in the vocabulary. If the pipeline assigns
+ * each feature the index of its row (usually the case when the pipeline's feature indexer started
+ * empty) then features are used directly as row offsets; otherwise a mapping is kept.
+ *
+ * Like the other precomputed classifiers, it cannot be further trained.
+ */
+public class NaiveBayesClassifierPreComputedMapped extends AbstractNaiveBayesClassifier {
+
+    private final int[] labelOrder;                 // The label found at each label index
+    private final double[] labelPriors;             // Log prior for each label index
+    private final DoubleBuffer featureLikelihoods;  // Feature-major log likelihoods, indexed by row
+    private final int numLabels;
+    private final int[] rowFeatures;                // The feature index of each row
+    private final Int2IntMap featureRows;           // Mapping from feature index to row, or null if they're the same
+
+    private boolean vocabPopulated = false;
+
+    private NaiveBayesClassifierPreComputedMapped(int[] labelOrder, double[] labelPriors, DoubleBuffer featureLikelihoods, int[] rowFeatures){
+        super();
+        this.labelOrder = labelOrder;
+        this.labelPriors = labelPriors;
+        this.featureLikelihoods = featureLikelihoods;
+        this.numLabels = labelOrder.length;
+        this.rowFeatures = rowFeatures;
+        for (int label : labelOrder) labels.add(label);
+
+        if (BinaryModelFormat.rowsAreIndices(rowFeatures)) {
+            featureRows = null;
+        } else {
+            featureRows = new Int2IntOpenHashMap(rowFeatures.length);
+            featureRows.defaultReturnValue(-1);
+            for (int r = 0; r < rowFeatures.length; r++)
+                featureRows.put(rowFeatures[r], r);
+        }
+    }
+
+    /**
+     * Memory-map a classifier written by NaiveBayesClassifierPreComputedDense.writeBinary(), or
+     * NaiveBayesClassifierPreComputed.writeBinary(). Features and labels are indexed according to *pipeline*.
+     */
+    public static NaiveBayesClassifierPreComputedMapped readBinary(File in, FeatureExtractionPipeline pipeline) throws IOException {
+        ByteBuffer buffer = BinaryModelFormat.map(in);
+        byte flags = BinaryModelFormat.readHeader(buffer, BinaryModelFormat.TYPE_LOG_PROBABILITIES);
+        int[] labelOrder = BinaryModelFormat.readLabelTable(buffer, pipeline);
+        int[] rowFeatures = BinaryModelFormat.readFeatureTable(buffer, pipeline);
+        BinaryModelFormat.skipToAlignment(buffer);
+
+        double[] labelPriors = new double[labelOrder.length];
+        for (int l = 0; l < labelPriors.length; l++)
+            labelPriors[l] = buffer.getDouble();
+
+        long tableSize = (long)rowFeatures.length * labelOrder.length;
+        if (buffer.remaining() < tableSize * 8)
+            throw new IOException("Binary model file is truncated: " + in);
+        DoubleBuffer featureLikelihoods = buffer.slice().asDoubleBuffer();
+        featureLikelihoods.limit((int)tableSize);
+
+        NaiveBayesClassifierPreComputedMapped nb = new NaiveBayesClassifierPreComputedMapped(labelOrder, labelPriors, featureLikelihoods, rowFeatures);
+        nb.empiricalLabelPriors = BinaryModelFormat.empiricalLabelPriors(flags);
+        return nb;
+    }
+
+    /**
+     * The vocabulary is only built if asked for, since it isn't required for classification.
+     */
+    @Override
+    public synchronized IntSet getVocab() {
+        if (!vocabPopulated) {
+            vocab = new IntOpenHashSet(rowFeatures);
+            vocabPopulated = true;
+        }
+        return vocab;
+    }
+
+    /**
+     * @return the number of labels, i.e. the minimum length of the buffers passed to logpriorPlusLoglikelihoodInto().
+     */
+    public int numLabels() { return numLabels; }
+
+    /**
+     * @return the label found at each position of the buffers filled by logpriorPlusLoglikelihoodInto(). Do not modify.
+     */
+    public int[] getLabelOrder() { return labelOrder; }
+
+    /**
+     * @return the label at position *labelIndex* in the buffers filled by logpriorPlusLoglikelihoodInto().
+     */
+    public int labelAt(int labelIndex) { return labelOrder[labelIndex]; }
+
+    /**
+     * @return the row of the likelihood table for *feature*, or -1 if it is not in the vocabulary.
+     */
+    private int row(int feature) {
+        if (featureRows != null) return featureRows.get(feature);
+        return feature >= 0 && feature < rowFeatures.length ? feature : -1;
+    }
+
+    /**
+     * For each label index l, place log(P(label_l)) + log(P(features|label_l)) in out[l].
+     * No allocation is performed.
+     */
+    public void logpriorPlusLoglikelihoodInto(int[] features, double[] out){
+        if (out.length < numLabels)
+            throw new IllegalArgumentException("Output buffer has length " + out.length + " but there are " + numLabels + " labels.");
+        if (empiricalLabelPriors) System.arraycopy(labelPriors, 0, out, 0, numLabels);
+        else Arrays.fill(out, 0, numLabels, 0);
+
+        for (int feature : features) {
+            int row = row(feature);
+            if (row >= 0) {
+                int offset = row * numLabels;
+                for (int l = 0; l < numLabels; l++)
+                    out[l] += featureLikelihoods.get(offset + l);
+            }
+        }
+    }
+
+    @Override
+    public Int2DoubleOpenHashMap logpriorPlusLoglikelihood(int[] features){
+        double[] scores = new double[numLabels];
+        logpriorPlusLoglikelihoodInto(features, scores);
+        Int2DoubleOpenHashMap labelScores = new Int2DoubleOpenHashMap(numLabels);
+        for (int l = 0; l < numLabels; l++)
+            labelScores.put(labelOrder[l], scores[l]);
+        return labelScores;
+    }
+
+    @Override
+    protected boolean supportsBlockScoring() {
+        return true;
+    }
+
+    @Override
+    protected double[] logpriorPlusLoglikelihoodBlock(int[][] documents, int from, int to, int[] labelOrder) {
+        double[] scores = new double[(to - from) * numLabels];
+        double[] buffer = new double[numLabels];
+        for (int d = from; d < to; d++) {
+            logpriorPlusLoglikelihoodInto(documents[d], buffer);
+            System.arraycopy(buffer, 0, scores, (d - from) * numLabels, numLabels);
+        }
+        return scores;
+    }
+
+    @Override
+    protected int[] batchLabelOrder() {
+        return labelOrder;
+    }
+
+    @Override
+    public int bestLabel(int[] features){
+        if (numLabels == 0) throw new NoSuchElementException("Empty collection");
+        double[] scores = new double[numLabels];
+        logpriorPlusLoglikelihoodInto(features, scores);
+        int best = 0;
+        for (int l = 1; l < numLabels; l++)
+            if (scores[l] > scores[best]) best = l;
+        return labelOrder[best];
+    }
+}
@@ -125,7 +125,6 @@ public class NaiveBayesClassifierSFE extends NaiveBayesClassifier implements Nai
     @Override
     public Int2DoubleOpenHashMap logpriorPlusLoglikelihood(int[] features){
         Int2DoubleOpenHashMap labelScores = new Int2DoubleOpenHashMap();
-        Int2DoubleMap labelPriors = labelPriors();
         for (int label : labels) {
             double loglikelihood = 0.0;
             for (int feature : features) {
@@ -133,11 +132,20 @@ public class NaiveBayesClassifierSFE extends NaiveBayesClassifier implements Nai
                     loglikelihood += this.sfeLogLikelihood(feature, label);
                 }
             }
-            labelScores.put(label, Math.log(labelPriors.get(label)) + loglikelihood);
+            labelScores.put(label, logLabelPrior(label) + loglikelihood);
         }
         return labelScores;
     }
 
+	/**
+	 * The label-major scoring inherited from NaiveBayesClassifier doesn't account for the SFE
+	 * likelihoods, so batch prediction falls back to scoring each document individually.
+	 */
+	@Override
+	protected boolean supportsBlockScoring() {
+		return false;
+	}
+
 	public AbstractNaiveBayesClassifier getPrecomputedClassifier()
 	{
 		return new NaiveBayesClassifierSFEPrecomputed(this);
@@ -423,6 +423,23 @@ public class NaiveBayesOVRClassifier<T extends NaiveBayesClassifier> extends Nai
 		return jll;
 	}
 
+	/*
+		The counts inherited from NaiveBayesClassifier are not the ones doing the learning (see writeJson()),
+		and predictions are pieced together from the ovrLearners, so batch prediction must fall back to
+		calling predict() / bestLabel() on each document.
+	 */
+	@Override
+	protected boolean supportsBlockScoring() {
+		return false;
+	}
+
+	@Override
+	protected void prepareForConcurrentPrediction() {
+		for (T learner : this.ovrLearners.values()) {
+			learner.prepareForConcurrentPrediction();
+		}
+	}
+
 	@Override
 	public Int2DoubleMap labelPriors()
 	{
@@ -23,9 +23,18 @@ package uk.ac.susx.tag.classificationframework.datastructures;
 import cmu.arktweetnlp.Tagger;
 import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionException;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * An AnnotatedToken represents a token during the feature extraction phase.
@@ -43,6 +52,17 @@ import java.util.Map;
  * Alternatively the "getWithNullFeature()" will do the same thing, if the attribute is present, other it'll return
  * the contents of the nullFeature field.
  *
+ * Storage:
+ *
+ *   A token is a view onto a row of columnar storage (see TokenColumns). Tokens created with Document.newToken()
+ *   share the columns of their document, so a document's tokens don't each need a map of attributes. Tokens
+ *   created with a constructor have storage of their own. Either way, the token behaves the same.
+ *
+ *   The standard attributes ("form", "pos", "NERTag", "lemma", "deprel", "head", "ner") are held in fixed slots,
+ *   which can be accessed without looking up the attribute name, e.g. token.getOrNull(AnnotatedToken.POS).
+ *
+ *   getAttributes() returns a live view of the attributes, so changes to it are changes to the token.
+ *
  * User: Andrew D. Robertson
  * Date: 27/07/2013
  * Time: 12:38
@@ -51,30 +71,49 @@ public class AnnotatedToken implements Serializable {
 
     private static final long serialVersionUID = 0L;
 
-    private Map<String, String> attributes;
+    // Slots of the standard attributes (see TokenColumns.SLOT_KEYS)
+    public static final int FORM = 0;
+    public static final int POS = 1;
+    public static final int NER_TAG = 2;
+    public static final int LEMMA = 3;
+    public static final int DEPREL = 4;
+    public static final int HEAD = 5;
+    public static final int NER = 6;
+
+    // Tokens are serialised in the form they had when they held a map of attributes, so that previously serialised documents can still be read
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("attributes", Map.class),
+            new ObjectStreamField("filtered", boolean.class),
+            new ObjectStreamField("start", int.class),
+            new ObjectStreamField("end", int.class)
+    };
+
     public static final String nullFeature = "FeatureNotPresent";
-    private boolean filtered = false;
-    private int start;
-    private int end;
+    private transient TokenColumns columns;
+    private transient int row;
 
     public AnnotatedToken(){
-        attributes = new HashMap<>();
+        columns = new TokenColumns(1);
+        row = columns.addRow();
     }
 
     public AnnotatedToken(String form) {
-        attributes = new HashMap<>();
-        attributes.put("form", form);
+        this();
+        put(FORM, form);
     }
 
     public AnnotatedToken(String form, Map<String, String> attributes) {
-        this.attributes = attributes;
-        attributes.put("form", form);
+        this();
+        putAll(attributes);
+        put(FORM, form);
     }
 
     public AnnotatedToken(Map<String, String> attributes) throws FeatureExtractionException {
         if (!attributes.containsKey("form"))
             throw new FeatureExtractionException("'form' must be present in attributes of AnnotatedToken");
-        this.attributes = attributes;
+        columns = new TokenColumns(1);
+        row = columns.addRow();
+        putAll(attributes);
     }
 
     /**
@@ -83,50 +122,91 @@ public class AnnotatedToken implements Serializable {
      * @param taggedToken
      */
     public AnnotatedToken(Tagger.TaggedToken taggedToken){
-        attributes = new HashMap<>();
-        attributes.put("form", taggedToken.token);
-        attributes.put("pos", taggedToken.tag);
+        this(taggedToken.token);
+        put(POS, taggedToken.tag);
     }
 
+    /**
+     * A view onto a row of a document's columns. See Document.newToken().
+     */
+    AnnotatedToken(TokenColumns columns, int row){
+        this.columns = columns;
+        this.row = row;
+    }
+
+    private void putAll(Map<String, String> attributes) {
+        for (Map.Entry<String, String> attribute : attributes.entrySet())
+            put(attribute.getKey(), attribute.getValue());
+    }
+
+    /**
+     * @return a live view of the attributes of this token.
+     */
     public Map<String, String> getAttributes() {
-        return attributes;
+        return new AttributeMap();
     }
 
     public void put(String featureType, String feature){
-        attributes.put(featureType, feature);
+        int slot = TokenColumns.slot(featureType);
+        if (slot >= 0) columns.put(slot, row, feature);
+        else columns.extrasForWriting(row).put(featureType, feature);
+    }
+
+    /**
+     * Set a standard attribute by its slot (e.g. AnnotatedToken.POS).
+     */
+    public void put(int slot, String feature){
+        columns.put(slot, row, feature);
     }
 
     public String get(String featureType) throws FeatureExtractionException {
-        if (attributes.containsKey(featureType)) return attributes.get(featureType);
+        if (has(featureType)) return getOrNull(featureType);
         else throw new FeatureExtractionException("Feature type '" + featureType + "' not present on token.");
     }
 
     public String getOrNull(String featureType) {
-        if (attributes.containsKey(featureType))
-            return attributes.get(featureType);
-        else {
-            return null;
-        }
+        int slot = TokenColumns.slot(featureType);
+        if (slot >= 0) return columns.get(slot, row);
+        Map<String, String> extras = columns.extras(row);
+        return extras == null ? null : extras.get(featureType);
+    }
+
+    /**
+     * Get a standard attribute by its slot (e.g. AnnotatedToken.POS), or null if not present.
+     */
+    public String getOrNull(int slot) {
+        return columns.get(slot, row);
     }
 
     public String getWithNullFeature(String featureType){
-        return attributes.containsKey(featureType)? attributes.get(featureType) : nullFeature;
+        return has(featureType)? getOrNull(featureType) : nullFeature;
     }
 
     public boolean has(String featureType){
-        return attributes.containsKey(featureType);
+        int slot = TokenColumns.slot(featureType);
+        if (slot >= 0) return columns.has(slot, row);
+        Map<String, String> extras = columns.extras(row);
+        return extras != null && extras.containsKey(featureType);
+    }
+
+    /**
+     * Check for a standard attribute by its slot (e.g. AnnotatedToken.POS).
+     */
+    public boolean has(int slot){
+        return columns.has(slot, row);
     }
 
     public boolean isFiltered() {
-        return filtered;
+        return columns.isFiltered(row);
     }
 
     public void setFiltered(boolean filtered) {
-        this.filtered = filtered;
+        columns.setFiltered(row, filtered);
     }
 
     @Override
     public String toString() {
+        Map<String, String> attributes = getAttributes();
         StringBuilder sb = new StringBuilder();
         sb.append(attributes.get("form"));
         if (attributes.size()>1){
@@ -145,18 +225,139 @@ public class AnnotatedToken implements Serializable {
     }
 
     public int start() {
-        return start;
+        return columns.start(row);
     }
 
     public void start(int start) {
-        this.start = start;
+        columns.start(row, start);
     }
 
     public int end() {
-        return end;
+        return columns.end(row);
     }
 
     public void end(int end) {
-        this.end = end;
+        columns.end(row, end);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("attributes", new HashMap<>(getAttributes()));
+        fields.put("filtered", isFiltered());
+        fields.put("start", start());
+        fields.put("end", end());
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        columns = new TokenColumns(1);
+        row = columns.addRow();
+        Map<String, String> attributes = (Map<String, String>) fields.get("attributes", null);
+        if (attributes != null) putAll(attributes);
+        setFiltered(fields.get("filtered", false));
+        start(fields.get("start", 0));
+        end(fields.get("end", 0));
+    }
+
+    /**
+     * Live view of the attributes of the token: the standard attributes present, followed by any others.
+     */
+    private class AttributeMap extends AbstractMap<String, String> {
+
+        @Override
+        public String get(Object key) {
+            return key instanceof String ? getOrNull((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && has((String) key);
+        }
+
+        @Override
+        public String put(String key, String value) {
+            String previous = getOrNull(key);
+            AnnotatedToken.this.put(key, value);
+            return previous;
+        }
+
+        @Override
+        public String remove(Object key) {
+            if (!(key instanceof String)) return null;
+            int slot = TokenColumns.slot((String) key);
+            if (slot >= 0) return columns.remove(slot, row);
+            Map<String, String> extras = columns.extras(row);
+            return extras == null ? null : extras.remove(key);
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (int slot = 0; slot < TokenColumns.SLOT_KEYS.length; slot++)
+                if (columns.has(slot, row)) size++;
+            Map<String, String> extras = columns.extras(row);
+            return extras == null ? size : size + extras.size();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() { return new AttributeIterator(); }
+                @Override
+                public int size() { return AttributeMap.this.size(); }
+            };
+        }
+    }
+
+    private class AttributeIterator implements Iterator<Map.Entry<String, String>> {
+
+        private int nextSlot = -1;
+        private Iterator<Map.Entry<String, String>> extras = null;
+        private String lastSlotKey = null;   // Key of the last standard attribute returned, if it was one
+
+        AttributeIterator() { advance(); }
+
+        private void advance() {
+            do nextSlot++; while (nextSlot < TokenColumns.SLOT_KEYS.length && !columns.has(nextSlot, row));
+            if (nextSlot == TokenColumns.SLOT_KEYS.length && columns.extras(row) != null)
+                extras = columns.extras(row).entrySet().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextSlot < TokenColumns.SLOT_KEYS.length || (extras != null && extras.hasNext());
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (nextSlot < TokenColumns.SLOT_KEYS.length) {
+                final int slot = nextSlot;
+                lastSlotKey = TokenColumns.SLOT_KEYS[slot];
+                advance();
+                return new AbstractMap.SimpleEntry<String, String>(lastSlotKey, columns.get(slot, row)) {
+                    @Override
+                    public String setValue(String value) {
+                        columns.put(slot, row, value);
+                        return super.setValue(value);
+                    }
+                };
+            }
+            if (extras == null) throw new NoSuchElementException();
+            lastSlotKey = null;
+            return extras.next();
+        }
+
+        @Override
+        public void remove() {
+            if (lastSlotKey != null) {
+                columns.remove(TokenColumns.slot(lastSlotKey), row);
+                lastSlotKey = null;
+            } else if (extras != null) {
+                extras.remove();
+            } else throw new IllegalStateException();
+        }
     }
 }
@@ -28,6 +28,8 @@ import com.mongodb.MongoClient;
 import com.mongodb.ServerAddress;
 import org.apache.commons.math.fraction.BigFraction;
 import uk.ac.susx.tag.classificationframework.exceptions.CachingException;
+import uk.ac.susx.tag.classificationframework.featureextraction.caching.DocumentCache;
+import uk.ac.susx.tag.classificationframework.featureextraction.caching.MongoDocumentCache;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
 
 import java.net.UnknownHostException;
@@ -58,6 +60,15 @@ import java.util.Set;
  *
  *  - There's a convenience static method for using a pipeline to cache a bunch of instances
  *
+ *  - Call setCompression(true) before assigning caches in order to compress the documents cached (see DocumentCodec)
+ *
+ * The static cache(), reCache() and fractionCached() methods which take a DocumentCache work with any
+ * implementation, e.g. a cache on local disk which needs no MongoDB:
+ *
+ *  try (DocumentCache cache = new LRUDocumentCache(new LogDocumentCache(file), 64 * 1024 * 1024)) {
+ *      CacheManager.cache(pipeline, cache, documents);
+ *  }
+ *
  * User: Andrew D. Robertson
  * Date: 21/01/2014
  * Time: 17:32
@@ -65,6 +76,7 @@ import java.util.Set;
 public class CacheManager implements AutoCloseable {
 
     private MongoClient client;
+    private boolean compression = false;
 
     public CacheManager(MongoClient client) {
         this.client = client;
@@ -79,6 +91,13 @@ public class CacheManager implements AutoCloseable {
         client.close();
     }
 
+    /**
+     * If true, caches subsequently assigned by this manager will compress the documents they cache.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
     /**
      * Use this method to assign a cache to a pipeline. The benefit of this method is that it
      * creates a database called "cacheManagerMetadata" with a collection called "hashingIndex"
@@ -92,7 +111,9 @@ public class CacheManager implements AutoCloseable {
      */
     public void assignCache(String databaseName, String collectionName, FeatureExtractionPipeline pipeline, boolean allowUpdates, boolean overwriteCollidingHashes){
         DB db = client.getDB(databaseName);
-        DBCollection cache = db.collectionExists(collectionName)?  db.getCollection(collectionName): setupCollection(db, collectionName);
+        DBCollection collection = db.collectionExists(collectionName)?  db.getCollection(collectionName): setupCollection(db, collectionName);
+        MongoDocumentCache cache = new MongoDocumentCache(collection);
+        cache.setCompression(compression);
         pipeline.setCache(cache, allowUpdates);
         addToHashingIndex(pipeline.getCacheConfiguration(), pipeline.getCacheConfigurationString(), overwriteCollidingHashes);
     }
@@ -119,9 +140,18 @@ public class CacheManager implements AutoCloseable {
 
         try (CacheManager cm = new CacheManager(hostname, port)){
             cm.assignCache(databaseName,collectionName,pipeline);
-            for (Instance document : documents) {
-                pipeline.processDocument(document);
-            }
+            cache(pipeline, pipeline.getCache(), documents);
+        }
+    }
+
+    /**
+     * Cache the DocProcessing phase of a collection of Instances, using any DocumentCache.
+     * The cache is assigned to the pipeline, allowing updates.
+     */
+    public static void cache(FeatureExtractionPipeline pipeline, DocumentCache cache, Iterable<Instance> documents) {
+        pipeline.setCache(cache, true);
+        for (Instance document : documents) {
+            pipeline.processDocument(document);
         }
     }
 
@@ -138,9 +168,17 @@ public class CacheManager implements AutoCloseable {
 
         try (CacheManager cm = new CacheManager(hostname, port)){
             cm.assignCache(databaseName,collectionName,pipeline);
-            for (Instance document : documents) {
-                pipeline.reCache(document);
-            }
+            reCache(pipeline, pipeline.getCache(), documents);
+        }
+    }
+
+    /**
+     * Like cache(), except replace the previously cached versions, using any DocumentCache.
+     */
+    public static void reCache(FeatureExtractionPipeline pipeline, DocumentCache cache, Iterable<Instance> documents) {
+        pipeline.setCache(cache, true);
+        for (Instance document : documents) {
+            pipeline.reCache(document);
         }
     }
 
@@ -171,26 +209,33 @@ public class CacheManager implements AutoCloseable {
      * instances which are already in the specified cache.
      */
     public double fractionCachedOfDataset(String databaseName, String collectionName, FeatureExtractionPipeline pipeline, Iterable<Instance> documents){
-        long total = 0;
-        long cached = 0;
         DB database = client.getDB(databaseName);
         if (database.collectionExists(collectionName)) {
             DBCollection dataset = database.getCollection(collectionName);
             if (dataset.findOne() == null) return 0.0; // No items in collection
-            int config = pipeline.getCacheConfiguration();
-
-            for (Instance document : documents) {
-                total++;
-                if (null != dataset.findOne(new BasicDBObject("pipelineConfig", config).append("instanceID", document.id))) {
-                    cached++;
-                }
-            }
-            return new BigFraction(cached, total).doubleValue();
+            return fractionCached(new MongoDocumentCache(dataset), pipeline, documents);
         } else {
             return 0.0;
         }
     }
 
+    /**
+     * Given some dataset of instances and a pipeline to process them, calculate the fraction of those
+     * instances which are already in *cache* under the pipeline's configuration.
+     */
+    public static double fractionCached(DocumentCache cache, FeatureExtractionPipeline pipeline, Iterable<Instance> documents){
+        long total = 0;
+        long cached = 0;
+        int config = pipeline.getCacheConfiguration();
+        for (Instance document : documents) {
+            total++;
+            if (cache.contains(config, document.id)) {
+                cached++;
+            }
+        }
+        return total == 0? 0.0 : new BigFraction(cached, total).doubleValue();
+    }
+
     /*
      * Listing methods
      */
@@ -0,0 +1,165 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A StringIndexer which may be used by many threads at once, e.g. to index features inside the
+ * worker tasks of batch feature extraction (see FeatureExtractionPipeline.setFeatureIndexer()).
+ *
+ * Like StringIndexer, indices are dense and sequential: the n-th distinct string added gets index
+ * n - 1. When strings are added concurrently, which of them is "n-th" depends on timing, so the
+ * same data may be indexed differently from run to run.
+ *
+ * Looking up a string already present takes no locks. Adding a string only locks the part of the
+ * string-to-index map in which it falls, so threads adding different strings rarely wait on each
+ * other. The index-to-string mapping is held in fixed-size chunks, so it never needs copying as it
+ * grows.
+ *
+ * Null strings are not supported.
+ */
+public class ConcurrentStringIndexer extends StringIndexer {
+
+    private static final long serialVersionUID = 0L;
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private transient ConcurrentHashMap<String, Integer> stringIndices;
+    private transient volatile AtomicReferenceArray<String>[] chunks; // Copied on growth, so a chunk is never missing from the array once read
+    private transient AtomicInteger size;                             // Number of indices assigned
+
+    public ConcurrentStringIndexer() {
+        init(16);
+    }
+
+    /**
+     * A concurrent indexer starting with the same mapping as *indexer*.
+     */
+    public ConcurrentStringIndexer(StringIndexer indexer) {
+        List<String> strings = indexer.getStrings();
+        init(strings.size());
+        for (String string : strings) getIndex(string);
+    }
+
+    private void init(int expectedSize) {
+        stringIndices = new ConcurrentHashMap<>(Math.max(16, expectedSize));
+        @SuppressWarnings({"unchecked", "rawtypes"}) // Generic arrays can't be created directly
+        AtomicReferenceArray<String>[] empty = new AtomicReferenceArray[0];
+        chunks = empty;
+        size = new AtomicInteger();
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public int getIndex(String item, boolean addIfNotPresent) {
+        Integer index = stringIndices.get(item);
+        if (index != null) return index;
+        if (!addIfNotPresent) return -1;
+        return stringIndices.computeIfAbsent(item, this::append);
+    }
+
+    /**
+     * Assign the next index to *item*. Only called once per string, by the map.
+     */
+    private Integer append(String item) {
+        int index = size.getAndIncrement();
+        chunk(index >>> CHUNK_BITS).set(index & CHUNK_MASK, item);
+        return index;
+    }
+
+    private AtomicReferenceArray<String> chunk(int chunkIndex) {
+        AtomicReferenceArray<String>[] current = chunks;
+        if (chunkIndex < current.length) return current[chunkIndex];
+        synchronized (this) {
+            current = chunks;
+            if (chunkIndex >= current.length) {
+                AtomicReferenceArray<String>[] grown = Arrays.copyOf(current, chunkIndex + 1);
+                for (int c = current.length; c < grown.length; c++)
+                    grown[c] = new AtomicReferenceArray<>(CHUNK_SIZE);
+                chunks = grown;
+                current = grown;
+            }
+            return current[chunkIndex];
+        }
+    }
+
+    @Override
+    public int[] getIndices() {
+        int[] indices = new int[size.get()];
+        for (int i = 0; i < indices.length; i++) indices[i] = i;
+        return indices;
+    }
+
+    /**
+     * @return a snapshot of the strings in index order. Unlike StringIndexer, later additions are not
+     *         reflected in it, and it cannot be modified.
+     */
+    @Override
+    public List<String> getStrings() {
+        int numStrings = size.get();
+        List<String> strings = new ArrayList<>(numStrings);
+        for (int i = 0; i < numStrings; i++) {
+            String string;
+            // An index is assigned just before its string is stored, so another thread may be part way through adding it
+            while ((string = getValue(i)) == null) Thread.yield();
+            strings.add(string);
+        }
+        return Collections.unmodifiableList(strings);
+    }
+
+    @Override
+    public String getValue(int index) {
+        return getValue(index, null);
+    }
+
+    @Override
+    public String getValue(int index, String indexNotPresentValue) {
+        if (index < 0 || index >= size.get()) return indexNotPresentValue;
+        AtomicReferenceArray<String>[] current = chunks;
+        int chunkIndex = index >>> CHUNK_BITS;
+        String string = chunkIndex < current.length ? current[chunkIndex].get(index & CHUNK_MASK) : null;
+        return string == null ? indexNotPresentValue : string;
+    }
+
+    @Override
+    public boolean contains(String value) {
+        return stringIndices.containsKey(value);
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public String toString() {
+        return "IndexMap: " + stringIndices + "\n" + "ItemList: " + getStrings();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(new ArrayList<>(getStrings()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        List<String> strings = (List<String>) in.readObject();
+        init(strings.size());
+        for (String string : strings) getIndex(string);
+    }
+}
@@ -38,6 +38,10 @@ import java.util.Map;
  *
  * Use cloneEmpty() to create a new Document with a reference to the same source (e.g. for using it as a replacement)
  *
+ * Use newToken() to append a token whose attributes are stored in columns shared by the tokens of this document,
+ * rather than in storage of its own (see AnnotatedToken). This is preferable when producing many tokens, e.g. when
+ * tokenising.
+ *
  * See FeatureExtractionPipeline class.
  *
  * User: Andrew D. Robertson
@@ -55,6 +59,9 @@ public class Document extends ArrayList<AnnotatedToken> {
     // Reference to the instance from which this document was made
     public Instance source = null;
 
+    // Storage of the tokens created by newToken(). Tokens serialise their own attributes, so this needn't be serialised.
+    private transient TokenColumns columns = null;
+
     private static transient Gson gson = null;
 
     public Document(){
@@ -79,6 +86,28 @@ public class Document extends ArrayList<AnnotatedToken> {
         return new Document(source);
     }
 
+    /**
+     * Append a new token to the document, stored in the columns of this document. Its "form" attribute
+     * should be set before it is used.
+     */
+    public AnnotatedToken newToken(){
+        if (columns == null) columns = new TokenColumns(Math.max(10, size()));
+        AnnotatedToken token = new AnnotatedToken(columns, columns.addRow());
+        add(token);
+        return token;
+    }
+
+    /**
+     * Append a new token with the given form and span to the document, stored in the columns of this document.
+     */
+    public AnnotatedToken newToken(String form, int start, int end){
+        AnnotatedToken token = newToken();
+        token.put(AnnotatedToken.FORM, form);
+        token.start(start);
+        token.end(end);
+        return token;
+    }
+
     public Object getAttribute(String name){
         return attributes.get(name);
     }
@@ -87,6 +116,10 @@ public class Document extends ArrayList<AnnotatedToken> {
         attributes.put(name, attribute);
     }
 
+    public Map<String, Object> getAttributes(){
+        return attributes;
+    }
+
     @Override
     public String toString(){
         StringBuilder sb = new StringBuilder();
@@ -161,11 +194,45 @@ public class Document extends ArrayList<AnnotatedToken> {
         }
     }
 
+    /**
+     * Tokens are represented as they were when they held a map of attributes.
+     */
+    public static class AnnotatedTokenSerializer implements JsonSerializer<AnnotatedToken> {
+        @Override
+        public JsonElement serialize(AnnotatedToken src, Type typeOfSrc, JsonSerializationContext context) {
+            final JsonObject root = new JsonObject();
+            root.add("attributes", context.serialize(new HashMap<>(src.getAttributes())));
+            root.addProperty("filtered", src.isFiltered());
+            root.addProperty("start", src.start());
+            root.addProperty("end", src.end());
+            return root;
+        }
+    }
+
+    public static class AnnotatedTokenDeserializer implements JsonDeserializer<AnnotatedToken> {
+        @Override
+        public AnnotatedToken deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+            final JsonObject root = json.getAsJsonObject();
+            final AnnotatedToken token = new AnnotatedToken();
+            JsonElement attributes = root.get("attributes");
+            if (attributes != null && attributes.isJsonObject()) {
+                for (Map.Entry<String, JsonElement> entry : attributes.getAsJsonObject().entrySet())
+                    token.put(entry.getKey(), entry.getValue().isJsonNull() ? null : entry.getValue().getAsString());
+            }
+            if (root.has("filtered")) token.setFiltered(root.get("filtered").getAsBoolean());
+            if (root.has("start")) token.start(root.get("start").getAsInt());
+            if (root.has("end")) token.end(root.get("end").getAsInt());
+            return token;
+        }
+    }
+
     private static void setupGson(){
         if (gson == null){
             gson = new GsonBuilder()
                     .registerTypeAdapter(Document.class, new Document.DocumentSerializer())
                     .registerTypeAdapter(Document.class, new Document.DocumentDeserializer())
+                    .registerTypeAdapter(AnnotatedToken.class, new AnnotatedTokenSerializer())
+                    .registerTypeAdapter(AnnotatedToken.class, new AnnotatedTokenDeserializer())
                     .create();
         }
     }
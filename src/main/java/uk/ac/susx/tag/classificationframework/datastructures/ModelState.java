@@ -25,8 +25,12 @@ import com.google.gson.reflect.TypeToken;
 import uk.ac.susx.tag.classificationframework.Util;
 import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
 import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifierFeatureMarginals;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifierPreComputedDense;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifierPreComputedMapped;
 import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesOVRClassifier;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.jsonhandling.JsonInstanceListStreamWriter;
+import uk.ac.susx.tag.classificationframework.jsonhandling.JsonListStreamReader;
 
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
@@ -55,6 +59,11 @@ import static uk.ac.susx.tag.classificationframework.Util.*;
  *  ".ser" files are serialised using Java.
  *  ".json" files are serialised using Gson Json library.
  *
+ *  If the modelFormat field is set to BINARY (and the classifier is a plain NaiveBayesClassifier), then instead of
+ *  "nbmodel.json", the classifier is saved in a binary format as "nbmodel.bin", alongside its pre-computed log
+ *  probabilities as "nbmodel-precomputed.bin". The former is loaded in place of the JSON when present. The latter
+ *  can be memory-mapped for serving with loadMappedClassifier().
+ *
  *  IMPORTANT NOTES:
  *
  *  1. In another attempt to avoid "Alphabet Mismatch" type issues, although NaiveBayesClassifiers store all of their
@@ -69,6 +78,11 @@ import static uk.ac.susx.tag.classificationframework.Util.*;
  *     serialised. There are convenience methods which extract the original Instance objects from those. See
  *     getSourceInstanceList() and setTrainingDocuments().
  *
+ *  4. The training documents are written and read as a stream, so that they are never all held in memory unless
+ *     required. Upon load, the trainingDocuments field is left null, and getTrainingDocuments() instead iterates
+ *     straight over "training.json". Use materialiseTrainingDocuments() to read them into the trainingDocuments
+ *     field as before.
+ *
  * User: Andrew D. Robertson
  * Date: 07/08/2013
  * Time: 14:41
@@ -79,12 +93,17 @@ public class ModelState {
     private static final String MODEL_FILE = "nbmodel.json";
     private static final String PIPELINE_FILE = "pipeline.ser";
     private static final String TRAINING_FILE = "training.json";
+    private static final String BINARY_MODEL_FILE = "nbmodel.bin";
+    private static final String PRECOMPUTED_MODEL_FILE = "nbmodel-precomputed.bin";
 
 
     public NaiveBayesClassifier classifier = null;
     public List<Instance> trainingDocuments = null;
     public FeatureExtractionPipeline pipeline = null;
     public Map<String, Object> metadata = null;
+    public ModelFormat modelFormat = ModelFormat.JSON;
+
+    private File trainingDocumentsFile = null; // Where to lazily read training documents from, if not in memory
 
     /**
      * Enum to map from tokens to classifier class names
@@ -96,6 +115,14 @@ public class ModelState {
         NB_OVR;
     }
 
+    /**
+     * The format in which to save the classifier. See class documentation.
+     */
+    public static enum ModelFormat {
+        JSON,
+        BINARY
+    }
+
     public ModelState() {}
 
     public ModelState(NaiveBayesClassifier classifier,
@@ -145,6 +172,36 @@ public class ModelState {
         for (ProcessedInstance document : documents) trainingDocuments.add(document.source);
     }
 
+    /**
+     * @return the training documents: those in the trainingDocuments field if not null, otherwise an Iterable which
+     *         reads them from the "training.json" of the directory this ModelState was loaded from, each time it is
+     *         iterated over. Null if there are no training documents. Iterate to the end in order to release the file.
+     */
+    public Iterable<Instance> getTrainingDocuments(){
+        if (trainingDocuments != null || trainingDocumentsFile == null) return trainingDocuments;
+        final File file = trainingDocumentsFile;
+        final Gson gson = new Gson();
+        return () -> {
+            try {
+                return new JsonListStreamReader(file, gson).iterableOverInstances().iterator();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /**
+     * Read all training documents into memory (if they aren't already), and assign them to the trainingDocuments field.
+     */
+    public List<Instance> materialiseTrainingDocuments(){
+        if (trainingDocuments == null && trainingDocumentsFile != null) {
+            List<Instance> documents = new ArrayList<>();
+            for (Instance document : getTrainingDocuments()) documents.add(document);
+            trainingDocuments = documents;
+        }
+        return trainingDocuments;
+    }
+
     /**
      * Same as "setTrainingDocuments" except that the label of the ProcesssedInstance
      * is used to overwrite the label of the source Instance before storing it.
@@ -185,15 +242,22 @@ public class ModelState {
         SafeSave safeSave = new SafeSave();
 
         File modelFile = new File(modelDirectory, MODEL_FILE);
-        if (classifier!=null) {
+        File binaryModelFile = new File(modelDirectory, BINARY_MODEL_FILE);
+        File precomputedModelFile = new File(modelDirectory, PRECOMPUTED_MODEL_FILE);
+        boolean binary = modelFormat == ModelFormat.BINARY && classifier != null && classifier.getClass() == NaiveBayesClassifier.class;
+        if (binary) {
+            safeSave.add(binaryModelFile, (f) -> classifier.writeBinary(f, pipelineForWriting));
+            safeSave.add(precomputedModelFile, (f) -> new NaiveBayesClassifierPreComputedDense(classifier).writeBinary(f, pipelineForWriting));
+        } else if (classifier!=null) {
             safeSave.add(modelFile, (f) -> classifier.writeJson(f, pipelineForWriting));
         }
 
         File trainingDataFile = new File(modelDirectory, TRAINING_FILE);
-        if (trainingDocuments!=null) {
+        Iterable<Instance> documents = getTrainingDocuments();
+        if (documents!=null) {
             safeSave.add(trainingDataFile, (f) -> {
-                try (BufferedWriter bw = new BufferedWriter(new FileWriter(f))){
-                    gson.toJson(trainingDocuments, new TypeToken<List<Instance>>(){}.getType(), bw);
+                try (JsonInstanceListStreamWriter writer = new JsonInstanceListStreamWriter(f)){
+                    writer.write(documents);
                 }
             });
         }
@@ -222,6 +286,11 @@ public class ModelState {
         });
 
         safeSave.save();
+
+        // Don't leave a model in the other format lying around to be loaded instead
+        for (File stale : binary ? new File[]{modelFile} : new File[]{binaryModelFile, precomputedModelFile}) {
+            if (stale.exists() && !stale.delete()) throw new IOException("Cannot delete out of date model file: " + stale);
+        }
     }
 
 
@@ -292,16 +361,21 @@ public class ModelState {
 
         File trainingData = new File(modelDirectory, TRAINING_FILE);
         if (trainingData.exists()){
-            try (BufferedReader br = new BufferedReader(new FileReader(trainingData))){
-                modelState.trainingDocuments = gson.fromJson(br, new TypeToken<List<Instance>>(){}.getType());
-            }
+            modelState.trainingDocumentsFile = trainingData;
         }
     }
 
-    private static void loadTheClassifier(ModelState modelState, File modelDirectory, FeatureExtractionPipeline pipelineForReading) {
+    private static void loadTheClassifier(ModelState modelState, File modelDirectory, FeatureExtractionPipeline pipelineForReading) throws IOException {
         ClassifierName clfName = modelState.metadata.containsKey("classifier_class_name") ? ClassifierName.valueOf((String)modelState.metadata.get("classifier_class_name")) : ClassifierName.NB;
         Class<? extends NaiveBayesClassifier> khlav = getClassifierClassForName(clfName);
 
+        File binaryModelFile = new File(modelDirectory, BINARY_MODEL_FILE);
+        if (clfName.equals(ClassifierName.NB) && binaryModelFile.exists()) {
+            modelState.classifier = NaiveBayesClassifier.readBinary(binaryModelFile, pipelineForReading);
+            modelState.modelFormat = ModelFormat.BINARY;
+            return;
+        }
+
         try {
             Method m;
             File modelFile = new File(modelDirectory, MODEL_FILE);
@@ -319,6 +393,18 @@ public class ModelState {
         }
     }
 
+    /**
+     * Memory-map the pre-computed classifier saved alongside a binary model (see class documentation),
+     * indexing its features and labels with *pipeline* (usually the pipeline of the loaded ModelState).
+     * This is far quicker to load and lighter on the heap than the trainable classifier, so is suited to
+     * processes which only classify.
+     */
+    public static NaiveBayesClassifierPreComputedMapped loadMappedClassifier(File modelDirectory, FeatureExtractionPipeline pipeline) throws IOException {
+        File precomputedModelFile = new File(modelDirectory, PRECOMPUTED_MODEL_FILE);
+        if (!precomputedModelFile.exists()) throw new IOException("No pre-computed binary model found. Save with the BINARY model format.");
+        return NaiveBayesClassifierPreComputedMapped.readBinary(precomputedModelFile, pipeline);
+    }
+
     public static Class<? extends NaiveBayesClassifier> getClassifierClassForName(ClassifierName clfName) {
         Class<? extends NaiveBayesClassifier> khlavKalash; // <== classifierClass -> clfCls -> khlavKalash :D
         switch (clfName) {
@@ -346,7 +432,7 @@ public class ModelState {
 
         Set<String> p = new HashSet<>(Arrays.asList(path.list()));
 
-        if(!p.contains(METADATA_FILE) || !p.contains(MODEL_FILE) || !p.contains(PIPELINE_FILE) || !p.contains(TRAINING_FILE)) {
+        if(!p.contains(METADATA_FILE) || !(p.contains(MODEL_FILE) || p.contains(BINARY_MODEL_FILE)) || !p.contains(PIPELINE_FILE) || !p.contains(TRAINING_FILE)) {
             return false;
         } else {
             return true;
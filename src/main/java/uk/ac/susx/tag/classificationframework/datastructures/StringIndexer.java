@@ -60,6 +60,13 @@ public class StringIndexer implements Serializable {
 
     public StringIndexer() { }
 
+    /**
+     * @return true if this indexer can be used by several threads at once. See ConcurrentStringIndexer.
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
     /**
      * Get the index of a string. If the String is not present in the mapping,
      * then return a new index. If "addIfNotPresent" is true, then add the new
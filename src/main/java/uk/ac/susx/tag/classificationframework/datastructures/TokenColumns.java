@@ -0,0 +1,143 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Columnar storage of the tokens of a Document. Each row is a token, and AnnotatedTokens are views onto
+ * rows (see Document.newToken()). The standard attributes (see AnnotatedToken.FORM etc.) each have a
+ * column of Strings; any other attribute is kept in a map for its row. Spans are kept in int columns,
+ * and filtering in a BitSet.
+ *
+ * Columns are only allocated once a value is written to them, so a document whose tokens have only
+ * forms and spans consists of three arrays. Not thread safe; like a Document, the storage is expected to
+ * be modified by one thread at a time.
+ */
+final class TokenColumns {
+
+    static final String[] SLOT_KEYS = {"form", "pos", "NERTag", "lemma", "deprel", "head", "ner"};
+
+    // Stored in place of a null value, so that a key explicitly mapped to null is distinct from an absent key
+    private static final String NULL_VALUE = new String();
+
+    private final String[][] slots = new String[SLOT_KEYS.length][];
+    private Map<String, String>[] extras = null;
+    private int[] starts = null;
+    private int[] ends = null;
+    private BitSet filtered = null;
+    private int capacity;
+    private int size = 0;
+
+    TokenColumns(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * @return the slot of the standard attribute *key*, or -1 if it isn't one.
+     */
+    static int slot(String key) {
+        switch (key) {
+            case "form":   return AnnotatedToken.FORM;
+            case "pos":    return AnnotatedToken.POS;
+            case "NERTag": return AnnotatedToken.NER_TAG;
+            case "lemma":  return AnnotatedToken.LEMMA;
+            case "deprel": return AnnotatedToken.DEPREL;
+            case "head":   return AnnotatedToken.HEAD;
+            case "ner":    return AnnotatedToken.NER;
+            default:       return -1;
+        }
+    }
+
+    /**
+     * @return the row of a new empty token.
+     */
+    int addRow() {
+        if (size == capacity) {
+            capacity = capacity + (capacity >> 1) + 1;
+            for (int s = 0; s < slots.length; s++)
+                if (slots[s] != null) slots[s] = Arrays.copyOf(slots[s], capacity);
+            if (extras != null) extras = Arrays.copyOf(extras, capacity);
+            if (starts != null) starts = Arrays.copyOf(starts, capacity);
+            if (ends != null) ends = Arrays.copyOf(ends, capacity);
+        }
+        return size++;
+    }
+
+    boolean has(int slot, int row) {
+        return slots[slot] != null && slots[slot][row] != null;
+    }
+
+    String get(int slot, int row) {
+        String value = slots[slot] == null ? null : slots[slot][row];
+        return value == NULL_VALUE ? null : value;
+    }
+
+    /**
+     * @return the previous value (null if absent).
+     */
+    String put(int slot, int row, String value) {
+        if (slots[slot] == null) slots[slot] = new String[capacity];
+        String previous = get(slot, row);
+        slots[slot][row] = value == null ? NULL_VALUE : value;
+        return previous;
+    }
+
+    String remove(int slot, int row) {
+        String previous = get(slot, row);
+        if (slots[slot] != null) slots[slot][row] = null;
+        return previous;
+    }
+
+    /**
+     * @return the non-standard attributes of the row, or null if there are none. Do not modify.
+     */
+    Map<String, String> extras(int row) {
+        return extras == null ? null : extras[row];
+    }
+
+    /**
+     * @return the non-standard attributes of the row, creating the map if necessary.
+     */
+    Map<String, String> extrasForWriting(int row) {
+        if (extras == null) {
+            @SuppressWarnings({"unchecked", "rawtypes"}) // Generic arrays can't be created directly
+            Map<String, String>[] created = new Map[capacity];
+            extras = created;
+        }
+        if (extras[row] == null) extras[row] = new HashMap<>(4);
+        return extras[row];
+    }
+
+    int start(int row) { return starts == null ? 0 : starts[row]; }
+    int end(int row) { return ends == null ? 0 : ends[row]; }
+
+    void start(int row, int start) {
+        if (starts == null) {
+            if (start == 0) return;
+            starts = new int[capacity];
+        }
+        starts[row] = start;
+    }
+
+    void end(int row, int end) {
+        if (ends == null) {
+            if (end == 0) return;
+            ends = new int[capacity];
+        }
+        ends[row] = end;
+    }
+
+    boolean isFiltered(int row) {
+        return filtered != null && filtered.get(row);
+    }
+
+    void setFiltered(int row, boolean isFiltered) {
+        if (filtered == null) {
+            if (!isFiltered) return;
+            filtered = new BitSet(capacity);
+        }
+        filtered.set(row, isFiltered);
+    }
+}
@@ -0,0 +1,93 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.caching;
+
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.exceptions.CachingException;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A DocumentCache which stores documents in their serialised form (see DocumentCodec). Subclasses
+ * only need deal with storing bytes. The serialised form can be passed between caches without being
+ * converted back to a Document (see LRUDocumentCache).
+ *
+ * Use setCompression() to compress documents as they are cached. Either way, compressed and
+ * uncompressed documents (and those written with Java serialisation by older versions) can be read.
+ */
+public abstract class AbstractDocumentCache implements DocumentCache {
+
+    private volatile boolean compression = false;
+
+    public boolean isCompression() { return compression; }
+
+    public void setCompression(boolean compression) { this.compression = compression; }
+
+    /**
+     * @return the serialised Document, or null if none is cached for this configuration and instance ID.
+     */
+    public abstract byte[] getSerialised(int configuration, String instanceId);
+
+    /**
+     * Cache a serialised document, replacing any already cached for this configuration and instance ID.
+     */
+    public abstract void putSerialised(int configuration, String instanceId, byte[] document);
+
+    /**
+     * @return a map from instance ID to serialised Document, for each of *instanceIds* which is cached.
+     */
+    public Map<String, byte[]> getAllSerialised(int configuration, Collection<String> instanceIds) {
+        Map<String, byte[]> found = new HashMap<>();
+        for (String instanceId : instanceIds) {
+            byte[] document = getSerialised(configuration, instanceId);
+            if (document != null) found.put(instanceId, document);
+        }
+        return found;
+    }
+
+    /**
+     * Cache each document of a map from instance ID to serialised Document, replacing any already cached.
+     */
+    public void putAllSerialised(int configuration, Map<String, byte[]> documents) {
+        for (Map.Entry<String, byte[]> entry : documents.entrySet())
+            putSerialised(configuration, entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public Document get(int configuration, String instanceId) {
+        byte[] serialised = getSerialised(configuration, instanceId);
+        if (serialised == null) return null;
+        try {
+            return DocumentCodec.decode(serialised);
+        } catch (IOException e) { throw new CachingException(e); }
+    }
+
+    @Override
+    public void put(int configuration, String instanceId, Document document) {
+        putSerialised(configuration, instanceId, DocumentCodec.encode(document, compression));
+    }
+
+    @Override
+    public boolean contains(int configuration, String instanceId) {
+        return getSerialised(configuration, instanceId) != null;
+    }
+
+    @Override
+    public Map<String, Document> getAll(int configuration, Collection<String> instanceIds) {
+        Map<String, Document> found = new HashMap<>();
+        try {
+            for (Map.Entry<String, byte[]> entry : getAllSerialised(configuration, instanceIds).entrySet())
+                found.put(entry.getKey(), DocumentCodec.decode(entry.getValue()));
+        } catch (IOException e) { throw new CachingException(e); }
+        return found;
+    }
+
+    @Override
+    public void putAll(int configuration, Map<String, Document> documents) {
+        Map<String, byte[]> serialised = new HashMap<>();
+        for (Map.Entry<String, Document> entry : documents.entrySet())
+            serialised.put(entry.getKey(), DocumentCodec.encode(entry.getValue(), compression));
+        putAllSerialised(configuration, serialised);
+    }
+}
@@ -0,0 +1,141 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.caching;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A simple LZ77 block compressor using the LZ4 block layout, for compressing encoded Documents
+ * (see DocumentCodec). It favours speed over compression ratio: matches are found with a single
+ * hash table lookup, with no search for longer matches.
+ *
+ * A block is a series of sequences, each consisting of:
+ *
+ *   token       : one byte, the high 4 bits holding the number of literals, the low 4 bits the match length minus 4
+ *   literals    : if the literal count in the token is 15, further bytes are added to it until one is not 255,
+ *                 then the literal bytes
+ *   offset      : two bytes (little-endian), the distance back to the start of the match
+ *   match length: if the match length in the token is 15, further bytes are added to it until one is not 255
+ *
+ * The final sequence consists only of a token and literals.
+ *
+ * The uncompressed length is not recorded, so must be stored alongside the block.
+ */
+final class BlockCompression {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+
+    private BlockCompression() {}
+
+    static byte[] compress(byte[] source) {
+        int length = source.length;
+        byte[] out = new byte[length + length / 255 + 16];
+        int op = 0;
+
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+
+        int anchor = 0; // Start of the pending literals
+        int ip = 0;
+        while (ip + MIN_MATCH <= length) {
+            int sequence = readInt(source, ip);
+            int hash = hash(sequence);
+            int ref = table[hash];
+            table[hash] = ip;
+
+            if (ref >= 0 && ip - ref <= MAX_OFFSET && readInt(source, ref) == sequence) {
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < length && source[ref + matchLength] == source[ip + matchLength])
+                    matchLength++;
+
+                int token = op;
+                op = writeSequence(out, op, source, anchor, ip - anchor);
+                out[op++] = (byte) (ip - ref);
+                out[op++] = (byte) ((ip - ref) >>> 8);
+                int extra = matchLength - MIN_MATCH;
+                out[token] |= (byte) Math.min(extra, 15);
+                if (extra >= 15) op = writeLength(out, op, extra - 15);
+
+                ip += matchLength;
+                anchor = ip;
+            } else {
+                ip++;
+            }
+        }
+        op = writeSequence(out, op, source, anchor, length - anchor);
+        return Arrays.copyOf(out, op);
+    }
+
+    /**
+     * @param length the length of the uncompressed data.
+     */
+    static byte[] decompress(byte[] source, int offset, int compressedLength, int length) throws IOException {
+        byte[] out = new byte[length];
+        int ip = offset;
+        int end = offset + compressedLength;
+        int op = 0;
+        try {
+            while (ip < end) {
+                int token = source[ip++] & 0xFF;
+
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do { b = source[ip++] & 0xFF; literals += b; } while (b == 255);
+                }
+                System.arraycopy(source, ip, out, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip >= end) break; // Final sequence
+
+                int distance = (source[ip] & 0xFF) | (source[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do { b = source[ip++] & 0xFF; matchLength += b; } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int ref = op - distance;
+                if (distance == 0 || ref < 0) throw new IOException("Compressed block is corrupt.");
+                for (int i = 0; i < matchLength; i++) // Byte by byte, since the match may overlap its own output
+                    out[op++] = out[ref++];
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Compressed block is corrupt.", e);
+        }
+        if (op != length) throw new IOException("Compressed block has length " + op + " but " + length + " was expected.");
+        return out;
+    }
+
+    /**
+     * Write a token (with the match length left as zero) and literals.
+     *
+     * @return the new output position.
+     */
+    private static int writeSequence(byte[] out, int op, byte[] source, int start, int literals) {
+        out[op++] = (byte) (Math.min(literals, 15) << 4);
+        if (literals >= 15) op = writeLength(out, op, literals - 15);
+        System.arraycopy(source, start, out, op, literals);
+        return op + literals;
+    }
+
+    private static int writeLength(byte[] out, int op, int length) {
+        while (length >= 255) {
+            out[op++] = (byte) 255;
+            length -= 255;
+        }
+        out[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] bytes, int i) {
+        return (bytes[i] & 0xFF) | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF) << 16 | (bytes[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -0,0 +1,28 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.caching;
+
+/**
+ * Key of a cached document: the pipeline's cache configuration plus the instance ID.
+ */
+final class CacheKey {
+
+    final int configuration;
+    final String instanceId;
+
+    CacheKey(int configuration, String instanceId) {
+        this.configuration = configuration;
+        this.instanceId = instanceId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CacheKey)) return false;
+        CacheKey other = (CacheKey) o;
+        return configuration == other.configuration && instanceId.equals(other.instanceId);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * configuration + instanceId.hashCode();
+    }
+}
@@ -0,0 +1,71 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.caching;
+
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A store of processed Document instances (i.e. tokenised and annotated by a pipeline's Tokeniser
+ * and DocProcessors), so that an Instance need not be processed more than once by the same
+ * configuration of pipeline.
+ *
+ * Documents are keyed by the pipeline's cache configuration (see FeatureExtractionPipeline.getCacheConfiguration())
+ * and the ID of the Instance from which they were processed.
+ *
+ * Implementations:
+ *
+ *   MongoDocumentCache : a collection in a MongoDB (see CacheManager)
+ *   LogDocumentCache   : an append-only file on local disk, with an in-memory index
+ *   LRUDocumentCache   : an in-memory tier which holds recently used documents in front of another cache
+ *
+ * The batch methods getAll() and putAll() are used by the pipeline's batch extraction. By default they
+ * make one call per document; implementations should override them if they can do better (e.g. a single
+ * query to a database).
+ *
+ * Implementations must be safe to use from multiple threads, since pipelines process documents concurrently.
+ * Failures are reported with CachingException.
+ *
+ * Assign a cache to a pipeline with FeatureExtractionPipeline.setCache().
+ */
+public interface DocumentCache extends AutoCloseable {
+
+    /**
+     * @return the cached Document, or null if none is cached for this configuration and instance ID.
+     */
+    Document get(int configuration, String instanceId);
+
+    /**
+     * Cache a document, replacing any already cached for this configuration and instance ID.
+     */
+    void put(int configuration, String instanceId, Document document);
+
+    boolean contains(int configuration, String instanceId);
+
+    /**
+     * @return a map from instance ID to cached Document, for each of *instanceIds* which is cached.
+     */
+    default Map<String, Document> getAll(int configuration, Collection<String> instanceIds) {
+        Map<String, Document> found = new HashMap<>();
+        for (String instanceId : instanceIds) {
+            Document document = get(configuration, instanceId);
+            if (document != null) found.put(instanceId, document);
+        }
+        return found;
+    }
+
+    /**
+     * Cache each document of a map from instance ID to Document, replacing any already cached.
+     */
+    default void putAll(int configuration, Map<String, Document> documents) {
+        for (Map.Entry<String, Document> entry : documents.entrySet())
+            put(configuration, entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Release any resources held by the cache.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,328 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.caching;
+
+import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of Documents, used for caching them (see AbstractDocumentCache).
+ *
+ *   byte[] encoded = DocumentCodec.encode(document, compress);
+ *   Document decoded = DocumentCodec.decode(encoded);
+ *
+ * The encoding is much smaller and faster to decode than Java serialisation, which repeats class
+ * descriptors and a HashMap per token in every record. An encoded Document consists of:
+ *
+ *  1. Header: a magic byte, the format version, and flags (bit 0 = the remainder is compressed, in which
+ *     case the uncompressed length follows as a varint).
+ *  2. Source: which of the Instance and its label, text and ID are present, then each present string.
+ *  3. Key dictionary: the attribute keys used by the tokens which aren't among the common KEYS (e.g. "form",
+ *     "pos"), which are implicitly numbered from 0. Tokens refer to keys by their number in the dictionary.
+ *  4. Tokens: the number of tokens, then for each token: a varint holding the number of attributes shifted
+ *     left by one, with the filtered flag in the lowest bit; the start offset relative to the end offset of
+ *     the previous token; the end offset relative to the start; then the key number and value of each attribute.
+ *  5. Document attributes: their number, then (if non-zero) the Java serialised map of attributes, since
+ *     these can be arbitrary objects.
+ *
+ * Integers are written as varints (7 bits per byte, low bits first), with zig-zag encoding where they may be
+ * negative. Strings are written as a varint of their UTF-8 byte length plus one (0 means null), then the bytes.
+ *
+ * Compression (see BlockCompression) is worthwhile for long documents, or when cache storage matters more
+ * than CPU time; it is only applied if it actually reduces the size.
+ *
+ * decode() also accepts documents written by Java serialisation, so existing caches remain readable.
+ */
+public final class DocumentCodec {
+
+    private static final byte MAGIC = (byte) 0xDC;
+    private static final byte VERSION = 1;
+
+    private static final byte FLAG_COMPRESSED = 1;
+
+    private static final int SOURCE_PRESENT = 1;
+    private static final int SOURCE_LABEL = 2;
+    private static final int SOURCE_TEXT = 4;
+    private static final int SOURCE_ID = 8;
+
+    // Keys implicitly present in every dictionary. Only ever append to this list, or previously encoded documents will be misread.
+    private static final List<String> KEYS = Arrays.asList("form", "pos", "NERTag", "lemma", "deprel", "head", "ner");
+
+    private DocumentCodec() {}
+
+    public static byte[] encode(Document document) {
+        return encode(document, false);
+    }
+
+    /**
+     * @param compress if true, compress the encoding if that would make it smaller.
+     */
+    public static byte[] encode(Document document, boolean compress) {
+        Output out = new Output(64 + 16 * document.size());
+        writeSource(out, document.source);
+
+        // Key dictionary
+        Map<String, Integer> keys = new HashMap<>();
+        for (int k = 0; k < KEYS.size(); k++) keys.put(KEYS.get(k), k);
+        List<String> extraKeys = new ArrayList<>();
+        for (AnnotatedToken token : document) {
+            for (String key : token.getAttributes().keySet()) {
+                if (!keys.containsKey(key)) {
+                    keys.put(key, keys.size());
+                    extraKeys.add(key);
+                }
+            }
+        }
+        out.writeVarint(extraKeys.size());
+        for (String key : extraKeys) out.writeString(key);
+
+        // Tokens
+        out.writeVarint(document.size());
+        int previousEnd = 0;
+        for (AnnotatedToken token : document) {
+            Map<String, String> attributes = token.getAttributes();
+            out.writeVarint(attributes.size() << 1 | (token.isFiltered() ? 1 : 0));
+            out.writeSignedVarint(token.start() - previousEnd);
+            out.writeSignedVarint(token.end() - token.start());
+            previousEnd = token.end();
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                out.writeVarint(keys.get(attribute.getKey()));
+                out.writeString(attribute.getValue());
+            }
+        }
+
+        writeDocumentAttributes(out, document.getAttributes());
+
+        byte[] body = out.toByteArray();
+        if (compress) {
+            byte[] compressed = BlockCompression.compress(body);
+            if (compressed.length + 5 < body.length) {
+                Output header = new Output(compressed.length + 8);
+                header.writeByte(MAGIC);
+                header.writeByte(VERSION);
+                header.writeByte(FLAG_COMPRESSED);
+                header.writeVarint(body.length);
+                header.writeBytes(compressed, 0, compressed.length);
+                return header.toByteArray();
+            }
+        }
+        byte[] encoded = new byte[body.length + 3];
+        encoded[0] = MAGIC;
+        encoded[1] = VERSION;
+        encoded[2] = 0;
+        System.arraycopy(body, 0, encoded, 3, body.length);
+        return encoded;
+    }
+
+    public static Document decode(byte[] encoded) throws IOException {
+        if (isJavaSerialised(encoded)) return decodeJavaSerialised(encoded);
+        if (encoded.length < 3 || encoded[0] != MAGIC)
+            throw new IOException("Not an encoded document.");
+        if (encoded[1] > VERSION)
+            throw new IOException("Unsupported document encoding version: " + encoded[1] + " (latest supported is " + VERSION + ")");
+
+        try {
+            Input in;
+            if ((encoded[2] & FLAG_COMPRESSED) != 0) {
+                Input header = new Input(encoded, 3);
+                int length = header.readVarint();
+                in = new Input(BlockCompression.decompress(encoded, header.position, encoded.length - header.position, length), 0);
+            } else {
+                in = new Input(encoded, 3);
+            }
+
+            Document document = new Document(readSource(in));
+
+            String[] keys = new String[KEYS.size() + in.readVarint()];
+            for (int k = 0; k < keys.length; k++)
+                keys[k] = k < KEYS.size() ? KEYS.get(k) : in.readString();
+
+            int numTokens = in.readVarint();
+            document.ensureCapacity(numTokens);
+            int previousEnd = 0;
+            for (int t = 0; t < numTokens; t++) {
+                int header = in.readVarint();
+                int numAttributes = header >>> 1;
+                int start = previousEnd + in.readSignedVarint();
+                int end = start + in.readSignedVarint();
+                previousEnd = end;
+
+                AnnotatedToken token = document.newToken();
+                for (int a = 0; a < numAttributes; a++) {
+                    String key = keys[in.readVarint()];
+                    token.put(key, in.readString());
+                }
+                token.setFiltered((header & 1) != 0);
+                token.start(start);
+                token.end(end);
+            }
+
+            readDocumentAttributes(in, document);
+            return document;
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Encoded document is corrupt.", e);
+        }
+    }
+
+    /**
+     * Java serialisation streams begin with the magic number 0xACED.
+     */
+    private static boolean isJavaSerialised(byte[] encoded) {
+        return encoded.length >= 2 && encoded[0] == (byte) 0xAC && encoded[1] == (byte) 0xED;
+    }
+
+    private static Document decodeJavaSerialised(byte[] encoded) throws IOException {
+        try (ObjectInputStream o = new ObjectInputStream(new ByteArrayInputStream(encoded))) {
+            return (Document) o.readObject();
+        } catch (ClassNotFoundException e) { throw new IOException(e); }
+    }
+
+    private static void writeSource(Output out, Instance source) {
+        if (source == null) {
+            out.writeByte((byte) 0);
+            return;
+        }
+        out.writeByte((byte) (SOURCE_PRESENT
+                | (source.label != null ? SOURCE_LABEL : 0)
+                | (source.text != null ? SOURCE_TEXT : 0)
+                | (source.id != null ? SOURCE_ID : 0)));
+        if (source.label != null) out.writeString(source.label);
+        if (source.text != null) out.writeString(source.text);
+        if (source.id != null) out.writeString(source.id);
+    }
+
+    private static Instance readSource(Input in) {
+        int flags = in.readByte();
+        if ((flags & SOURCE_PRESENT) == 0) return null;
+        String label = (flags & SOURCE_LABEL) != 0 ? in.readString() : null;
+        String text = (flags & SOURCE_TEXT) != 0 ? in.readString() : null;
+        String id = (flags & SOURCE_ID) != 0 ? in.readString() : null;
+        return new Instance(label, text, id);
+    }
+
+    private static void writeDocumentAttributes(Output out, Map<String, Object> attributes) {
+        out.writeVarint(attributes.size());
+        if (attributes.isEmpty()) return;
+        try (ByteArrayOutputStream b = new ByteArrayOutputStream();
+             ObjectOutputStream o = new ObjectOutputStream(b)) {
+            o.writeObject(new HashMap<>(attributes));
+            o.flush();
+            byte[] serialised = b.toByteArray();
+            out.writeVarint(serialised.length);
+            out.writeBytes(serialised, 0, serialised.length);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Document attributes must be serialisable.", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void readDocumentAttributes(Input in, Document document) throws IOException {
+        if (in.readVarint() == 0) return;
+        int length = in.readVarint();
+        try (ObjectInputStream o = new ObjectInputStream(new ByteArrayInputStream(in.bytes, in.position, length))) {
+            Map<String, Object> attributes = (Map<String, Object>) o.readObject();
+            document.getAttributes().putAll(attributes);
+        } catch (ClassNotFoundException e) { throw new IOException(e); }
+        in.position += length;
+    }
+
+    /**
+     * Growable byte array with varint writing.
+     */
+    private static final class Output {
+
+        private byte[] bytes;
+        private int position = 0;
+
+        Output(int capacity) { bytes = new byte[capacity]; }
+
+        void writeByte(byte value) {
+            ensure(1);
+            bytes[position++] = value;
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[position++] = (byte) value;
+        }
+
+        void writeSignedVarint(int value) {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        void writeBytes(byte[] source, int offset, int length) {
+            ensure(length);
+            System.arraycopy(source, offset, bytes, position, length);
+            position += length;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+            } else {
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                writeVarint(utf8.length + 1);
+                writeBytes(utf8, 0, utf8.length);
+            }
+        }
+
+        byte[] toByteArray() { return Arrays.copyOf(bytes, position); }
+
+        private void ensure(int length) {
+            if (position + length > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + length));
+        }
+    }
+
+    private static final class Input {
+
+        private final byte[] bytes;
+        private int position;
+
+        Input(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        int readByte() { return bytes[position++] & 0xFF; }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = bytes[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IndexOutOfBoundsException("Malformed varint.");
+        }
+
+        int readSignedVarint() {
+            int value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() {
+            int length = readVarint() - 1;
+            if (length < 0) return null;
+            if (position + length > bytes.length) throw new IndexOutOfBoundsException("String exceeds the encoded document.");
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
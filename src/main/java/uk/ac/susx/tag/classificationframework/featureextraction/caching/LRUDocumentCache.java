@@ -0,0 +1,138 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.caching;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory tier in front of another cache, holding the most recently used documents up to
+ * a total number of bytes. Writes go through to the backing cache.
+ *
+ * Documents are held in their serialised form, because pipelines modify the Documents that they
+ * process (e.g. when filtering tokens), so each get() must return a fresh copy.
+ *
+ * Closing this cache closes the backing cache. Compression is shared with the backing cache, since documents
+ * are serialised here before being passed to it.
+ */
+public class LRUDocumentCache extends AbstractDocumentCache {
+
+    private final AbstractDocumentCache backing;
+    private final long maxBytes;
+    private final LinkedHashMap<CacheKey, byte[]> recent = new LinkedHashMap<>(16, 0.75f, true); // Access order
+    private long bytes = 0;
+
+    public LRUDocumentCache(AbstractDocumentCache backing, long maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("Maximum size of the cache cannot be negative.");
+        this.backing = backing;
+        this.maxBytes = maxBytes;
+        super.setCompression(backing.isCompression());
+    }
+
+    @Override
+    public void setCompression(boolean compression) {
+        super.setCompression(compression);
+        backing.setCompression(compression);
+    }
+
+    public AbstractDocumentCache getBacking() { return backing; }
+
+    /**
+     * @return the total number of bytes of the documents currently held in memory.
+     */
+    public synchronized long getBytes() { return bytes; }
+
+    @Override
+    public byte[] getSerialised(int configuration, String instanceId) {
+        CacheKey key = new CacheKey(configuration, instanceId);
+        synchronized (this) {
+            byte[] document = recent.get(key);
+            if (document != null) return document;
+        }
+        byte[] document = backing.getSerialised(configuration, instanceId);
+        if (document != null) rememberIfAbsent(key, document);
+        return document;
+    }
+
+    @Override
+    public void putSerialised(int configuration, String instanceId, byte[] document) {
+        backing.putSerialised(configuration, instanceId, document);
+        remember(new CacheKey(configuration, instanceId), document);
+    }
+
+    /**
+     * Documents not held in memory are requested from the backing cache in a single batch.
+     */
+    @Override
+    public Map<String, byte[]> getAllSerialised(int configuration, Collection<String> instanceIds) {
+        Map<String, byte[]> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (this) {
+            for (String instanceId : instanceIds) {
+                byte[] document = recent.get(new CacheKey(configuration, instanceId));
+                if (document != null) found.put(instanceId, document);
+                else missing.add(instanceId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, byte[]> fromBacking = backing.getAllSerialised(configuration, missing);
+            for (Map.Entry<String, byte[]> entry : fromBacking.entrySet())
+                rememberIfAbsent(new CacheKey(configuration, entry.getKey()), entry.getValue());
+            found.putAll(fromBacking);
+        }
+        return found;
+    }
+
+    @Override
+    public void putAllSerialised(int configuration, Map<String, byte[]> documents) {
+        backing.putAllSerialised(configuration, documents);
+        for (Map.Entry<String, byte[]> entry : documents.entrySet())
+            remember(new CacheKey(configuration, entry.getKey()), entry.getValue());
+    }
+
+    @Override
+    public boolean contains(int configuration, String instanceId) {
+        synchronized (this) {
+            if (recent.containsKey(new CacheKey(configuration, instanceId))) return true;
+        }
+        return backing.contains(configuration, instanceId);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            recent.clear();
+            bytes = 0;
+        }
+        backing.close();
+    }
+
+    /**
+     * Hold a document that has just been read from the backing cache, unless a put() of the same key has
+     * overtaken it while the lock was not held (in which case the document read may be older).
+     */
+    private synchronized void rememberIfAbsent(CacheKey key, byte[] document) {
+        if (!recent.containsKey(key)) remember(key, document);
+    }
+
+    private synchronized void remember(CacheKey key, byte[] document) {
+        if (document.length > maxBytes) {
+            // Too large to hold, but any older version held must not be returned in its place
+            byte[] old = recent.remove(key);
+            if (old != null) bytes -= old.length;
+            return;
+        }
+        byte[] old = recent.put(key, document);
+        if (old != null) bytes -= old.length;
+        bytes += document.length;
+
+        Iterator<byte[]> eldest = recent.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.caching;
+
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import uk.ac.susx.tag.classificationframework.exceptions.CachingException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches documents in a single append-only file on local disk, with an in-memory index
+ * from (configuration, instance ID) to the position of the document in the file.
+ *
+ * The file is a header (magic number and format version) followed by records of:
+ *
+ *   configuration : int
+ *   instance ID   : int byte length, followed by UTF-8 bytes
+ *   document      : int byte length, followed by the serialised Document
+ *
+ * Documents are never overwritten in place; caching a document again appends a new record, which
+ * supersedes the old one. When the file is opened, it is scanned to rebuild the index. If the
+ * final record is incomplete (e.g. the process was killed mid-write), it is discarded.
+ *
+ * A batch of documents passed to putAllSerialised() is appended in one go, in buffers of up to
+ * WRITE_BUFFER_LENGTH bytes.
+ *
+ * Documents are written immediately, but are only guaranteed to be on disk after close().
+ * Only one LogDocumentCache should have a given file open at a time.
+ *
+ * Usually used behind an LRUDocumentCache:
+ *
+ *   pipeline.setCache(new LRUDocumentCache(new LogDocumentCache(file), 64 * 1024 * 1024));
+ */
+public class LogDocumentCache extends AbstractDocumentCache {
+
+    private static final int MAGIC = 0x44434C47; // "DCLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int MAX_RECORD_LENGTH = Integer.MAX_VALUE - 8; // Largest array length the JVM reliably allows
+    static final int WRITE_BUFFER_LENGTH = 1 << 24;                      // Size of the buffers a batch is written from
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Object2LongOpenHashMap<CacheKey> index; // Position of the latest document for each key
+    private long end;                                      // Position at which the next record is appended
+
+    public LogDocumentCache(File file) {
+        this.file = file;
+        index = new Object2LongOpenHashMap<>();
+        index.defaultReturnValue(-1);
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                write(header, 0);
+                end = HEADER_LENGTH;
+            } else {
+                end = buildIndex();
+                if (end < channel.size()) channel.truncate(end); // Discard incomplete final record
+            }
+        } catch (IOException e) { throw new CachingException(e); }
+    }
+
+    public File getFile() { return file; }
+
+    /**
+     * @return the number of documents in the cache (ignoring superseded documents still present in the file).
+     */
+    public synchronized int size() { return index.size(); }
+
+    @Override
+    public byte[] getSerialised(int configuration, String instanceId) {
+        long position;
+        synchronized (this) {
+            position = index.getLong(new CacheKey(configuration, instanceId));
+        }
+        if (position < 0) return null;
+        try {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            read(length, position - 4);
+            ByteBuffer document = ByteBuffer.allocate(length.getInt(0));
+            read(document, position);
+            return document.array();
+        } catch (IOException e) { throw new CachingException(e); }
+    }
+
+    @Override
+    public void putSerialised(int configuration, String instanceId, byte[] document) {
+        byte[] id = instanceId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(recordLength(instanceId, id, document));
+        record.putInt(configuration).putInt(id.length).put(id).putInt(document.length).put(document).flip();
+        synchronized (this) {
+            try {
+                write(record, end);
+            } catch (IOException e) { throw new CachingException(e); }
+            index.put(new CacheKey(configuration, instanceId), end + 12 + id.length);
+            end += record.capacity();
+        }
+    }
+
+    @Override
+    public void putAllSerialised(int configuration, Map<String, byte[]> documents) {
+        if (documents.isEmpty()) return;
+        String[] ids = new String[documents.size()];
+        byte[][] idBytes = new byte[documents.size()][];
+        long totalLength = 0;
+        int i = 0;
+        for (Map.Entry<String, byte[]> entry : documents.entrySet()) {
+            ids[i] = entry.getKey();
+            idBytes[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            totalLength += recordLength(ids[i], idBytes[i], entry.getValue());
+            i++;
+        }
+
+        // Records are never split between buffers, so a buffer is only larger than WRITE_BUFFER_LENGTH if a single record is
+        List<ByteBuffer> buffers = new ArrayList<>();
+        ByteBuffer records = null;
+        long[] offsets = new long[documents.size()];  // Offset of each document within the batch
+        long batchLength = 0;
+        for (int d = 0; d < ids.length; d++) {
+            byte[] document = documents.get(ids[d]);
+            int recordLength = recordLength(ids[d], idBytes[d], document);
+            if (records == null || records.remaining() < recordLength) {
+                records = ByteBuffer.allocate((int)Math.max(recordLength, Math.min(WRITE_BUFFER_LENGTH, totalLength - batchLength)));
+                buffers.add(records);
+            }
+            records.putInt(configuration).putInt(idBytes[d].length).put(idBytes[d]).putInt(document.length).put(document);
+            offsets[d] = batchLength + 12 + idBytes[d].length;
+            batchLength += recordLength;
+        }
+
+        synchronized (this) {
+            try {
+                long position = end;
+                for (ByteBuffer buffer : buffers) {
+                    buffer.flip();
+                    int length = buffer.remaining();
+                    write(buffer, position);
+                    position += length;
+                }
+            } catch (IOException e) { throw new CachingException(e); }
+            for (int d = 0; d < ids.length; d++)
+                index.put(new CacheKey(configuration, ids[d]), end + offsets[d]);
+            end += totalLength;
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(int configuration, String instanceId) {
+        return index.containsKey(new CacheKey(configuration, instanceId));
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!channel.isOpen()) return;
+        try {
+            channel.force(false);
+            raf.close();
+        } catch (IOException e) { throw new CachingException(e); }
+    }
+
+    /**
+     * Scan the file, indexing each complete record.
+     *
+     * @return the position following the last complete record.
+     */
+    private long buildIndex() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a document cache file: " + file);
+            int version = in.readInt();
+            if (version > VERSION)
+                throw new IOException("Unsupported document cache version: " + version + " (latest supported is " + VERSION + ")");
+
+            long fileLength = channel.size();
+            long position = HEADER_LENGTH;
+            while (true) {
+                try {
+                    int configuration = in.readInt();
+                    int idLength = in.readInt();
+                    if (idLength < 0 || position + 8 + idLength > fileLength) return position;
+                    byte[] id = new byte[idLength];
+                    in.readFully(id);
+                    int length = in.readInt();
+                    if (length < 0 || position + 12 + id.length + length > fileLength)
+                        return position; // skip() does not detect the end of the file, so check the length explicitly
+                    long skipped = 0;
+                    while (skipped < length) {
+                        long n = in.skip(length - skipped);
+                        if (n <= 0) throw new EOFException();
+                        skipped += n;
+                    }
+                    index.put(new CacheKey(configuration, new String(id, StandardCharsets.UTF_8)), position + 12 + id.length);
+                    position += 12 + id.length + length;
+                } catch (EOFException e) {
+                    return position;
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Document cache file has an incomplete header: " + file);
+        }
+    }
+
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new EOFException("Unexpected end of document cache file: " + file);
+            position += n;
+        }
+    }
+
+    /**
+     * @return the length of the record of a document, which must fit in a single buffer.
+     */
+    private static int recordLength(String instanceId, byte[] id, byte[] document) {
+        long length = 12L + id.length + document.length;
+        if (length > MAX_RECORD_LENGTH)
+            throw new CachingException("Document " + instanceId + " is too large to cache (" + length + " bytes).");
+        return (int) length;
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+}
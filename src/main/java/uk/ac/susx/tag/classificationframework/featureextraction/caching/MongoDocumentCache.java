@@ -0,0 +1,85 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.caching;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches documents in a MongoDB collection, one database object per document with the fields:
+ *
+ *   pipelineConfig : the pipeline's cache configuration
+ *   instanceID     : the ID of the Instance
+ *   cached         : the serialised Document
+ *
+ * A batch of documents is looked up with a single $in query, and written with a single unordered bulk upsert.
+ *
+ * See CacheManager for setting up the collection. The MongoClient is owned by the CacheManager,
+ * so closing this cache does nothing.
+ */
+public class MongoDocumentCache extends AbstractDocumentCache {
+
+    private final DBCollection collection;
+
+    public MongoDocumentCache(DBCollection collection) {
+        this.collection = collection;
+    }
+
+    public DBCollection getCollection() { return collection; }
+
+    @Override
+    public byte[] getSerialised(int configuration, String instanceId) {
+        DBObject cached = collection.findOne(query(configuration, instanceId));
+        return cached == null ? null : (byte[]) cached.get("cached");
+    }
+
+    @Override
+    public void putSerialised(int configuration, String instanceId, byte[] document) {
+        BasicDBObject newCached = query(configuration, instanceId);
+        newCached.put("cached", document);
+        collection.update(query(configuration, instanceId), newCached, true, false); // Upsert is true, so insert is done if it didn't already exist
+    }
+
+    @Override
+    public Map<String, byte[]> getAllSerialised(int configuration, Collection<String> instanceIds) {
+        Map<String, byte[]> found = new HashMap<>();
+        if (instanceIds.isEmpty()) return found;
+        DBObject query = new BasicDBObject("pipelineConfig", configuration)
+                .append("instanceID", new BasicDBObject("$in", new ArrayList<>(instanceIds)));
+        try (DBCursor cursor = collection.find(query, new BasicDBObject("instanceID", 1).append("cached", 1))) {
+            for (DBObject cached : cursor)
+                found.put((String) cached.get("instanceID"), (byte[]) cached.get("cached"));
+        }
+        return found;
+    }
+
+    @Override
+    public void putAllSerialised(int configuration, Map<String, byte[]> documents) {
+        if (documents.isEmpty()) return;
+        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+        for (Map.Entry<String, byte[]> entry : documents.entrySet()) {
+            BasicDBObject newCached = query(configuration, entry.getKey());
+            newCached.put("cached", entry.getValue());
+            bulk.find(query(configuration, entry.getKey())).upsert().replaceOne(newCached);
+        }
+        bulk.execute();
+    }
+
+    @Override
+    public boolean contains(int configuration, String instanceId) {
+        return collection.findOne(query(configuration, instanceId), new BasicDBObject("_id", 1)) != null;
+    }
+
+    @Override
+    public void close() { }
+
+    private static BasicDBObject query(int configuration, String instanceId) {
+        return new BasicDBObject("pipelineConfig", configuration).append("instanceID", instanceId);
+    }
+}
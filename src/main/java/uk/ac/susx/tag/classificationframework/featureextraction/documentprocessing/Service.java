@@ -119,6 +119,11 @@ public class Service extends DocProcessor {
         return true;
     }
 
+    @Override
+    public Workload getWorkload() {
+        return Workload.IO;
+    }
+
     @Override
     public void close(){
         client.close();
@@ -22,8 +22,9 @@ package uk.ac.susx.tag.classificationframework.featureextraction.filtering;
 
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 
-import java.util.Collection;
-import java.util.Set;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -33,6 +34,8 @@ import java.util.regex.Pattern;
  * This filter expects as input a regex pattern, then whenever it sees a token that matches the pattern,
  * it will mark that token to be filtered.
  *
+ * Each thread reuses a Matcher of its own, so filtering takes no locks and allocates no Matchers.
+ *
  * User: Andrew D. Robertson
  * Date: 27/01/2014
  * Time: 10:49
@@ -42,17 +45,28 @@ public class TokenFilterByRegex extends TokenFilter {
     private static final long serialVersionUID = 0L;
 
     private final Pattern pattern;
+    private transient ThreadLocal<Matcher> matchers;
 
     /**
      * @param regex Pattern to remove.
      */
     public TokenFilterByRegex(String regex) {
         this.pattern = Pattern.compile(regex);
+        initMatchers();
     }
 
     @Override
-    public synchronized boolean filter(int index, Document tokens) {
-        return pattern.matcher(tokens.get(index).get("form").toLowerCase()).matches();
+    public boolean filter(int index, Document tokens) {
+        return matchers.get().reset(tokens.get(index).get("form").toLowerCase()).matches();
+    }
+
+    private void initMatchers() {
+        matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initMatchers();
     }
 
     @Override
@@ -20,9 +20,11 @@ package uk.ac.susx.tag.classificationframework.featureextraction.filtering;
  * #L%
  */
 
+import com.google.common.collect.ImmutableSet;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -32,6 +34,10 @@ import java.util.Set;
  * This filter expects as input a set of strings, then whenever it sees a token that matches one of
  * those strings, it will mark that token to be filtered.
  *
+ * The keyword set is immutable, and modifications replace it with a new set, so filtering takes no
+ * locks, and always sees either the whole of a modification or none of it. This makes modification
+ * relatively expensive, but it is rare compared to filtering.
+ *
  * User: Andrew D. Robertson
  * Date: 27/01/2014
  * Time: 10:49
@@ -40,31 +46,42 @@ public class TokenFilterKeywords extends TokenFilter {
 
     private static final long serialVersionUID = 0L;
 
-    private Set<String> keywords;
+    private volatile Set<String> keywords; // Never modified, only replaced (modifications are synchronized with each other)
 
     /**
-     * @param keywords The tokens that should be filtered.
+     * @param keywords The tokens that should be filtered. The set is copied.
      */
     public TokenFilterKeywords(Set<String> keywords) {
-        this.keywords = keywords;
+        this.keywords = ImmutableSet.copyOf(keywords);
     }
 
     @Override
-    public synchronized boolean filter(int index, Document tokens) {
+    public boolean filter(int index, Document tokens) {
         return keywords.contains(tokens.get(index).get("form").toLowerCase());
     }
 
     public synchronized void addKeyword(String keyword) {
-        keywords.add(keyword);
+        if (!keywords.contains(keyword))
+            keywords = ImmutableSet.<String>builder().addAll(keywords).add(keyword).build();
     }
 
     public synchronized boolean removeKeyword(String keyword) {
-        return keywords.remove(keyword);
+        if (!keywords.contains(keyword)) return false;
+        Set<String> remaining = new HashSet<>(keywords);
+        remaining.remove(keyword);
+        keywords = ImmutableSet.copyOf(remaining);
+        return true;
     }
 
     public synchronized void setKeywords(Collection<String> kws) {
-        keywords.clear();
-        keywords.addAll(kws);
+        keywords = ImmutableSet.copyOf(kws);
+    }
+
+    /**
+     * @return the current keywords. The set cannot be modified.
+     */
+    public Set<String> getKeywords() {
+        return keywords;
     }
 
     @Override
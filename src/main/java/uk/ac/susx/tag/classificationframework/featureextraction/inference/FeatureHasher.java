@@ -0,0 +1,125 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.inference;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The hashing trick: features are mapped straight to one of a fixed number of buckets by a hash of their
+ * value, rather than being indexed by a StringIndexer. So the feature space, and the memory used to map
+ * into it, stay the same size however many distinct features are seen. Different features may share a
+ * bucket.
+ *
+ * See FeatureExtractionPipeline.setFeatureHasher(). During extraction, FeatureInferrers emit features into
+ * a HashedFeatureSink (see FeatureInferrer.addHashedFeatures()), which hashes the feature value as it is
+ * given, piece by piece, so that no Feature or String need be created.
+ *
+ * The hash is a 32-bit MurmurHash3-style hash of the UTF-16 characters of the feature value, so it is the
+ * same on every JVM and run, and the same whether a value is hashed whole or in pieces.
+ *
+ * For debugging, setReverseLookup(true) makes the hasher record the feature values seen in each bucket
+ * (see getFeatureValues()). Recording requires the values to be built as Strings, so it is off by default.
+ */
+public class FeatureHasher implements Serializable {
+
+    private static final long serialVersionUID = 0L;
+
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+    static final int SEED = 0x9747b28c;
+
+    private final int numBuckets;
+    private volatile boolean reverseLookup = false;
+    private transient ConcurrentHashMap<Integer, Set<String>> featureValues = null;
+
+    /**
+     * @param numBuckets the size of the feature space, i.e. features are mapped to the indices 0 to numBuckets - 1.
+     */
+    public FeatureHasher(int numBuckets) {
+        if (numBuckets < 1) throw new IllegalArgumentException("There must be at least one bucket.");
+        this.numBuckets = numBuckets;
+    }
+
+    public int getNumBuckets() { return numBuckets; }
+
+    /**
+     * @return the bucket of the feature with the given value.
+     */
+    public int bucket(CharSequence featureValue) {
+        return bucket(hash(featureValue));
+    }
+
+    /**
+     * @return the bucket of a feature value with the given hash (see hash()).
+     */
+    public int bucket(int hash) {
+        return (hash & 0x7fffffff) % numBuckets;
+    }
+
+    /**
+     * @return a new sink emitting features into *buckets*.
+     */
+    public HashedFeatureSink newSink(IntArrayList buckets) {
+        return new HashedFeatureSink(this, buckets);
+    }
+
+    /**
+     * Record the feature values seen in each bucket from now on (or stop recording, discarding them).
+     */
+    public synchronized void setReverseLookup(boolean reverseLookup) {
+        this.reverseLookup = reverseLookup;
+        featureValues = reverseLookup ? new ConcurrentHashMap<>() : null;
+    }
+
+    public boolean isReverseLookup() { return reverseLookup; }
+
+    /**
+     * @return the feature values seen in *bucket* while reverse lookup was on.
+     */
+    public Set<String> getFeatureValues(int bucket) {
+        ConcurrentHashMap<Integer, Set<String>> values = featureValues;
+        Set<String> bucketValues = values == null ? null : values.get(bucket);
+        return bucketValues == null ? Collections.emptySet() : Collections.unmodifiableSet(bucketValues);
+    }
+
+    void record(int bucket, String featureValue) {
+        ConcurrentHashMap<Integer, Set<String>> values = featureValues;
+        if (values != null) values.computeIfAbsent(bucket, b -> ConcurrentHashMap.newKeySet()).add(featureValue);
+    }
+
+    public static int hash(CharSequence value) {
+        int hash = SEED;
+        for (int i = 0; i < value.length(); i++)
+            hash = mix(hash, value.charAt(i));
+        return finish(hash, value.length());
+    }
+
+    static int mix(int hash, char c) {
+        int k = c * C1;
+        k = Integer.rotateLeft(k, 15);
+        k *= C2;
+        hash ^= k;
+        hash = Integer.rotateLeft(hash, 13);
+        return hash * 5 + 0xe6546b64;
+    }
+
+    static int finish(int hash, int length) {
+        hash ^= length;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (reverseLookup) featureValues = new ConcurrentHashMap<>();
+    }
+}
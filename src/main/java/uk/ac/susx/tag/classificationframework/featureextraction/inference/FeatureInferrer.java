@@ -24,6 +24,7 @@ import com.google.common.collect.ImmutableMap;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineComponent;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -57,6 +58,18 @@ public abstract class FeatureInferrer extends PipelineComponent {
      */
     public abstract List<Feature> addInferredFeatures(Document document, List<Feature> featuresSoFar);
 
+    /**
+     * The feature hashing equivalent of addInferredFeatures() (see FeatureHasher): emit the value of each
+     * feature inferred from the document into *sink*. Features of preceding inferrers are not available.
+     *
+     * By default, this adds the values of the Features returned by addInferredFeatures(). Override it to
+     * emit features without creating Features or Strings.
+     */
+    public void addHashedFeatures(Document document, HashedFeatureSink sink) {
+        for (Feature feature : addInferredFeatures(document, new ArrayList<>()))
+            sink.add(feature.value());
+    }
+
     public List<List<Feature>> addInferredFeaturesFromBatch(List<Document> documents, List<List<Feature>> featuresSoFarPerDocument){
         throw new UnsupportedOperationException();
     }
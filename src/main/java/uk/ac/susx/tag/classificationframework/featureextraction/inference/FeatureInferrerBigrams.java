@@ -87,6 +87,20 @@ public class FeatureInferrerBigrams extends FeatureInferrer{
         return featuresSoFar;
     }
 
+    @Override
+    public void addHashedFeatures(Document document, HashedFeatureSink sink) {
+        String previousForm = null;
+        for (AnnotatedToken token : document) {
+            if (!token.isFiltered() || includeFilteredTokens) {
+                if (puncChecker == null || !puncChecker.isPunctuation(token)) {
+                    String form = token.getOrNull(AnnotatedToken.FORM);
+                    if (previousForm != null) sink.begin().append(previousForm).append('_').append(form).end();
+                    previousForm = form;
+                }
+            }
+        }
+    }
+
     @Override
     public Set<String> getFeatureTypes() {
         return Sets.newHashSet(FEATURE_TYPE_BIGRAM);
@@ -61,6 +61,23 @@ public class FeatureInferrerTrigrams extends FeatureInferrer{
         return Sets.newHashSet(FEATURE_TYPE_TRIGRAM);
     }
 
+    @Override
+    public void addHashedFeatures(Document document, HashedFeatureSink sink) {
+        String formN1 = null;
+        String formN2 = null;
+        for (AnnotatedToken token : document){
+            if (!token.isFiltered() || includeFilteredTokens){
+                if(puncChecker == null || !puncChecker.isPunctuation(token)){
+                    String form = token.getOrNull(AnnotatedToken.FORM);
+                    if (formN1 != null && formN2 != null)
+                        sink.begin().append(formN2).append('_').append(formN1).append('_').append(form).end();
+                    formN2 = formN1;
+                    formN1 = form;
+                }
+            }
+        }
+    }
+
     private String makeTrigram(String token1, String token2, String token3){
         return token1 + "_" + token2 + "_" + token3;
     }
@@ -55,6 +55,16 @@ public class FeatureInferrerUnigrams extends FeatureInferrer {
         return featuresSoFar;
     }
 
+    @Override
+    public void addHashedFeatures(Document document, HashedFeatureSink sink) {
+        for (AnnotatedToken token : document){
+            if (!token.isFiltered()) {
+                String form = token.get("form");
+                if (!form.isEmpty()) sink.add(form);
+            }
+        }
+    }
+
     @Override
     public Set<String> getFeatureTypes() {
         return Sets.newHashSet(FEATURE_TYPE_UNIGRAM);
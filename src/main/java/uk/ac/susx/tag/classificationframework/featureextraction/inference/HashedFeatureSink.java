@@ -0,0 +1,70 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.inference;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Receives the features of a document in feature hashing mode (see FeatureHasher), appending the bucket
+ * of each to a list of ints.
+ *
+ * A feature whose value is a single string can be added with add(). Otherwise its value can be given in
+ * pieces, without concatenating them, e.g. for a bigram:
+ *
+ *   sink.begin().append(first.getOrNull(AnnotatedToken.FORM)).append('_').append(second.getOrNull(AnnotatedToken.FORM)).end();
+ *
+ * which gives the same bucket as add(first + "_" + second). Not thread safe; use a sink per document.
+ */
+public final class HashedFeatureSink {
+
+    private final FeatureHasher hasher;
+    private final IntArrayList buckets;
+    private final StringBuilder value;  // Only used when the hasher is recording feature values
+
+    private int hash;
+    private int length;
+
+    HashedFeatureSink(FeatureHasher hasher, IntArrayList buckets) {
+        this.hasher = hasher;
+        this.buckets = buckets;
+        this.value = hasher.isReverseLookup() ? new StringBuilder() : null;
+    }
+
+    public void add(CharSequence featureValue) {
+        begin().append(featureValue).end();
+    }
+
+    /**
+     * Start a new feature value.
+     */
+    public HashedFeatureSink begin() {
+        hash = FeatureHasher.SEED;
+        length = 0;
+        if (value != null) value.setLength(0);
+        return this;
+    }
+
+    public HashedFeatureSink append(CharSequence piece) {
+        for (int i = 0; i < piece.length(); i++)
+            hash = FeatureHasher.mix(hash, piece.charAt(i));
+        length += piece.length();
+        if (value != null) value.append(piece);
+        return this;
+    }
+
+    public HashedFeatureSink append(char piece) {
+        hash = FeatureHasher.mix(hash, piece);
+        length++;
+        if (value != null) value.append(piece);
+        return this;
+    }
+
+    /**
+     * Finish the feature value begun with begin(), adding its bucket.
+     */
+    public void end() {
+        int bucket = hasher.bucket(FeatureHasher.finish(hash, length));
+        buckets.add(bucket);
+        if (value != null) hasher.record(bucket, value.toString());
+    }
+
+    public IntArrayList getBuckets() { return buckets; }
+}
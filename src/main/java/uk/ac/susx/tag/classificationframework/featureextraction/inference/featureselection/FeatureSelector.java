@@ -21,21 +21,23 @@ package uk.ac.susx.tag.classificationframework.featureextraction.inference.featu
  */
 
 import com.google.common.collect.Ordering;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.StringIndexer;
 import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.DataDrivenComponent;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * A feature selector has some notion of what features are acceptable.
@@ -60,6 +62,9 @@ public abstract class FeatureSelector extends FeatureInferrer implements DataDri
     protected Set<String> additionalFeatures = new HashSet<>();
     protected Set<String> selectedFeatureTypes = new HashSet<>();
 
+    private transient Evidence evidence = null; // The evidence of the last update, kept for updateEvidence()
+    private transient volatile Selection selection = null; // The sets above compiled for addInferredFeatures(), see selection()
+
     public Set<String> getTopFeatures() { return topFeatures; }
     public Set<String> getSelectedFeatureTypes() { return selectedFeatureTypes; }
 
@@ -71,25 +76,42 @@ public abstract class FeatureSelector extends FeatureInferrer implements DataDri
         this.selectedFeatureTypes = selectedFeatureTypes==null? new HashSet<String>() : selectedFeatureTypes;
     }
 
+    /**
+     * Orders features by score. Of features with equal scores, those earlier in alphabetical order are greater, so
+     * that the greatest features are always the same whatever order they're scored in.
+     */
     public static class FeatureScoreOrdering extends Ordering<Object2DoubleMap.Entry<String>> {
         @Override
         public int compare(Object2DoubleMap.Entry<String> entry1, Object2DoubleMap.Entry<String> entry2) {
-            return Double.compare(entry1.getDoubleValue(), entry2.getDoubleValue());
+            int comparison = Double.compare(entry1.getDoubleValue(), entry2.getDoubleValue());
+            return comparison != 0 ? comparison : entry2.getKey().compareTo(entry1.getKey());
         }
     }
 
 
     public void setAdditionalFeatures(Set<String> replacementAdditionalFeatures){
         additionalFeatures = new HashSet<>(replacementAdditionalFeatures);
+        selectionChanged();
     }
     public void addAdditionalFeatures(Set<String> supplementaryAdditionalFeatures){
         additionalFeatures.addAll(supplementaryAdditionalFeatures);
+        selectionChanged();
     }
     public void removeAdditionalFeatures(Set<String> featuresToBeRemoved){
         additionalFeatures.removeAll(featuresToBeRemoved);
+        selectionChanged();
     }
     public void clearAdditionalFeatures(){
         additionalFeatures = new HashSet<>();
+        selectionChanged();
+    }
+
+    /**
+     * Selectors which change *topFeatures* in place (rather than replacing it with a new set) must call this
+     * afterwards, so that addInferredFeatures() sees the change.
+     */
+    protected void selectionChanged(){
+        selection = null;
     }
 
     @Override
@@ -113,24 +135,85 @@ public abstract class FeatureSelector extends FeatureInferrer implements DataDri
      * If *selectedFeatureTypes* is empty, then ALL features must pass the *topFeatures* test.
      */
     public List<Feature> addInferredFeatures(Document document, List<Feature> featuresSoFar){
-        // If feature selection has selected some features to watch, keep only those features which are watched features
-        if (!topFeatures.isEmpty())
-            return selectedFeatureTypes.isEmpty() ? selectFeaturesAllTypes(document, featuresSoFar) : selectFeaturesSpecificTypes(document, featuresSoFar);
-        // Otherwise allow all features through
-        else
+        Selection selection = selection();
+        // If feature selection has not selected any features to watch, allow all features through
+        if (selection.features.isEmpty())
             return featuresSoFar;
+        // Otherwise keep only those features which are watched features
+        List<Feature> selected = new ArrayList<>(featuresSoFar.size());
+        for (Feature feature : featuresSoFar) {
+            if (selection.selects(feature))
+                selected.add(feature);
+        }
+        return selected;
     }
 
-    private List<Feature> selectFeaturesAllTypes(Document document, List<Feature> featuresSoFar){
-        return featuresSoFar.stream()
-                .filter(feature -> topFeatures.contains(feature.value()) || additionalFeatures.contains(feature.value()))
-                .collect(Collectors.toList());
+    /**
+     * @return the compiled selection, compiling it again if the sets it was compiled from have changed.
+     */
+    private Selection selection(){
+        Selection current = selection;
+        if (current == null || !current.isCompiledFrom(topFeatures, additionalFeatures, selectedFeatureTypes)) {
+            current = new Selection(topFeatures, additionalFeatures, selectedFeatureTypes);
+            selection = current;
+        }
+        return current;
     }
 
-    private List<Feature> selectFeaturesSpecificTypes(Document document, List<Feature> featuresSoFar){
-        return featuresSoFar.stream()
-                .filter(feature -> !selectedFeatureTypes.contains(feature.type()) || topFeatures.contains(feature.value()) || additionalFeatures.contains(feature.value()))
-                .collect(Collectors.toList());
+    /**
+     * topFeatures, additionalFeatures and selectedFeatureTypes compiled for checking each feature of each
+     * document: the top and additional features in a single set, and the selected feature types interned in
+     * an array (types are few, and the inferrers' types are string constants, so usually the same objects).
+     */
+    private static class Selection {
+
+        private final Set<String> topFeatures;
+        private final int topFeaturesSize;
+        private final Set<String> additionalFeatures;
+        private final int additionalFeaturesSize;
+        private final Set<String> selectedFeatureTypes;
+
+        final Set<String> features;
+        private final String[] types;
+
+        Selection(Set<String> topFeatures, Set<String> additionalFeatures, Set<String> selectedFeatureTypes) {
+            this.topFeatures = topFeatures;
+            this.topFeaturesSize = topFeatures.size();
+            this.additionalFeatures = additionalFeatures;
+            this.additionalFeaturesSize = additionalFeatures.size();
+            this.selectedFeatureTypes = selectedFeatureTypes;
+
+            features = new HashSet<>();
+            if (!topFeatures.isEmpty()) {
+                features.addAll(topFeatures);
+                features.addAll(additionalFeatures);
+            }
+            types = new String[selectedFeatureTypes.size()];
+            int i = 0;
+            for (String type : selectedFeatureTypes)
+                types[i++] = type == null ? null : type.intern();
+        }
+
+        /**
+         * Sets changed in place are only noticed if their sizes have changed; see selectionChanged().
+         */
+        boolean isCompiledFrom(Set<String> topFeatures, Set<String> additionalFeatures, Set<String> selectedFeatureTypes) {
+            return this.topFeatures == topFeatures && topFeaturesSize == topFeatures.size()
+                && this.additionalFeatures == additionalFeatures && additionalFeaturesSize == additionalFeatures.size()
+                && this.selectedFeatureTypes == selectedFeatureTypes && types.length == selectedFeatureTypes.size();
+        }
+
+        boolean selects(Feature feature) {
+            return (types.length > 0 && !isSelectedType(feature.type())) || features.contains(feature.value());
+        }
+
+        private boolean isSelectedType(String type) {
+            for (String selectedType : types)
+                if (selectedType == type) return true;
+            for (String selectedType : types)
+                if (selectedType != null && selectedType.equals(type)) return true;
+            return false;
+        }
     }
 
 //    public static Evidence collectEvidence(Iterable<Instance> documents, Set<String> selectedFeatureTypes, FeatureExtractionPipeline pipeline){
@@ -140,6 +223,42 @@ public abstract class FeatureSelector extends FeatureInferrer implements DataDri
 //        return e;
 //    }
 
+    /**
+     * Collect evidence from all of *data*, keeping it so that later updates can adjust it with updateEvidence()
+     * rather than seeing all of the data again.
+     */
+    protected Evidence collectEvidence(FeatureExtractionPipeline.Data data){
+        Evidence e = new Evidence();
+        for (FeatureExtractionPipeline.Datum d : data.allData())
+            e.addEvidence(d.label, d.features, selectedFeatureTypes);
+        evidence = e;
+        return e;
+    }
+
+    /**
+     * @return true if there is evidence from an earlier update for updateEvidence() to adjust. False if
+     *         collectEvidence() hasn't been called (e.g. the selector has been deserialised since).
+     */
+    protected boolean hasEvidence(){
+        return evidence != null;
+    }
+
+    /**
+     * Adjust the evidence of the last update to the data *added* and *removed* since. See
+     * IncrementalDataDrivenComponent.
+     *
+     * @throws IllegalStateException if there is no evidence to adjust (see hasEvidence()).
+     */
+    protected Evidence updateEvidence(FeatureExtractionPipeline.Data added, FeatureExtractionPipeline.Data removed){
+        if (evidence == null)
+            throw new IllegalStateException("No evidence to update; collectEvidence() must first see all of the data.");
+        for (FeatureExtractionPipeline.Datum d : removed.allData())
+            evidence.removeEvidence(d.label, d.features, selectedFeatureTypes);
+        for (FeatureExtractionPipeline.Datum d : added.allData())
+            evidence.addEvidence(d.label, d.features, selectedFeatureTypes);
+        return evidence;
+    }
+
     public interface EvidenceCollector {
         Evidence collectEvidence(FeatureExtractionPipeline.Data data, Set<String> selectedFeatureTypes);
     }
@@ -162,7 +281,13 @@ public abstract class FeatureSelector extends FeatureInferrer implements DataDri
      * which features to select.
      *
      * The addEvidence() method is used to add a document of evidence at a time. See the
-     * FeatureSelector add() method in FeatureExtractionPipeline.
+     * FeatureSelector add() method in FeatureExtractionPipeline. Evidence can also be taken
+     * away with removeEvidence(), so that the counts can follow changes to the data without
+     * seeing all of it again (see collectEvidence() and updateEvidence()).
+     *
+     * Features and labels are counted by their indices in the evidence's own StringIndexers
+     * (see featureIndex() and labelIndex()). The int methods avoid looking up the strings
+     * again, the String methods are for convenience.
      *
      * The method names correspond to the variables outline in the feature selection framework
      * presented by Li et al in "A Framework of Feature Selection Method for Text Categorization"
@@ -171,75 +296,155 @@ public abstract class FeatureSelector extends FeatureInferrer implements DataDri
      */
     public static class Evidence {
 
-        private Object2IntOpenHashMap<String> featureCounts = new Object2IntOpenHashMap<>();
-        private Object2IntOpenHashMap<String> labelCounts = new Object2IntOpenHashMap<>();
-        private Map<String, Object2IntOpenHashMap<String>> jointCounts = new HashMap<>();
+        private StringIndexer featureIndexer = new StringIndexer();
+        private StringIndexer labelIndexer = new StringIndexer();
+        private StringIndexer typeIndexer = new StringIndexer();
+
+        private Int2IntOpenHashMap featureCounts = new Int2IntOpenHashMap();
+        private Int2IntOpenHashMap labelCounts = new Int2IntOpenHashMap();
+        private Int2ObjectOpenHashMap<Int2IntOpenHashMap> jointCounts = new Int2ObjectOpenHashMap<>();
         private int totalDocuments;
 
+        private long[] documentFeatures = new long[64]; // Re-used between documents: (type, feature) pairs, so that each is counted once per document
+
         public void addEvidence(String classLabel, List<Feature> document, Set<String> featureTypes){
-            if (featureTypes.isEmpty())
-                addEvidenceAnyFeatureType(classLabel, document);
-            else
-                addEvidenceSpecificFeatureTypes(classLabel, document, featureTypes);
+            count(classLabel, document, featureTypes, 1);
         }
 
-        private void addEvidenceAnyFeatureType(String classLabel, List<Feature> document) {
-            totalDocuments++;
-            labelCounts.addTo(classLabel, 1);
-            for (Feature feature : new HashSet<>(document)){
-                featureCounts.addTo(feature.value(), 1);
-                if (!jointCounts.containsKey(classLabel))
-                    jointCounts.put(classLabel, new Object2IntOpenHashMap<String>());
-                jointCounts.get(classLabel).addTo(feature.value(), 1);
+        /**
+         * Take away the evidence of a document previously added with addEvidence() (with the same label and features).
+         */
+        public void removeEvidence(String classLabel, List<Feature> document, Set<String> featureTypes){
+            count(classLabel, document, featureTypes, -1);
+        }
+
+        private void count(String classLabel, List<Feature> document, Set<String> featureTypes, int delta){
+            boolean adding = delta > 0;
+            int label = labelIndexer.getIndex(classLabel, adding);
+            if (label == -1) return; // Removing a document whose label has never been seen
+
+            totalDocuments += delta;
+            adjust(labelCounts, label, delta);
+
+            int numFeatures = documentFeatures(document, featureTypes, adding);
+            if (numFeatures == 0) return;
+
+            Int2IntOpenHashMap labelJointCounts = jointCounts.get(label);
+            if (labelJointCounts == null) {
+                labelJointCounts = new Int2IntOpenHashMap();
+                jointCounts.put(label, labelJointCounts);
+            }
+            for (int i = 0; i < numFeatures; i++) {
+                int feature = (int) documentFeatures[i];
+                adjust(featureCounts, feature, delta);
+                adjust(labelJointCounts, feature, delta);
             }
+            if (labelJointCounts.isEmpty())
+                jointCounts.remove(label);
         }
 
-        private void addEvidenceSpecificFeatureTypes(String classLabel, List<Feature> document, Set<String> featureTypes){
-            totalDocuments++;
-            labelCounts.addTo(classLabel, 1);
-            for (Feature feature : new HashSet<>(document)){
-                if (featureTypes.contains(feature.type())) {
-                    featureCounts.addTo(feature.value(), 1);
-                    if (!jointCounts.containsKey(classLabel))
-                        jointCounts.put(classLabel, new Object2IntOpenHashMap<String>());
-                    jointCounts.get(classLabel).addTo(feature.value(), 1);
+        /**
+         * Fill documentFeatures with the distinct (type, feature) pairs of *document*, whose types are
+         * in *featureTypes* (or of any type if it's empty), with the feature index in the low bits.
+         * Features not already indexed are indexed only if *index* is true, otherwise they're left out.
+         * @return the number of pairs.
+         */
+        private int documentFeatures(List<Feature> document, Set<String> featureTypes, boolean index){
+            if (documentFeatures.length < document.size())
+                documentFeatures = new long[Math.max(document.size(), documentFeatures.length * 2)];
+            int n = 0;
+            for (Feature feature : document) {
+                if (featureTypes.isEmpty() || featureTypes.contains(feature.type())) {
+                    int featureIndex = featureIndexer.getIndex(feature.value(), index);
+                    if (featureIndex != -1) {
+                        int typeIndex = typeIndexer.getIndex(feature.type() == null ? "" : feature.type());
+                        documentFeatures[n++] = ((long) typeIndex << 32) | featureIndex;
+                    }
                 }
             }
+            Arrays.sort(documentFeatures, 0, n);
+            int distinct = 0;
+            for (int i = 0; i < n; i++) {
+                if (distinct == 0 || documentFeatures[i] != documentFeatures[distinct - 1])
+                    documentFeatures[distinct++] = documentFeatures[i];
+            }
+            return distinct;
         }
 
+        /**
+         * Add *delta* to the count of *key*, removing the key once its count reaches 0.
+         */
+        private static void adjust(Int2IntOpenHashMap counts, int key, int delta){
+            if (counts.addTo(key, delta) + delta == 0)
+                counts.remove(key);
+        }
+
+        /**
+         * @return the index of *feature* in this evidence, or -1 if it has never been seen.
+         */
+        public int featureIndex(String feature) { return featureIndexer.getIndex(feature, false); }
+        public String featureString(int feature) { return featureIndexer.getValue(feature); }
+
+        /**
+         * @return the index of *classLabel* in this evidence, or -1 if it has never been seen.
+         */
+        public int labelIndex(String classLabel) { return labelIndexer.getIndex(classLabel, false); }
+        public String labelString(int classLabel) { return labelIndexer.getValue(classLabel); }
+
         /**
          * A(C, F) = the number of documents labelled C that contained feature F.
          */
+        public int A(int classLabel, int feature) {
+            Int2IntOpenHashMap labelJointCounts = jointCounts.get(classLabel);
+            return labelJointCounts == null ? 0 : labelJointCounts.get(feature);
+        }
+
         public int A(String classLabel, String feature) {
-            return jointCounts.containsKey(classLabel)? jointCounts.get(classLabel).getInt(feature) : 0;
+            return A(labelIndex(classLabel), featureIndex(feature));
         }
 
         /**
          * B(C, F) = the number of documents NOT labelled C that contained feature F.
          */
+        public int B(int classLabel, int feature) {
+            return featureCounts.get(feature) - A(classLabel, feature);
+        }
+
         public int B(String classLabel, String feature) {
-            return featureCounts.getInt(feature) - A(classLabel, feature);
+            return B(labelIndex(classLabel), featureIndex(feature));
         }
 
         /**
          * C(C, F) = the number of documents that do not contain feature F, but that belong to class C
          */
-        public int C(String classLabel, String feature) {
+        public int C(int classLabel, int feature) {
             return N(classLabel) - A(classLabel, feature);
         }
 
+        public int C(String classLabel, String feature) {
+            return C(labelIndex(classLabel), featureIndex(feature));
+        }
+
         /**
          * D(C, F) = the number of documents that neither contain feature F nor belong to class C
          */
-        public int D(String classLabel, String feature) {
+        public int D(int classLabel, int feature) {
             return Nall() - N(classLabel) - B(classLabel, feature);
         }
 
+        public int D(String classLabel, String feature) {
+            return D(labelIndex(classLabel), featureIndex(feature));
+        }
+
         /**
          * N(C) = the number of documents labelled C
          */
+        public int N(int classLabel) {
+            return labelCounts.get(classLabel);
+        }
+
         public int N(String classLabel) {
-            return labelCounts.getInt(classLabel);
+            return N(labelIndex(classLabel));
         }
 
         /**
@@ -252,16 +457,38 @@ public abstract class FeatureSelector extends FeatureInferrer implements DataDri
         /**
          * Get the number of documents which contained a particular feature
          */
+        public int getFeatureCount(int feature){
+            return featureCounts.get(feature);
+        }
+
         public int getFeatureCount(String feature){
-            return featureCounts.getInt(feature);
+            return getFeatureCount(featureIndex(feature));
         }
 
-        public Set<String> vocab(){
+        /**
+         * @return the indices of the features which occur in at least one document.
+         */
+        public IntSet features(){
             return featureCounts.keySet();
         }
 
-        public Set<String> classLabels() {
+        /**
+         * @return the indices of the labels of at least one document.
+         */
+        public IntSet labels(){
             return labelCounts.keySet();
         }
+
+        public Set<String> vocab(){
+            Set<String> vocab = new HashSet<>();
+            for (int feature : features()) vocab.add(featureString(feature));
+            return vocab;
+        }
+
+        public Set<String> classLabels() {
+            Set<String> classLabels = new HashSet<>();
+            for (int label : labels()) classLabels.add(labelString(label));
+            return classLabels;
+        }
     }
 }
@@ -5,7 +5,9 @@ import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
 
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 /**
  * Created with IntelliJ IDEA.
@@ -38,12 +40,14 @@ public class FeatureSelectorDocumentFrequencyRange extends FeatureSelector {
         Object2IntOpenHashMap<String> featureCounts = selectedFeatureTypes.isEmpty()?
                 featureCountsAnyFeatureType(data) : featureCountsSpecificFeatureType(data);
 
+        Set<String> selected = new HashSet<>();
         ObjectIterator<Object2IntMap.Entry<String>> entries = featureCounts.object2IntEntrySet().fastIterator();
         while (entries.hasNext()){
             Object2IntMap.Entry<String> entry = entries.next();
             if (entry.getIntValue() >= lower && (upper<=lower || entry.getIntValue() < upper))
-                topFeatures.add(entry.getKey());
+                selected.add(entry.getKey());
         }
+        topFeatures = selected;
     }
 
     private Object2IntOpenHashMap<String> featureCountsAnyFeatureType(FeatureExtractionPipeline.Data data){
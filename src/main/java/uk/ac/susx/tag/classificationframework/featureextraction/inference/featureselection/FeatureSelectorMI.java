@@ -4,7 +4,9 @@ import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
 import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.IncrementalDataDrivenComponent;
 
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -14,7 +16,7 @@ import java.util.Set;
  * Date: 24/06/2015
  * Time: 14:53
  */
-public class FeatureSelectorMI extends FeatureSelectorWithDocumentFrequencyCutoff {
+public class FeatureSelectorMI extends FeatureSelectorWithDocumentFrequencyCutoff implements IncrementalDataDrivenComponent {
 
     private static final long serialVersionUID = 0L;
     private int N;
@@ -45,30 +47,48 @@ public class FeatureSelectorMI extends FeatureSelectorWithDocumentFrequencyCutof
 
     @Override
     public void update(FeatureExtractionPipeline.Data data) {
-//        Evidence e = FeatureSelector.collectEvidence(documents, selectedFeatureTypes, pipeline);
-        Evidence e = new FeatureSelector.EvidenceCollectorAllData().collectEvidence(data, selectedFeatureTypes);
+        selectFeatures(collectEvidence(data));
+    }
+
+    @Override
+    public boolean canUpdateIncrementally() {
+        return hasEvidence();
+    }
+
+    @Override
+    public void update(FeatureExtractionPipeline.Data added, FeatureExtractionPipeline.Data removed) {
+        selectFeatures(updateEvidence(added, removed));
+    }
+
+    private void selectFeatures(Evidence e) {
         Object2DoubleMap<String> scores = new Object2DoubleOpenHashMap<>();
-        for (String feature : e.vocab()){
+        for (int feature : e.features()){
 
             // If this feature has a document frequency greater than the cutoff, then we'll consider its score in the ranking, otherwise, we take it out of the running
             if (e.getFeatureCount(feature) >= documentFrequencyCutoff) {
 
                 double maxScore = 0; // According to the paper, max score tends to work better than average score
-                for (String classLabel : e.classLabels()) {
+                for (int classLabel : e.labels()) {
                     double score = mutualInformation(feature, classLabel, e);
                     if (score > maxScore) maxScore = score;
                 }
-                scores.put(feature, maxScore);
+                scores.put(e.featureString(feature), maxScore);
             }
         }
+        Set<String> selected = new HashSet<>();
         for(Object2DoubleMap.Entry<String> entry : new FeatureScoreOrdering().greatestOf(scores.object2DoubleEntrySet(), N)){
-            topFeatures.add(entry.getKey());
+            selected.add(entry.getKey());
         }
+        topFeatures = selected;
     }
 
     public double mutualInformation(String feature, String classLabel, Evidence e){
-        double cGivenF = (e.A(classLabel, feature) + 1) / (double)(e.A(classLabel,feature + e.B(classLabel, feature)) + e.classLabels().size());
-        double cPrior = (e.N(classLabel) + 1)/ (double)(e.Nall() + e.classLabels().size());
+        return mutualInformation(e.featureIndex(feature), e.labelIndex(classLabel), e);
+    }
+
+    public double mutualInformation(int feature, int classLabel, Evidence e){
+        double cGivenF = (e.A(classLabel, feature) + 1) / (double)(e.A(classLabel, feature) + e.B(classLabel, feature) + e.labels().size());
+        double cPrior = (e.N(classLabel) + 1)/ (double)(e.Nall() + e.labels().size());
         return Math.log(cGivenF/cPrior);
     }
 
@@ -4,7 +4,9 @@ import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
 import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.IncrementalDataDrivenComponent;
 
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -29,7 +31,7 @@ import java.util.Set;
  * Date: 27/01/2014
  * Time: 12:43
  */
-public class FeatureSelectorWFO extends FeatureSelectorWithDocumentFrequencyCutoff {
+public class FeatureSelectorWFO extends FeatureSelectorWithDocumentFrequencyCutoff implements IncrementalDataDrivenComponent {
 
     private static final long serialVersionUID = 0L;
 
@@ -87,38 +89,51 @@ public class FeatureSelectorWFO extends FeatureSelectorWithDocumentFrequencyCuto
 
     @Override
     public void update(FeatureExtractionPipeline.Data data) {
-//        Evidence e = FeatureSelector.collectEvidence(documents, selectedFeatureTypes, pipeline);
-        Evidence e = new FeatureSelector.EvidenceCollectorAllData().collectEvidence(data, selectedFeatureTypes);
+        selectFeatures(collectEvidence(data));
+    }
+
+    @Override
+    public boolean canUpdateIncrementally() {
+        return hasEvidence();
+    }
+
+    @Override
+    public void update(FeatureExtractionPipeline.Data added, FeatureExtractionPipeline.Data removed) {
+        selectFeatures(updateEvidence(added, removed));
+    }
 
+    private void selectFeatures(Evidence e) {
         Object2DoubleMap<String> scores = new Object2DoubleOpenHashMap<>();
-        for (String feature : e.vocab()){
+        for (int feature : e.features()){
 
             // If this feature has a document frequency greater than the cutoff, then we'll consider its score in the ranking, otherwise, we take it out of the running
             if (e.getFeatureCount(feature) >= documentFrequencyCutoff) {
 
                 double maxScore = 0; // According to the paper, max score tends to work better than average score
-                for (String classLabel : e.classLabels()) {
+                for (int classLabel : e.labels()) {
                     double score = Math.pow(frequency(classLabel, feature, e), lambda) *
                                    Math.pow(odds(classLabel, feature, e), 1 - lambda);
                     if (score > maxScore) maxScore = score;
                 }
-                scores.put(feature, maxScore);
+                scores.put(e.featureString(feature), maxScore);
             }
         }
+        Set<String> selected = new HashSet<>();
         for(Object2DoubleMap.Entry<String> entry : new FeatureScoreOrdering().greatestOf(scores.object2DoubleEntrySet(), N)){
-            topFeatures.add(entry.getKey());
+            selected.add(entry.getKey());
         }
+        topFeatures = selected;
     }
 
     /**
      * Get the fraction of occurrence of a feature in documents with a particular class label
      */
-    private double frequency(String classLabel, String feature, Evidence e) {
+    private double frequency(int classLabel, int feature, Evidence e) {
         // (number of documents with class label containing feature) / (number of documents with class label)
         return (e.A(classLabel, feature) + 1) / (double)(e.N(classLabel)+1);
     }
 
-    private double odds(String classLabel, String feature, Evidence e){
+    private double odds(int classLabel, int feature, Evidence e){
         double fGivenC = (e.A(classLabel, feature) + 1) / (double)((e.N(classLabel) + 1));
         double fGivenNotC = (e.B(classLabel, feature) + 1) / (double)(e.Nall() - e.N(classLabel) + 1);
         double ratio = fGivenC / fGivenNotC;
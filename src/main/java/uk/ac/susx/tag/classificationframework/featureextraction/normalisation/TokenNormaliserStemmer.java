@@ -1,5 +1,8 @@
 package uk.ac.susx.tag.classificationframework.featureextraction.normalisation;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.tartarus.snowball.SnowballStemmer;
 import org.tartarus.snowball.ext.*;
 import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
@@ -8,6 +11,12 @@ import uk.ac.susx.tag.classificationframework.datastructures.Document;
 import java.io.IOException;
 
 /**
+ * Replaces the form of each token with its stem, according to a Snowball stemmer for the language.
+ *
+ * Snowball stemmers are stateful, so each thread gets a stemmer of its own. Since word frequencies are
+ * Zipfian, most tokens are words that have been stemmed before, so stems are also kept in a bounded
+ * cache shared by all threads (see getCacheStats() for its hit rate). A cache size of 0 disables it.
+ *
  * User: Simon Wibberley <sw206@sussex.ac.uk>
  * Date: 07/10/2015
  * Time: 13:32
@@ -16,23 +25,58 @@ public class TokenNormaliserStemmer extends TokenNormaliser {
 
     private static final long serialVersionUID = 0L;
 
-    private transient SnowballStemmer stemmer;
+    public static final int DEFAULT_CACHE_SIZE = 50000;
+
+    private transient ThreadLocal<SnowballStemmer> stemmers;
+    private transient Cache<String, String> stems;  // Form to stem, or null if caching is disabled
 
     private final String lang;
+    private final int cacheSize;
 
     public TokenNormaliserStemmer(String lang) {
+        this(lang, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize The maximum number of stems to cache (0 for no cache).
+     */
+    public TokenNormaliserStemmer(String lang, int cacheSize) {
+        if (cacheSize < 0) throw new IllegalArgumentException("Cache size must not be negative.");
         this.lang = lang;
-        assignStemmer();
+        this.cacheSize = cacheSize;
+        init();
     }
 
     private void readObject(java.io.ObjectInputStream in)
             throws IOException, ClassNotFoundException {
         in.defaultReadObject();
 
-        assignStemmer();
+        init();
+    }
+
+    private void init() {
+        stemmers = ThreadLocal.withInitial(() -> newStemmer(lang));
+        stems = cacheSize == 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .concurrencyLevel(Math.max(4, Runtime.getRuntime().availableProcessors()))
+                .recordStats()
+                .build();
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * @return the statistics of the stem cache (e.g. hitRate()) since the stemmer was created or deserialised.
+     *         All zero if caching is disabled.
+     */
+    public CacheStats getCacheStats() {
+        return stems == null ? new CacheStats(0, 0, 0, 0, 0, 0) : stems.stats();
     }
 
-    private final void assignStemmer() {
+    private static SnowballStemmer newStemmer(String lang) {
+        SnowballStemmer stemmer;
         switch (lang) {
             case "en":
                 stemmer = new englishStemmer();
@@ -83,26 +127,35 @@ public class TokenNormaliserStemmer extends TokenNormaliser {
                 stemmer = new englishStemmer();
                 break;
         }
+        return stemmer;
     }
 
     @Override
-    public synchronized boolean normalise(int index, Document tokens) {
+    public boolean normalise(int index, Document tokens) {
         AnnotatedToken token = tokens.get(index);
 
         String form = token.get("form");
 
-        stemmer.setCurrent(form);
-        stemmer.stem();
-
-        String stemmed = this.stemmer.getCurrent();
+        String stemmed = stems == null ? null : stems.getIfPresent(form);
+        if (stemmed == null) {
+            stemmed = stem(form);
+            if (stems != null) stems.put(form, stemmed);
+        }
 
         token.put("form", stemmed);
 
         return false;
     }
 
+    private String stem(String form) {
+        SnowballStemmer stemmer = stemmers.get();
+        stemmer.setCurrent(form);
+        stemmer.stem();
+        return stemmer.getCurrent();
+    }
+
     @Override
     public boolean isThreadSafe() {
-        return false;
+        return true;
     }
 }
@@ -0,0 +1,169 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import com.google.common.collect.Iterators;
+import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionException;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams the results of processing an iterator of inputs in batches, using two background threads:
+ *
+ *   reader    : draws batches from the input iterator (which may be parsing a file as it goes)
+ *   processor : applies the processing function to each batch in turn
+ *
+ * while the caller consumes the results of earlier batches. The stages are connected by bounded queues,
+ * so a slow stage blocks those before it (backpressure), and memory use is constant however long the input.
+ * Batches are processed one at a time and in order, so results are in input order, and the processing function
+ * need not be safe to call concurrently (it may parallelise within a batch itself).
+ *
+ * Exceptions thrown by reading or processing are rethrown to the consumer. Closing the stream stops the background
+ * threads, so streams should be closed if not consumed entirely (e.g. with try-with-resources).
+ */
+class BatchStream<I, O> {
+
+    private static final Object END = new Object();
+    private static final long POLL_MILLIS = 100;
+
+    private final Iterator<List<I>> batches;
+    private final Function<List<I>, List<O>> process;
+    private final BlockingQueue<Object> read;       // Batches of inputs, then END, or a Failure
+    private final BlockingQueue<Object> processed;  // Batches of outputs, then END, or a Failure
+
+    private final Thread reader;
+    private final Thread processor;
+    private volatile boolean closed = false;
+
+    private BatchStream(Iterator<I> inputs, StreamingOptions options, Function<List<I>, List<O>> process) {
+        this.batches = Iterators.partition(inputs, options.getBatchSize());
+        this.process = process;
+        read = new ArrayBlockingQueue<>(options.getBufferedBatches());
+        processed = new ArrayBlockingQueue<>(options.getBufferedBatches());
+        reader = new Thread(this::read, "pipeline-stream-reader");
+        processor = new Thread(this::process, "pipeline-stream-processor");
+        reader.setDaemon(true);
+        processor.setDaemon(true);
+    }
+
+    static <I, O> Stream<O> stream(Iterator<I> inputs, StreamingOptions options, Function<List<I>, List<O>> process) {
+        BatchStream<I, O> batchStream = new BatchStream<>(inputs, options, process);
+        batchStream.reader.start();
+        batchStream.processor.start();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batchStream.results(), Spliterator.ORDERED), false)
+                .onClose(batchStream::close);
+    }
+
+    private void read() {
+        try {
+            while (!closed && batches.hasNext()) {
+                if (!put(read, batches.next())) return;
+            }
+            put(read, END);
+        } catch (InterruptedException e) {
+            // Closed
+        } catch (Throwable t) {
+            try {
+                put(read, new Failure(t));
+            } catch (InterruptedException e) {
+                // Closed
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void process() {
+        try {
+            while (!closed) {
+                Object batch = read.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch == null) continue;
+                if (batch == END || batch instanceof Failure) {
+                    put(processed, batch);
+                    return;
+                }
+                Object result;
+                try {
+                    result = process.apply((List<I>) batch);
+                } catch (Throwable t) {
+                    result = new Failure(t);
+                }
+                if (!put(processed, result) || result instanceof Failure) return;
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Place an item on the queue, waiting for space unless the stream is closed in the meantime.
+     * Interruptions are not relied upon, since the processing function may have swallowed them.
+     *
+     * @return false if the stream was closed.
+     */
+    private boolean put(BlockingQueue<Object> queue, Object item) throws InterruptedException {
+        while (!closed) {
+            if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) return true;
+        }
+        return false;
+    }
+
+    private Iterator<O> results() {
+        return new Iterator<O>() {
+            Iterator<O> current = null;
+            boolean finished = false;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean hasNext() {
+                while (!finished && (current == null || !current.hasNext())) {
+                    if (closed) throw new IllegalStateException("Stream has been closed.");
+                    Object batch;
+                    try {
+                        batch = processed.take();
+                    } catch (InterruptedException e) {
+                        close();
+                        Thread.currentThread().interrupt();
+                        throw new FeatureExtractionException(e);
+                    }
+                    if (batch == END) {
+                        finished = true;
+                    } else if (batch instanceof Failure) {
+                        finished = true;
+                        close();
+                        Throwable cause = ((Failure) batch).cause;
+                        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                        throw new FeatureExtractionException(cause);
+                    } else {
+                        current = ((List<O>) batch).iterator();
+                    }
+                }
+                return !finished;
+            }
+
+            @Override
+            public O next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    private void close() {
+        closed = true;
+        reader.interrupt();
+        processor.interrupt();
+    }
+
+    private static class Failure {
+        final Throwable cause;
+        Failure(Throwable cause) { this.cause = cause; }
+    }
+}
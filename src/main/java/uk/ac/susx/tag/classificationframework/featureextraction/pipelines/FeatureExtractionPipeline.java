@@ -23,10 +23,11 @@ package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
-import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
-import com.mongodb.DBObject;
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ReferenceLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import uk.ac.susx.tag.classificationframework.Util;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
@@ -34,26 +35,31 @@ import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
 import uk.ac.susx.tag.classificationframework.datastructures.StringIndexer;
 import uk.ac.susx.tag.classificationframework.exceptions.CachingException;
 import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionException;
+import uk.ac.susx.tag.classificationframework.featureextraction.caching.DocumentCache;
+import uk.ac.susx.tag.classificationframework.featureextraction.caching.DocumentCodec;
+import uk.ac.susx.tag.classificationframework.featureextraction.caching.MongoDocumentCache;
 import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.DocProcessor;
 import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.Service;
 import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilter;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureHasher;
 import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer;
 import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer.Feature;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.HashedFeatureSink;
 import uk.ac.susx.tag.classificationframework.featureextraction.inference.featureselection.FeatureSelector;
 import uk.ac.susx.tag.classificationframework.featureextraction.normalisation.TokenNormaliser;
 import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.Tokeniser;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -61,7 +67,11 @@ import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -98,8 +108,9 @@ import java.util.stream.Stream;
  * catered for in the "PipelineComponent" class, then you'd need to cast to TokenFilterRelevanceStopwords
  *
  * NOTE: By default, processDocument() and extractFeatures() will attempt to cache the Document instance in a
- *       MongoDB cache. The cache can be set up with the setCache() method. Caching can be avoided entirely using
- *       the processDocumentWithoutCache() and extractFeaturesWithoutCache() methods.
+ *       DocumentCache (e.g. a MongoDB collection, or a LogDocumentCache on local disk). The cache can be set up
+ *       with the setCache() method. Caching can be avoided entirely using the processDocumentWithoutCache() and
+ *       extractFeaturesWithoutCache() methods.
  *
  * User: Andrew D. Robertson
  * Date: 27/07/2013
@@ -111,6 +122,7 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
 
     private transient List<ProcessedInstance> handLabelledData    = new ArrayList<>();
     private transient List<ProcessedInstance> machineLabelledData = new ArrayList<>();
+    private transient DataChanges dataChanges = null; // Changes to the data since the data-driven inferrers last saw it (null if they must see all of it)
 
     // The following constitute the components of the pipeline
     private Tokeniser tokeniser = null;
@@ -122,12 +134,22 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     // Map from component names to components, so that they can be accessed later
     private Map<String, PipelineComponent> componentMap = new HashMap<>();
 
-    private transient DBCollection cache = null;       // Mongo DB collection for caching Document instances
+    private transient DocumentCache cache = null;      // Cache of processed Document instances
     private transient boolean updateCache = true;      // True if pipeline can make additions to the cache
     private transient int configuration = 0;           // Hash of below.
     private transient String configurationString = ""; // Keep updated with updateCachingConfiguration(). Represents the configuration of the DocProcessors and Tokeniser, for caching purposes
 
-    private transient ExecutorService threadPool = null;
+    private transient ExecutorService cpuExecutor = null;  // See setCpuExecutor()
+    private transient ExecutorService ioExecutor = null;   // See setIoExecutor()
+    private transient boolean ownsCpuExecutor = false;     // True if the executor was created by (and so should be shut down by) this pipeline
+    private transient boolean ownsIoExecutor = false;
+    private boolean fusedBatchExecution = false;       // See setFusedBatchExecution()
+    private transient PipelineMetrics metrics = new PipelineMetrics(this);  // See getMetrics()
+
+    private static final int CHUNKS_PER_PROCESSOR = 4;
+    private static final int DEFAULT_IO_THREADS = 64;
+    private static final Object FEATURE_INDEXING = "featureIndexing";  // The key of the metrics of feature indexing
+    private static final Map<Class<?>, Boolean> overridesBatchProcessing = new ConcurrentHashMap<>(); // See isFusable()
 
     private static final Pattern forNormalisingWhitespace = Pattern.compile("[\r\n\t]");
     private static final Pattern forNormalisingZeroWidthCharacters = Pattern.compile("[\\ufeff\\u200b\\p{InVariation_Selectors}]");
@@ -136,6 +158,7 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     private transient StringIndexer featureIndexer = new StringIndexer();  // Indexes strings representing features
 
     private boolean fixedVocabulary = false;
+    private FeatureHasher featureHasher = null;  // See setFeatureHasher()
 
     /* Getters and Setters */
     public FeatureExtractionPipeline setTokeniser(Tokeniser tokeniser) { this.tokeniser = tokeniser; return this;}
@@ -148,11 +171,59 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         this.fixedVocabulary = fixedVocabulary;
     }
 
+    public FeatureHasher getFeatureHasher() {
+        return featureHasher;
+    }
+
+    /**
+     * Use the hashing trick instead of the feature indexer (see FeatureHasher): the features of each ProcessedInstance
+     * are then the buckets of their values, so classifiers see a feature space of a fixed size. FeatureInferrers emit
+     * features through addHashedFeatures(), which for the built-in n-gram inferrers creates no Feature or String
+     * objects. featureIndex() gives the bucket of a feature value, and featureString() one of the values recorded in
+     * a bucket, if the hasher is recording them.
+     *
+     * Feature selection is not supported in this mode, since selectors work on Features. Set to null to go back
+     * to indexing features.
+     */
+    public void setFeatureHasher(FeatureHasher featureHasher) {
+        this.featureHasher = featureHasher;
+    }
+
+    public boolean getFusedBatchExecution() {
+        return fusedBatchExecution;
+    }
+
+    /**
+     * By default, batch extraction (e.g. extractFeaturesInBatches()) takes the whole batch through each
+     * component in turn, submitting a task per document to an executor and waiting for all of them
+     * before moving on to the next component.
+     *
+     * In fused mode, runs of consecutive components which are thread safe and do not do their own batch
+     * processing are applied to each document in turn by the same task. The rest of the batch only has to
+     * be waited for around components which are not thread safe, or which override processBatch(),
+     * filterBatch(), normaliseBatch() or addInferredFeaturesFromBatch(). If a cache is assigned, the batch
+     * is also waited for after document processing, so that the documents can be cached.
+     *
+     * The results are the same either way, provided that components marked as thread safe do not depend
+     * on the order in which documents are processed.
+     */
+    public void setFusedBatchExecution(boolean fusedBatchExecution) {
+        this.fusedBatchExecution = fusedBatchExecution;
+    }
+
     /* Validation */
+    /**
+     * @return the timing and throughput metrics of each component of the pipeline (see PipelineMetrics).
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
     public boolean tokeniserAssigned() { return tokeniser != null; }
     public boolean featureInferrersAssigned() { return featureInferrers.size() > 0; }
 
-    // Use these to access the feature and label indexers
+    // Use these to access the feature and label indexers. If the feature indexer is thread safe (e.g. a ConcurrentStringIndexer)
+    // then batch extraction indexes features concurrently, rather than serially after the other stages.
     public StringIndexer getLabelIndexer() { return labelIndexer; }
     public void setLabelIndexer(StringIndexer labelIndexer) { this.labelIndexer = labelIndexer;}
     public StringIndexer getFeatureIndexer() { return featureIndexer; }
@@ -169,6 +240,69 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     public void setData(List<ProcessedInstance> handLabelledData, List<ProcessedInstance> machineLabelledData){
         this.handLabelledData = handLabelledData;
         this.machineLabelledData = machineLabelledData;
+        dataChanges = null;
+    }
+
+    /**
+     * Add documents to the data (see setData()). Unlike setData(), the change is remembered, so that on the next
+     * updateDataRequiringInferrers() an IncrementalDataDrivenComponent only has to see the new documents.
+     */
+    public void addData(List<ProcessedInstance> handLabelled, List<ProcessedInstance> machineLabelled){
+        handLabelledData = concatenate(handLabelledData, handLabelled);
+        machineLabelledData = concatenate(machineLabelledData, machineLabelled);
+        if (dataChanges != null) {
+            dataChanges.addedHandLabelled.addAll(handLabelled);
+            dataChanges.addedMachineLabelled.addAll(machineLabelled);
+        }
+    }
+
+    /**
+     * Remove documents (the same ProcessedInstance objects) from the data. The change is remembered as with addData().
+     *
+     * Data-driven components forget the documents under the labels they have now, so remove documents
+     * before changing their labels (e.g. see moveToHandLabelled()).
+     */
+    public void removeData(Collection<ProcessedInstance> documents){
+        Set<ProcessedInstance> toRemove = new ReferenceOpenHashSet<>(documents);
+        List<ProcessedInstance> removedHandLabelled = new ArrayList<>();
+        List<ProcessedInstance> removedMachineLabelled = new ArrayList<>();
+        handLabelledData = remove(handLabelledData, toRemove, removedHandLabelled);
+        machineLabelledData = remove(machineLabelledData, toRemove, removedMachineLabelled);
+        if (dataChanges != null) {
+            for (ProcessedInstance document : removedHandLabelled) {
+                // Documents added since the last update have not been seen, so need not be forgotten
+                if (!dataChanges.addedHandLabelled.remove(document))
+                    dataChanges.removed(document, Datum.labelledAs(document, true, this));
+            }
+            for (ProcessedInstance document : removedMachineLabelled) {
+                if (!dataChanges.addedMachineLabelled.remove(document))
+                    dataChanges.removed(document, Datum.labelledAs(document, false, this));
+            }
+        }
+    }
+
+    /**
+     * Move documents from the machine labelled data to the hand labelled data, once they have been labelled by hand
+     * (i.e. once the label of their source Instance has been set). Call this before the documents are labelled by a
+     * classifier again, so that data-driven components can forget their old machine labels.
+     */
+    public void moveToHandLabelled(Collection<ProcessedInstance> documents){
+        removeData(documents);
+        addData(new ArrayList<>(documents), new ArrayList<>());
+    }
+
+    private static List<ProcessedInstance> concatenate(List<ProcessedInstance> data, List<ProcessedInstance> added){
+        List<ProcessedInstance> concatenated = new ArrayList<>(data.size() + added.size());
+        concatenated.addAll(data);
+        concatenated.addAll(added);
+        return concatenated;
+    }
+
+    private static List<ProcessedInstance> remove(List<ProcessedInstance> data, Set<ProcessedInstance> toRemove, List<ProcessedInstance> removed){
+        List<ProcessedInstance> remaining = new ArrayList<>(data.size());
+        for (ProcessedInstance document : data)
+            (toRemove.contains(document)? removed : remaining).add(document);
+        return remaining;
     }
 
     /**
@@ -266,26 +400,69 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
      * component gets it update. If you have a custom online/offline arrangement, this will be overridden
      * and won't be restored automatically to its original state. Sorry not sorry. //TODO
      *
+     * If the data has only changed through addData(), removeData() and moveToHandLabelled() since the last
+     * update, then the first data-driven inferrer, if it is an IncrementalDataDrivenComponent, only sees the
+     * changes. The rest see all of the data, since the features they see depend on the inferrers before them.
+     * This assumes that the labels of the documents which remain have not changed; call setData() again when
+     * they have (e.g. after re-classifying the machine labelled data), or when the pipeline's components change.
+     *
+     * When more than one data-driven inferrer must see all of the data, the data is only tokenised, processed,
+     * filtered and normalised once per update, rather than once per data-driven inferrer: the Documents and
+     * their features are kept in memory for the duration of the update, and the features are taken through
+     * the inferrers up to each data-driven inferrer in turn (see SharedPrefix). Otherwise the data is streamed
+     * through the pipeline as it is seen.
+     *
      * Returns false if there was no data, or data-driven components to update with. True otherwise.
      */
     public boolean updateDataRequiringInferrers(int batchSize){
         boolean updated = false;
         // Only update if there is data
         if (!handLabelledData.isEmpty() || !machineLabelledData.isEmpty()) {
-            for (FeatureInferrer i : featureInferrers) {
-                // Only update if there are any data driven components.
-                if (i instanceof DataDrivenComponent) {
-                    updated = true;
-                    setOnlyPrecedingInferrersOnline(i);
-                    DataDrivenComponent c = (DataDrivenComponent) i;
+            List<FeatureInferrer> dataDriven = featureInferrers.stream()
+                    .filter(i -> i instanceof DataDrivenComponent)
+                    .collect(Collectors.toList());
+            int requiringAllData = dataDriven.size();
+            if (!dataDriven.isEmpty() && canUpdateIncrementally(dataDriven.get(0)))
+                requiringAllData--;
+            SharedPrefix shared = requiringAllData > 1? new SharedPrefix(batchSize) : null;
+
+            for (FeatureInferrer i : dataDriven) {
+                setOnlyPrecedingInferrersOnline(i);
+                DataDrivenComponent c = (DataDrivenComponent) i;
+                if (!updated && canUpdateIncrementally(i)) {
+                    updateIncrementally((IncrementalDataDrivenComponent) c, batchSize);
+                } else if (shared != null) {
+                    c.update(shared.dataFor(i));
+                } else {
                     c.update(batchSize > 1? getDataInBatches(batchSize) : getData());
                 }
+                updated = true;
             }
             setAllInferrersOnline();
         }
+        if (updated)
+            dataChanges = new DataChanges();
         return updated;
     }
 
+    /**
+     * @return true if the changes to the data since the last update are known, and *inferrer* can adjust to them
+     *         rather than seeing all of the data.
+     */
+    private boolean canUpdateIncrementally(FeatureInferrer inferrer){
+        return dataChanges != null
+                && inferrer instanceof IncrementalDataDrivenComponent
+                && ((IncrementalDataDrivenComponent) inferrer).canUpdateIncrementally();
+    }
+
+    private void updateIncrementally(IncrementalDataDrivenComponent component, int batchSize){
+        Data added = batchSize > 1?
+                getDataInBatches(new ArrayList<>(dataChanges.addedHandLabelled), new ArrayList<>(dataChanges.addedMachineLabelled), this, batchSize) :
+                getData(dataChanges.addedHandLabelled, dataChanges.addedMachineLabelled, this);
+        Data removed = new Data(dataChanges.removedData(true, batchSize, this), dataChanges.removedData(false, batchSize, this));
+        component.update(added, removed);
+    }
+
    /*
     * Constructors are protected.
     * This is to make clear that the proper method to create
@@ -304,9 +481,15 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     /********************************************************/
 
     /* Conversions between feature/label indices and values */
-    public String featureString(int featureIndex) { return featureIndexer.getValue(featureIndex); }
-    public String featureString(int featureIndex, String indexNotPresentValue) { return featureIndexer.getValue(featureIndex, indexNotPresentValue); }
-    public int featureIndex(String featureString) { return featureIndexer.getIndex(featureString); }
+    public String featureString(int featureIndex) { return featureString(featureIndex, null); }
+    public String featureString(int featureIndex, String indexNotPresentValue) {
+        if (featureHasher != null) {
+            Set<String> values = featureHasher.getFeatureValues(featureIndex);
+            return values.isEmpty()? indexNotPresentValue : values.iterator().next();
+        }
+        return featureIndexer.getValue(featureIndex, indexNotPresentValue);
+    }
+    public int featureIndex(String featureString) { return featureHasher != null? featureHasher.bucket(featureString) : featureIndexer.getIndex(featureString); }
 
     public String labelString(int labelIndex) { return labelIndexer.getValue(labelIndex); }
     public int labelIndex(String labelString) { return labelIndexer.getIndex(labelString); }
@@ -376,33 +559,115 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
      * Per-stage concurrent processing for a single batch of instances.
      */
     public List<ProcessedInstance> extractFeaturesFromBatch(List<Instance> instances) {
-        ExecutorService pool = getThreadPool();
+        if (featureHasher != null) return extractHashedFeaturesFromBatch(instances);
 
-        // Tokenise batch concurrently
-        List<Document> documents = tokeniseDocumentBatch(instances, pool);
+        List<Document> documents = new ArrayList<>(instances.size());
+        List<List<Feature>> featuresPerDocument = extractUnindexedFeaturesFromBatch(instances, documents);
 
-        // Perform document processing concurrently where possible
-        documents = processDocumentBatch(documents, pool);
+        // Build ProcessedDocuments by indexing features and labels
+        int[][] indexedFeatures = indexFeaturesOfBatch(featuresPerDocument);
+        List<ProcessedInstance> out = new ArrayList<>();
+        for (int i = 0; i < featuresPerDocument.size(); i++){
+            Document doc = documents.get(i);
+            int label = doc.source.label.trim().isEmpty()? -1 : labelIndexer.getIndex(doc.source.label);
+            out.add(new ProcessedInstance(label, indexedFeatures[i], doc.source));
+        }
+        return out;
+    }
 
-        // Apply filters concurrently where possible
-        applyFiltersToBatch(documents, pool);
+    /**
+     * Index the features of each document of a batch. If the feature indexer is thread safe, the batch is
+     * divided into chunks which are indexed concurrently, otherwise it is indexed serially.
+     */
+    private int[][] indexFeaturesOfBatch(List<List<Feature>> featuresPerDocument) {
+        int numDocuments = featuresPerDocument.size();
+        int[][] indexedFeatures = new int[numDocuments][];
+        PipelineMetrics.Recorder recorder = metrics.recorder(FEATURE_INDEXING);
+        recorder.batchStarted();
+        IntConsumer indexing = i -> {
+            long start = recorder.start();
+            indexedFeatures[i] = indexFeatures(featuresPerDocument.get(i));
+            recorder.document(start);
+        };
+        if (!featureIndexer.isThreadSafe()) {
+            for (int i = 0; i < numDocuments; i++) indexing.accept(i);
+        } else forEachInChunks(numDocuments, indexing);
+        return indexedFeatures;
+    }
 
-        // Apply normalisers concurrently where possible
-        applyNormalisersToBatch(documents, pool);
+    /**
+     * The feature hashing equivalent of extractFeaturesFromBatch() (see setFeatureHasher()). The documents are
+     * taken through every stage but inference as usual, then their features are hashed concurrently if all of
+     * the feature inferrers are thread safe.
+     */
+    private List<ProcessedInstance> extractHashedFeaturesFromBatch(List<Instance> instances) {
+        List<Document> documents;
+        if (fusedBatchExecution && cache == null) {
+            documents = new ArrayList<>(Collections.nCopies(instances.size(), null));
+            List<PipelineComponent> components = new ArrayList<>(docProcessors);
+            components.addAll(tokenFilters);
+            components.addAll(tokenNormalisers);
+            executeFused(instances, documents, null, components);
+        } else {
+            documents = processDocumentBatchWithCache(instances);
+            if (fusedBatchExecution) {
+                List<PipelineComponent> components = new ArrayList<>(tokenFilters);
+                components.addAll(tokenNormalisers);
+                executeFused(null, documents, null, components);
+            } else {
+                applyFiltersToBatch(documents);
+                applyNormalisersToBatch(documents);
+            }
+        }
 
-        // Extract features concurrently where possible
-        List<List<Feature>> featuresPerDocument = extractInferredFeaturesFromBatch(documents, pool);
+        int[][] hashedFeatures = new int[documents.size()][];
+        for (FeatureInferrer fi : featureInferrers)
+            if (fi.isOnline()) metrics.recorder(fi).batchStarted();
+        if (featureInferrers.stream().allMatch(fi -> !fi.isOnline() || fi.isThreadSafe())) {
+            forEachInChunks(documents.size(), i -> hashedFeatures[i] = hashFeatures(documents.get(i), true));
+        } else {
+            for (int i = 0; i < documents.size(); i++)
+                hashedFeatures[i] = hashFeatures(documents.get(i), true);
+        }
 
-        // Build ProcessedDocuments by indexing features and labels
         List<ProcessedInstance> out = new ArrayList<>();
-        for (int i = 0; i < featuresPerDocument.size(); i++){
+        for (int i = 0; i < documents.size(); i++){
             Document doc = documents.get(i);
             int label = doc.source.label.trim().isEmpty()? -1 : labelIndexer.getIndex(doc.source.label);
-            out.add(new ProcessedInstance(label, indexFeatures(featuresPerDocument.get(i)), doc.source));
+            out.add(new ProcessedInstance(label, hashedFeatures[i], doc.source));
         }
         return out;
     }
 
+    /**
+     * Apply *task* to each index from 0 to numDocuments - 1, dividing them into contiguous chunks which are
+     * submitted to the CPU executor.
+     */
+    private void forEachInChunks(int numDocuments, IntConsumer task) {
+        int chunkSize = cpuChunkSize(numDocuments);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0; start < numDocuments; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(numDocuments, start + chunkSize);
+            futures.add(getCpuExecutor().submit((Runnable) () -> {
+                for (int i = from; i < to; i++) task.accept(i);
+            }));
+        }
+        futures.forEach(future -> {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
+        });
+    }
+
+    /**
+     * @return the number of documents per task when dividing a batch of CPU work into contiguous chunks (a few per available processor).
+     */
+    private static int cpuChunkSize(int numDocuments) {
+        int numChunks = CHUNKS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors();
+        return Math.max(1, (numDocuments + numChunks - 1) / numChunks);
+    }
+
     /**
      * Reprocess a batch of ProcessedInstance, keeping the label probabilities assigned to the original ProcessedInstances.
      */
@@ -427,6 +692,27 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         return extractFeaturesFromBatch(instances.stream().map(i -> i.source).collect(Collectors.toList()));
     }
 
+    /**
+     * Stream the ProcessedInstances of an arbitrarily long iterator of instances (e.g. one reading a file as it
+     * goes), in the same order. Instances are processed in batches as in extractFeaturesInBatches(). Reading
+     * the next batches from the iterator, processing a batch, and consuming the results of earlier batches
+     * all happen at the same time, but only a bounded number of batches are held at once (see StreamingOptions),
+     * so memory use does not grow with the length of the input.
+     *
+     * Close the stream (e.g. using try-with-resources) if it might not be consumed entirely, in order to stop
+     * the background reading and processing.
+     */
+    public Stream<ProcessedInstance> extractFeatures(Iterator<Instance> instances, StreamingOptions options){
+        return BatchStream.stream(instances, options, this::extractFeaturesFromBatch);
+    }
+
+    /**
+     * Like extractFeatures(Iterator, StreamingOptions), except that features are not indexed.
+     */
+    public Stream<List<Feature>> extractUnindexedFeatures(Iterator<Instance> instances, StreamingOptions options){
+        return BatchStream.stream(instances, options, this::extractUnindexedFeaturesFromBatch);
+    }
+
     public Stream<List<Feature>> extractUnindexedFeaturesInBatchesToStream(List<Instance> instances, int batchSize){
         return Lists.partition(instances, batchSize).stream()
                 .map(batch -> extractUnindexedFeaturesFromBatch(batch))
@@ -463,36 +749,111 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     }
 
     public List<List<Feature>> extractUnindexedFeaturesFromBatch(List<Instance> instances){
-        ExecutorService pool = getThreadPool();
+        return extractUnindexedFeaturesFromBatch(instances, new ArrayList<>(instances.size()));
+    }
 
-        // Tokenise batch concurrently
-        List<Document> documents = tokeniseDocumentBatch(instances, pool);
+    /**
+     * Take a batch of instances through the whole pipeline, either stage by stage, or fused (see setFusedBatchExecution()).
+     *
+     * @param documents empty list, to which the Document of each instance is added
+     * @return the features of each instance
+     */
+    private List<List<Feature>> extractUnindexedFeaturesFromBatch(List<Instance> instances, List<Document> documents){
+        if (fusedBatchExecution && cache == null) {
+            // Nothing needs to be cached between document processing and the rest, so all stages can be fused
+            documents.addAll(Collections.nCopies(instances.size(), null));
+            List<List<Feature>> featuresPerDocument = emptyFeatureLists(instances.size());
+            List<PipelineComponent> components = new ArrayList<>(docProcessors);
+            components.addAll(tokenFilters);
+            components.addAll(tokenNormalisers);
+            components.addAll(featureInferrers);
+            executeFused(instances, documents, featuresPerDocument, components);
+            return featuresPerDocument;
+        }
+
+        // Retrieve cached documents, tokenising and processing the rest concurrently where possible
+        documents.addAll(processDocumentBatchWithCache(instances));
 
-        // Perform document processing concurrently where possible
-        documents = processDocumentBatch(documents, pool);
+        if (fusedBatchExecution) {
+            List<List<Feature>> featuresPerDocument = emptyFeatureLists(instances.size());
+            List<PipelineComponent> components = new ArrayList<>(tokenFilters);
+            components.addAll(tokenNormalisers);
+            components.addAll(featureInferrers);
+            executeFused(null, documents, featuresPerDocument, components);
+            return featuresPerDocument;
+        }
 
         // Apply filters concurrently where possible
-        applyFiltersToBatch(documents, pool);
+        applyFiltersToBatch(documents);
 
         // Apply normalisers concurrently where possible
-        applyNormalisersToBatch(documents, pool);
+        applyNormalisersToBatch(documents);
 
         // Extract features concurrently where possible
-        return extractInferredFeaturesFromBatch(documents, pool);
+        return extractInferredFeaturesFromBatch(documents);
+    }
+
+
+    /**
+     * The batch equivalent of processDocument(). The cache (if any) is queried once for the whole
+     * batch, only the documents not found are tokenised and processed, and these are then cached
+     * with a single write (if updates are allowed). Instances without an ID are never cached.
+     */
+    private List<Document> processDocumentBatchWithCache(List<Instance> instances) {
+        if (cache == null) return tokeniseAndProcessDocumentBatch(instances);
+
+        Set<String> ids = new HashSet<>();
+        for (Instance i : instances)
+            if (i.id != null) ids.add(i.id);
+        Map<String, Document> cached = cache.getAll(configuration, ids);
+
+        boolean[] hit = new boolean[instances.size()];
+        List<Instance> misses = new ArrayList<>();
+        for (int i = 0; i < instances.size(); i++) {
+            Instance instance = instances.get(i);
+            hit[i] = instance.id != null && cached.containsKey(instance.id);
+            if (!hit[i]) misses.add(instance);
+        }
+
+        List<Document> processed = misses.isEmpty() ? new ArrayList<>() : tokeniseAndProcessDocumentBatch(misses);
+
+        if (updateCache && !misses.isEmpty()) {
+            Map<String, Document> newlyCached = new HashMap<>();
+            for (int i = 0; i < misses.size(); i++) {
+                String id = misses.get(i).id;
+                if (id != null && !cached.containsKey(id)) newlyCached.put(id, processed.get(i));
+            }
+            cache.putAll(configuration, newlyCached);
+        }
+
+        // Merge back into the original order
+        List<Document> documents = new ArrayList<>(instances.size());
+        Iterator<Document> processedDocuments = processed.iterator();
+        for (int i = 0; i < instances.size(); i++) {
+            if (hit[i]) {
+                // Each Document may only be used once, since the rest of the pipeline modifies it. So a repeated ID gets a fresh copy.
+                String id = instances.get(i).id;
+                documents.add(ids.remove(id) ? cached.get(id) : cache.get(configuration, id));
+            } else documents.add(processedDocuments.next());
+        }
+        return documents;
     }
 
+    private List<Document> tokeniseAndProcessDocumentBatch(List<Instance> instances) {
+        if (fusedBatchExecution) {
+            List<Document> documents = new ArrayList<>(Collections.nCopies(instances.size(), null));
+            executeFused(instances, documents, null, docProcessors);
+            return documents;
+        }
+        return processDocumentBatch(tokeniseDocumentBatch(instances));
+    }
 
-    private List<Document> tokeniseDocumentBatch(List<Instance> instances, ExecutorService threadPool) {
+    private List<Document> tokeniseDocumentBatch(List<Instance> instances) {
+        metrics.recorder(tokeniser).batchStarted();
         List<Future<Document>> futures = new ArrayList<>();
         // Submit tokenisation tasks
         for (Instance i : instances) {
-            futures.add(threadPool.submit(() -> {
-                if (!Util.isNullOrEmptyText(i)) {
-                    i.text = forNormalisingWhitespace.matcher(i.text).replaceAll(" ");
-                    i.text = forNormalisingZeroWidthCharacters.matcher(i.text).replaceAll("");
-                }
-                return tokeniser.tokenise(i);
-            }));
+            futures.add(getCpuExecutor().submit(() -> tokeniseForBatch(i)));
         }
         // Iterate through futures, blocking until each is done, producing a list of tokenised documents in the original order
         return futures.stream().map(f -> {
@@ -502,148 +863,340 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         }).collect(Collectors.toList());
     }
 
-    private List<Document> processDocumentBatch(List<Document> documents, ExecutorService threadPool) {
-        List<Future<Document>> futures;
+    private Document tokeniseForBatch(Instance i) {
+        if (!Util.isNullOrEmptyText(i)) {
+            i.text = forNormalisingWhitespace.matcher(i.text).replaceAll(" ");
+            i.text = forNormalisingZeroWidthCharacters.matcher(i.text).replaceAll("");
+        }
+        PipelineMetrics.Recorder recorder = metrics.recorder(tokeniser);
+        long start = recorder.start();
+        Document document = tokeniser.tokenise(i);
+        recorder.document(start);
+        return document;
+    }
+
+    private List<Document> processDocumentBatch(List<Document> documents) {
         for (DocProcessor dp : docProcessors){
             if (dp.isOnline()) {
-                try { // If component wants to do its own batch processing, let it
-                    documents = dp.processBatch(documents);
-                } catch (UnsupportedOperationException e) { // Otherwise handle it here
-                    // If safe, do processing concurrently
-                    if (dp.isThreadSafe()) {
-                        futures = new ArrayList<>();
-                        // Submit a process task for each document
-                        for (Document d : documents) {
-                            futures.add(threadPool.submit(() -> {
-                                return dp.process(d);
-                            }));
-                        }
-                        // Wait for each task in original order
-                        for (int i = 0; i < futures.size(); i++) {
-                            try {
-                                documents.set(i, futures.get(i).get());
-                            } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
-                        }
-                    } else { // Otherwise if unsafe just process serially
-                        for (int i = 0; i < documents.size(); i++) {
-                            documents.set(i , dp.process(documents.get(i)));
-                        }
-                    }
-                }
+                documents = processDocumentBatch(dp, documents);
             }
         }
         return documents;
     }
 
-    private void applyFiltersToBatch(List<Document> documents, ExecutorService threadPool) {
-        List<Future> futures;
+    private List<Document> processDocumentBatch(DocProcessor dp, List<Document> documents) {
+        PipelineMetrics.Recorder recorder = metrics.recorder(dp);
+        long batchStart = recorder.start();
+        try { // If component wants to do its own batch processing, let it
+            List<Document> processed = dp.processBatch(documents);
+            recorder.batch(documents.size(), batchStart);
+            return processed;
+        } catch (UnsupportedOperationException e) { // Otherwise handle it here
+            recorder.batchStarted();
+            // If safe, do processing concurrently
+            if (dp.isThreadSafe()) {
+                List<Future<Document>> futures = new ArrayList<>();
+                // Submit a process task for each document
+                for (Document d : documents) {
+                    futures.add(executorFor(dp).submit(() -> {
+                        long start = recorder.start();
+                        Document processed = dp.process(d);
+                        recorder.document(start);
+                        return processed;
+                    }));
+                }
+                // Wait for each task in original order
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        documents.set(i, futures.get(i).get());
+                    } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
+                }
+            } else { // Otherwise if unsafe just process serially
+                for (int i = 0; i < documents.size(); i++) {
+                    long start = recorder.start();
+                    documents.set(i , dp.process(documents.get(i)));
+                    recorder.document(start);
+                }
+            }
+            return documents;
+        }
+    }
+
+    private void applyFiltersToBatch(List<Document> documents) {
         for (TokenFilter f : tokenFilters) {
             if (f.isOnline()) {
-                try { // If component wants to do its own batch processing, let it
-                    f.filterBatch(documents);
-                } catch (UnsupportedOperationException e) { // Otherwise handle it here
-                    // If safe, do processing concurrently
-                    if (f.isThreadSafe()) {
-                        futures = new ArrayList<>();
-                        // Submit a filter task for each document
-                        for (Document d : documents) {
-                            futures.add(threadPool.submit((Runnable) () -> {
-                                for (int i=0; i<d.size(); i++) {
-                                    if (f.filter(i, d)) {
-                                        d.get(i).setFiltered(true);
-                                    }
-                                }
-                            }));
-                        }
-                        // Wait for each task in original order
-                        futures.forEach(future -> {
-                            try {
-                                future.get();
-                            } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
-                        });
-                    } else { // Otherwise if unsafe just process serially
-                        for (Document d : documents){
-                            for (int i=0; i<d.size(); i++) {
-                                if (f.filter(i, d)) {
-                                    d.get(i).setFiltered(true);
-                                }
-                            }
-                        }
-                    }
+                applyFilterToBatch(f, documents);
+            }
+        }
+    }
+
+    private void applyFilterToBatch(TokenFilter f, List<Document> documents) {
+        PipelineMetrics.Recorder recorder = metrics.recorder(f);
+        long batchStart = recorder.start();
+        try { // If component wants to do its own batch processing, let it
+            f.filterBatch(documents);
+            recorder.batch(documents.size(), batchStart);
+        } catch (UnsupportedOperationException e) { // Otherwise handle it here
+            recorder.batchStarted();
+            // If safe, do processing concurrently
+            if (f.isThreadSafe()) {
+                List<Future> futures = new ArrayList<>();
+                // Submit a filter task for each document
+                for (Document d : documents) {
+                    futures.add(executorFor(f).submit((Runnable) () -> applyFilter(f, d, recorder)));
+                }
+                // Wait for each task in original order
+                futures.forEach(future -> {
+                    try {
+                        future.get();
+                    } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
+                });
+            } else { // Otherwise if unsafe just process serially
+                for (Document d : documents){
+                    applyFilter(f, d, recorder);
                 }
             }
         }
     }
 
-    private void applyNormalisersToBatch(List<Document> documents, ExecutorService threadPool){
-        List<Future> futures;
+    private static void applyFilter(TokenFilter f, Document d, PipelineMetrics.Recorder recorder) {
+        long start = recorder.start();
+        for (int i=0; i<d.size(); i++) {
+            if (f.filter(i, d)) {
+                d.get(i).setFiltered(true);
+            }
+        }
+        recorder.document(start);
+    }
+
+    private void applyNormalisersToBatch(List<Document> documents){
         for (TokenNormaliser n : tokenNormalisers) {
             if (n.isOnline()) {
-                try { // If component wants to do its own batch processing, let it
-                    n.normaliseBatch(documents);
-                } catch (UnsupportedOperationException e) {
-                    if (n.isThreadSafe()) {
-                        futures = new ArrayList<>();
-                        for (Document d : documents) {
-                            futures.add(threadPool.submit((Runnable) ()-> {
-                                for (int i = 0; i < d.size(); i++) {
-                                    n.normalise(i, d);
-                                }
-                            }));
-                        }
-                        // Wait for each task in original order
-                        futures.forEach(future -> {
-                            try {
-                                future.get();
-                            } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
-                        });
-                    } else { // Otherwise if unsafe just process serially
-                        for (Document d : documents){
-                            for (int i = 0; i < d.size(); i++) {
-                                n.normalise(i, d);
-                            }
-                        }
-                    }
+                applyNormaliserToBatch(n, documents);
+            }
+        }
+    }
+
+    private void applyNormaliserToBatch(TokenNormaliser n, List<Document> documents){
+        PipelineMetrics.Recorder recorder = metrics.recorder(n);
+        long batchStart = recorder.start();
+        try { // If component wants to do its own batch processing, let it
+            n.normaliseBatch(documents);
+            recorder.batch(documents.size(), batchStart);
+        } catch (UnsupportedOperationException e) {
+            recorder.batchStarted();
+            if (n.isThreadSafe()) {
+                List<Future> futures = new ArrayList<>();
+                for (Document d : documents) {
+                    futures.add(executorFor(n).submit((Runnable) () -> applyNormaliser(n, d, recorder)));
+                }
+                // Wait for each task in original order
+                futures.forEach(future -> {
+                    try {
+                        future.get();
+                    } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
+                });
+            } else { // Otherwise if unsafe just process serially
+                for (Document d : documents){
+                    applyNormaliser(n, d, recorder);
                 }
             }
         }
     }
 
-    private List<List<Feature>> extractInferredFeaturesFromBatch(List<Document> documents, ExecutorService threadPool){
-        List<List<Feature>> featuresPerDocument = new ArrayList<>();
-        for (int i = 0; i < documents.size(); i++)
-            featuresPerDocument.add(new ArrayList<>());
-        List<Future<List<Feature>>> futures;
+    private static void applyNormaliser(TokenNormaliser n, Document d, PipelineMetrics.Recorder recorder) {
+        long start = recorder.start();
+        for (int i = 0; i < d.size(); i++) {
+            n.normalise(i, d);
+        }
+        recorder.document(start);
+    }
+
+    private List<List<Feature>> extractInferredFeaturesFromBatch(List<Document> documents){
+        List<List<Feature>> featuresPerDocument = emptyFeatureLists(documents.size());
         for (FeatureInferrer fi : featureInferrers) {
             if (fi.isOnline()) {
-                try {
-                    featuresPerDocument = fi.addInferredFeaturesFromBatch(documents, featuresPerDocument);
-                } catch (UnsupportedOperationException e) {
-                    if (fi.isThreadSafe()){
-                        futures = new ArrayList<>();
-                        for (int i = 0; i < documents.size(); i++) {
-                            final int finalI = i;
-                            final List<Feature> features = featuresPerDocument.get(i);
-                            futures.add(threadPool.submit(() ->
-                                    fi.addInferredFeatures( documents.get(finalI), features)));
-                        }
-                        // Wait for each task in original order
-                        for (int i = 0; i < futures.size(); i++) {
-                            try {
-                                featuresPerDocument.set(i, futures.get(i).get());
-                            } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
-                        }
-                    } else { // Otherwise if unsafe just process serially
-                        for (int i = 0; i < documents.size(); i++) {
-                            featuresPerDocument.set(i, fi.addInferredFeatures(documents.get(i), featuresPerDocument.get(i)));
+                featuresPerDocument = extractInferredFeaturesFromBatch(fi, documents, featuresPerDocument);
+            }
+        }
+        return featuresPerDocument;
+    }
+
+    private List<List<Feature>> extractInferredFeaturesFromBatch(FeatureInferrer fi, List<Document> documents, List<List<Feature>> featuresPerDocument){
+        PipelineMetrics.Recorder recorder = metrics.recorder(fi);
+        long batchStart = recorder.start();
+        try {
+            List<List<Feature>> inferred = fi.addInferredFeaturesFromBatch(documents, featuresPerDocument);
+            recorder.batch(documents.size(), batchStart);
+            return inferred;
+        } catch (UnsupportedOperationException e) {
+            recorder.batchStarted();
+            if (fi.isThreadSafe()){
+                List<Future<List<Feature>>> futures = new ArrayList<>();
+                for (int i = 0; i < documents.size(); i++) {
+                    final int finalI = i;
+                    final List<Feature> features = featuresPerDocument.get(i);
+                    futures.add(executorFor(fi).submit(() -> {
+                        long start = recorder.start();
+                        List<Feature> inferred = fi.addInferredFeatures(documents.get(finalI), features);
+                        recorder.document(start);
+                        return inferred;
+                    }));
+                }
+                // Wait for each task in original order
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        featuresPerDocument.set(i, futures.get(i).get());
+                    } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
+                }
+            } else { // Otherwise if unsafe just process serially
+                for (int i = 0; i < documents.size(); i++) {
+                    long start = recorder.start();
+                    featuresPerDocument.set(i, fi.addInferredFeatures(documents.get(i), featuresPerDocument.get(i)));
+                    recorder.document(start);
+                }
+            }
+            return featuresPerDocument;
+        }
+    }
+
+    private static List<List<Feature>> emptyFeatureLists(int numDocuments) {
+        List<List<Feature>> featuresPerDocument = new ArrayList<>(numDocuments);
+        for (int i = 0; i < numDocuments; i++)
+            featuresPerDocument.add(new ArrayList<>());
+        return featuresPerDocument;
+    }
+
+/**********************************************************************************************************************
+ * Fused batch execution (see setFusedBatchExecution())
+ **********************************************************************************************************************/
+
+    /**
+     * Apply *components* (in order) to a batch. Consecutive components which can be fused (see isFusable())
+     * are applied to each document in turn by a single task, rather than each component being applied to the
+     * whole batch before the next may start. The components in between are applied to the whole batch, as
+     * in unfused execution.
+     *
+     * @param instances if not null, the documents are first produced by tokenising these (tokenisation is always fused)
+     * @param documents the documents to process, replaced in place (all null if *instances* is given)
+     * @param featuresPerDocument the features of each document (only required if *components* includes FeatureInferrers)
+     */
+    private void executeFused(List<Instance> instances, List<Document> documents, List<List<Feature>> featuresPerDocument,
+                              List<? extends PipelineComponent> components) {
+        List<PipelineComponent> run = new ArrayList<>();
+        PipelineComponent.Workload runWorkload = PipelineComponent.Workload.CPU; // Tokenisation is CPU work
+        for (PipelineComponent component : components) {
+            if (!component.isOnline()) continue;
+            if (isFusable(component)) {
+                // Only fuse components that run on the same executor
+                if (component.getWorkload() != runWorkload && (instances != null || !run.isEmpty())) {
+                    executeRun(instances, run, runWorkload, documents, featuresPerDocument);
+                    instances = null;
+                    run = new ArrayList<>();
+                }
+                run.add(component);
+                runWorkload = component.getWorkload();
+            } else {
+                executeRun(instances, run, runWorkload, documents, featuresPerDocument);
+                instances = null;
+                run = new ArrayList<>();
+                executeBatch(component, documents, featuresPerDocument);
+            }
+        }
+        executeRun(instances, run, runWorkload, documents, featuresPerDocument);
+    }
+
+    /**
+     * Apply a run of fusable components to each document. For CPU work, the batch is divided into contiguous
+     * chunks (a few per available processor), each of which is a single task. For I/O work, each document is
+     * a task, since the tasks spend their time waiting rather than competing for processors.
+     */
+    private void executeRun(List<Instance> instances, List<PipelineComponent> run, PipelineComponent.Workload workload,
+                            List<Document> documents, List<List<Feature>> featuresPerDocument) {
+        if (instances == null && run.isEmpty()) return;
+        int numDocuments = documents.size();
+        int chunkSize = workload == PipelineComponent.Workload.IO ? 1 : cpuChunkSize(numDocuments);
+        ExecutorService executor = workload == PipelineComponent.Workload.IO ? getIoExecutor() : getCpuExecutor();
+        if (instances != null) metrics.recorder(tokeniser).batchStarted();
+        PipelineMetrics.Recorder[] recorders = new PipelineMetrics.Recorder[run.size()];
+        for (int c = 0; c < run.size(); c++) {
+            recorders[c] = metrics.recorder(run.get(c));
+            recorders[c].batchStarted();
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0; start < numDocuments; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(numDocuments, start + chunkSize);
+            futures.add(executor.submit((Runnable) () -> {
+                for (int i = from; i < to; i++) {
+                    Document d = instances == null ? documents.get(i) : tokeniseForBatch(instances.get(i));
+                    for (int c = 0; c < recorders.length; c++) {
+                        PipelineComponent component = run.get(c);
+                        if (component instanceof DocProcessor) {
+                            long componentStart = recorders[c].start();
+                            d = ((DocProcessor) component).process(d);
+                            recorders[c].document(componentStart);
+                        } else if (component instanceof TokenFilter) {
+                            applyFilter((TokenFilter) component, d, recorders[c]);
+                        } else if (component instanceof TokenNormaliser) {
+                            applyNormaliser((TokenNormaliser) component, d, recorders[c]);
+                        } else {
+                            long componentStart = recorders[c].start();
+                            featuresPerDocument.set(i, ((FeatureInferrer) component).addInferredFeatures(d, featuresPerDocument.get(i)));
+                            recorders[c].document(componentStart);
                         }
                     }
+                    documents.set(i, d);
                 }
+            }));
+        }
+        // Wait for each task in original order
+        futures.forEach(future -> {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
+        });
+    }
+
+    /**
+     * Apply a single component to the whole batch, as in unfused execution.
+     */
+    private void executeBatch(PipelineComponent component, List<Document> documents, List<List<Feature>> featuresPerDocument) {
+        if (component instanceof DocProcessor) {
+            List<Document> processed = processDocumentBatch((DocProcessor) component, documents);
+            if (processed != documents) {
+                for (int i = 0; i < documents.size(); i++)
+                    documents.set(i, processed.get(i));
+            }
+        } else if (component instanceof TokenFilter) {
+            applyFilterToBatch((TokenFilter) component, documents);
+        } else if (component instanceof TokenNormaliser) {
+            applyNormaliserToBatch((TokenNormaliser) component, documents);
+        } else {
+            List<List<Feature>> inferred = extractInferredFeaturesFromBatch((FeatureInferrer) component, documents, featuresPerDocument);
+            if (inferred != featuresPerDocument) {
+                for (int i = 0; i < featuresPerDocument.size(); i++)
+                    featuresPerDocument.set(i, inferred.get(i));
             }
         }
-        return featuresPerDocument;
     }
 
+    /**
+     * A component can be fused with its neighbours if it is thread safe and does not do its own batch processing.
+     */
+    private static boolean isFusable(PipelineComponent component) {
+        return component.isThreadSafe() && !overridesBatchProcessing.computeIfAbsent(component.getClass(), c -> {
+            try {
+                if (DocProcessor.class.isAssignableFrom(c))
+                    return c.getMethod("processBatch", List.class).getDeclaringClass() != DocProcessor.class;
+                if (TokenFilter.class.isAssignableFrom(c))
+                    return c.getMethod("filterBatch", List.class).getDeclaringClass() != TokenFilter.class;
+                if (TokenNormaliser.class.isAssignableFrom(c))
+                    return c.getMethod("normaliseBatch", List.class).getDeclaringClass() != TokenNormaliser.class;
+                return c.getMethod("addInferredFeaturesFromBatch", List.class, List.class).getDeclaringClass() != FeatureInferrer.class;
+            } catch (NoSuchMethodException e) { throw new FeatureExtractionException(e); }
+        });
+    }
 
 /**********************************************************************************************************************
  * Full pipeline execution methods for non-batch extraction
@@ -689,7 +1242,7 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         List<Feature> features = extractInferredFeatures(doc);
 
         int label = doc.source.label.trim().isEmpty()? -1 : labelIndexer.getIndex(doc.source.label);
-        ProcessedInstance processed = new ProcessedInstance(label, indexFeatures(features), doc.source);
+        ProcessedInstance processed = new ProcessedInstance(label, indexFeaturesOfDocument(features), doc.source);
 
         for (Feature feature : features) {
             if (!feature2DocumentIndex.containsKey(feature)) {
@@ -736,7 +1289,8 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         applyFilters(doc);
         applyNormalisers(doc);
         int label = doc.source.label.trim().isEmpty()? -1 : labelIndexer.getIndex(doc.source.label);
-        return new ProcessedInstance(label, indexFeatures(extractInferredFeatures(doc)), doc.source);
+        int[] features = featureHasher != null? hashFeatures(doc, false) : indexFeaturesOfDocument(extractInferredFeatures(doc));
+        return new ProcessedInstance(label, features, doc.source);
     }
 
     /**
@@ -751,6 +1305,17 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         return extractInferredFeatures(doc);
     }
 
+    /**
+     * indexFeatures() on the single-document path, recording its metrics.
+     */
+    private int[] indexFeaturesOfDocument(List<Feature> features) {
+        PipelineMetrics.Recorder recorder = metrics.recorder(FEATURE_INDEXING);
+        long start = recorder.start();
+        int[] indices = indexFeatures(features);
+        recorder.single(start);
+        return indices;
+    }
+
     /**
      * Given features produced by extractUnindexedFeatures, index them into an int array appropriate for a
      * ProcessedInstance.
@@ -814,29 +1379,14 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
      * NLP tools, ready for features to be extracted from it.
      */
     public Document processDocument(Instance i) {
-        DBObject cached;
+        if (cache == null || i.id == null) return processDocumentWithoutCache(i);
 
-        if (cache != null) {
-            cached = cache.findOne(new BasicDBObject("pipelineConfig", configuration).append("instanceID", i.id));
-        } else {
-            return processDocumentWithoutCache(i);
-        }
+        Document cached = cache.get(configuration, i.id);
+        if (cached != null) return cached;
 
-        try {
-            if (cached!=null) {
-                return byteArray2Document((byte[]) cached.get("cached"));
-            } else {
-                Document processed = processDocumentWithoutCache(i);
-                if (updateCache) {
-                    BasicDBObject newCached = new BasicDBObject();
-                    newCached.put("pipelineConfig", configuration);
-                    newCached.put("instanceID", i.id);
-                    newCached.put("cached", document2ByteArray(processed));
-                    cache.insert(newCached);
-                }
-                return processed;
-            }
-        } catch (ClassNotFoundException | IOException e) { throw new FeatureExtractionException(e); }
+        Document processed = processDocumentWithoutCache(i);
+        if (updateCache) cache.put(configuration, i.id, processed);
+        return processed;
     }
 
     /**
@@ -845,18 +1395,30 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     public Document processDocumentWithoutCache(Instance document) {
         document.text = forNormalisingWhitespace.matcher(document.text).replaceAll(" ");
         document.text = forNormalisingZeroWidthCharacters.matcher(document.text).replaceAll("");
+        PipelineMetrics.Recorder recorder = metrics.recorder(tokeniser);
+        long start = recorder.start();
         Document processedDoc = tokeniser.tokenise(document);
+        recorder.single(start);
         for (DocProcessor docProcessor : docProcessors){
-            if (docProcessor.isOnline()) processedDoc = docProcessor.process(processedDoc);
+            if (docProcessor.isOnline()) {
+                recorder = metrics.recorder(docProcessor);
+                start = recorder.start();
+                processedDoc = docProcessor.process(processedDoc);
+                recorder.single(start);
+            }
         }
         return processedDoc;
     }
 
+    /**
+     * Retrieve the cached Document of an Instance, without processing it if it is not cached.
+     * A FeatureExtractionException is thrown if there is no cache, or the Document is not in it.
+     */
     public Document processDocumentCachedOnly(Instance i){
-        try {
-            DBObject cached = cache.findOne(new BasicDBObject("_id", i.id));
-            return byteArray2Document((byte[]) cached.get("doc"));
-        } catch (IOException | ClassNotFoundException | NullPointerException e) { throw new FeatureExtractionException(e); }
+        if (cache == null) throw new FeatureExtractionException("No cache set.");
+        Document cached = cache.get(configuration, i.id);
+        if (cached == null) throw new FeatureExtractionException("No cached document for instance: " + i.id);
+        return cached;
     }
 
 /**********************************************************************************************************************
@@ -1004,24 +1566,121 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
 
     @Override
     public void close() throws Exception {
-        shutdownThreadPool();
+        shutdownExecutors();
+        metrics.unregister();
         docProcessors.forEach(PipelineComponent::close);
         featureInferrers.forEach(PipelineComponent::close);
         tokenNormalisers.forEach(PipelineComponent::close);
         tokenFilters.forEach(PipelineComponent::close);
     }
 
-    private ExecutorService getThreadPool() {
-        if (threadPool == null) {
-            threadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() - 1);
+    /**
+     * Set the executor used during batch extraction for components whose workload is CPU (see
+     * PipelineComponent.getWorkload()), and for tokenisation. By default, the pipeline creates a pool
+     * with a thread per available processor.
+     *
+     * An executor passed to this method is not shut down when the pipeline is closed, so it can be
+     * shared between pipelines.
+     */
+    public synchronized void setCpuExecutor(ExecutorService executor) {
+        if (ownsCpuExecutor) cpuExecutor.shutdown();
+        cpuExecutor = executor;
+        ownsCpuExecutor = false;
+    }
+
+    /**
+     * Set the executor used during batch extraction for components whose workload is I/O, such as
+     * Service. By default, the pipeline creates an executor which starts a virtual thread per task if
+     * the JVM supports them, or else a pool of DEFAULT_IO_THREADS threads.
+     *
+     * An executor passed to this method is not shut down when the pipeline is closed, so it can be
+     * shared between pipelines.
+     */
+    public synchronized void setIoExecutor(ExecutorService executor) {
+        if (ownsIoExecutor) ioExecutor.shutdown();
+        ioExecutor = executor;
+        ownsIoExecutor = false;
+    }
+
+    private synchronized ExecutorService getCpuExecutor() {
+        if (cpuExecutor == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+            cpuExecutor = Executors.newFixedThreadPool(threads, daemonThreads("pipeline-cpu-"));
+            ownsCpuExecutor = true;
         }
-        return threadPool;
+        return cpuExecutor;
     }
 
-    private void shutdownThreadPool() {
-        if (threadPool != null && !threadPool.isShutdown()) {
-            threadPool.shutdown();
+    private synchronized ExecutorService getIoExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = newVirtualThreadExecutor();
+            if (ioExecutor == null)
+                ioExecutor = Executors.newFixedThreadPool(DEFAULT_IO_THREADS, daemonThreads("pipeline-io-"));
+            ownsIoExecutor = true;
         }
+        return ioExecutor;
+    }
+
+    /**
+     * @return the components for which metrics are recorded (see PipelineMetrics), in pipeline order, by name. Each
+     *         is named as in the component map, or else by its class (numbered if there is more than one).
+     */
+    Map<String, Object> metricsComponents() {
+        Map<Object, String> givenNames = new HashMap<>();
+        componentMap.forEach((name, component) -> givenNames.put(component, name));
+        List<Object> components = new ArrayList<>();
+        if (tokeniser != null) components.add(tokeniser);
+        components.addAll(docProcessors);
+        components.addAll(tokenFilters);
+        components.addAll(tokenNormalisers);
+        components.addAll(featureInferrers);
+
+        Map<String, Object> named = new LinkedHashMap<>();
+        for (Object component : components) {
+            String name = givenNames.get(component);
+            if (name == null) {
+                Class<?> type = component.getClass();
+                name = type.getSimpleName().isEmpty() ? type.getName() : type.getSimpleName();
+                for (int n = 2; named.containsKey(name) || componentMap.containsKey(name); n++)
+                    name = (type.getSimpleName().isEmpty() ? type.getName() : type.getSimpleName()) + "#" + n;
+            }
+            named.put(name, component);
+        }
+        named.put(FEATURE_INDEXING.toString(), FEATURE_INDEXING);
+        return named;
+    }
+
+    private ExecutorService executorFor(PipelineComponent component) {
+        return component.getWorkload() == PipelineComponent.Workload.IO ? getIoExecutor() : getCpuExecutor();
+    }
+
+    /**
+     * @return an executor which starts a virtual thread per task, or null if this JVM does not support them.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String namePrefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private synchronized void shutdownExecutors() {
+        if (ownsCpuExecutor) cpuExecutor.shutdown();
+        if (ownsIoExecutor) ioExecutor.shutdown();
+        cpuExecutor = null;
+        ioExecutor = null;
+        ownsCpuExecutor = false;
+        ownsIoExecutor = false;
     }
 
 /**********************************************************************************************************************
@@ -1066,6 +1725,24 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
             return d;
         }
 
+        /**
+         * A datum with the current labelling of *document* and no features (yet).
+         */
+        private static Datum labelledAs(ProcessedInstance document, boolean handLabelled, FeatureExtractionPipeline pipeline){
+            Datum d = new Datum(handLabelled);
+            d.labelProbabilities = new HashMap<>();
+            if (handLabelled) {
+                d.label = document.source.label;
+                d.labelProbabilities.put(d.label, 1.0);
+            } else {
+                d.label = pipeline.labelString(document.getLabel());
+                for (Int2DoubleMap.Entry entry : document.getLabelProbabilities().int2DoubleEntrySet()){
+                    d.labelProbabilities.put(pipeline.labelString(entry.getIntKey()), entry.getDoubleValue());
+                }
+            }
+            return d;
+        }
+
         public static Datum createMachineLabelled(ProcessedInstance oldProcessedInstance, FeatureExtractionPipeline pipeline){
             Datum d = new Datum(false);
 
@@ -1198,30 +1875,189 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         };
     }
 
+    /**
+     * The documents added to and removed from the data since the data-driven inferrers last saw it. Removed
+     * documents keep the labels they had when removed; their features are extracted again on each update.
+     */
+    private static class DataChanges {
+
+        final Set<ProcessedInstance> addedHandLabelled = new ReferenceLinkedOpenHashSet<>();
+        final Set<ProcessedInstance> addedMachineLabelled = new ReferenceLinkedOpenHashSet<>();
+        final List<ProcessedInstance> removed = new ArrayList<>();
+        final List<Datum> removedData = new ArrayList<>();
+
+        void removed(ProcessedInstance document, Datum datum){
+            removed.add(document);
+            removedData.add(datum);
+        }
+
+        Iterable<Datum> removedData(boolean handLabelled, int batchSize, FeatureExtractionPipeline pipeline){
+            List<Instance> sources = new ArrayList<>();
+            List<Datum> data = new ArrayList<>();
+            for (int i = 0; i < removed.size(); i++) {
+                if (removedData.get(i).handLabelled == handLabelled) {
+                    sources.add(removed.get(i).source);
+                    data.add(removedData.get(i));
+                }
+            }
+            return () -> new Iterator<Datum>() {
+                int next = 0;
+                Iterator<List<Feature>> features = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() { return next < data.size(); }
+
+                @Override
+                public Datum next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    if (!features.hasNext())
+                        features = pipeline.extractUnindexedFeaturesFromBatch(
+                                sources.subList(next, Math.min(sources.size(), next + Math.max(1, batchSize)))).iterator();
+                    Datum removedDatum = data.get(next++);
+                    Datum d = new Datum(removedDatum.handLabelled);
+                    d.label = removedDatum.label;
+                    d.labelProbabilities = removedDatum.labelProbabilities;
+                    d.features = features.next();
+                    return d;
+                }
+            };
+        }
+    }
+
+    /**
+     * The data, taken through the pipeline once for all of the data-driven inferrers of an update (see
+     * updateDataRequiringInferrers()). Each document is tokenised, processed, filtered and normalised when the
+     * data is first needed. Its features are then taken only as far as the data-driven inferrer being updated,
+     * and from there on to the next once that has been updated, so each inferrer is applied to each document
+     * once per update.
+     */
+    private class SharedPrefix {
+
+        private final int batchSize;
+        private final List<ProcessedInstance> handLabelled = new ArrayList<>(handLabelledData);
+        private final List<ProcessedInstance> machineLabelled = new ArrayList<>(machineLabelledData);
+        private List<Document> documents = null;        // hand labelled, then machine labelled
+        private List<List<Feature>> featuresPerDocument = null;
+        private int position = 0;                       // The index of the next feature inferrer to apply
+
+        SharedPrefix(int batchSize) {
+            this.batchSize = Math.max(1, batchSize);
+        }
+
+        /**
+         * @return the data with the features it has after the feature inferrers preceding *inferrer*.
+         */
+        Data dataFor(FeatureInferrer inferrer) {
+            if (documents == null) processDocuments();
+            int end = featureInferrers.indexOf(inferrer);
+            for (; position < end; position++)
+                applyToAll(featureInferrers.get(position));
+            return new Data(data(handLabelled, 0, true), data(machineLabelled, handLabelled.size(), false));
+        }
+
+        private void processDocuments() {
+            List<Instance> instances = new ArrayList<>(handLabelled.size() + machineLabelled.size());
+            for (ProcessedInstance document : Iterables.concat(handLabelled, machineLabelled))
+                instances.add(document.source);
+            documents = new ArrayList<>(instances.size());
+            if (batchSize > 1) {
+                for (int start = 0; start < instances.size(); start += batchSize) {
+                    List<Document> batch = processDocumentBatchWithCache(instances.subList(start, Math.min(instances.size(), start + batchSize)));
+                    applyFiltersToBatch(batch);
+                    applyNormalisersToBatch(batch);
+                    documents.addAll(batch);
+                }
+            } else {
+                for (Instance instance : instances) {
+                    Document document = processDocument(instance);
+                    applyFilters(document);
+                    applyNormalisers(document);
+                    documents.add(document);
+                }
+            }
+            featuresPerDocument = emptyFeatureLists(documents.size());
+        }
+
+        private void applyToAll(FeatureInferrer inferrer) {
+            if (batchSize > 1) {
+                for (int start = 0; start < documents.size(); start += batchSize) {
+                    int end = Math.min(documents.size(), start + batchSize);
+                    List<List<Feature>> inferred = extractInferredFeaturesFromBatch(inferrer,
+                            documents.subList(start, end), new ArrayList<>(featuresPerDocument.subList(start, end)));
+                    for (int i = start; i < end; i++)
+                        featuresPerDocument.set(i, inferred.get(i - start));
+                }
+            } else {
+                PipelineMetrics.Recorder recorder = metrics.recorder(inferrer);
+                for (int i = 0; i < documents.size(); i++) {
+                    long start = recorder.start();
+                    featuresPerDocument.set(i, inferrer.addInferredFeatures(documents.get(i), featuresPerDocument.get(i)));
+                    recorder.single(start);
+                }
+            }
+        }
+
+        private Iterable<Datum> data(List<ProcessedInstance> labelled, int offset, boolean handLabelled) {
+            return () -> new Iterator<Datum>() {
+                int next = 0;
+
+                @Override
+                public boolean hasNext() { return next < labelled.size(); }
+
+                @Override
+                public Datum next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    Datum d = Datum.labelledAs(labelled.get(next), handLabelled, FeatureExtractionPipeline.this);
+                    d.features = featuresPerDocument.get(offset + next++);
+                    return d;
+                }
+            };
+        }
+    }
+
 /**********************************************************************************************************************
  * Caching functionality
  **********************************************************************************************************************/
 
     /**
-     * Assign a MongoDB collection to this pipeline to be used as a cache for storing
-     * Document instances. This stops tweets from having to be processed more
-     * than once.
+     * Assign a DocumentCache to this pipeline to be used for storing Document
+     * instances. This stops tweets from having to be processed more than once.
+     *
+     * The pipeline does not close the cache; that is the responsibility of whoever created it.
      *
      * WARNING: see updateCachingConfiguration()
      *
      * @param allowUpdates if false, then the pipeline will not add any more to the cache
      */
-    public void setCache(DBCollection collection, boolean allowUpdates) {
+    public void setCache(DocumentCache cache, boolean allowUpdates) {
         configurationString = docProcessingConfiguration();
         configuration = configurationString.hashCode();
         updateCache = allowUpdates;
-        cache = collection;
+        this.cache = cache;
+    }
+
+    public void setCache(DocumentCache cache){
+        setCache(cache, true);
+    }
+
+    /**
+     * Assign a MongoDB collection to this pipeline to be used as a cache (see MongoDocumentCache).
+     */
+    public void setCache(DBCollection collection, boolean allowUpdates) {
+        setCache(new MongoDocumentCache(collection), allowUpdates);
     }
 
     public void setCache(DBCollection collection){
         setCache(collection, true);
     }
 
+    /**
+     * @return the cache assigned to this pipeline, or null if there is none.
+     */
+    public DocumentCache getCache() {
+        return cache;
+    }
+
     /**
      * WARNING:
      * If you add a cache to this pipeline, and subsequently change any of its DocProcessors, or add/remove
@@ -1242,7 +2078,7 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     }
 
     /**
-     * If a MongoDB is being used as a cache, then setting this to false will stop the cache being updated.
+     * If a cache is being used, then setting this to false will stop the cache being updated.
      */
     public void setUpdateCache(boolean updateCache) {
         this.updateCache = updateCache;
@@ -1256,16 +2092,7 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
      */
     public void reCache(Instance i) {
         if (cache == null) throw new CachingException("No cache set.");
-
-        BasicDBObject newCached = new BasicDBObject();
-        newCached.put("pipelineConfig", configuration);
-        newCached.put("instanceID", i.id);
-        try {
-            newCached.put("cached", document2ByteArray(processDocumentWithoutCache(i)));
-        } catch (IOException e) { throw new FeatureExtractionException(e); }
-
-        cache.update(new BasicDBObject("pipelineConfig", configuration).append("instanceID", i.id),
-                newCached, true , false); // Upsert is true, so insert is done if it didn't already exist
+        cache.put(configuration, i.id, processDocumentWithoutCache(i));
     }
 
     /**
@@ -1304,6 +2131,10 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
      * on the AnnotatedToken.
      */
     private void applyFilters(Document document) {
+        if (metrics.isEnabled()) {
+            applyFiltersTimed(document);
+            return;
+        }
         for (int i=0; i<document.size(); i++) {
             for (TokenFilter tokenFilter : tokenFilters){
                 if (tokenFilter.isOnline()) {
@@ -1316,6 +2147,32 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         }
     }
 
+    /**
+     * applyFilters(), recording the time spent in each filter. Since the filters take turns on each token,
+     * each call is timed, with one call to System.nanoTime() per call.
+     */
+    private void applyFiltersTimed(Document document) {
+        long[] nanos = new long[tokenFilters.size()];
+        long last = System.nanoTime();
+        for (int i=0; i<document.size(); i++) {
+            for (int f = 0; f < tokenFilters.size(); f++){
+                TokenFilter tokenFilter = tokenFilters.get(f);
+                if (tokenFilter.isOnline()) {
+                    boolean filtered = tokenFilter.filter(i, document);
+                    long now = System.nanoTime();
+                    nanos[f] += now - last;
+                    last = now;
+                    if (filtered) {
+                        document.get(i).setFiltered(true);
+                        break;
+                    }
+                }
+            }
+        }
+        for (int f = 0; f < tokenFilters.size(); f++)
+            if (tokenFilters.get(f).isOnline()) metrics.recorder(tokenFilters.get(f)).singleNanos(nanos[f]);
+    }
+
     /**
      * Apply normalisations to tokens. Well-behaved normalisers should only modify the token of which they are
      * given the index. However, a reference to the whole document is provided to them so that context-dependent
@@ -1323,6 +2180,10 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
      * (e.g. token.put("form", "URL")). These normalisations will then be present in the unigram features.
      */
     private void applyNormalisers(Document document) {
+        if (metrics.isEnabled()) {
+            applyNormalisersTimed(document);
+            return;
+        }
         for (int i = 0; i < document.size(); i++) {
             for (TokenNormaliser tokenNormaliser : tokenNormalisers) {
                 if (tokenNormaliser.isOnline())
@@ -1331,6 +2192,28 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         }
     }
 
+    /**
+     * applyNormalisers(), recording the time spent in each normaliser, as in applyFiltersTimed().
+     */
+    private void applyNormalisersTimed(Document document) {
+        long[] nanos = new long[tokenNormalisers.size()];
+        long last = System.nanoTime();
+        for (int i = 0; i < document.size(); i++) {
+            for (int n = 0; n < tokenNormalisers.size(); n++) {
+                TokenNormaliser tokenNormaliser = tokenNormalisers.get(n);
+                if (tokenNormaliser.isOnline()) {
+                    boolean carryOn = tokenNormaliser.normalise(i, document);
+                    long now = System.nanoTime();
+                    nanos[n] += now - last;
+                    last = now;
+                    if (!carryOn) break;
+                }
+            }
+        }
+        for (int n = 0; n < tokenNormalisers.size(); n++)
+            if (tokenNormalisers.get(n).isOnline()) metrics.recorder(tokenNormalisers.get(n)).singleNanos(nanos[n]);
+    }
+
     /**
      * Attain features by running each feature inferrer. FeatureInferrers directly produce features from Documents.
      * They have a choice whether or not to ignore the "filtered" property of an AnnotatedToken.
@@ -1338,11 +2221,35 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     private List<Feature> extractInferredFeatures(Document document){
         List<Feature> features = new ArrayList<>();
         for (FeatureInferrer featureInferrer : featureInferrers) {
-            if(featureInferrer.isOnline()) features = featureInferrer.addInferredFeatures(document, features);
+            if(featureInferrer.isOnline()) {
+                PipelineMetrics.Recorder recorder = metrics.recorder(featureInferrer);
+                long start = recorder.start();
+                features = featureInferrer.addInferredFeatures(document, features);
+                recorder.single(start);
+            }
         }
         return features;
     }
 
+    /**
+     * The feature hashing equivalent of extractInferredFeatures() (see setFeatureHasher()).
+     */
+    private int[] hashFeatures(Document document, boolean batch){
+        IntArrayList buckets = new IntArrayList(document.size() * 2);
+        HashedFeatureSink sink = featureHasher.newSink(buckets);
+        for (FeatureInferrer featureInferrer : featureInferrers) {
+            if (featureInferrer.isOnline()) {
+                if (featureInferrer instanceof FeatureSelector)
+                    throw new FeatureExtractionException("Feature selection is not supported when hashing features.");
+                PipelineMetrics.Recorder recorder = metrics.recorder(featureInferrer);
+                long start = recorder.start();
+                featureInferrer.addHashedFeatures(document, sink);
+                if (batch) recorder.document(start); else recorder.single(start);
+            }
+        }
+        return buckets.toIntArray();
+    }
+
 
 /**********************************************************************************************************************
  * Serialisation helpers
@@ -1350,24 +2257,19 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
 
     /**
      * Convert a Document instance into a byte array (used for storing
-     * documents in a Mongo database).
+     * documents in a cache). See DocumentCodec.
      */
     public static byte[] document2ByteArray(Document d) throws IOException {
-        try(ByteArrayOutputStream b = new ByteArrayOutputStream();
-            ObjectOutputStream o = new ObjectOutputStream(b)) {
-            o.writeObject(d);
-            return b.toByteArray();
-        }
+        return DocumentCodec.encode(d);
     }
 
     /**
      * Convert a byte array into a Document instance (used for retrieving
-     * documents from a Mongo database).
+     * documents from a cache). Documents written with Java serialisation
+     * by older versions can also be read.
      */
     public static Document byteArray2Document(byte[] bytes) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream o = new ObjectInputStream(new ByteArrayInputStream(bytes))){
-            return (Document)o.readObject();
-        }
+        return DocumentCodec.decode(bytes);
     }
 
 /**********************************************************************************************************************
@@ -1395,5 +2297,6 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
 
         handLabelledData = new ArrayList<>();
         machineLabelledData = new ArrayList<>();
+        metrics = new PipelineMetrics(this);
     }
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+/**
+ * A DataDrivenComponent which can adjust to changes in the data since its last update, rather than seeing all
+ * of the data again. See FeatureExtractionPipeline.updateDataRequiringInferrers() and addData().
+ */
+public interface IncrementalDataDrivenComponent extends DataDrivenComponent {
+
+    /**
+     * @return false if the component has no earlier update to adjust (e.g. it has been deserialised since),
+     *         in which case update() is called with all of the data instead.
+     */
+    public boolean canUpdateIncrementally();
+
+    /**
+     * Adjust to the data *added* and *removed* since the last update. The removed data carries the
+     * labels the documents had when they were removed (see FeatureExtractionPipeline.removeData()).
+     * Only called if canUpdateIncrementally() returns true.
+     */
+    public void update(FeatureExtractionPipeline.Data added, FeatureExtractionPipeline.Data removed);
+}
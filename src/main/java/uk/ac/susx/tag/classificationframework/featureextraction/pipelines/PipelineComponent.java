@@ -55,6 +55,10 @@ import java.io.Serializable;
  *  4. Check the relevant feature extraction interfaces for notes on responsibilities of each
  *     feature extractor.
  *
+ *  5. If the component spends most of its time blocked (e.g. calling a remote service), override
+ *     getWorkload() to return Workload.IO, so that the pipeline runs it on its I/O executor rather
+ *     than tying up the threads of its CPU executor (see FeatureExtractionPipeline.setCpuExecutor()).
+ *
  * User: Andrew D. Robertson
  * Date: 08/08/2013
  * Time: 14:30
@@ -83,6 +87,19 @@ public abstract class PipelineComponent implements Serializable, AutoCloseable {
 
     public abstract boolean isThreadSafe();
 
+    /**
+     * The kind of work a component does, which determines the executor on which the pipeline runs it
+     * during batch extraction.
+     */
+    public enum Workload {
+        CPU,  // Computation on the local machine
+        IO    // Mostly waiting, e.g. on a remote service
+    }
+
+    public Workload getWorkload() {
+        return Workload.CPU;
+    }
+
     public void close() {}
 
 }
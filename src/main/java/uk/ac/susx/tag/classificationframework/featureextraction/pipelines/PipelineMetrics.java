@@ -0,0 +1,313 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionException;
+import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.DocProcessor;
+import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilter;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer;
+import uk.ac.susx.tag.classificationframework.featureextraction.normalisation.TokenNormaliser;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.Tokeniser;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timing and throughput metrics for each component of a FeatureExtractionPipeline (see
+ * FeatureExtractionPipeline.getMetrics()): the tokeniser, each DocProcessor, TokenFilter, TokenNormaliser
+ * and FeatureInferrer, and the indexing of features. For each, the pipeline records:
+ *
+ *  - the number of documents processed on the single-document path (e.g. extractFeatures(Instance))
+ *    and on the batch path (e.g. extractFeaturesFromBatch()), and the number of batches,
+ *  - the time taken on each document, as a total and as a histogram from which percentiles are
+ *    estimated to within a few percent.
+ *
+ * When a component processes a whole batch itself (e.g. by overriding DocProcessor.processBatch()), each
+ * document of the batch is recorded as taking an equal share of the time.
+ *
+ * Recording takes no locks and costs a couple of calls to System.nanoTime() per component per document,
+ * so metrics are enabled by default. They can be turned off with setEnabled(false).
+ *
+ * The metrics can be read with snapshot(), or over JMX once register() has been called.
+ */
+public class PipelineMetrics implements PipelineMetricsMXBean {
+
+    /**
+     * The kinds of component for which metrics are recorded.
+     */
+    public enum Stage {
+        TOKENISER, DOC_PROCESSOR, TOKEN_FILTER, TOKEN_NORMALISER, FEATURE_INFERRER, FEATURE_INDEXING
+    }
+
+    private static final String JMX_DOMAIN = "uk.ac.susx.tag.classificationframework";
+
+    private static final int SUB_BUCKET_BITS = 3;  // 8 buckets per power of two, so a bucket's midpoint is within 1/16th of its values
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final FeatureExtractionPipeline pipeline;
+    private final ConcurrentHashMap<Object, Recorder> recorders = new ConcurrentHashMap<>();
+    private volatile boolean enabled = true;
+    private ObjectName objectName = null;
+
+    PipelineMetrics(FeatureExtractionPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    @Override
+    public boolean isEnabled() { return enabled; }
+
+    @Override
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    /**
+     * Discard everything recorded so far.
+     */
+    @Override
+    public void reset() {
+        recorders.clear();
+    }
+
+    @Override
+    public Map<String, ComponentMetrics> getComponents() {
+        return snapshot();
+    }
+
+    /**
+     * @return the metrics recorded so far for each component of the pipeline, by name, in pipeline order.
+     *         Components added with a name (see FeatureExtractionPipeline.add()) appear under that name,
+     *         and the rest under the name of their class.
+     */
+    public Map<String, ComponentMetrics> snapshot() {
+        Map<String, ComponentMetrics> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : pipeline.metricsComponents().entrySet()) {
+            Object component = entry.getValue();
+            snapshot.put(entry.getKey(), new ComponentMetrics(entry.getKey(), stageOf(component), recorders.get(component)));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Register these metrics with the platform MBean server, under the name
+     * "uk.ac.susx.tag.classificationframework:type=FeatureExtractionPipeline,name=*name*".
+     * They are unregistered when the pipeline is closed.
+     */
+    public synchronized ObjectName register(String name) {
+        unregister();
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=FeatureExtractionPipeline,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+            return objectName;
+        } catch (JMException e) {
+            throw new FeatureExtractionException("Unable to register pipeline metrics: " + name, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new FeatureExtractionException("Unable to unregister pipeline metrics: " + objectName, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    /**
+     * @return the recorder of *component*, or a recorder which does nothing if metrics are disabled.
+     */
+    Recorder recorder(Object component) {
+        if (!enabled) return Recorder.DISABLED;
+        Recorder recorder = recorders.get(component);
+        return recorder != null ? recorder : recorders.computeIfAbsent(component, c -> new Recorder());
+    }
+
+    private static Stage stageOf(Object component) {
+        if (component instanceof Tokeniser) return Stage.TOKENISER;
+        if (component instanceof DocProcessor) return Stage.DOC_PROCESSOR;
+        if (component instanceof TokenFilter) return Stage.TOKEN_FILTER;
+        if (component instanceof TokenNormaliser) return Stage.TOKEN_NORMALISER;
+        if (component instanceof FeatureInferrer) return Stage.FEATURE_INFERRER;
+        return Stage.FEATURE_INDEXING;
+    }
+
+    private static int bucket(long nanos) {
+        if (nanos < 2 * SUB_BUCKETS) return (int) Math.max(0, nanos);
+        int highestBit = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) ((nanos >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    private static long bucketStart(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        int highestBit = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (highestBit - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Records the documents processed by a single component, and the time taken. Thread safe.
+     */
+    static final class Recorder {
+
+        static final Recorder DISABLED = new Recorder();
+
+        private final LongAdder singleDocuments = new LongAdder();
+        private final LongAdder batchDocuments = new LongAdder();
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray histogram = new AtomicLongArray(NUM_BUCKETS);
+
+        /**
+         * @return the time to pass to the other methods once the work is done (0 if disabled, to skip the call to System.nanoTime()).
+         */
+        long start() {
+            return this == DISABLED ? 0 : System.nanoTime();
+        }
+
+        /**
+         * A document processed on the single-document path, since *start*.
+         */
+        void single(long start) {
+            if (this != DISABLED) singleNanos(System.nanoTime() - start);
+        }
+
+        void singleNanos(long elapsed) {
+            if (this == DISABLED) return;
+            singleDocuments.increment();
+            time(elapsed, 1);
+        }
+
+        /**
+         * A document processed on the batch path, since *start*.
+         */
+        void document(long start) {
+            if (this == DISABLED) return;
+            batchDocuments.increment();
+            time(System.nanoTime() - start, 1);
+        }
+
+        /**
+         * A batch, whose documents are recorded one by one with document().
+         */
+        void batchStarted() {
+            if (this != DISABLED) batches.increment();
+        }
+
+        /**
+         * A whole batch of *documents* processed at once by the component, since *start*.
+         */
+        void batch(int documents, long start) {
+            if (this == DISABLED) return;
+            batches.increment();
+            batchDocuments.add(documents);
+            if (documents > 0) time(System.nanoTime() - start, documents);
+        }
+
+        private void time(long elapsed, int documents) {
+            elapsed = Math.max(0, elapsed);
+            long perDocument = elapsed / documents;
+            nanos.add(elapsed);
+            maxNanos.accumulate(perDocument);
+            histogram.addAndGet(bucket(perDocument), documents);
+        }
+    }
+
+    /**
+     * An immutable snapshot of the metrics of a component.
+     */
+    public static final class ComponentMetrics {
+
+        private final String name;
+        private final Stage stage;
+        private final long singleDocuments;
+        private final long batchDocuments;
+        private final long batches;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] histogram;
+
+        ComponentMetrics(String name, Stage stage, Recorder recorder) {
+            this.name = name;
+            this.stage = stage;
+            histogram = new long[NUM_BUCKETS];
+            if (recorder == null) {
+                singleDocuments = batchDocuments = batches = totalNanos = maxNanos = 0;
+            } else {
+                singleDocuments = recorder.singleDocuments.sum();
+                batchDocuments = recorder.batchDocuments.sum();
+                batches = recorder.batches.sum();
+                totalNanos = recorder.nanos.sum();
+                maxNanos = recorder.maxNanos.get();
+                for (int i = 0; i < NUM_BUCKETS; i++) histogram[i] = recorder.histogram.get(i);
+            }
+        }
+
+        public String getName() { return name; }
+        public Stage getStage() { return stage; }
+
+        /**
+         * @return the number of documents processed on either path.
+         */
+        public long getDocuments() { return singleDocuments + batchDocuments; }
+        public long getSingleDocuments() { return singleDocuments; }
+        public long getBatchDocuments() { return batchDocuments; }
+        public long getBatches() { return batches; }
+
+        /**
+         * @return the time spent processing documents, summed over all threads.
+         */
+        public long getTotalNanos() { return totalNanos; }
+        public long getMaxNanos() { return maxNanos; }
+
+        public double getMeanNanos() {
+            long documents = getDocuments();
+            return documents == 0 ? 0 : (double) totalNanos / documents;
+        }
+
+        public long getP50Nanos() { return percentileNanos(50); }
+        public long getP90Nanos() { return percentileNanos(90); }
+        public long getP99Nanos() { return percentileNanos(99); }
+
+        /**
+         * @return the number of documents the component processes per second of a thread's time, i.e. the
+         *         throughput of the component per thread running it.
+         */
+        public double getDocumentsPerSecond() {
+            return totalNanos == 0 ? 0 : getDocuments() / (totalNanos / 1e9);
+        }
+
+        /**
+         * @return an estimate of the time within which *percentile* percent of documents were processed.
+         */
+        public long percentileNanos(double percentile) {
+            long count = 0;
+            for (long c : histogram) count += c;
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+                seen += histogram[bucket];
+                if (seen >= rank) {
+                    long start = bucketStart(bucket);
+                    long end = bucket + 1 < NUM_BUCKETS ? bucketStart(bucket + 1) : Long.MAX_VALUE;
+                    return Math.min(maxNanos, start + (end - start - 1) / 2);
+                }
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s): %d documents (%d single, %d in %d batches), mean %.0fns, p50 %dns, p90 %dns, p99 %dns, max %dns, %.0f documents/s",
+                    name, stage, getDocuments(), singleDocuments, batchDocuments, batches, getMeanNanos(),
+                    getP50Nanos(), getP90Nanos(), getP99Nanos(), maxNanos, getDocumentsPerSecond());
+        }
+    }
+}
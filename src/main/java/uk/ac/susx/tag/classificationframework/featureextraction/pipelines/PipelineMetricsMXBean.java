@@ -0,0 +1,20 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a pipeline's PipelineMetrics (see PipelineMetrics.register()).
+ */
+public interface PipelineMetricsMXBean {
+
+    /**
+     * @return the metrics of each component of the pipeline, by name, in pipeline order.
+     */
+    Map<String, PipelineMetrics.ComponentMetrics> getComponents();
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    void reset();
+}
@@ -0,0 +1,35 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+/**
+ * Options for streaming extraction (see FeatureExtractionPipeline.extractFeatures(Iterator, StreamingOptions)).
+ *
+ *   pipeline.extractFeatures(instances, new StreamingOptions().batchSize(500).bufferedBatches(4))
+ *
+ * batchSize       : the number of instances processed together (as in extractFeaturesInBatches())
+ * bufferedBatches : the number of batches that may wait between reading and processing, and again between
+ *                   processing and consumption. So at most (2 * bufferedBatches + 3) batches are held at once:
+ *                   the buffered batches, plus the one being read, the one being processed, and the one being
+ *                   consumed. Larger values smooth out differences in speed between the stages, at the cost
+ *                   of memory.
+ */
+public class StreamingOptions {
+
+    private int batchSize = 1000;
+    private int bufferedBatches = 2;
+
+    public int getBatchSize() { return batchSize; }
+
+    public int getBufferedBatches() { return bufferedBatches; }
+
+    public StreamingOptions batchSize(int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("Batch size must be at least 1.");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public StreamingOptions bufferedBatches(int bufferedBatches) {
+        if (bufferedBatches < 1) throw new IllegalArgumentException("At least 1 batch must be buffered.");
+        this.bufferedBatches = bufferedBatches;
+        return this;
+    }
+}
@@ -21,6 +21,8 @@ package uk.ac.susx.tag.classificationframework.featureextraction.pipelines.confi
  */
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
 import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilterRelevanceStopwords;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
@@ -34,7 +36,8 @@ import java.util.Map;
  * If optionValue is true, then remove stopwords (that are particularly suited
  * to the relevance classification problem).
  *
- * Option value type expected: boolean (will tolerate String "true" and "false" in any capitalisation pattern)
+ * Option value type expected: boolean (will tolerate String "true" and "false" in any capitalisation pattern),
+ * or a map with the keys "use" (boolean) and "lang" ("en" or "zh", default "en").
  *
  * User: Andrew D. Robertson
  * Date: 17/02/2014
@@ -45,8 +48,13 @@ public class ConfigHandlerRemoveStopwords extends ConfigHandler {
     public void handle(FeatureExtractionPipeline pipeline, String jsonOptionValue, List<PipelineBuilder.Option> other) {
 
         Map<String, String> mine = new HashMap<>();
-        Map<String, String> options = new Gson().fromJson(jsonOptionValue, new TypeToken<Map<String, String>>(){}.getType());
-        mine.putAll(options);
+        JsonElement json = new JsonParser().parse(jsonOptionValue);
+        if (json.isJsonPrimitive()) {
+            mine.put("use", json.getAsString());  // This is pretty tolerant of all the possible ways true and false could appear
+        } else {
+            Map<String, String> options = new Gson().fromJson(json, new TypeToken<Map<String, String>>(){}.getType());
+            mine.putAll(options);
+        }
 
         String type = ConfigHandler.getAndRemove("lang", mine, "en");
         boolean use = ConfigHandler.getAndRemove("use", mine, false);
@@ -62,9 +70,6 @@ public class ConfigHandlerRemoveStopwords extends ConfigHandler {
 
             }
         }
-
-//        if(new Gson().fromJson(jsonOptionValue, Boolean.class))  // This is pretty tolerant of all the possible ways true and false could appear
-//            pipeline.add(new TokenFilterRelevanceStopwords("en"), getKey());
     }
 
     @Override
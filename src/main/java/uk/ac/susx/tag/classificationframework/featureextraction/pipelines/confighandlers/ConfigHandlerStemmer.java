@@ -24,8 +24,9 @@ public class ConfigHandlerStemmer extends ConfigHandler{
         mine.putAll(options);
 
         String lang = ConfigHandler.getAndRemove("lang", mine, "en");
+        int cacheSize = ConfigHandler.getAndRemove("cache_size", mine, TokenNormaliserStemmer.DEFAULT_CACHE_SIZE); // Number of stems to cache (0 for none)
 
-        pipeline.add(new TokenNormaliserStemmer(lang), "stemmer");
+        pipeline.add(new TokenNormaliserStemmer(lang, cacheSize), "stemmer");
     }
 
     @Override
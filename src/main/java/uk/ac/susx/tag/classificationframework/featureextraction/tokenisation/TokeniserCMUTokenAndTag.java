@@ -65,10 +65,7 @@ public class TokeniserCMUTokenAndTag implements Tokeniser {
             for (Tagger.TaggedToken taggedToken : tagger.tokenizeAndTag(document.text)) {
                 int start = document.text.indexOf(taggedToken.token, end);
                 end = start + taggedToken.token.length();
-                AnnotatedToken annotatedToken = new AnnotatedToken(taggedToken);
-                annotatedToken.start(start);
-                annotatedToken.end(end);
-                processed.add(annotatedToken);
+                processed.newToken(taggedToken.token, start, end).put(AnnotatedToken.POS, taggedToken.tag);
             }
         }
         return processed;
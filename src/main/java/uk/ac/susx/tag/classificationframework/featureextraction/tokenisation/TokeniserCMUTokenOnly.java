@@ -22,7 +22,6 @@ package uk.ac.susx.tag.classificationframework.featureextraction.tokenisation;
 
 import cmu.arktweetnlp.Twokenize;
 import uk.ac.susx.tag.classificationframework.Util;
-import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
 
@@ -54,10 +53,7 @@ public class TokeniserCMUTokenOnly implements Tokeniser {
             for (String token : Twokenize.tokenize(document.text)) {
                 int start = document.text.indexOf(token, end);
                 end = start + token.length();
-                AnnotatedToken annotatedToken = new AnnotatedToken(token);
-                annotatedToken.start(start);
-                annotatedToken.end(end);
-                tokenised.add(annotatedToken);
+                tokenised.newToken(token, start, end);
             }
         }
         return tokenised;
@@ -1,7 +1,6 @@
 package uk.ac.susx.tag.classificationframework.featureextraction.tokenisation;
 
 import uk.ac.susx.tag.classificationframework.Util;
-import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
 
@@ -41,10 +40,7 @@ public class TokeniserChineseStanford implements Tokeniser {
                 String word = token.get(CoreAnnotations.TextAnnotation.class);
                 int start = document.text.indexOf(word, end);
                 end = start + word.length();
-                AnnotatedToken annotatedToken = new AnnotatedToken(word);
-                annotatedToken.start(start);
-                annotatedToken.end(end);
-                tokenised.add(annotatedToken);
+                tokenised.newToken(word, start, end);
             }
         }
 
@@ -22,7 +22,6 @@ package uk.ac.susx.tag.classificationframework.featureextraction.tokenisation;
 
 import org.apache.commons.lang3.StringUtils;
 import uk.ac.susx.tag.classificationframework.Util;
-import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
 
@@ -33,7 +32,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -51,6 +53,13 @@ import java.util.stream.Stream;
  *
  * It's also possible to lowercase the text.
  *
+ * The token, emoticon and URL patterns below define the tokenisation, but tokenise() does not run them.
+ * Instead it makes a single pass over the text with a hand-written scanner (see Scanner), which gives the
+ * same tokens and offsets without building the lowercased, emoticon-uppercased and URL-replaced copies of
+ * the text that running the patterns in turn requires. The scanner supports no punctuation pattern, or a
+ * pattern that is a single character class followed by "+" (like the default and the offline pattern);
+ * for any other punctuation pattern the regexes are used (see tokeniseWithRegex()).
+ *
  * User: Andrew D. Robertson
  * Date: 19/08/2013
  * Time: 10:03
@@ -75,6 +84,9 @@ public class TokeniserTwitterBasic implements Tokeniser {
     private boolean lowerCase;
     private boolean normaliseURL;
 
+    private transient boolean scannable;          // False if the punctuation pattern can't be scanned for
+    private transient BitSet punctuation;         // Null if all punctuation is stripped
+
 
     public TokeniserTwitterBasic(){
         this("[?!]+", false, true);
@@ -104,6 +116,7 @@ public class TokeniserTwitterBasic implements Tokeniser {
                          Pattern.compile(core+"|("+punctuationPattern+")|"+emoticon, Pattern.CASE_INSENSITIVE);
 
         emoticonPattern = Pattern.compile(emoticon, Pattern.CASE_INSENSITIVE);
+        prepareScanner();
     }
 
 
@@ -113,6 +126,7 @@ public class TokeniserTwitterBasic implements Tokeniser {
      */
     public void setPunctuationPattern(String punctuationPattern) {
         tokenPattern = Pattern.compile(core+"|("+punctuationPattern+")|"+emoticon, Pattern.CASE_INSENSITIVE);
+        prepareScanner();
     }
 
     public void setPunctuationFilteringOffline(){
@@ -121,6 +135,7 @@ public class TokeniserTwitterBasic implements Tokeniser {
 
     public void setPunctuationFilteringOnline(){
         tokenPattern =  Pattern.compile(core+"|"+emoticon, Pattern.CASE_INSENSITIVE);
+        prepareScanner();
     }
 
     public void setNormaliseURLOnline(){
@@ -133,6 +148,26 @@ public class TokeniserTwitterBasic implements Tokeniser {
 
     @Override
     public Document tokenise(Instance document) {
+        if (!scannable) return tokeniseWithRegex(document);
+        Document tokenised = new Document(document);
+        if (!Util.isNullOrEmptyText(document)) {
+            String text = document.text;
+            boolean lowerCaseWhileScanning = lowerCase;
+            if (lowerCase && !lowerCasesCharByChar(text)) {
+                text = text.toLowerCase();
+                lowerCaseWhileScanning = false;
+            }
+            new Scanner(text, lowerCaseWhileScanning).scan(tokenised);
+        }
+        return tokenised;
+    }
+
+    /**
+     * Tokenise by running the token, emoticon and URL patterns in turn. Gives the same result as
+     * tokenise(), which uses this only for punctuation patterns that the scanner doesn't support.
+     * Public so that the two can be compared (see TokeniserBenchmark in the benchmarks module).
+     */
+    public Document tokeniseWithRegex(Instance document) {
         Document tokenised = new Document(document);
         if (!Util.isNullOrEmptyText(document)) {
             String text = document.text;
@@ -157,10 +192,7 @@ public class TokeniserTwitterBasic implements Tokeniser {
                 if(httpMatches.containsKey(m.start())) {
                     token = "HTTPLINK";
                 }
-                AnnotatedToken annotatedToken = new AnnotatedToken(token);
-                annotatedToken.start(start);
-                annotatedToken.end(end);
-                tokenised.add(annotatedToken);
+                tokenised.newToken(token, start, end);
             }
         }
         return tokenised;
@@ -187,4 +219,340 @@ public class TokeniserTwitterBasic implements Tokeniser {
         return sb.toString();
     }
 
+    /**
+     * @return true if String.toLowerCase() would lowercase *text* one char at a time, with
+     *         Character.toLowerCase(), so that the scanner can lowercase as it goes. Otherwise
+     *         (two chars with context-dependent lowercasing, or a locale with special rules) the text
+     *         is lowercased up front.
+     */
+    private static boolean lowerCasesCharByChar(String text) {
+        String language = Locale.getDefault().getLanguage();
+        return !language.equals("tr") && !language.equals("az") && !language.equals("lt")
+                && text.indexOf('\u0130') < 0 && text.indexOf('\u03A3') < 0;
+    }
+
+    /**
+     * Work out from the token pattern whether the scanner can be used, and the punctuation it keeps.
+     */
+    private void prepareScanner() {
+        String pattern = tokenPattern.pattern();
+        String prefix = core + "|(";
+        String suffix = ")|" + emoticon;
+        if (pattern.equals(core + "|" + emoticon)) {
+            punctuation = null;
+            scannable = true;
+        } else if (pattern.startsWith(prefix) && pattern.endsWith(suffix) && pattern.length() > prefix.length() + suffix.length()) {
+            punctuation = parsePunctuationClass(pattern.substring(prefix.length(), pattern.length() - suffix.length()));
+            scannable = punctuation != null;
+        } else {
+            punctuation = null;
+            scannable = false;
+        }
+    }
+
+    /**
+     * If *punctuationPattern* is a single character class of literal chars and ranges followed by "+",
+     * e.g. [?!]+, return the chars in the class (matched case-insensitively, as in the token pattern).
+     * Otherwise return null. The result is checked against the class compiled as a regex.
+     */
+    static BitSet parsePunctuationClass(String punctuationPattern) {
+        if (!punctuationPattern.startsWith("[") || !punctuationPattern.endsWith("]+")) return null;
+        String body = punctuationPattern.substring(1, punctuationPattern.length() - 2);
+        if (body.isEmpty() || body.startsWith("^") || body.contains("&&")) return null;
+
+        BitSet chars = new BitSet(Character.MAX_VALUE + 1);
+        int i = 0;
+        while (i < body.length()) {
+            int first = classAtom(body, i);
+            if (first < 0) return null;
+            i += body.charAt(i) == '\\' ? 2 : 1;
+            if (i + 1 < body.length() && body.charAt(i) == '-') {
+                int last = classAtom(body, i + 1);
+                if (last < first) return null;
+                i += body.charAt(i + 1) == '\\' ? 3 : 2;
+                chars.set(first, last + 1);
+            } else chars.set(first);
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            char upper = Character.toUpperCase(c);
+            if (chars.get(c) || chars.get(upper)) { chars.set(c); chars.set(upper); }
+        }
+
+        Pattern check = Pattern.compile("[" + body + "]", Pattern.CASE_INSENSITIVE);
+        for (int c = 0; c < 128; c++)
+            if (chars.get(c) != check.matcher(String.valueOf((char) c)).matches()) return null;
+        for (int c = chars.nextSetBit(128); c >= 0; c = chars.nextSetBit(c + 1))
+            if (!check.matcher(String.valueOf((char) c)).matches()) return null;
+        return chars;
+    }
+
+    /**
+     * @return the char at *i* in a character class body, unescaping it if necessary, or -1 if it is
+     *         anything other than a literal char (a nested class, or an escape like \p or \d).
+     */
+    private static int classAtom(String body, int i) {
+        char c = body.charAt(i);
+        if (c == '\\') {
+            if (i + 1 >= body.length()) return -1;
+            c = body.charAt(i + 1);
+            if (Character.isLetterOrDigit(c)) return -1;
+        } else if (c == '[' || c == ']') return -1;
+        return Character.isSurrogate(c) ? -1 : c;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        prepareScanner();
+    }
+
+    /**
+     * A single pass over the text of one document, matching the token pattern at each position in the
+     * same way as the regex would, on the text as tokeniseWithRegex() would have transformed it:
+     *
+     *  - lowercased, if lowerCase is true (done char by char, see lowerCasesCharByChar()),
+     *  - with emoticons uppercased (only affects the forms of tokens, since the token pattern is case insensitive),
+     *  - with each URL replaced by as many 'L's, if normaliseURL is true.
+     *
+     * The URLs are found up front, by looking for "://". Emoticons to be uppercased are found as the
+     * tokens are built, in order.
+     */
+    private final class Scanner {
+
+        private final String text;
+        private final int length;
+        private final boolean lowerCase;
+
+        private int[] urls = NO_URLS;     // Start and end of each URL
+        private int numUrls = 0;
+        private int urlCursor = 0;        // The first URL which doesn't end before the current token
+
+        private int emoticonStart = 0;    // The first emoticon which doesn't end before the chars queried so far
+        private int emoticonEnd = 0;
+
+        private char[] form = new char[32];
+
+        Scanner(String text, boolean lowerCase) {
+            this.text = text;
+            this.length = text.length();
+            this.lowerCase = lowerCase;
+        }
+
+        void scan(Document tokenised) {
+            if (normaliseURL) findUrls();
+            int start = 0;
+            while (start < length) {
+                while (urlCursor < numUrls && urls[2 * urlCursor + 1] <= start) urlCursor++;
+                int end = matchToken(start);
+                if (end < 0) {
+                    start++;
+                } else {
+                    boolean link = urlCursor < numUrls && urls[2 * urlCursor] == start;
+                    tokenised.newToken(link ? "HTTPLINK" : form(start, end), start, end);
+                    start = end;
+                }
+            }
+        }
+
+        /**
+         * @return the end of the token starting at *i*, or -1 if none does. The alternatives are tried in the order of the token pattern.
+         */
+        private int matchToken(int i) {
+            int end = matchLink(i);
+            if (end < 0) end = matchWord(i);
+            if (end < 0 && punctuation != null) end = matchPunctuation(i);
+            if (end < 0) end = matchEmoticon(i, true);
+            return end;
+        }
+
+        /**
+         * http://[\\.\w\-/]+
+         */
+        private int matchLink(int i) {
+            String prefix = "http://";
+            if (i + prefix.length() >= length) return -1;
+            for (int j = 0; j < prefix.length(); j++)
+                if (asciiLowerCase(charAt(i + j)) != prefix.charAt(j)) return -1;
+            int end = i + prefix.length();
+            while (end < length && isLinkChar(charAt(end))) end++;
+            return end > i + prefix.length() ? end : -1;
+        }
+
+        /**
+         * [@#]?[\p{L}\p{Mn}\d]([\p{L}\p{Mn}'’‘`_\d]*[\p{L}\p{Mn}\d]|[\p{L}\p{Mn}\d]*)
+         *
+         * i.e. the longest run of word chars and joiners which starts and ends with a word char.
+         */
+        private int matchWord(int i) {
+            int j = i;
+            int c = codePointAt(j);
+            if (c == '@' || c == '#') {
+                if (++j >= length) return -1;
+                c = codePointAt(j);
+            }
+            if (!isWordChar(c)) return -1;
+            j += Character.charCount(c);
+            int end = j;
+            while (j < length) {
+                c = codePointAt(j);
+                if (isWordChar(c)) {
+                    j += Character.charCount(c);
+                    end = j;
+                } else if (isWordJoiner(c)) {
+                    j++;
+                } else break;
+            }
+            return end;
+        }
+
+        private int matchPunctuation(int i) {
+            int end = i;
+            while (end < length && punctuation.get(charAt(end))) end++;  // Never contains surrogates
+            return end > i ? end : -1;
+        }
+
+        /**
+         * ([:;=][-o^]?[)(/\\p])|([/\\)(d][-o^]?[:;=x])
+         *
+         * on the text with URLs replaced (when tokenising), or not (when finding the emoticons to uppercase).
+         */
+        private int matchEmoticon(int i, boolean urlsReplaced) {
+            char first = urlsReplaced ? charAt(i) : lowerCaseCharAt(i);
+            boolean eyesFirst = first == ':' || first == ';' || first == '=';
+            if (!eyesFirst && !isReversedMouth(first)) return -1;
+            if (i + 1 >= length) return -1;
+            char second = urlsReplaced ? charAt(i + 1) : lowerCaseCharAt(i + 1);
+            if (isNose(second) && i + 2 < length) {
+                char third = urlsReplaced ? charAt(i + 2) : lowerCaseCharAt(i + 2);
+                if (eyesFirst ? isMouth(third) : isReversedEyes(third)) return i + 3;
+            }
+            return (eyesFirst ? isMouth(second) : isReversedEyes(second)) ? i + 2 : -1;
+        }
+
+        /**
+         * (?:https?|ftp|file)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*
+         */
+        private void findUrls() {
+            int from = 0;
+            for (int separator = text.indexOf("://"); separator >= 0; separator = text.indexOf("://", separator + 3)) {
+                int start = separator - schemeLength(separator);
+                if (start == separator || start < from) continue;  // No scheme, or part of the previous URL
+                int end = separator + 3;
+                while (end < length && isUrlChar(lowerCaseCharAt(end))) end++;
+                if (2 * numUrls + 2 > urls.length) urls = Arrays.copyOf(urls, Math.max(4, urls.length * 2));
+                urls[2 * numUrls] = start;
+                urls[2 * numUrls + 1] = end;
+                numUrls++;
+                from = end;
+            }
+        }
+
+        private int schemeLength(int separator) {
+            for (String scheme : URL_SCHEMES) {
+                if (separator < scheme.length()) continue;
+                boolean matches = true;
+                for (int j = 0; j < scheme.length() && matches; j++)
+                    matches = lowerCaseCharAt(separator - scheme.length() + j) == scheme.charAt(j);
+                if (matches) return scheme.length();
+            }
+            return 0;
+        }
+
+        /**
+         * @return the form of the token from *start* to *end*, with any emoticon letters uppercased.
+         */
+        private String form(int start, int end) {
+            int size = end - start;
+            if (size > form.length) form = new char[Math.max(size, form.length * 2)];
+            for (int j = 0; j < size; j++) {
+                char c = charAt(start + j);
+                if ((c == 'o' || c == 'p' || c == 'd' || c == 'x') && inEmoticon(start + j)) c = Character.toUpperCase(c);
+                form[j] = c;
+            }
+            return new String(form, 0, size);
+        }
+
+        /**
+         * @return true if the char at *i* is part of an emoticon, as found by emoticonsToUpperCase(). Must be called with increasing *i*.
+         */
+        private boolean inEmoticon(int i) {
+            while (emoticonEnd <= i) {
+                int start = emoticonEnd;
+                int end = -1;
+                while (start < length && (end = matchEmoticon(start, false)) < 0) start++;
+                if (end < 0) {
+                    emoticonStart = emoticonEnd = Integer.MAX_VALUE;
+                } else {
+                    emoticonStart = start;
+                    emoticonEnd = end;
+                }
+            }
+            return i >= emoticonStart;
+        }
+
+        /**
+         * @return the char at *i*, lowercased if necessary, or 'L' if it is part of a URL.
+         *         Must not be called with *i* before the start of the current token.
+         */
+        private char charAt(int i) {
+            for (int u = urlCursor; u < numUrls && urls[2 * u] <= i; u++)
+                if (i < urls[2 * u + 1]) return 'L';
+            return lowerCaseCharAt(i);
+        }
+
+        private int codePointAt(int i) {
+            char c = charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < length) {
+                char low = charAt(i + 1);
+                if (Character.isLowSurrogate(low)) return Character.toCodePoint(c, low);
+            }
+            return c;
+        }
+
+        private char lowerCaseCharAt(int i) {
+            char c = text.charAt(i);
+            if (!lowerCase) return c;
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1)))
+                return Character.highSurrogate(Character.toLowerCase(Character.toCodePoint(c, text.charAt(i + 1))));
+            if (Character.isLowSurrogate(c) && i > 0 && Character.isHighSurrogate(text.charAt(i - 1)))
+                return Character.lowSurrogate(Character.toLowerCase(Character.toCodePoint(text.charAt(i - 1), c)));
+            return Character.toLowerCase(c);
+        }
+    }
+
+    private static final int[] NO_URLS = new int[0];
+    private static final String[] URL_SCHEMES = {"https", "http", "ftp", "file"};  // "https" before "http"
+
+    private static char asciiLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isLinkChar(char c) {
+        return isAsciiLetterOrDigit(c) || c == '_' || c == '\\' || c == '.' || c == '-' || c == '/';
+    }
+
+    private static boolean isUrlChar(char c) {
+        return isAsciiLetterOrDigit(c) || "-+&@#/%?=~_|!:,.;".indexOf(c) >= 0;
+    }
+
+    private static boolean isWordChar(int codePoint) {
+        return (codePoint >= '0' && codePoint <= '9') || Character.isLetter(codePoint)
+                || Character.getType(codePoint) == Character.NON_SPACING_MARK;
+    }
+
+    private static boolean isWordJoiner(int codePoint) {
+        return codePoint == '\'' || codePoint == '’' || codePoint == '‘' || codePoint == '`' || codePoint == '_';
+    }
+
+    private static boolean isNose(char c) { return c == '-' || c == 'o' || c == 'O' || c == '^'; }
+
+    private static boolean isMouth(char c) { return c == ')' || c == '(' || c == '/' || c == '\\' || c == 'p' || c == 'P'; }
+
+    private static boolean isReversedMouth(char c) { return c == '/' || c == '\\' || c == ')' || c == '(' || c == 'd' || c == 'D'; }
+
+    private static boolean isReversedEyes(char c) { return c == ':' || c == ';' || c == '=' || c == 'x' || c == 'X'; }
+
 }
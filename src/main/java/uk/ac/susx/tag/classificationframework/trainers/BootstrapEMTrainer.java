@@ -27,7 +27,7 @@ public class BootstrapEMTrainer extends AbstractNaiveBayesTrainer {
 
         model.train(labelledData);
 
-        model.emTrain(unlabelledData, model);
+        model.emTrainParallel(unlabelledData, model);
 
         return model;
     }
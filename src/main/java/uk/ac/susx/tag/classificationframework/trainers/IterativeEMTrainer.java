@@ -0,0 +1,244 @@
+package uk.ac.susx.tag.classificationframework.trainers;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import uk.ac.susx.tag.classificationframework.classifiers.AbstractNaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifierPreComputed;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifierPreComputedDense;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * EM training which repeats the E and M steps until the model stops changing, rather than
+ * performing the single round of BootstrapEMTrainer.
+ *
+ * Each iteration:
+ *  1. Pre-computes the log likelihood tables of the current model (see NaiveBayesClassifierPreComputedDense),
+ *     so that the unlabelled documents are scored by table lookup rather than by calling likelihood().
+ *  2. Scores the unlabelled documents in order to measure the change since the previous iteration (see
+ *     Convergence), stopping early if it has fallen below the tolerance.
+ *  3. Trains a new model on the labelled data plus the unlabelled data weighted by the posteriors of the
+ *     current model (see NaiveBayesClassifier.emTrainParallel()). The posteriors are those found in step 2,
+ *     so the unlabelled documents are only classified once per iteration.
+ *
+ * With no unlabelled data there is nothing to iterate over, so training stops after the first iteration.
+ *
+ * The first iteration uses the model trained only on the labelled data and feature pseudo-counts, so with
+ * maxIterations = 1 this is equivalent to BootstrapEMTrainer (with the default unlabelled weight of 0.1).
+ * After training, getIterationStats() reports the time taken and the change measured for each iteration.
+ */
+public class IterativeEMTrainer extends AbstractNaiveBayesTrainer {
+
+    /**
+     * How the change between iterations is measured.
+     */
+    public enum Convergence {
+        LOG_LIKELIHOOD,  // Relative change in the log likelihood of the unlabelled data (absolute change if the previous was 0)
+        POSTERIORS       // Fraction of unlabelled documents whose most probable label changed
+    }
+
+    private final int maxIterations;
+    private final double tolerance;
+    private final Convergence convergence;
+    private final double unlabelledWeight;
+
+    private List<IterationStats> iterationStats = new ArrayList<>();
+
+    public IterativeEMTrainer() {
+        this(10, 1e-4, Convergence.LOG_LIKELIHOOD, 0.1);
+    }
+
+    public IterativeEMTrainer(int maxIterations, double tolerance, Convergence convergence) {
+        this(maxIterations, tolerance, convergence, 0.1);
+    }
+
+    /**
+     * @param maxIterations The maximum number of E/M rounds to perform.
+     * @param tolerance Stop once the change measured between iterations falls below this.
+     * @param convergence How to measure the change between iterations.
+     * @param unlabelledWeight Weighting applied to the counts from unlabelled data (see NaiveBayesClassifier.emTrain()).
+     */
+    public IterativeEMTrainer(int maxIterations, double tolerance, Convergence convergence, double unlabelledWeight) {
+        if (maxIterations < 1) throw new IllegalArgumentException("At least one iteration is required.");
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+        this.convergence = convergence;
+        this.unlabelledWeight = unlabelledWeight;
+    }
+
+    /**
+     * @return the statistics of each iteration performed by the most recent call to train().
+     */
+    public List<IterationStats> getIterationStats() { return Collections.unmodifiableList(iterationStats); }
+
+    @Override
+    public NaiveBayesClassifier train(FeatureExtractionPipeline pipeline,
+                                      Collection<ProcessedInstance> labelledData,
+                                      Collection<ProcessedInstance> unlabelledData,
+                                      NaiveBayesClassifier classifier) {
+        iterationStats = new ArrayList<>();
+
+        List<ProcessedInstance> unlabelled = new ArrayList<>(unlabelledData);
+        int[][] documents = new int[unlabelled.size()][];
+        for (int d = 0; d < documents.length; d++)
+            documents[d] = unlabelled.get(d).features;
+
+        NaiveBayesClassifier model = labelledModel(labelledData, classifier);
+        double previousLogLikelihood = Double.NaN;
+        int[] previousLabels = null;
+
+        for (int iteration = 1; iteration <= maxIterations; iteration++) {
+            long start = System.nanoTime();
+
+            AbstractNaiveBayesClassifier precomputed = precompute(model);
+            int[] labelOrder = labelOrder(precomputed);
+            int[] bestLabels = new int[documents.length];
+            double[] posteriors = new double[documents.length * labelOrder.length];
+            double logLikelihood = score(precomputed, labelOrder, documents, bestLabels, posteriors);
+
+            double delta = Double.NaN;
+            if (iteration > 1) {
+                if (convergence == Convergence.POSTERIORS)
+                    delta = fractionChanged(previousLabels, bestLabels);
+                else if (previousLogLikelihood == 0)
+                    delta = Math.abs(logLikelihood);
+                else
+                    delta = Math.abs((logLikelihood - previousLogLikelihood) / previousLogLikelihood);
+            }
+            boolean converged = documents.length == 0 || delta < tolerance; // delta is NaN on the first iteration
+
+            if (!converged) {
+                NaiveBayesClassifier next = labelledModel(labelledData, classifier);
+                next.emTrainParallel(unlabelled, unlabelledWeight, labelOrder, posteriors);
+                model = next;
+            }
+
+            iterationStats.add(new IterationStats(iteration, logLikelihood, delta, (System.nanoTime() - start) / 1000000));
+
+            if (converged) break;
+            previousLogLikelihood = logLikelihood;
+            previousLabels = bestLabels;
+        }
+        return model;
+    }
+
+    /**
+     * A new model trained on the labelled data, with the pseudo-counts and settings of *classifier*.
+     */
+    private NaiveBayesClassifier labelledModel(Collection<ProcessedInstance> labelledData, NaiveBayesClassifier classifier) {
+        NaiveBayesClassifier model = new NaiveBayesClassifier(classifier.getLabels());
+        copyLabelMultipliers(classifier, model);
+        copyFeatureAlphas(classifier, model);
+        model.empiricalLabelPriors(classifier.empiricalLabelPriors());
+        model.train(labelledData);
+        return model;
+    }
+
+    /**
+     * Prefer the dense tables, but fall back to hash maps if the feature indices cannot be used as offsets.
+     *
+     * The pre-computed priors come from model.labelPriors(), which already leaves out the empirical counts
+     * if empiricalLabelPriors is false. So the priors are always applied, as NaiveBayesClassifier does,
+     * rather than being dropped (which would also drop any label multipliers).
+     */
+    private static AbstractNaiveBayesClassifier precompute(NaiveBayesClassifier model) {
+        AbstractNaiveBayesClassifier precomputed = NaiveBayesClassifierPreComputedDense.canPrecompute(model) ?
+                new NaiveBayesClassifierPreComputedDense(model) :
+                new NaiveBayesClassifierPreComputed(model);
+        precomputed.empiricalLabelPriors(true);
+        return precomputed;
+    }
+
+    /**
+     * The order of the labels in the scores of *classifier*, which is also the order of the posteriors of a document.
+     */
+    private static int[] labelOrder(AbstractNaiveBayesClassifier classifier) {
+        if (classifier instanceof NaiveBayesClassifierPreComputedDense)
+            return ((NaiveBayesClassifierPreComputedDense) classifier).getLabelOrder();
+        int[] labelOrder = classifier.getLabels().toIntArray();
+        Arrays.sort(labelOrder);
+        return labelOrder;
+    }
+
+    /**
+     * Fill *bestLabels* with the most probable label of each document, and *posteriors* with the probability of
+     * each label of *labelOrder* given each document (document d's at d * labelOrder.length).
+     *
+     * @return the log likelihood of the documents, i.e. the sum over documents of log(sum over labels of P(label)P(document|label))
+     */
+    private static double score(AbstractNaiveBayesClassifier classifier, int[] labelOrder, int[][] documents, int[] bestLabels, double[] posteriors) {
+        if (labelOrder.length == 0) return 0;
+        ThreadLocal<double[]> buffers = ThreadLocal.withInitial(() -> new double[labelOrder.length]);
+        return IntStream.range(0, documents.length).parallel().mapToDouble(d -> {
+            double[] scores = buffers.get();
+            scoreInto(classifier, labelOrder, documents[d], scores);
+            int best = 0;
+            for (int l = 1; l < labelOrder.length; l++)
+                if (scores[l] > scores[best]) best = l;
+            bestLabels[d] = labelOrder[best];
+            double logLikelihood = logSumExp(scores, labelOrder.length, scores[best]);
+            for (int l = 0; l < labelOrder.length; l++)
+                posteriors[d * labelOrder.length + l] = Math.exp(scores[l] - logLikelihood);
+            return logLikelihood;
+        }).sum();
+    }
+
+    /**
+     * Fill *scores* with log(P(label)P(document|label)) for each label of *labelOrder*.
+     */
+    private static void scoreInto(AbstractNaiveBayesClassifier classifier, int[] labelOrder, int[] document, double[] scores) {
+        if (classifier instanceof NaiveBayesClassifierPreComputedDense) {
+            ((NaiveBayesClassifierPreComputedDense) classifier).logpriorPlusLoglikelihoodInto(document, scores);
+        } else {
+            Int2DoubleOpenHashMap labelScores = classifier.logpriorPlusLoglikelihood(document);
+            for (int l = 0; l < labelOrder.length; l++)
+                scores[l] = labelScores.get(labelOrder[l]);
+        }
+    }
+
+    private static double logSumExp(double[] scores, int length, double max) {
+        if (length == 0) return 0;
+        double sum = 0;
+        for (int l = 0; l < length; l++)
+            sum += Math.exp(scores[l] - max);
+        return max + Math.log(sum);
+    }
+
+    private static double fractionChanged(int[] previous, int[] current) {
+        if (current.length == 0) return 0;
+        int changed = 0;
+        for (int d = 0; d < current.length; d++)
+            if (previous[d] != current[d]) changed++;
+        return changed / (double) current.length;
+    }
+
+    /**
+     * The outcome of a single iteration of training.
+     */
+    public static class IterationStats {
+
+        public final int iteration;
+        public final double logLikelihood;  // Log likelihood of the unlabelled data under the model used for the E-step
+        public final double delta;          // Change since the previous iteration (NaN on the first iteration)
+        public final long millis;
+
+        public IterationStats(int iteration, double logLikelihood, double delta, long millis) {
+            this.iteration = iteration;
+            this.logLikelihood = logLikelihood;
+            this.delta = delta;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return "EM iteration " + iteration + ": log likelihood = " + logLikelihood + ", delta = " + delta + ", time = " + millis + "ms";
+        }
+    }
+}
@@ -31,7 +31,7 @@ public class StandardEMTrainer extends AbstractNaiveBayesTrainer {
 
         featureAlphaModel.empiricalLabelPriors(classifier.empiricalLabelPriors());
 
-        model.emTrain(unlabelledData, featureAlphaModel);
+        model.emTrainParallel(unlabelledData, featureAlphaModel);
 
         copyFeatureAlphas(classifier, model);
 
@@ -0,0 +1,158 @@
+package uk.ac.susx.tag.classificationframework;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing feature querying, with counts gathered all at once and kept up to date incrementally.
+ */
+public class QueryingTest {
+
+    @Test
+    public void queryFeatures() {
+        // Feature 1 only occurs with label 0, feature 2 only with label 1, and features 3 and 4 equally with both
+        int[][] features = {{1, 3}, {1, 3}, {1, 1}, {1, 4}, {2, 3}, {2}, {2, 3}, {2, 4}};
+        List<ProcessedInstance> documents = new ArrayList<>();
+        for (int d = 0; d < features.length; d++) {
+            ProcessedInstance document = new ProcessedInstance(-1, features[d], new Instance("", "", Integer.toString(d)));
+            document.setLabeling(d < 4 ? 0 : 1);
+            documents.add(document);
+        }
+
+        assertThat(Querying.queryFeatures(documents, null, 2, 0.75, null, null), is(perLabel(list(1), list(2))));
+        // Features of equal information gain are ordered by index
+        assertThat(Querying.queryFeatures(documents, null, 3, 0.75, null, null), is(perLabel(list(1, 3), list(2, 3))));
+        assertThat(Querying.queryFeatures(documents, null, 3, 0.75, new IntOpenHashSet(new int[]{3}), null), is(perLabel(list(1, 4), list(2, 4))));
+        assertThat(Querying.queryFeatures(documents, null, 0, 0.75, null, null), is(perLabel(list(), list())));
+
+        // Features already labelled aren't suggested again, and their labels are queried even without data
+        Int2ObjectMap<Int2DoubleOpenHashMap> labelledFeatures = new Int2ObjectOpenHashMap<>();
+        labelledFeatures.put(0, new Int2DoubleOpenHashMap(new int[]{1}, new double[]{1.0}));
+        labelledFeatures.put(2, new Int2DoubleOpenHashMap());
+        Int2ObjectMap<IntList> expected = perLabel(list(3), list(2, 3));
+        expected.put(2, list());
+        Querying.LabelledFeatureData labelledFeatureData = new Querying.LabelledFeatureData();
+        assertThat(Querying.queryFeatures(documents, labelledFeatures, 3, 0.75, null, labelledFeatureData), is(expected));
+        assertThat(labelledFeatureData.totalFeatureCount, is(15));
+        assertThat(labelledFeatureData.featureDocumentIndex.get(3).size(), is(4));
+    }
+
+    @Test
+    public void incrementalCounts() {
+        Random random = new Random(0);
+        List<ProcessedInstance> documents = new ArrayList<>();
+        for (int d = 0; d < 3000; d++) documents.add(randomDocument(d, random));
+
+        Querying.FeatureCounts counts = new Querying.FeatureCounts();
+        counts.addAll(documents.subList(0, 2000));
+        for (int round = 0; round < 3; round++) {
+            // Some documents leave the pool, others join it, and some are re-labelled
+            for (int i = 0; i < 100; i++) counts.remove(documents.remove(random.nextInt(2000 - i)));
+            for (int i = 0; i < 100; i++) counts.add(documents.get(1900 + i));
+            for (int i = 0; i < 50; i++) {
+                ProcessedInstance document = documents.get(random.nextInt(2000));
+                counts.remove(document);
+                document.setLabeling(random.nextInt(3));
+                counts.add(document);
+            }
+
+            List<ProcessedInstance> pool = documents.subList(0, 2000);
+            assertThat(counts.numDocuments(), is(pool.size()));
+            assertThat(Querying.queryFeatures(counts, null, 30, 0.75), is(Querying.queryFeatures(pool, null, 30, 0.75, null, null)));
+        }
+    }
+
+    /**
+     * Adding documents then removing them again should leave no trace in the counts, even where their
+     * label probabilities don't cancel exactly in floating point.
+     */
+    @Test
+    public void addThenRemove() {
+        Random random = new Random(1);
+        List<ProcessedInstance> pool = new ArrayList<>();
+        for (int d = 0; d < 500; d++) {
+            ProcessedInstance document = randomDocument(d, random);
+            document.setLabeling(d % 2);
+            pool.add(document);
+        }
+        List<ProcessedInstance> visiting = new ArrayList<>();
+        for (int d = 500; d < 700; d++) {
+            ProcessedInstance document = randomDocument(d, random);
+            Int2DoubleOpenHashMap labelProbabilities = new Int2DoubleOpenHashMap();
+            labelProbabilities.put(2, 0.7);
+            labelProbabilities.put(1, 0.2);
+            labelProbabilities.put(0, 0.1);
+            document.setLabeling(labelProbabilities);
+            visiting.add(document);
+        }
+
+        Querying.FeatureCounts counts = new Querying.FeatureCounts();
+        counts.addAll(pool);
+        for (ProcessedInstance document : visiting) counts.add(document);
+        for (ProcessedInstance document : visiting) counts.remove(document);
+
+        Querying.FeatureCounts fresh = new Querying.FeatureCounts();
+        fresh.addAll(pool);
+        assertThat(Querying.queryFeatures(counts, null, 30, 0.75), is(Querying.queryFeatures(fresh, null, 30, 0.75)));
+    }
+
+    /**
+     * Only removals leave rounding errors to be cleared, so even a tiny probability should be counted when a
+     * document is added.
+     */
+    @Test
+    public void tinyProbabilitiesAreCounted() {
+        Random random = new Random(2);
+        List<ProcessedInstance> documents = new ArrayList<>();
+        for (int d = 0; d < 200; d++) documents.add(randomDocument(d, random));
+        // Label 3 is barely possible for a single document, but in proportion its features occur with it most
+        ProcessedInstance document = documents.get(0);
+        Int2DoubleOpenHashMap labelProbabilities = new Int2DoubleOpenHashMap(document.getLabelProbabilities());
+        labelProbabilities.put(3, 1e-12);
+        document.setLabeling(labelProbabilities);
+
+        Querying.FeatureCounts counts = new Querying.FeatureCounts();
+        counts.addAll(documents);
+        for (IntList features : Querying.queryFeatures(counts, null, 200, 0.75).values())
+            for (int feature : document.features)
+                assertThat(features.contains(feature), is(false));
+    }
+
+    private static ProcessedInstance randomDocument(int id, Random random) {
+        int label = random.nextInt(3);
+        int[] features = new int[1 + random.nextInt(12)];
+        for (int i = 0; i < features.length; i++)
+            features[i] = random.nextInt(4) == 0 ? 100 + 10 * label + random.nextInt(10) : random.nextInt(60);
+        ProcessedInstance document = new ProcessedInstance(label, features, new Instance("", "", Integer.toString(id)));
+        Int2DoubleOpenHashMap labelProbabilities = new Int2DoubleOpenHashMap();
+        labelProbabilities.put(label, 0.75);
+        labelProbabilities.put((label + 1) % 3, 0.25);
+        document.setLabeling(labelProbabilities);
+        return document;
+    }
+
+    private static Int2ObjectMap<IntList> perLabel(IntList label0, IntList label1) {
+        Int2ObjectMap<IntList> perLabel = new Int2ObjectOpenHashMap<>();
+        perLabel.put(0, label0);
+        perLabel.put(1, label1);
+        return perLabel;
+    }
+
+    private static IntList list(int... features) {
+        return new IntArrayList(features);
+    }
+}
@@ -0,0 +1,160 @@
+package uk.ac.susx.tag.classificationframework.classifiers;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing that classifiers survive a round trip through the binary model format, both when
+ * the reading pipeline agrees with the saved indices and when features must be re-indexed.
+ */
+public class BinaryModelFormatTest {
+
+    private static final double DELTA = 1E-9;
+    private static final int NUM_FEATURES = 12;
+
+    private static final int[][] testDocuments = {
+            {1, 2}, {1, 3, 2}, {3}, {0, 4, 4}, {}, {7, 100, 2}, {9, 10, 11}
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void countsRoundTrip() throws IOException {
+        FeatureExtractionPipeline pipeline = getPipeline(0);
+        NaiveBayesClassifier nb = getExampleClassifier();
+        File file = folder.newFile("nbmodel.bin");
+        nb.writeBinary(file, pipeline);
+
+        NaiveBayesClassifier sameIndices = NaiveBayesClassifier.readBinary(file, pipeline);
+        assertThat(sameIndices.getVocab(), is(nb.getVocab()));
+        assertThat(sameIndices.getLabelMultipliers(), is(nb.getLabelMultipliers()));
+        assertThat(sameIndices.getLabelledFeatures(), is(nb.getLabelledFeatures()));
+        assertPredictionsEqual(nb, pipeline, sameIndices, pipeline);
+
+        FeatureExtractionPipeline shifted = getPipeline(5);
+        assertPredictionsEqual(nb, pipeline, NaiveBayesClassifier.readBinary(file, shifted), shifted);
+    }
+
+    @Test
+    public void precomputedRoundTrip() throws IOException {
+        FeatureExtractionPipeline pipeline = getPipeline(0);
+        NaiveBayesClassifierPreComputedDense dense = new NaiveBayesClassifierPreComputedDense(getExampleClassifier());
+        File file = folder.newFile("nbmodel-precomputed.bin");
+        dense.writeBinary(file, pipeline);
+
+        NaiveBayesClassifierPreComputedMapped sameIndices = NaiveBayesClassifierPreComputedMapped.readBinary(file, pipeline);
+        assertThat(sameIndices.getVocab(), is(dense.getVocab()));
+        assertPredictionsEqual(dense, pipeline, sameIndices, pipeline);
+
+        FeatureExtractionPipeline shifted = getPipeline(5);
+        assertPredictionsEqual(dense, pipeline, NaiveBayesClassifierPreComputedMapped.readBinary(file, shifted), shifted);
+    }
+
+    /**
+     * "Aa" and "BB" have the same hashCode(), so the saved hashes alone can't show that the indices have changed.
+     */
+    @Test
+    public void hashCollisionsAreReindexed() throws IOException {
+        FeatureExtractionPipeline pipeline = getPipeline("Aa", "BB");
+        FeatureExtractionPipeline swapped = getPipeline("BB", "Aa");
+
+        NaiveBayesClassifier nb = new NaiveBayesClassifier();
+        nb.trainOnInstance(0, new int[] {pipeline.featureIndex("Aa")}, 1, 1);
+        File file = folder.newFile("nbmodel-collision.bin");
+        nb.writeBinary(file, pipeline);
+
+        NaiveBayesClassifier read = NaiveBayesClassifier.readBinary(file, swapped);
+        assertThat(read.getVocab().size(), is(1));
+        assertThat(read.getVocab().contains(swapped.featureIndex("Aa")), is(true));
+    }
+
+    /**
+     * Saved strings are compared with the pipeline's without being decoded, so check the in-place comparison
+     * against the encoding of strings needing one to four bytes per character.
+     */
+    @Test
+    public void utf8ComparedInPlace() {
+        String[] strings = {"", "feature", "caf\u00e9", "\u65e5\u672c\u8a9e", "smile\ud83d\ude00", "\ud83d\ude00\u00e9a"};
+        for (String saved : strings) {
+            byte[] bytes = saved.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 2);
+            buffer.put((byte) 'x').put(bytes).put((byte) 'x');
+            for (String current : strings)
+                assertThat(saved + " vs " + current, BinaryModelFormat.equalsUtf8(buffer, 1, bytes.length, current), is(saved.equals(current)));
+            assertThat(BinaryModelFormat.equalsUtf8(buffer, 1, bytes.length, saved + "x"), is(false));
+            assertThat(BinaryModelFormat.equalsUtf8(buffer, 1, bytes.length + 1, saved), is(false));
+        }
+        ByteBuffer replaced = ByteBuffer.wrap("a\ud83d".getBytes(StandardCharsets.UTF_8));
+        assertThat(BinaryModelFormat.equalsUtf8(replaced, 0, replaced.limit(), "a\ud83d"), is(false));
+    }
+
+    /**
+     * Compare predictions, translating the test documents (and labels) between the indices of the two pipelines.
+     */
+    private static void assertPredictionsEqual(Classifier expected, FeatureExtractionPipeline expectedPipeline,
+                                               Classifier actual, FeatureExtractionPipeline actualPipeline) {
+        for (int[] document : testDocuments) {
+            int[] translated = new int[document.length];
+            for (int i = 0; i < document.length; i++)
+                translated[i] = actualPipeline.featureIndex(expectedPipeline.featureString(document[i], "unknown"));
+
+            Int2DoubleOpenHashMap expectedPrediction = expected.predict(document);
+            Int2DoubleOpenHashMap actualPrediction = actual.predict(translated);
+            assertThat(actualPrediction.size(), is(expectedPrediction.size()));
+            for (int label : expectedPrediction.keySet())
+                assertEquals(expectedPrediction.get(label), actualPrediction.get(actualPipeline.labelIndex(expectedPipeline.labelString(label))), DELTA);
+        }
+    }
+
+    /**
+     * A pipeline whose indexers already hold some unrelated strings, so that indices are shifted by *offset*.
+     */
+    private static FeatureExtractionPipeline getPipeline(int offset) {
+        FeatureExtractionPipeline pipeline = new FeatureExtractionPipeline() {};
+        for (int i = 0; i < offset; i++) {
+            pipeline.featureIndex("other" + i);
+            pipeline.labelIndex("other" + i);
+        }
+        for (int i = NUM_FEATURES - 1; i >= 0; i--) pipeline.featureIndex("feature" + ((i + offset) % NUM_FEATURES));
+        for (int i = 0; i < 3; i++) pipeline.labelIndex("label" + i);
+        return pipeline;
+    }
+
+    /**
+     * A pipeline indexing *features* in the order given, and a single label.
+     */
+    private static FeatureExtractionPipeline getPipeline(String... features) {
+        FeatureExtractionPipeline pipeline = new FeatureExtractionPipeline() {};
+        for (String feature : features) pipeline.featureIndex(feature);
+        pipeline.labelIndex("label0");
+        return pipeline;
+    }
+
+    private static NaiveBayesClassifier getExampleClassifier() {
+        NaiveBayesClassifier nb = new NaiveBayesClassifier();
+        nb.trainOnInstance(1, new int[] {1, 2}, 1, 1);
+        nb.trainOnInstance(1, new int[] {1, 3}, 1, 1);
+        nb.trainOnInstance(1, new int[] {1, 2, 3, 5}, 1, 1);
+        nb.trainOnInstance(0, new int[] {1, 6}, 1, 1);
+        nb.trainOnInstance(0, new int[] {2, 4, 7}, 1, 0.5);
+        nb.trainOnInstance(2, new int[] {3, 4, 8, 9}, 1, 1);
+        nb.setFeatureAlpha(4, 2, 5);
+        nb.setFeatureAlpha(10, 0, 2);
+        nb.setLabelAlpha(2, 3);
+        nb.setLabelMultiplier(1, 2);
+        return nb;
+    }
+}
@@ -0,0 +1,81 @@
+package uk.ac.susx.tag.classificationframework.classifiers;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing that the dense precomputed classifier agrees with the hash map based one.
+ */
+public class NaiveBayesClassifierPreComputedDenseTest {
+
+    private static final double DELTA = 1E-9;
+
+    private static final int[][] testDocuments = {
+            {1, 2}, {1, 3, 2}, {3}, {0, 4, 4}, {}, {7, 100, 2}
+    };
+
+    /**
+     * Check that predictions and best labels match those of NaiveBayesClassifierPreComputed,
+     * including for documents containing features outside of the vocabulary.
+     */
+    @Test
+    public void matchesPreComputed() {
+        NaiveBayesClassifier nb = getExampleClassifier();
+
+        NaiveBayesClassifierPreComputed precomputed = new NaiveBayesClassifierPreComputed(nb);
+        NaiveBayesClassifierPreComputedDense dense = new NaiveBayesClassifierPreComputedDense(nb);
+        NaiveBayesClassifierPreComputedDense converted = new NaiveBayesClassifierPreComputedDense(precomputed);
+
+        double[] buffer = new double[dense.numLabels()];
+
+        for (int[] document : testDocuments) {
+            Int2DoubleOpenHashMap expected = precomputed.predict(document);
+
+            assertPredictionsEqual(expected, dense.predict(document));
+            assertPredictionsEqual(expected, converted.predict(document));
+
+            dense.predictInto(document, buffer);
+            for (int l = 0; l < dense.numLabels(); l++)
+                assertEquals(expected.get(dense.labelAt(l)), buffer[l], DELTA);
+
+            assertThat(dense.bestLabel(document), is(precomputed.bestLabel(document)));
+        }
+    }
+
+    /**
+     * Check that the label priors are ignored when the classifier is told not to use empirical label priors.
+     */
+    @Test
+    public void nonEmpiricalLabelPriors() {
+        NaiveBayesClassifier nb = getExampleClassifier();
+        NaiveBayesClassifierPreComputed precomputed = new NaiveBayesClassifierPreComputed(nb);
+        precomputed.empiricalLabelPriors(false);
+        NaiveBayesClassifierPreComputedDense dense = new NaiveBayesClassifierPreComputedDense(nb);
+        dense.empiricalLabelPriors(false);
+
+        for (int[] document : testDocuments)
+            assertPredictionsEqual(precomputed.predict(document), dense.predict(document));
+    }
+
+    private static void assertPredictionsEqual(Int2DoubleOpenHashMap expected, Int2DoubleOpenHashMap actual) {
+        assertThat(actual.keySet(), is(expected.keySet()));
+        for (int label : expected.keySet())
+            assertEquals(expected.get(label), actual.get(label), DELTA);
+    }
+
+    private static NaiveBayesClassifier getExampleClassifier() {
+        NaiveBayesClassifier nb = new NaiveBayesClassifier();
+        nb.trainOnInstance(1, new int[] {1, 2}, 1, 1);
+        nb.trainOnInstance(1, new int[] {1, 3}, 1, 1);
+        nb.trainOnInstance(1, new int[] {1, 2, 3}, 1, 1);
+        nb.trainOnInstance(0, new int[] {1}, 1, 1);
+        nb.trainOnInstance(0, new int[] {2, 4}, 1, 1);
+        nb.trainOnInstance(2, new int[] {3, 4}, 1, 1);
+        nb.setFeatureAlpha(4, 2, 5);
+        return nb;
+    }
+}
@@ -0,0 +1,198 @@
+package uk.ac.susx.tag.classificationframework.classifiers;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing the NaiveBayesClassifier
+ */
+public class NaiveBayesClassifierTest {
+
+    private static final double DELTA = 1E-9;
+
+    /**
+     * Check that batch prediction agrees with predicting one document at a time, for the
+     * classifier itself, its precomputed variants, and a classifier using the default block scoring. Use
+     * enough documents to span several blocks.
+     */
+    @Test
+    public void batchPrediction() {
+        NaiveBayesClassifier nb = getExampleClassifier();
+        int[][] documents = getRandomDocuments(1000, 12, new Random(0));
+
+        for (AbstractNaiveBayesClassifier classifier : new AbstractNaiveBayesClassifier[] {
+                nb, new NaiveBayesClassifierPreComputed(nb), new NaiveBayesClassifierPreComputedDense(nb),
+                new DefaultBlockScoring(nb)}) {
+
+            Int2DoubleOpenHashMap[] predictions = classifier.predictBatch(documents);
+            int[] bestLabels = classifier.bestLabelBatch(documents);
+
+            for (int i = 0; i < documents.length; i++) {
+                Int2DoubleOpenHashMap expected = classifier.predict(documents[i]);
+                assertThat(predictions[i].keySet(), is(expected.keySet()));
+                for (int label : expected.keySet())
+                    assertEquals(expected.get(label), predictions[i].get(label), DELTA);
+                assertThat(bestLabels[i], is(classifier.bestLabel(documents[i])));
+            }
+        }
+    }
+
+    /**
+     * Check that the cached per-label values are kept up to date as the classifier is modified, by comparing
+     * against a classifier trained from scratch with the same modifications (whose cache is only ever built once).
+     */
+    @Test
+    public void cacheInvalidation() {
+        NaiveBayesClassifier nb = getExampleClassifier();
+        int[][] documents = getRandomDocuments(50, 14, new Random(1));
+        nb.predict(documents[0]); // Populate the cache
+
+        nb.trainOnInstance(2, new int[] {11, 12, 13}, 1, 1);
+        assertPredictionsMatchFreshClassifier(nb, documents);
+        nb.setFeatureAlpha(12, 1, 3);
+        assertPredictionsMatchFreshClassifier(nb, documents);
+        nb.setLabelAlpha(0, 4);
+        assertPredictionsMatchFreshClassifier(nb, documents);
+        nb.deleteFeature(1);
+        assertPredictionsMatchFreshClassifier(nb, documents);
+        nb.setFeatureSmoothing(0.5);
+        assertPredictionsMatchFreshClassifier(nb, documents);
+        nb.empiricalLabelPriors(false);
+        assertPredictionsMatchFreshClassifier(nb, documents);
+    }
+
+    /**
+     * Check that the parallel E-step produces the same counts as the serial one. Use enough documents
+     * to span several chunks, including a partial one.
+     */
+    @Test
+    public void parallelEM() {
+        List<ProcessedInstance> unlabelled = new ArrayList<>();
+        for (int[] document : getRandomDocuments(NaiveBayesClassifier.EM_CHUNK_SIZE * 5 + 17, 12, new Random(2)))
+            unlabelled.add(new ProcessedInstance(-1, document, null));
+
+        NaiveBayesClassifier serial = getExampleClassifier();
+        serial.emTrain(unlabelled, serial);
+        NaiveBayesClassifier parallel = getExampleClassifier();
+        parallel.emTrainParallel(unlabelled, parallel);
+
+        assertThat(parallel.getLabels(), is(serial.getLabels()));
+        assertThat(parallel.getVocab(), is(serial.getVocab()));
+        for (int label : serial.getLabels()) {
+            assertEquals(serial.docCounts.get(label), parallel.docCounts.get(label), DELTA);
+            assertEquals(serial.labelCounts.get(label), parallel.labelCounts.get(label), DELTA);
+            for (int feature : serial.getVocab())
+                assertEquals(serial.getFromMap(label, serial.jointCounts).get(feature),
+                             parallel.getFromMap(label, parallel.jointCounts).get(feature), DELTA);
+        }
+    }
+
+    /**
+     * Check that the parallel E-step gives exactly the same counts however many threads it runs on.
+     */
+    @Test
+    public void parallelEMIsRepeatable() throws Exception {
+        List<ProcessedInstance> unlabelled = new ArrayList<>();
+        for (int[] document : getRandomDocuments(NaiveBayesClassifier.EM_CHUNK_SIZE * 7 + 17, 12, new Random(3)))
+            unlabelled.add(new ProcessedInstance(-1, document, null));
+
+        NaiveBayesClassifier expected = null;
+        for (int threads : new int[] {1, 2, 5}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                NaiveBayesClassifier nb = getExampleClassifier();
+                pool.submit(() -> nb.emTrainParallel(unlabelled, nb)).get();
+                if (expected == null) {
+                    expected = nb;
+                    continue;
+                }
+                for (int label : expected.getLabels()) {
+                    assertThat(nb.docCounts.get(label), is(expected.docCounts.get(label)));
+                    assertThat(nb.labelCounts.get(label), is(expected.labelCounts.get(label)));
+                    assertThat(nb.getFromMap(label, nb.jointCounts), is(expected.getFromMap(label, expected.jointCounts)));
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static void assertPredictionsMatchFreshClassifier(NaiveBayesClassifier nb, int[][] documents) {
+        NaiveBayesClassifier fresh = new NaiveBayesClassifier(nb.getLabels());
+        fresh.empiricalLabelPriors(nb.empiricalLabelPriors());
+        fresh.setFeatureSmoothing(nb.getFeatureSmoothing());
+        fresh.setLabelSmoothing(nb.getLabelSmoothing());
+        fresh.vocab.addAll(nb.vocab);
+        fresh.docCounts.putAll(nb.docCounts);
+        fresh.labelCounts.putAll(nb.labelCounts);
+        fresh.featureAlphaTotals.putAll(nb.featureAlphaTotals);
+        fresh.labelAlphas.putAll(nb.labelAlphas);
+        for (int label : nb.getLabels()) {
+            fresh.getFromMap(label, fresh.jointCounts).putAll(nb.getFromMap(label, nb.jointCounts));
+            fresh.getFromMap(label, fresh.labelFeatureAlphas).putAll(nb.getFromMap(label, nb.labelFeatureAlphas));
+        }
+        for (int[] document : documents) {
+            Int2DoubleOpenHashMap expected = fresh.predict(document);
+            Int2DoubleOpenHashMap actual = nb.predict(document);
+            for (int label : expected.keySet())
+                assertEquals(expected.get(label), actual.get(label), DELTA);
+        }
+    }
+
+    private static int[][] getRandomDocuments(int numDocuments, int numFeatures, Random random) {
+        int[][] documents = new int[numDocuments][];
+        for (int i = 0; i < numDocuments; i++) {
+            documents[i] = new int[random.nextInt(6)];
+            for (int j = 0; j < documents[i].length; j++)
+                documents[i][j] = random.nextInt(numFeatures);
+        }
+        return documents;
+    }
+
+    private static NaiveBayesClassifier getExampleClassifier() {
+        NaiveBayesClassifier nb = new NaiveBayesClassifier();
+        nb.trainOnInstance(1, new int[] {1, 2}, 1, 1);
+        nb.trainOnInstance(1, new int[] {1, 3}, 1, 1);
+        nb.trainOnInstance(1, new int[] {1, 2, 3, 5}, 1, 1);
+        nb.trainOnInstance(0, new int[] {1, 6}, 1, 1);
+        nb.trainOnInstance(0, new int[] {2, 4, 7}, 1, 1);
+        nb.trainOnInstance(2, new int[] {3, 4, 8, 9}, 1, 1);
+        nb.setFeatureAlpha(4, 2, 5);
+        nb.setFeatureAlpha(10, 0, 2);
+        return nb;
+    }
+
+    /**
+     * Supports block scoring without overriding logpriorPlusLoglikelihoodBlock(), so that the default is used.
+     */
+    private static class DefaultBlockScoring extends AbstractNaiveBayesClassifier {
+
+        private final AbstractNaiveBayesClassifier classifier;
+
+        DefaultBlockScoring(AbstractNaiveBayesClassifier classifier) {
+            this.classifier = classifier;
+            labels.addAll(classifier.getLabels());
+            vocab.addAll(classifier.getVocab());
+        }
+
+        @Override
+        public Int2DoubleOpenHashMap logpriorPlusLoglikelihood(int[] features) {
+            return classifier.logpriorPlusLoglikelihood(features);
+        }
+
+        @Override
+        protected boolean supportsBlockScoring() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing concurrent indexing of strings.
+ */
+public class ConcurrentStringIndexerTest {
+
+    /**
+     * Threads adding overlapping strings should agree on their indices, which must be dense.
+     */
+    @Test
+    public void concurrentIndicesAreDenseAndConsistent() {
+        int numStrings = 20000;
+        ConcurrentStringIndexer indexer = new ConcurrentStringIndexer();
+        int[][] indices = new int[8][numStrings];
+        IntStream.range(0, 8 * numStrings).parallel().forEach(i -> {
+            int thread = i / numStrings;
+            int string = (i * 7919 + thread) % numStrings; // Each "thread" visits the strings in a different order
+            indices[thread][string] = indexer.getIndex("feature" + string);
+        });
+
+        assertThat(indexer.size(), is(numStrings));
+        assertThat(new HashSet<>(indexer.getStrings()).size(), is(numStrings));
+        for (int string = 0; string < numStrings; string++) {
+            for (int[] threadIndices : indices)
+                assertThat(threadIndices[string], is(indices[0][string]));
+            assertThat(indexer.getValue(indices[0][string]), is("feature" + string));
+            assertThat(indexer.getIndex("feature" + string, false), is(indices[0][string]));
+        }
+        assertThat(indexer.getValue(numStrings), is(nullValue()));
+        assertThat(indexer.getIndex("absent", false), is(-1));
+        assertThat(indexer.contains("absent"), is(false));
+    }
+
+    @Test
+    public void copiesAndSerialises() throws Exception {
+        StringIndexer indexer = new StringIndexer();
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            strings.add("s" + i);
+            indexer.getIndex("s" + i);
+        }
+        ConcurrentStringIndexer copy = new ConcurrentStringIndexer(indexer);
+        assertThat(copy.getStrings(), is(strings));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(copy);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            StringIndexer read = (StringIndexer) in.readObject();
+            assertThat(read.isThreadSafe(), is(true));
+            assertThat(read.getStrings(), is(strings));
+            assertThat(read.getIndex("s4321"), is(4321));
+            assertThat(read.getIndex("new"), is(5000));
+        }
+    }
+}
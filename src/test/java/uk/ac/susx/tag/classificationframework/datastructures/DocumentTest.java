@@ -0,0 +1,105 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing tokens stored in the columns of their document, and their compatibility with standalone tokens.
+ */
+public class DocumentTest {
+
+    @Test
+    public void columnarTokensBehaveAsStandaloneTokens() {
+        Document document = new Document(new Instance("label", "some text", "1"));
+        for (int i = 0; i < 50; i++) { // Enough to grow the columns several times
+            AnnotatedToken columnar = document.newToken("token" + i, i * 2, i * 2 + 1);
+            AnnotatedToken standalone = new AnnotatedToken("token" + i);
+            standalone.start(i * 2);
+            standalone.end(i * 2 + 1);
+            for (AnnotatedToken token : new AnnotatedToken[]{columnar, standalone}) {
+                token.put("pos", "N");
+                token.put("custom" + (i % 3), "value");
+                if (i % 2 == 0) token.setFiltered(true);
+            }
+            assertThat(columnar.getAttributes(), is(standalone.getAttributes()));
+        }
+        for (int i = 0; i < 50; i++) {
+            AnnotatedToken token = document.get(i);
+            assertThat(token.get("form"), is("token" + i));
+            assertThat(token.getOrNull(AnnotatedToken.FORM), is("token" + i));
+            assertThat(token.getOrNull(AnnotatedToken.POS), is("N"));
+            assertThat(token.get("custom" + (i % 3)), is("value"));
+            assertThat(token.has("custom" + ((i + 1) % 3)), is(false));
+            assertThat(token.isFiltered(), is(i % 2 == 0));
+            assertThat(token.start(), is(i * 2));
+            assertThat(token.end(), is(i * 2 + 1));
+        }
+    }
+
+    @Test
+    public void attributesAreALiveView() {
+        AnnotatedToken token = new Document().newToken("form", 0, 4);
+        Map<String, String> attributes = token.getAttributes();
+        attributes.put("lemma", "lemma");
+        attributes.put("other", "x");
+        attributes.put("nullValued", null);
+        assertThat(token.get("lemma"), is("lemma"));
+        assertThat(token.has("nullValued"), is(true));
+        assertThat(token.getOrNull("nullValued"), is(nullValue()));
+        assertThat(attributes.size(), is(4));
+
+        attributes.remove("form");
+        assertThat(token.has("form"), is(false));
+        for (Iterator<Map.Entry<String, String>> entries = attributes.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<String, String> entry = entries.next();
+            if (entry.getKey().equals("lemma")) entry.setValue("changed");
+            if (entry.getKey().equals("other")) entries.remove();
+        }
+        Map<String, String> expected = new HashMap<>();
+        expected.put("lemma", "changed");
+        expected.put("nullValued", null);
+        assertThat(attributes, is(expected));
+        assertThat(token.getWithNullFeature("other"), is(AnnotatedToken.nullFeature));
+    }
+
+    @Test
+    public void serialisation() throws Exception {
+        Document document = new Document(new Instance("label", "Hello world", "1"));
+        document.newToken("Hello", 0, 5).put("pos", "!");
+        document.newToken("world", 6, 11).setFiltered(true);
+        document.add(new AnnotatedToken("standalone"));
+        document.putAttribute("attribute", "value");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(document);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEqual((Document) in.readObject(), document);
+        }
+        assertEqual(Document.fromJson(document.toJson()), document);
+    }
+
+    private static void assertEqual(Document actual, Document expected) {
+        assertThat(actual.size(), is(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i).getAttributes(), is(expected.get(i).getAttributes()));
+            assertThat(actual.get(i).isFiltered(), is(expected.get(i).isFiltered()));
+            assertThat(actual.get(i).start(), is(expected.get(i).start()));
+            assertThat(actual.get(i).end(), is(expected.get(i).end()));
+        }
+        assertThat(actual.getAttributes(), is(expected.getAttributes()));
+        assertThat(actual.source, is(expected.source));
+    }
+}
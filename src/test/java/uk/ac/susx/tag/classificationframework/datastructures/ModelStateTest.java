@@ -0,0 +1,86 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing saving and loading of ModelState
+ */
+public class ModelStateTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Training documents should be streamed back lazily, and can still be materialised.
+     */
+    @Test
+    public void trainingDocumentsRoundTrip() throws Exception {
+        List<Instance> documents = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            documents.add(new Instance(i % 3 == 0 ? null : "label" + (i % 2), "text \"" + i + "\"", Integer.toString(i)));
+
+        File directory = folder.newFolder("model");
+        ModelState modelState = new ModelState(new NaiveBayesClassifier(), documents, newPipeline());
+        modelState.save(directory);
+
+        ModelState loaded = ModelState.load(directory);
+        assertThat(loaded.trainingDocuments, is(nullValue()));
+        assertThat(Lists.newArrayList(loaded.getTrainingDocuments()), is(documents));
+        assertThat(Lists.newArrayList(loaded.getTrainingDocuments()), is(documents)); // Can be iterated again
+
+        // Re-saving a lazily loaded ModelState must keep its training documents
+        loaded.save(directory);
+        ModelState reloaded = ModelState.load(directory);
+        assertThat(reloaded.materialiseTrainingDocuments(), is(documents));
+        assertThat(reloaded.trainingDocuments, is(documents));
+    }
+
+    /**
+     * The binary model format should be loaded in preference to JSON, and support memory-mapped loading.
+     */
+    @Test
+    public void binaryModelFormat() throws Exception {
+        FeatureExtractionPipeline pipeline = newPipeline();
+        pipeline.setFixedVocabulary(true); // So that the feature indexer is saved with the pipeline
+        int positive = pipeline.labelIndex("positive");
+        int negative = pipeline.labelIndex("negative");
+        NaiveBayesClassifier nb = new NaiveBayesClassifier();
+        nb.trainOnInstance(positive, new int[]{pipeline.featureIndex("good"), pipeline.featureIndex("great")}, 1, 1);
+        nb.trainOnInstance(negative, new int[]{pipeline.featureIndex("bad")}, 1, 1);
+
+        File directory = folder.newFolder("model");
+        ModelState modelState = new ModelState(nb, new ArrayList<>(), pipeline);
+        modelState.save(directory);
+        modelState.modelFormat = ModelState.ModelFormat.BINARY;
+        modelState.save(directory);
+        assertThat(new File(directory, "nbmodel.json").exists(), is(false));
+        assertThat(ModelState.isValidModelPath(directory), is(true));
+
+        ModelState loaded = ModelState.load(directory);
+        assertThat(loaded.modelFormat, is(ModelState.ModelFormat.BINARY));
+        int[] document = {loaded.pipeline.featureIndex("great"), loaded.pipeline.featureIndex("bad"), loaded.pipeline.featureIndex("bad")};
+        int expected = loaded.pipeline.labelIndex("negative");
+        assertThat(loaded.classifier.bestLabel(document), is(expected));
+        assertThat(ModelState.loadMappedClassifier(directory, loaded.pipeline).bestLabel(document), is(expected));
+    }
+
+    /**
+     * Created in a static context so that the pipeline can be serialised without the test instance.
+     */
+    private static FeatureExtractionPipeline newPipeline() {
+        return new FeatureExtractionPipeline() {};
+    }
+}
@@ -0,0 +1,119 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.caching;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing the binary encoding of Documents, with and without compression.
+ */
+public class DocumentCodecTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        Document document = getExampleDocument(20);
+        assertDocumentsEqual(DocumentCodec.decode(DocumentCodec.encode(document)), document);
+        assertDocumentsEqual(DocumentCodec.decode(DocumentCodec.encode(document, true)), document);
+
+        Document empty = new Document(new Instance(null, "", null));
+        Document decoded = DocumentCodec.decode(DocumentCodec.encode(empty, true));
+        assertThat(decoded.size(), is(0));
+        assertThat(decoded.source.label, is(nullValue()));
+        assertThat(decoded.source.id, is(nullValue()));
+
+        assertThat(DocumentCodec.decode(DocumentCodec.encode(new Document())).source, is(nullValue()));
+    }
+
+    /**
+     * Documents cached by older versions with Java serialisation should still be readable.
+     */
+    @Test
+    public void javaSerialised() throws IOException {
+        Document document = getExampleDocument(5);
+        assertDocumentsEqual(DocumentCodec.decode(javaSerialise(document)), document);
+    }
+
+    @Test
+    public void smallerThanJavaSerialisation() throws IOException {
+        Document document = getExampleDocument(50);
+        byte[] encoded = DocumentCodec.encode(document);
+        byte[] compressed = DocumentCodec.encode(document, true);
+        assertTrue(encoded.length * 3 < javaSerialise(document).length);
+        assertTrue(compressed.length < encoded.length);
+    }
+
+    @Test
+    public void blockCompression() throws IOException {
+        Random random = new Random(0);
+        for (int length : new int[]{0, 1, 4, 15, 16, 300, 70000}) {
+            byte[] randomBytes = new byte[length];
+            random.nextBytes(randomBytes);
+            byte[] repetitive = new byte[length];
+            for (int i = 0; i < length; i++) repetitive[i] = (byte) (i % 7 == 0 ? random.nextInt(3) : i % 5);
+
+            for (byte[] bytes : Arrays.asList(randomBytes, repetitive)) {
+                byte[] compressed = BlockCompression.compress(bytes);
+                assertThat(BlockCompression.decompress(compressed, 0, compressed.length, length), is(bytes));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corrupt() throws IOException {
+        byte[] encoded = DocumentCodec.encode(getExampleDocument(3));
+        DocumentCodec.decode(Arrays.copyOf(encoded, encoded.length - 4));
+    }
+
+    private static Document getExampleDocument(int numTokens) {
+        Document document = new Document(new Instance("positive", "some text", "42"));
+        int offset = 0;
+        for (int t = 0; t < numTokens; t++) {
+            AnnotatedToken token = new AnnotatedToken("token" + (t % 4));
+            token.put("pos", t % 2 == 0 ? "N" : "V");
+            if (t % 3 == 0) token.put("custom", "valueé" + t);
+            if (t % 5 == 0) token.put("empty", null);
+            token.setFiltered(t % 4 == 1);
+            token.start(offset);
+            token.end(offset + 6);
+            offset += 7;
+            document.add(token);
+        }
+        document.putAttribute("tokens", new ArrayList<>(Arrays.asList("a", "b")));
+        return document;
+    }
+
+    private static void assertDocumentsEqual(Document actual, Document expected) {
+        assertThat(actual.size(), is(expected.size()));
+        for (int t = 0; t < expected.size(); t++) {
+            assertThat(actual.get(t).getAttributes(), is(expected.get(t).getAttributes()));
+            assertThat(actual.get(t).isFiltered(), is(expected.get(t).isFiltered()));
+            assertThat(actual.get(t).start(), is(expected.get(t).start()));
+            assertThat(actual.get(t).end(), is(expected.get(t).end()));
+        }
+        assertThat(actual.getAttributes(), is(expected.getAttributes()));
+        assertThat(actual.source, is(expected.source));
+        assertThat(actual.source.text, is(expected.source.text));
+    }
+
+    private static byte[] javaSerialise(Document document) throws IOException {
+        try (ByteArrayOutputStream b = new ByteArrayOutputStream();
+             ObjectOutputStream o = new ObjectOutputStream(b)) {
+            o.writeObject(document);
+            o.flush();
+            return b.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.caching;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing the on-disk document cache, and the LRU tier in front of it.
+ */
+public class LogDocumentCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void putAndGet() throws Exception {
+        File file = folder.newFile("cache.log");
+        try (LogDocumentCache cache = new LogDocumentCache(file)) {
+            cache.put(1, "a", document("a", "b"));
+            cache.put(2, "a", document("c"));
+            cache.put(1, "b", document());
+
+            assertThat(forms(cache.get(1, "a")), is(forms(document("a", "b"))));
+            assertThat(forms(cache.get(2, "a")), is(forms(document("c"))));
+            assertThat(cache.get(1, "b").size(), is(0));
+            assertThat(cache.get(3, "a"), is(nullValue()));
+            assertThat(cache.contains(1, "b"), is(true));
+            assertThat(cache.contains(2, "b"), is(false));
+        }
+    }
+
+    /**
+     * Reopening the file should rebuild the index, with later records superseding earlier ones.
+     */
+    @Test
+    public void reopen() throws Exception {
+        File file = folder.newFile("cache.log");
+        try (LogDocumentCache cache = new LogDocumentCache(file)) {
+            cache.put(1, "a", document("old"));
+            cache.put(1, "b", document("b"));
+            cache.put(1, "a", document("new"));
+        }
+        try (LogDocumentCache cache = new LogDocumentCache(file)) {
+            assertThat(cache.size(), is(2));
+            assertThat(forms(cache.get(1, "a")), is(forms(document("new"))));
+            assertThat(forms(cache.get(1, "b")), is(forms(document("b"))));
+        }
+    }
+
+    /**
+     * An incomplete final record should be discarded, and new records appended in its place.
+     */
+    @Test
+    public void truncatedRecord() throws Exception {
+        File file = folder.newFile("cache.log");
+        try (LogDocumentCache cache = new LogDocumentCache(file)) {
+            cache.put(1, "a", document("a"));
+            cache.put(1, "b", document("b"));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+        try (LogDocumentCache cache = new LogDocumentCache(file)) {
+            assertThat(cache.contains(1, "a"), is(true));
+            assertThat(cache.contains(1, "b"), is(false));
+            cache.put(1, "c", document("c"));
+        }
+        try (LogDocumentCache cache = new LogDocumentCache(file)) {
+            assertThat(cache.size(), is(2));
+            assertThat(forms(cache.get(1, "c")), is(forms(document("c"))));
+        }
+    }
+
+    /**
+     * The LRU tier should stay within its size limit, and still find evicted documents in the backing cache.
+     */
+    @Test
+    public void lruEviction() throws Exception {
+        File file = folder.newFile("cache.log");
+        LogDocumentCache log = new LogDocumentCache(file);
+        int documentBytes = FeatureExtractionPipeline.document2ByteArray(document("x")).length;
+        try (LRUDocumentCache cache = new LRUDocumentCache(log, documentBytes * 2)) {
+            cache.put(1, "a", document("a"));
+            cache.put(1, "b", document("b"));
+            cache.get(1, "a"); // "b" is now the least recently used
+            cache.put(1, "c", document("c"));
+            assertThat(cache.getBytes() <= documentBytes * 2, is(true));
+            for (String id : new String[]{"a", "b", "c"})
+                assertThat(forms(cache.get(1, id)), is(forms(document(id))));
+        }
+    }
+
+    /**
+     * A document too large for the LRU tier should replace any older version held there, rather than leaving it.
+     */
+    @Test
+    public void lruOversizedReplacement() throws Exception {
+        File file = folder.newFile("cache.log");
+        int documentBytes = FeatureExtractionPipeline.document2ByteArray(document("x")).length;
+        try (LRUDocumentCache cache = new LRUDocumentCache(new LogDocumentCache(file), documentBytes)) {
+            cache.put(1, "a", document("a"));
+            cache.put(1, "a", document("a", "much", "longer", "document"));
+            assertThat(cache.getBytes(), is(0L));
+            assertThat(forms(cache.get(1, "a")), is(forms(document("a", "much", "longer", "document"))));
+        }
+    }
+
+    /**
+     * Batches should be written and read in one go, through the LRU tier as well as directly.
+     */
+    @Test
+    public void batches() throws Exception {
+        File file = folder.newFile("cache.log");
+        try (LRUDocumentCache cache = new LRUDocumentCache(new LogDocumentCache(file), 1 << 20)) {
+            cache.put(1, "a", document("a"));
+            Map<String, Document> batch = new HashMap<>();
+            batch.put("b", document("b", "b"));
+            batch.put("c", document("c"));
+            cache.putAll(1, batch);
+
+            Map<String, Document> found = cache.getAll(1, Arrays.asList("a", "b", "c", "d"));
+            assertThat(found.keySet(), is((Set<String>) new HashSet<>(Arrays.asList("a", "b", "c"))));
+            assertThat(forms(found.get("b")), is(forms(document("b", "b"))));
+        }
+        try (LogDocumentCache cache = new LogDocumentCache(file)) {
+            Map<String, Document> found = cache.getAll(1, Arrays.asList("c", "b", "d"));
+            assertThat(found.size(), is(2));
+            assertThat(forms(found.get("c")), is(forms(document("c"))));
+        }
+    }
+
+    /**
+     * A batch larger than a single write buffer should be split between buffers, without splitting any record.
+     */
+    @Test
+    public void largeBatch() throws Exception {
+        File file = folder.newFile("cache.log");
+        Map<String, byte[]> batch = new HashMap<>();
+        int documentLength = LogDocumentCache.WRITE_BUFFER_LENGTH / 3;
+        for (int d = 0; d < 7; d++) {
+            byte[] document = new byte[documentLength];
+            Arrays.fill(document, (byte) d);
+            batch.put(Integer.toString(d), document);
+        }
+        try (LogDocumentCache cache = new LogDocumentCache(file)) {
+            cache.putAllSerialised(1, batch);
+            cache.putSerialised(1, "after", new byte[]{42});
+        }
+        try (LogDocumentCache cache = new LogDocumentCache(file)) {
+            assertThat(cache.size(), is(8));
+            for (Map.Entry<String, byte[]> entry : batch.entrySet())
+                assertThat(Arrays.equals(cache.getSerialised(1, entry.getKey()), entry.getValue()), is(true));
+            assertThat(cache.getSerialised(1, "after")[0], is((byte) 42));
+        }
+    }
+
+    /**
+     * The pipeline should process each document only once, and return cached copies thereafter.
+     */
+    @Test
+    public void pipelineCaching() throws Exception {
+        File file = folder.newFile("cache.log");
+        FeatureExtractionPipeline pipeline = newPipeline();
+        try (DocumentCache cache = new LRUDocumentCache(new LogDocumentCache(file), 1 << 20)) {
+            pipeline.setCache(cache);
+            Document processed = pipeline.processDocument(new Instance("", "some text to cache", "1"));
+            assertThat(cache.contains(pipeline.getCacheConfiguration(), "1"), is(true));
+
+            Document cached = pipeline.processDocument(new Instance("", "different text", "1"));
+            assertThat(forms(cached), is(forms(processed)));
+            assertThat(forms(pipeline.processDocumentCachedOnly(new Instance("", "", "1"))), is(forms(processed)));
+        }
+    }
+
+    private static FeatureExtractionPipeline newPipeline() {
+        return new FeatureExtractionPipeline() {}.setTokeniser(new TokeniserTwitterBasic());
+    }
+
+    private static Document document(String... forms) {
+        Document document = new Document(new Instance("", String.join(" ", forms), ""));
+        for (String form : forms) document.add(new AnnotatedToken(form));
+        return document;
+    }
+
+    private static List<String> forms(Document document) {
+        List<String> forms = new ArrayList<>();
+        for (AnnotatedToken token : document) forms.add(token.get("form"));
+        return forms;
+    }
+}
@@ -0,0 +1,73 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.filtering;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing modification of keywords while filtering, and that the regex filter survives serialisation.
+ */
+public class TokenFilterKeywordsTest {
+
+    @Test
+    public void modifyWhileFiltering() throws Exception {
+        TokenFilterKeywords filter = new TokenFilterKeywords(Sets.newHashSet("a", "b"));
+        Document document = new Document();
+        document.newToken("A", 0, 1);
+        document.newToken("c", 2, 3);
+
+        AtomicBoolean stop = new AtomicBoolean(false);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; !stop.get(); i++) {
+                filter.addKeyword("x" + (i % 100));
+                filter.removeKeyword("x" + ((i + 50) % 100));
+            }
+        });
+        writer.start();
+        try {
+            IntStream.range(0, 100000).parallel().forEach(i -> {
+                assertThat(filter.filter(0, document), is(true));
+                assertThat(filter.filter(1, document), is(false));
+            });
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+
+        filter.addKeyword("c");
+        assertThat(filter.filter(1, document), is(true));
+        assertThat(filter.removeKeyword("c"), is(true));
+        assertThat(filter.removeKeyword("c"), is(false));
+        filter.setKeywords(Arrays.asList("c"));
+        assertThat(filter.filter(0, document), is(false));
+        assertThat(filter.filter(1, document), is(true));
+    }
+
+    @Test
+    public void regexFilterSerialises() throws Exception {
+        Document document = new Document();
+        document.newToken("http://t.co/x", 0, 13);
+        document.newToken("word", 14, 18);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new TokenFilterByRegex("https?://.*"));
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            TokenFilter filter = (TokenFilter) in.readObject();
+            assertThat(filter.filter(0, document), is(true));
+            assertThat(filter.filter(1, document), is(false));
+        }
+    }
+}
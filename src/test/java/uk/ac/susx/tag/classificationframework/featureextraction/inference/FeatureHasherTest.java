@@ -0,0 +1,111 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.inference;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionException;
+import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilterPunctuation;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Testing that hashed features agree with the values of the features that would otherwise be indexed.
+ */
+public class FeatureHasherTest {
+
+    private static final String TEXT = "The quick brown fox, jumps over the lazy dog :) #hashtag @user http://t.co/x";
+
+    @Test
+    public void piecesHashAsWhole() {
+        FeatureHasher hasher = new FeatureHasher(1 << 20);
+        IntArrayList buckets = new IntArrayList();
+        HashedFeatureSink sink = hasher.newSink(buckets);
+        sink.begin().append("quick").append('_').append("brown").end();
+        sink.add("quick_brown");
+        assertThat(buckets.getInt(0), is(hasher.bucket("quick_brown")));
+        assertThat(buckets.getInt(1), is(hasher.bucket("quick_brown")));
+        assertThat(FeatureHasher.hash("quick_brown"), is(345187312)); // Must never change, or hashed models would be misread
+    }
+
+    @Test
+    public void inferrersEmitBucketsOfTheirFeatureValues() {
+        FeatureHasher hasher = new FeatureHasher(1000);
+        for (FeatureInferrer inferrer : new FeatureInferrer[]{new FeatureInferrerUnigrams(), new FeatureInferrerBigrams(), new FeatureInferrerTrigrams()}) {
+            Document document = new TokeniserTwitterBasic().tokenise(new Instance("", TEXT, "1"));
+            TokenFilterPunctuation filter = new TokenFilterPunctuation();
+            for (int t = 0; t < document.size(); t++)
+                if (filter.filter(t, document)) document.get(t).setFiltered(true);
+            IntArrayList expected = new IntArrayList();
+            for (FeatureInferrer.Feature feature : inferrer.addInferredFeatures(document, new ArrayList<>()))
+                expected.add(hasher.bucket(feature.value()));
+
+            IntArrayList buckets = new IntArrayList();
+            inferrer.addHashedFeatures(document, hasher.newSink(buckets));
+            assertThat(buckets, is(expected));
+        }
+    }
+
+    /**
+     * A token without a form should fail the same way whether its features are hashed or indexed.
+     */
+    @Test
+    public void missingFormFailsAsWhenIndexing() {
+        Document document = new Document(new Instance("", "", "1"));
+        document.add(new AnnotatedToken());
+        FeatureInferrerUnigrams unigrams = new FeatureInferrerUnigrams();
+        try {
+            unigrams.addInferredFeatures(document, new ArrayList<>());
+            fail();
+        } catch (FeatureExtractionException e) { /* Expected */ }
+        try {
+            unigrams.addHashedFeatures(document, new FeatureHasher(1000).newSink(new IntArrayList()));
+            fail();
+        } catch (FeatureExtractionException e) { /* Expected */ }
+    }
+
+    @Test
+    public void pipelineHashesFeatures() throws Exception {
+        FeatureHasher hasher = new FeatureHasher(64);
+        hasher.setReverseLookup(true);
+        try (FeatureExtractionPipeline pipeline = newPipeline()) {
+            pipeline.setFeatureHasher(hasher);
+            List<Instance> instances = new ArrayList<>();
+            for (int i = 0; i < 200; i++) instances.add(new Instance("label" + (i % 2), TEXT + " " + i, Integer.toString(i)));
+
+            List<ProcessedInstance> batch = pipeline.extractFeaturesFromBatch(instances);
+            for (int i = 0; i < instances.size(); i++) {
+                ProcessedInstance single = pipeline.extractFeatures(instances.get(i));
+                assertThat(batch.get(i).features, is(single.features));
+                for (int feature : single.features) {
+                    assertTrue(feature >= 0 && feature < 64);
+                    assertThat(pipeline.featureIndex(pipeline.featureString(feature)), is(feature));
+                }
+            }
+            assertThat(pipeline.getFeatureIndexer().size(), is(0));
+            assertTrue(hasher.getFeatureValues(pipeline.featureIndex("quick_brown")).contains("quick_brown"));
+        }
+    }
+
+    /**
+     * Created in a static context so that the pipeline can be serialised without the test instance.
+     */
+    private static FeatureExtractionPipeline newPipeline() {
+        FeatureExtractionPipeline pipeline = new FeatureExtractionPipeline() {};
+        pipeline.setTokeniser(new TokeniserTwitterBasic());
+        pipeline.add(new TokenFilterPunctuation());
+        pipeline.add(new FeatureInferrerUnigrams());
+        pipeline.add(new FeatureInferrerBigrams());
+        return pipeline;
+    }
+}
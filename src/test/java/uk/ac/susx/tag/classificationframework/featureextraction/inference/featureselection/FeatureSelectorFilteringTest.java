@@ -0,0 +1,89 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.inference.featureselection;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer.Feature;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing that feature selectors keep the features they have selected, and follow changes to the selection.
+ */
+public class FeatureSelectorFilteringTest {
+
+    private static final List<Feature> FEATURES = Arrays.asList(
+            new Feature("a", "unigram"), new Feature("b", "unigram"), new Feature("c", "unigram"),
+            new Feature("a_b", "bigram"), new Feature("b_c", "bigram"), new Feature("#a", new String("hashtag")));
+
+    @Test
+    public void allTypes() {
+        Selector selector = new Selector(new HashSet<String>());
+        assertThat(select(selector), is(values("a", "b", "c", "a_b", "b_c", "#a"))); // Nothing selected yet
+
+        selector.select("a", "a_b");
+        assertThat(select(selector), is(values("a", "a_b")));
+
+        selector.addAdditionalFeatures(Sets.newHashSet("c"));
+        assertThat(select(selector), is(values("a", "c", "a_b")));
+
+        selector.removeAdditionalFeatures(Sets.newHashSet("c"));
+        assertThat(select(selector), is(values("a", "a_b")));
+
+        // Changed in place, with the same size
+        selector.getTopFeatures().remove("a");
+        selector.getTopFeatures().add("b");
+        selector.selectionChanged();
+        assertThat(select(selector), is(values("b", "a_b")));
+
+        selector.select();
+        selector.setAdditionalFeatures(Sets.newHashSet("c"));
+        assertThat(select(selector), is(values("a", "b", "c", "a_b", "b_c", "#a"))); // Additional features alone select nothing
+    }
+
+    @Test
+    public void specificTypes() {
+        // The selector's types are different objects to the features', as they would be if read from a config
+        Selector selector = new Selector(Sets.newHashSet(new String("unigram"), new String("hashtag")));
+        selector.select("b", "zzz");
+        assertThat(select(selector), is(values("b", "a_b", "b_c")));
+
+        selector.getSelectedFeatureTypes().remove("hashtag");
+        assertThat(select(selector), is(values("b", "a_b", "b_c", "#a")));
+    }
+
+    private static List<String> select(FeatureSelector selector) {
+        List<String> values = new ArrayList<>();
+        for (Feature feature : selector.addInferredFeatures(null, FEATURES)) values.add(feature.value());
+        return values;
+    }
+
+    private static List<String> values(String... values) {
+        return Arrays.asList(values);
+    }
+
+    private static class Selector extends FeatureSelector {
+
+        private static final long serialVersionUID = 0L;
+
+        Selector(Set<String> selectedFeatureTypes) { super(selectedFeatureTypes); }
+
+        void select(String... features) { topFeatures = new HashSet<>(Arrays.asList(features)); }
+
+        @Override
+        public void selectionChanged() { super.selectionChanged(); }
+
+        @Override
+        public void update(FeatureExtractionPipeline.Data data) { }
+
+        @Override
+        public boolean isThreadSafe() { return true; }
+    }
+}
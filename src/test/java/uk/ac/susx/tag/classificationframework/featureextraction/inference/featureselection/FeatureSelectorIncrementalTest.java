@@ -0,0 +1,173 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.inference.featureselection;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer.Feature;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerBigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerUnigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static uk.ac.susx.tag.classificationframework.featureextraction.pipelines.TestDocuments.LABELS;
+import static uk.ac.susx.tag.classificationframework.featureextraction.pipelines.TestDocuments.labelledDocuments;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing that feature selectors updated with only the changes to their data select the same features as
+ * they would having seen all of the data again.
+ */
+public class FeatureSelectorIncrementalTest {
+
+    @Test
+    public void removingEvidenceUndoesAddingIt() {
+        Random random = new Random(0);
+        List<List<Feature>> documents = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            List<Feature> document = new ArrayList<>();
+            for (int f = 0; f < 10; f++)
+                document.add(new Feature("w" + random.nextInt(30), random.nextBoolean() ? "unigram" : "bigram"));
+            documents.add(document);
+            labels.add(LABELS[random.nextInt(LABELS.length)]);
+        }
+
+        FeatureSelector.Evidence expected = new FeatureSelector.Evidence();
+        FeatureSelector.Evidence actual = new FeatureSelector.Evidence();
+        for (int i = 0; i < documents.size(); i++) {
+            if (i % 3 != 0) expected.addEvidence(labels.get(i), documents.get(i), Collections.<String>emptySet());
+            actual.addEvidence(labels.get(i), documents.get(i), Collections.<String>emptySet());
+        }
+        for (int i = 0; i < documents.size(); i += 3)
+            actual.removeEvidence(labels.get(i), documents.get(i), Collections.<String>emptySet());
+
+        assertThat(actual.Nall(), is(expected.Nall()));
+        assertThat(actual.vocab(), is(expected.vocab()));
+        assertThat(actual.classLabels(), is(expected.classLabels()));
+        for (String label : expected.classLabels()) {
+            assertThat(actual.N(label), is(expected.N(label)));
+            for (String feature : expected.vocab()) {
+                assertThat(actual.getFeatureCount(feature), is(expected.getFeatureCount(feature)));
+                assertThat(actual.A(label, feature), is(expected.A(label, feature)));
+                assertThat(actual.D(label, feature), is(expected.D(label, feature)));
+            }
+        }
+    }
+
+    @Test
+    public void incrementalUpdatesSelectAsFullUpdates() {
+        for (int batchSize : new int[]{1, 7}) {
+            checkIncrementalUpdates(new CountingSelectorMI(15), new FeatureSelectorMI(15), batchSize);
+            checkIncrementalUpdates(new CountingSelectorWFO(15), FeatureSelectorWFO.WLLR(15, new HashSet<String>()), batchSize);
+        }
+    }
+
+    /**
+     * A selector which has lost its evidence (e.g. by being deserialised) should see all of the data again.
+     */
+    @Test
+    public void selectorWithoutEvidenceSeesAllData() {
+        Random random = new Random(2);
+        CountingSelectorMI selector = new CountingSelectorMI(15);
+        FeatureExtractionPipeline pipeline = newPipeline(selector);
+        pipeline.setData(labelledDocuments(pipeline, 40, random, true), labelledDocuments(pipeline, 100, random, false));
+        pipeline.updateDataRequiringInferrers(1);
+
+        pipeline.addData(new ArrayList<ProcessedInstance>(), labelledDocuments(pipeline, 20, random, false));
+        selector.evidenceLost = true;
+        pipeline.updateDataRequiringInferrers(1);
+        assertThat(selector.fullUpdates(), is(2));
+        assertThat(selector.incrementalUpdates, is(0));
+    }
+
+    private static void checkIncrementalUpdates(FeatureSelector incremental, FeatureSelector full, int batchSize) {
+        Random random = new Random(1);
+        FeatureExtractionPipeline incrementalPipeline = newPipeline(incremental);
+        FeatureExtractionPipeline fullPipeline = newPipeline(full);
+        fullPipeline.setLabelIndexer(incrementalPipeline.getLabelIndexer());
+
+        List<ProcessedInstance> handLabelled = labelledDocuments(incrementalPipeline, 40, random, true);
+        List<ProcessedInstance> machineLabelled = labelledDocuments(incrementalPipeline, 200, random, false);
+        incrementalPipeline.setData(handLabelled, machineLabelled);
+        incrementalPipeline.updateDataRequiringInferrers(batchSize);
+        assertThat(((Counting) incremental).fullUpdates(), is(1));
+
+        for (int round = 0; round < 5; round++) {
+            // The user labels some of the machine labelled documents
+            List<ProcessedInstance> labelled = new ArrayList<>(machineLabelled.subList(0, 10));
+            incrementalPipeline.moveToHandLabelled(labelled);
+            for (ProcessedInstance document : labelled) document.source.label = LABELS[random.nextInt(LABELS.length)];
+            machineLabelled = new ArrayList<>(machineLabelled.subList(10, machineLabelled.size()));
+            handLabelled = new ArrayList<>(handLabelled);
+            handLabelled.addAll(labelled);
+
+            // New documents arrive, and a few old ones are thrown away
+            List<ProcessedInstance> added = labelledDocuments(incrementalPipeline, 20, random, false);
+            incrementalPipeline.addData(new ArrayList<ProcessedInstance>(), added);
+            machineLabelled.addAll(added);
+            List<ProcessedInstance> removed = new ArrayList<>(machineLabelled.subList(0, 3));
+            removed.add(handLabelled.remove(0));
+            incrementalPipeline.removeData(removed);
+            machineLabelled.removeAll(removed);
+
+            incrementalPipeline.updateDataRequiringInferrers(batchSize);
+            fullPipeline.setData(handLabelled, machineLabelled);
+            fullPipeline.updateDataRequiringInferrers(batchSize);
+
+            assertThat(((Counting) incremental).fullUpdates(), is(1));
+            assertTrue(!full.getTopFeatures().isEmpty());
+            assertThat(incremental.getTopFeatures(), is(full.getTopFeatures()));
+        }
+
+        // Setting the data means seeing all of it again
+        incrementalPipeline.setData(handLabelled, machineLabelled);
+        incrementalPipeline.updateDataRequiringInferrers(batchSize);
+        assertThat(((Counting) incremental).fullUpdates(), is(2));
+        assertThat(incremental.getTopFeatures(), is(full.getTopFeatures()));
+    }
+
+    /**
+     * Created in a static context so that the pipeline can be serialised without the test instance.
+     */
+    private static FeatureExtractionPipeline newPipeline(FeatureSelector selector) {
+        FeatureExtractionPipeline pipeline = new FeatureExtractionPipeline() {};
+        pipeline.setTokeniser(new TokeniserTwitterBasic());
+        pipeline.add(new FeatureInferrerUnigrams());
+        pipeline.add(new FeatureInferrerBigrams());
+        pipeline.add(selector);
+        return pipeline;
+    }
+
+    private interface Counting {
+        int fullUpdates();
+    }
+
+    private static class CountingSelectorMI extends FeatureSelectorMI implements Counting {
+        private int fullUpdates = 0;
+        int incrementalUpdates = 0;
+        boolean evidenceLost = false;
+        CountingSelectorMI(int N) { super(N); }
+        public int fullUpdates() { return fullUpdates; }
+        @Override
+        public void update(FeatureExtractionPipeline.Data data) { fullUpdates++; super.update(data); }
+        @Override
+        public void update(FeatureExtractionPipeline.Data added, FeatureExtractionPipeline.Data removed) { incrementalUpdates++; super.update(added, removed); }
+        @Override
+        protected boolean hasEvidence() { return !evidenceLost && super.hasEvidence(); }
+    }
+
+    private static class CountingSelectorWFO extends FeatureSelectorWFO implements Counting {
+        private int fullUpdates = 0;
+        CountingSelectorWFO(int N) { super(0.5, N); }
+        public int fullUpdates() { return fullUpdates; }
+        @Override
+        public void update(FeatureExtractionPipeline.Data data) { fullUpdates++; super.update(data); }
+    }
+}
@@ -0,0 +1,63 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.normalisation;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing that stemming gives the same results concurrently, with and without the stem cache.
+ */
+public class TokenNormaliserStemmerTest {
+
+    private static final String[] WORDS = {"running", "runs", "ran", "connection", "connected", "connecting", "generously", "cats", "the"};
+
+    @Test
+    public void concurrentStemmingMatchesSerial() {
+        TokenNormaliserStemmer uncached = new TokenNormaliserStemmer("en", 0);
+        String[] expected = new String[WORDS.length];
+        for (int w = 0; w < WORDS.length; w++)
+            expected[w] = stem(uncached, WORDS[w]);
+        assertThat(expected[0], is("run"));
+        assertThat(expected[3], is("connect"));
+
+        for (TokenNormaliserStemmer stemmer : new TokenNormaliserStemmer[]{uncached, new TokenNormaliserStemmer("en", 4)}) {
+            IntStream.range(0, 20000).parallel().forEach(i ->
+                    assertThat(stem(stemmer, WORDS[i % WORDS.length]), is(expected[i % WORDS.length])));
+        }
+        assertThat(uncached.getCacheStats().requestCount(), is(0L));
+    }
+
+    @Test
+    public void cacheRecordsHitsAndSurvivesSerialisation() throws Exception {
+        TokenNormaliserStemmer stemmer = new TokenNormaliserStemmer("en");
+        for (int i = 0; i < 100; i++) stem(stemmer, WORDS[i % WORDS.length]);
+        assertThat(stemmer.getCacheStats().missCount(), is((long) WORDS.length));
+        assertTrue(stemmer.getCacheStats().hitRate() > 0.9);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(stemmer);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            TokenNormaliserStemmer read = (TokenNormaliserStemmer) in.readObject();
+            assertThat(read.getCacheSize(), is(TokenNormaliserStemmer.DEFAULT_CACHE_SIZE));
+            assertThat(stem(read, "running"), is("run"));
+        }
+    }
+
+    private static String stem(TokenNormaliserStemmer stemmer, String word) {
+        Document document = new Document();
+        document.newToken(word, 0, word.length());
+        stemmer.normalise(0, document);
+        return document.get(0).get("form");
+    }
+}
@@ -0,0 +1,71 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing streaming of batch processing with backpressure.
+ */
+public class BatchStreamTest {
+
+    @Test
+    public void preservesOrder() {
+        StreamingOptions options = new StreamingOptions().batchSize(7).bufferedBatches(2);
+        try (Stream<Integer> results = BatchStream.stream(IntStream.range(0, 1000).iterator(), options, BatchStreamTest::square)) {
+            assertThat(results.collect(Collectors.toList()),
+                       is(IntStream.range(0, 1000).map(i -> i * i).boxed().collect(Collectors.toList())));
+        }
+    }
+
+    /**
+     * The input should only be read a bounded distance ahead of the consumer.
+     */
+    @Test
+    public void backpressure() throws InterruptedException {
+        AtomicInteger read = new AtomicInteger();
+        Iterator<Integer> input = IntStream.range(0, 1000000).peek(i -> read.incrementAndGet()).iterator();
+        StreamingOptions options = new StreamingOptions().batchSize(10).bufferedBatches(2);
+        try (Stream<Integer> results = BatchStream.stream(input, options, BatchStreamTest::square)) {
+            Iterator<Integer> iterator = results.iterator();
+            for (int i = 0; i < 25; i++) assertThat(iterator.next(), is(i * i));
+            Thread.sleep(200); // Give the background threads the chance to read as far ahead as they can
+            // 2 batches fully consumed, plus at most 7 held (2 * bufferedBatches + 3)
+            assertTrue("Read " + read.get(), read.get() <= 10 * (2 + 2 * 2 + 3));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void processingFailure() {
+        StreamingOptions options = new StreamingOptions().batchSize(10);
+        try (Stream<Integer> results = BatchStream.stream(IntStream.range(0, 100).iterator(), options, batch -> {
+            if (batch.contains(55)) throw new IllegalStateException("Failed");
+            return batch;
+        })) {
+            results.forEach(i -> {});
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readingFailure() {
+        Iterator<Integer> input = IntStream.range(0, 100).peek(i -> {
+            if (i == 42) throw new IllegalArgumentException("Failed");
+        }).iterator();
+        try (Stream<Integer> results = BatchStream.stream(input, new StreamingOptions().batchSize(10), BatchStreamTest::square)) {
+            results.forEach(i -> {});
+        }
+    }
+
+    private static List<Integer> square(List<Integer> batch) {
+        return batch.stream().map(i -> i * i).collect(Collectors.toList());
+    }
+}
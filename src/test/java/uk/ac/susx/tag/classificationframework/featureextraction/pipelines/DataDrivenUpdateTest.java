@@ -0,0 +1,102 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.DocProcessor;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerBigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerUnigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.featureselection.FeatureSelector;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.featureselection.FeatureSelectorMI;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.featureselection.FeatureSelectorWFO;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing that updating several data-driven inferrers processes the data once, and gives each the data it
+ * would have seen had the data been taken through the pipeline for each in turn.
+ */
+public class DataDrivenUpdateTest {
+
+    private static final String[] SELECTORS = {"mi", "wfo"};
+
+    @Test
+    public void severalSelectorsShareTheProcessing() {
+        for (int batchSize : new int[]{1, 7}) {
+            CountingProcessor counter = new CountingProcessor();
+            FeatureExtractionPipeline pipeline = newPipeline(counter);
+            FeatureExtractionPipeline reference = newPipeline(new CountingProcessor());
+            reference.setLabelIndexer(pipeline.getLabelIndexer());
+
+            Random random = new Random(batchSize);
+            List<ProcessedInstance> handLabelled = TestDocuments.labelledDocuments(pipeline, 60, random, true);
+            List<ProcessedInstance> machineLabelled = TestDocuments.labelledDocuments(pipeline, 150, random, false);
+            pipeline.setData(handLabelled, machineLabelled);
+            reference.setData(handLabelled, machineLabelled);
+
+            counter.processed.set(0);
+            assertTrue(pipeline.updateDataRequiringInferrers(batchSize));
+            assertThat(counter.processed.get(), is(handLabelled.size() + machineLabelled.size()));
+
+            // Each selector updated with the data taken through the pipeline up to it
+            for (String name : SELECTORS) {
+                FeatureSelector selector = (FeatureSelector) reference.getPipelineComponent(name);
+                reference.setOnlyPrecedingInferrersOnline(selector);
+                selector.update(batchSize > 1 ? reference.getDataInBatches(batchSize) : reference.getData());
+            }
+            reference.setAllInferrersOnline();
+
+            for (String name : SELECTORS) {
+                FeatureSelector expected = (FeatureSelector) reference.getPipelineComponent(name);
+                FeatureSelector actual = (FeatureSelector) pipeline.getPipelineComponent(name);
+                assertTrue(!expected.getTopFeatures().isEmpty());
+                assertThat(actual.getTopFeatures(), is(expected.getTopFeatures()));
+                assertTrue(actual.isOnline());
+            }
+        }
+    }
+
+    /**
+     * Created in a static context so that the pipeline can be serialised without the test instance.
+     */
+    private static FeatureExtractionPipeline newPipeline(CountingProcessor counter) {
+        FeatureExtractionPipeline pipeline = new FeatureExtractionPipeline() {};
+        pipeline.setTokeniser(new TokeniserTwitterBasic());
+        pipeline.add(counter);
+        pipeline.add(new FeatureInferrerUnigrams());
+        pipeline.add(new FeatureInferrerBigrams());
+        pipeline.add(new FeatureSelectorMI(15), "mi");
+        pipeline.add(FeatureSelectorWFO.WLLR(25, new HashSet<String>()), "wfo");
+        return pipeline;
+    }
+
+    /**
+     * Counts the documents it processes.
+     */
+    private static class CountingProcessor extends DocProcessor {
+
+        private static final long serialVersionUID = 0L;
+
+        final transient AtomicInteger processed = new AtomicInteger();
+
+        @Override
+        public Document process(Document document) {
+            processed.incrementAndGet();
+            return document;
+        }
+
+        @Override
+        public String configuration() { return "CountingProcessor"; }
+
+        @Override
+        public boolean isThreadSafe() { return true; }
+    }
+}
@@ -0,0 +1,131 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.ConcurrentStringIndexer;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.DocProcessor;
+import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilterPunctuation;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerBigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerUnigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.normalisation.TokenNormaliserToLowercase;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing batch feature extraction, and its execution on the pipeline's executors.
+ */
+public class FeatureExtractionPipelineTest {
+
+    /**
+     * With a thread safe feature indexer, features are indexed concurrently, so indices may differ but
+     * must still refer to the same features.
+     */
+    @Test
+    public void concurrentIndexing() throws Exception {
+        List<Instance> instances = TestDocuments.getInstances(500);
+        try (FeatureExtractionPipeline serial = newPipeline(new ThreadRecorder());
+             FeatureExtractionPipeline concurrent = newPipeline(new ThreadRecorder())) {
+            concurrent.setFeatureIndexer(new ConcurrentStringIndexer());
+            List<ProcessedInstance> expected = serial.extractFeaturesFromBatch(instances);
+            List<ProcessedInstance> actual = concurrent.extractFeaturesFromBatch(instances);
+            for (int i = 0; i < instances.size(); i++)
+                assertThat(featureStrings(concurrent, actual.get(i)), is(featureStrings(serial, expected.get(i))));
+            assertThat(concurrent.getFeatureIndexer().size(), is(serial.getFeatureIndexer().size()));
+        }
+    }
+
+    /**
+     * I/O components should be run on the I/O executor, and everything else on the CPU executor.
+     * Injected executors belong to the caller, so must survive the pipeline being closed.
+     */
+    @Test
+    public void componentsRunOnExecutorOfTheirWorkload() throws Exception {
+        ExecutorService cpu = Executors.newFixedThreadPool(2, r -> new Thread(r, "test-cpu"));
+        ExecutorService io = Executors.newFixedThreadPool(2, r -> new Thread(r, "test-io"));
+        try {
+            for (boolean fusedBatchExecution : new boolean[]{false, true}) {
+                ThreadRecorder recorder = new ThreadRecorder();
+                FeatureExtractionPipeline pipeline = newPipeline(recorder);
+                pipeline.setFusedBatchExecution(fusedBatchExecution);
+                pipeline.setCpuExecutor(cpu);
+                pipeline.setIoExecutor(io);
+                assertThat(pipeline.extractUnindexedFeaturesFromBatch(TestDocuments.getInstances(100)).size(), is(100));
+                assertThat(recorder.threadNames, is(Collections.singleton("test-cpu")));
+                pipeline.close();
+
+                recorder = new ThreadRecorder();
+                recorder.workload = PipelineComponent.Workload.IO;
+                pipeline = newPipeline(recorder);
+                pipeline.setFusedBatchExecution(fusedBatchExecution);
+                pipeline.setCpuExecutor(cpu);
+                pipeline.setIoExecutor(io);
+                pipeline.extractUnindexedFeaturesFromBatch(TestDocuments.getInstances(100));
+                assertThat(recorder.threadNames, is(Collections.singleton("test-io")));
+                pipeline.close();
+            }
+            assertThat(cpu.isShutdown(), is(false));
+            assertThat(io.isShutdown(), is(false));
+        } finally {
+            cpu.shutdown();
+            io.shutdown();
+        }
+    }
+
+    private static List<String> featureStrings(FeatureExtractionPipeline pipeline, ProcessedInstance instance) {
+        List<String> features = new ArrayList<>();
+        for (int feature : instance.features) features.add(pipeline.featureString(feature));
+        return features;
+    }
+
+    /**
+     * Created in a static context so that the pipeline can be serialised without the test instance.
+     */
+    private static FeatureExtractionPipeline newPipeline(DocProcessor docProcessor) {
+        FeatureExtractionPipeline pipeline = new FeatureExtractionPipeline() {};
+        pipeline.setTokeniser(new TokeniserTwitterBasic());
+        pipeline.add(docProcessor);
+        pipeline.add(new TokenFilterPunctuation());
+        pipeline.add(new TokenNormaliserToLowercase());
+        pipeline.add(new FeatureInferrerUnigrams());
+        pipeline.add(new FeatureInferrerBigrams());
+        return pipeline;
+    }
+
+    /**
+     * Records the names of the threads on which it processes documents.
+     */
+    private static class ThreadRecorder extends DocProcessor {
+
+        private static final long serialVersionUID = 0L;
+
+        Workload workload = Workload.CPU;
+        final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public Document process(Document document) {
+            threadNames.add(Thread.currentThread().getName());
+            return document;
+        }
+
+        @Override
+        public String configuration() { return "ThreadRecorder"; }
+
+        @Override
+        public boolean isThreadSafe() { return true; }
+
+        @Override
+        public Workload getWorkload() { return workload; }
+    }
+}
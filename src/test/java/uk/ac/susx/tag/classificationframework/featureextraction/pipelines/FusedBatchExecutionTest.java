@@ -0,0 +1,91 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.DocProcessor;
+import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilterPunctuation;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerBigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerUnigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.normalisation.TokenNormaliserToLowercase;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing that fused batch execution extracts the same features as staged execution, and as
+ * extracting from each document in turn.
+ */
+public class FusedBatchExecutionTest {
+
+    @Test
+    public void fusedExecutionMatchesStaged() throws Exception {
+        assertFusedMatchesStaged(true);
+    }
+
+    /**
+     * A component which isn't thread safe should split the fused run in two, without changing the result.
+     */
+    @Test
+    public void fusedExecutionMatchesStagedAroundBarrier() throws Exception {
+        assertFusedMatchesStaged(false);
+    }
+
+    private static void assertFusedMatchesStaged(boolean threadSafe) throws Exception {
+        List<Instance> instances = TestDocuments.getInstances(500);
+        try (FeatureExtractionPipeline staged = newPipeline(threadSafe);
+             FeatureExtractionPipeline fused = newPipeline(threadSafe)) {
+            fused.setFusedBatchExecution(true);
+            List<List<FeatureInferrer.Feature>> expected = staged.extractUnindexedFeaturesFromBatch(instances);
+            assertThat(fused.extractUnindexedFeaturesFromBatch(instances), is(expected));
+
+            List<List<FeatureInferrer.Feature>> sequential = new ArrayList<>();
+            for (Instance instance : instances) sequential.add(staged.extractUnindexedFeatures(instance));
+            assertThat(expected, is(sequential));
+        }
+    }
+
+    /**
+     * Created in a static context so that the pipeline can be serialised without the test instance.
+     */
+    private static FeatureExtractionPipeline newPipeline(boolean threadSafe) {
+        FeatureExtractionPipeline pipeline = new FeatureExtractionPipeline() {};
+        pipeline.setTokeniser(new TokeniserTwitterBasic());
+        pipeline.add(new TokenFilterPunctuation());
+        pipeline.add(new MarkingProcessor(threadSafe));
+        pipeline.add(new TokenNormaliserToLowercase());
+        pipeline.add(new FeatureInferrerUnigrams());
+        pipeline.add(new FeatureInferrerBigrams());
+        return pipeline;
+    }
+
+    /**
+     * Adds a token marking the number of tokens in the document, so that it changes the features extracted.
+     */
+    private static class MarkingProcessor extends DocProcessor {
+
+        private static final long serialVersionUID = 0L;
+
+        private final boolean threadSafe;
+
+        MarkingProcessor(boolean threadSafe) { this.threadSafe = threadSafe; }
+
+        @Override
+        public Document process(Document document) {
+            document.add(new AnnotatedToken("length" + document.size()));
+            return document;
+        }
+
+        @Override
+        public String configuration() { return "MarkingProcessor:" + threadSafe; }
+
+        @Override
+        public boolean isThreadSafe() { return threadSafe; }
+    }
+}
@@ -0,0 +1,142 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.DocProcessor;
+import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilterPunctuation;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerBigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerUnigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.normalisation.TokenNormaliserToLowercase;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing that the pipeline records metrics for each of its components, on both the single and batch paths.
+ */
+public class PipelineMetricsTest {
+
+    private static final List<String> NAMES = Arrays.asList("TokeniserTwitterBasic", "batchProcessor", "TokenFilterPunctuation",
+            "TokenNormaliserToLowercase", "FeatureInferrerUnigrams", "FeatureInferrerBigrams", "featureIndexing");
+
+    @Test
+    public void singleAndBatchPaths() throws Exception {
+        for (boolean fusedBatchExecution : new boolean[]{false, true}) {
+            try (FeatureExtractionPipeline pipeline = newPipeline()) {
+                pipeline.setFusedBatchExecution(fusedBatchExecution);
+                for (Instance instance : TestDocuments.getInstances(30)) pipeline.extractFeatures(instance);
+                pipeline.extractFeaturesFromBatch(TestDocuments.getInstances(50));
+                pipeline.extractFeaturesFromBatch(TestDocuments.getInstances(20));
+
+                Map<String, PipelineMetrics.ComponentMetrics> snapshot = pipeline.getMetrics().snapshot();
+                assertThat(new ArrayList<>(snapshot.keySet()), is(NAMES));
+                for (PipelineMetrics.ComponentMetrics metrics : snapshot.values()) {
+                    assertThat(metrics.toString(), metrics.getSingleDocuments(), is(30L));
+                    assertThat(metrics.toString(), metrics.getBatchDocuments(), is(70L));
+                    assertThat(metrics.toString(), metrics.getBatches(), is(2L));
+                    assertTrue(metrics.toString(), metrics.getTotalNanos() > 0);
+                    assertTrue(metrics.toString(), metrics.getP50Nanos() <= metrics.getP90Nanos());
+                    assertTrue(metrics.toString(), metrics.getP90Nanos() <= metrics.getP99Nanos());
+                    assertTrue(metrics.toString(), metrics.getP99Nanos() <= metrics.getMaxNanos());
+                    assertTrue(metrics.toString(), metrics.getDocumentsPerSecond() > 0);
+                }
+                assertThat(snapshot.get("batchProcessor").getStage(), is(PipelineMetrics.Stage.DOC_PROCESSOR));
+                assertThat(snapshot.get("featureIndexing").getStage(), is(PipelineMetrics.Stage.FEATURE_INDEXING));
+
+                pipeline.getMetrics().reset();
+                assertThat(pipeline.getMetrics().snapshot().get("TokeniserTwitterBasic").getDocuments(), is(0L));
+            }
+        }
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        try (FeatureExtractionPipeline pipeline = newPipeline()) {
+            pipeline.getMetrics().setEnabled(false);
+            pipeline.extractFeatures(TestDocuments.getInstances(1).get(0));
+            pipeline.extractFeaturesFromBatch(TestDocuments.getInstances(10));
+            for (PipelineMetrics.ComponentMetrics metrics : pipeline.getMetrics().snapshot().values())
+                assertThat(metrics.toString(), metrics.getDocuments(), is(0L));
+        }
+    }
+
+    @Test
+    public void jmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name;
+        try (FeatureExtractionPipeline pipeline = newPipeline()) {
+            name = pipeline.getMetrics().register("test pipeline");
+            pipeline.extractFeaturesFromBatch(TestDocuments.getInstances(10));
+
+            TabularData components = (TabularData) server.getAttribute(name, "Components");
+            CompositeData row = components.get(new Object[]{"FeatureInferrerUnigrams"});
+            CompositeData metrics = (CompositeData) row.get("value");
+            assertThat(metrics.get("batchDocuments"), is((Object) 10L));
+            assertThat(metrics.get("stage"), is((Object) "FEATURE_INFERRER"));
+        }
+        assertThat(server.isRegistered(name), is(false));
+    }
+
+    @Test
+    public void percentiles() {
+        PipelineMetrics.Recorder recorder = new PipelineMetrics.Recorder();
+        for (int i = 1; i <= 1000; i++) recorder.singleNanos(i * 1000L);
+        PipelineMetrics.ComponentMetrics metrics = new PipelineMetrics.ComponentMetrics("test", PipelineMetrics.Stage.TOKENISER, recorder);
+        assertWithin(metrics.getP50Nanos(), 500000);
+        assertWithin(metrics.getP90Nanos(), 900000);
+        assertWithin(metrics.getP99Nanos(), 990000);
+        assertThat(metrics.getMaxNanos(), is(1000000L));
+        assertThat(metrics.getMeanNanos(), is(500500.0));
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        assertTrue(actual + " != " + expected, Math.abs(actual - expected) <= expected / 16);
+    }
+
+    /**
+     * Created in a static context so that the pipeline can be serialised without the test instance.
+     */
+    private static FeatureExtractionPipeline newPipeline() {
+        FeatureExtractionPipeline pipeline = new FeatureExtractionPipeline() {};
+        pipeline.setTokeniser(new TokeniserTwitterBasic());
+        pipeline.add(new BatchProcessor(), "batchProcessor");
+        pipeline.add(new TokenFilterPunctuation());
+        pipeline.add(new TokenNormaliserToLowercase());
+        pipeline.add(new FeatureInferrerUnigrams());
+        pipeline.add(new FeatureInferrerBigrams());
+        return pipeline;
+    }
+
+    /**
+     * Does its own batch processing (of nothing).
+     */
+    private static class BatchProcessor extends DocProcessor {
+
+        private static final long serialVersionUID = 0L;
+
+        @Override
+        public Document process(Document document) { return document; }
+
+        @Override
+        public List<Document> processBatch(List<Document> documents) { return documents; }
+
+        @Override
+        public String configuration() { return "BatchProcessor"; }
+
+        @Override
+        public boolean isThreadSafe() { return true; }
+    }
+}
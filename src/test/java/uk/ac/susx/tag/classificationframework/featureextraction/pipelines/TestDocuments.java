@@ -0,0 +1,48 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Documents shared by the tests of pipelines and of the data-driven components in them.
+ */
+public final class TestDocuments {
+
+    public static final String[] LABELS = {"pos", "neg", "neu"};
+
+    private TestDocuments() {}
+
+    /**
+     * @return *number* unlabelled tweet-like instances, with ids counting up from "0".
+     */
+    public static List<Instance> getInstances(int number) {
+        List<Instance> instances = new ArrayList<>();
+        for (int i = 0; i < number; i++)
+            instances.add(new Instance("", "Document " + i + ": the Quick brown fox, and the lazy dog #" + (i % 7) + " @user" + (i % 3), Integer.toString(i)));
+        return instances;
+    }
+
+    /**
+     * @return *number* documents taken through *pipeline*, each made of words more likely with one of LABELS than
+     *         the others, and words likely with any. Hand labelled documents are labelled with that label. Otherwise
+     *         they are machine labelled with it, except for one in five (on average) given a random label.
+     */
+    public static List<ProcessedInstance> labelledDocuments(FeatureExtractionPipeline pipeline, int number, Random random, boolean handLabelled) {
+        List<ProcessedInstance> documents = new ArrayList<>();
+        for (int d = 0; d < number; d++) {
+            int label = random.nextInt(LABELS.length);
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 8; w++)
+                text.append(random.nextInt(3) == 0 ? LABELS[label] + random.nextInt(10) : "word" + random.nextInt(40)).append(' ');
+            Instance instance = new Instance(handLabelled ? LABELS[label] : "", text.toString(), Integer.toString(random.nextInt()));
+            ProcessedInstance document = pipeline.extractFeatures(instance);
+            if (!handLabelled) document.setLabeling(pipeline.labelIndex(LABELS[random.nextInt(5) == 0 ? random.nextInt(LABELS.length) : label]));
+            documents.add(document);
+        }
+        return documents;
+    }
+}
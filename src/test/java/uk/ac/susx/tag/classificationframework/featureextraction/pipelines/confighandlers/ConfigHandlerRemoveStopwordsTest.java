@@ -0,0 +1,44 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines.confighandlers;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilterRelevanceStopwords;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing that the stopwords option can be given as a boolean (as by Util.buildBasicPipeline()) or as a map.
+ */
+public class ConfigHandlerRemoveStopwordsTest {
+
+    @Test
+    public void booleanOption() {
+        assertThat(handle("true").getPipelineComponent("remove_stopwords"), instanceOf(TokenFilterRelevanceStopwords.class));
+        assertThat(handle("\"TRUE\"").getPipelineComponent("remove_stopwords"), instanceOf(TokenFilterRelevanceStopwords.class));
+        assertThat(handle("false").getPipelineComponent("remove_stopwords"), is(nullValue()));
+    }
+
+    @Test
+    public void mapOption() {
+        assertThat(handle("{\"use\":true,\"lang\":\"en\"}").getPipelineComponent("remove_stopwords"), instanceOf(TokenFilterRelevanceStopwords.class));
+        assertThat(handle("{\"use\":\"false\"}").getPipelineComponent("remove_stopwords"), is(nullValue()));
+    }
+
+    private static FeatureExtractionPipeline handle(String jsonOptionValue) {
+        FeatureExtractionPipeline pipeline = newPipeline();
+        new ConfigHandlerRemoveStopwords().handle(pipeline, jsonOptionValue, Collections.emptyList());
+        return pipeline;
+    }
+
+    /**
+     * Created in a static context so that the pipeline can be serialised without the test instance.
+     */
+    private static FeatureExtractionPipeline newPipeline() {
+        return new FeatureExtractionPipeline() {};
+    }
+}
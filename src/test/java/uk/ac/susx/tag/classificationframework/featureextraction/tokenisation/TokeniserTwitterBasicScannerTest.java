@@ -0,0 +1,132 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.tokenisation;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Testing that the scanner in TokeniserTwitterBasic gives the same tokens and offsets as the regexes.
+ */
+public class TokeniserTwitterBasicScannerTest {
+
+    private static final String[] PIECES = {
+            "the", "Quick", "BROWN", "fox", "don't", "rock'n'roll", "it’s", "‘quoted’", "`tick`", "snake_case", "_x_", "'",
+            "4umber5", "2014", "x", "d", "o", "p", "dox", "paradox", "DOX", "Dad", "xd",
+            ":)", ":-(", ";p", "=P", ":o)", ":^/", "D:", "d:", "(:", "):", "\\o/", "/o\\", "8)", ":", ";", "=", "-", "^",
+            "@user", "@", "#tag", "#", "#@", "@#x", "!", "?", "!?!", "...", ",", ".", "\"", "(", ")", "[", "]", "{", "}", "&", "’", "‘",
+            "http://t.co/abc", "https://www.example.com/a?b=c&d=e", "HTTP://T.CO/X", "hTTps://x.org", "ftp://files", "file:///tmp/a",
+            "http://", "http://a", "http://a.com/é", "http://x.com'a", "abchttp://x", "#http://x", "http://a/http://b", "xhttps://y",
+            "://", "https:/", "http:\\\\a", "http://a.b-c/d_e\\f",
+            "café", "Straße", "naïve", "e\u0301", "\u0301", "İstanbul", "ΟΔΟΣ", "Σ", "KELVIN\u212A", "日本語", "한국어", "عربى",
+            "\uD835\uDC00", "\uD835\uDC00bc", "\uD83D\uDE00", "\uD801\uDC00", "\uD800", "\uDC00", "a\uD800b",
+            " ", " ", "  ", "\t", "\n", "\u00A0"
+    };
+
+    private static final String OFFLINE = "[!?\"#$%&'()*+,-./:;<=>@\\[\\]^_`’‘{|}~]+";
+
+    @Test
+    public void scannerIsUsedForSupportedPunctuationPatterns() {
+        assertThat(TokeniserTwitterBasic.parsePunctuationClass("[?!]+"), notNullValue());
+        assertThat(TokeniserTwitterBasic.parsePunctuationClass(OFFLINE), notNullValue());
+        assertThat(TokeniserTwitterBasic.parsePunctuationClass("[.a-c]+").get('B'), is(true));
+        assertThat(TokeniserTwitterBasic.parsePunctuationClass("[\\p{Punct}]+"), nullValue());
+        assertThat(TokeniserTwitterBasic.parsePunctuationClass("[?!]+|\\.\\.\\."), nullValue());
+        assertThat(TokeniserTwitterBasic.parsePunctuationClass("[^a]+"), nullValue());
+        assertThat(TokeniserTwitterBasic.parsePunctuationClass("[?!]"), nullValue());
+    }
+
+    @Test
+    public void fixedTexts() {
+        for (TokeniserTwitterBasic tokeniser : tokenisers()) {
+            for (String piece : PIECES) assertSameTokens(tokeniser, piece);
+            assertSameTokens(tokeniser, String.join(" ", PIECES));
+            assertSameTokens(tokeniser, String.join("", PIECES));
+        }
+    }
+
+    @Test
+    public void randomTexts() {
+        Random random = new Random(0);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder text = new StringBuilder();
+            int numPieces = random.nextInt(20);
+            for (int p = 0; p < numPieces; p++) {
+                text.append(PIECES[random.nextInt(PIECES.length)]);
+                if (random.nextBoolean()) text.append(' ');
+            }
+            for (TokeniserTwitterBasic tokeniser : tokenisers()) assertSameTokens(tokeniser, text.toString());
+        }
+    }
+
+    @Test
+    public void randomChars() {
+        Random random = new Random(1);
+        String chars = "aAdDoOpPxXhtpsf:/;=-^()\\!?.,'’‘`_@#L0é\u0301\u0130\u03A3\uD835\uDC00\uD83D\uDE00 ";
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(30);
+            for (int c = 0; c < length; c++) text.append(chars.charAt(random.nextInt(chars.length())));
+            for (TokeniserTwitterBasic tokeniser : tokenisers()) assertSameTokens(tokeniser, text.toString());
+        }
+    }
+
+    @Test
+    public void localeWithSpecialLowerCasing() {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr"));
+        try {
+            for (TokeniserTwitterBasic tokeniser : tokenisers())
+                assertSameTokens(tokeniser, "İSTANBUL'da Iğdır I :D http://T.CO/I");
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void urlsAreNormalised() {
+        Document document = new TokeniserTwitterBasic().tokenise(new Instance("", "see http://t.co/abc :)", "1"));
+        assertThat(document.size(), is(3));
+        assertThat(document.get(1).get("form"), is("HTTPLINK"));
+        assertThat(document.get(1).start(), is(4));
+        assertThat(document.get(1).end(), is(19));
+        assertThat(document.get(2).get("form"), is(":)"));
+    }
+
+    private static List<TokeniserTwitterBasic> tokenisers() {
+        List<TokeniserTwitterBasic> tokenisers = new ArrayList<>();
+        for (String punctuation : new String[]{"[?!]+", null, OFFLINE, "[.a-c]+", "[?!]+|\\.\\.\\."}) {
+            for (boolean lowerCase : new boolean[]{false, true}) {
+                for (boolean normaliseURL : new boolean[]{false, true}) {
+                    tokenisers.add(new TokeniserTwitterBasic(punctuation, lowerCase, normaliseURL));
+                }
+            }
+        }
+        return tokenisers;
+    }
+
+    private static void assertSameTokens(TokeniserTwitterBasic tokeniser, String text) {
+        Instance instance = new Instance("", text, "1");
+        Document expected = tokeniser.tokeniseWithRegex(instance);
+        Document actual = tokeniser.tokenise(instance);
+        String context = tokeniser.configuration() + " on \"" + text + "\"";
+        assertThat(context, tokens(actual), is(tokens(expected)));
+    }
+
+    private static List<String> tokens(Document document) {
+        List<String> tokens = new ArrayList<>();
+        for (AnnotatedToken token : document)
+            tokens.add(token.get("form") + "@" + token.start() + "-" + token.end());
+        return tokens;
+    }
+}
@@ -0,0 +1,109 @@
+package uk.ac.susx.tag.classificationframework.trainers;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing the IterativeEMTrainer
+ */
+public class IterativeEMTrainerTest {
+
+    /**
+     * A single iteration should give the same model as the bootstrap trainer.
+     */
+    @Test
+    public void singleIterationMatchesBootstrap() {
+        assertMatchesBootstrap(getExampleClassifier());
+    }
+
+    /**
+     * Without empirical label priors, NaiveBayesClassifier still applies the label multipliers, so the
+     * E-step should use them too.
+     */
+    @Test
+    public void singleIterationMatchesBootstrapWithoutEmpiricalPriors() {
+        NaiveBayesClassifier classifier = getExampleClassifier();
+        classifier.setLabelMultiplier(1, 20);
+        classifier.empiricalLabelPriors(false);
+        assertMatchesBootstrap(classifier);
+    }
+
+    private static void assertMatchesBootstrap(NaiveBayesClassifier classifier) {
+        List<ProcessedInstance> labelled = getRandomInstances(20, new Random(0), true);
+        List<ProcessedInstance> unlabelled = getRandomInstances(500, new Random(1), false);
+
+        IterativeEMTrainer trainer = new IterativeEMTrainer(1, 0, IterativeEMTrainer.Convergence.LOG_LIKELIHOOD);
+        NaiveBayesClassifier iterative = trainer.train(null, labelled, unlabelled, classifier);
+        NaiveBayesClassifier bootstrap = new BootstrapEMTrainer().train(null, labelled, unlabelled, classifier);
+
+        assertThat(trainer.getIterationStats().size(), is(1));
+        for (ProcessedInstance instance : unlabelled) {
+            Int2DoubleOpenHashMap expected = bootstrap.predict(instance.features);
+            Int2DoubleOpenHashMap actual = iterative.predict(instance.features);
+            for (int label : expected.keySet())
+                assertEquals(expected.get(label), actual.get(label), 1E-6);
+        }
+    }
+
+    /**
+     * Training should stop once the posterior labels settle, well before the iteration limit.
+     */
+    @Test
+    public void earlyStopping() {
+        List<ProcessedInstance> labelled = getRandomInstances(20, new Random(0), true);
+        List<ProcessedInstance> unlabelled = getRandomInstances(500, new Random(1), false);
+
+        IterativeEMTrainer trainer = new IterativeEMTrainer(100, 1E-9, IterativeEMTrainer.Convergence.POSTERIORS);
+        trainer.train(null, labelled, unlabelled, getExampleClassifier());
+
+        List<IterativeEMTrainer.IterationStats> stats = trainer.getIterationStats();
+        assertTrue(stats.size() < 100);
+        assertTrue(stats.get(stats.size() - 1).delta < 1E-9);
+    }
+
+    /**
+     * With no unlabelled data the log likelihood is 0 on every iteration, so the relative change is undefined;
+     * training should stop after the first iteration rather than run to maxIterations.
+     */
+    @Test
+    public void emptyUnlabelledDataConverges() {
+        List<ProcessedInstance> labelled = getRandomInstances(20, new Random(0), true);
+
+        IterativeEMTrainer trainer = new IterativeEMTrainer(10, 1E-4, IterativeEMTrainer.Convergence.LOG_LIKELIHOOD);
+        trainer.train(null, labelled, new ArrayList<ProcessedInstance>(), getExampleClassifier());
+
+        assertThat(trainer.getIterationStats().size(), is(1));
+        assertEquals(0, trainer.getIterationStats().get(0).logLikelihood, 0);
+    }
+
+    private static List<ProcessedInstance> getRandomInstances(int numInstances, Random random, boolean labelled) {
+        List<ProcessedInstance> instances = new ArrayList<>();
+        for (int i = 0; i < numInstances; i++) {
+            int[] features = new int[1 + random.nextInt(5)];
+            for (int j = 0; j < features.length; j++)
+                features[j] = random.nextInt(20);
+            instances.add(new ProcessedInstance(labelled ? features[0] % 2 : -1, features, null));
+        }
+        return instances;
+    }
+
+    private static NaiveBayesClassifier getExampleClassifier() {
+        NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+        classifier.setLabelAlpha(0, 1);
+        classifier.setLabelAlpha(1, 1);
+        classifier.setFeatureAlpha(3, 0, 10);
+        classifier.setFeatureAlpha(4, 1, 10);
+        return classifier;
+    }
+}